@@ -38,6 +38,7 @@ public class PreparedStmntCreator implements PreparedStatementCreator,
 
 	private SqlStmnt stmnt;
 	private Object[] bindObs;
+	private PreparedStatementSetter binder;
 
 	public PreparedStmntCreator() {
 	}
@@ -47,6 +48,18 @@ public class PreparedStmntCreator implements PreparedStatementCreator,
 		this.bindObs = bindObs;
 	}
 
+	/**
+	 * Create a creator whose params are bound by the given setter; e.g., a
+	 * BindPlan.Binding of the statement.
+	 * 
+	 * @param stmnt
+	 * @param binder
+	 */
+	public PreparedStmntCreator(SqlStmnt stmnt, PreparedStatementSetter binder) {
+		this.stmnt = stmnt;
+		this.binder = binder;
+	}
+
 	public SqlStmnt getStmnt() {
 		return stmnt;
 	}
@@ -63,6 +76,14 @@ public class PreparedStmntCreator implements PreparedStatementCreator,
 		this.bindObs = bindObs;
 	}
 
+	public PreparedStatementSetter getBinder() {
+		return binder;
+	}
+
+	public void setBinder(PreparedStatementSetter binder) {
+		this.binder = binder;
+	}
+
 	/**
 	 * This is the method that is called by the template.
 	 * 
@@ -106,6 +127,11 @@ public class PreparedStmntCreator implements PreparedStatementCreator,
 	}
 
 	private void bindObjects(PreparedStatement ps) throws SQLException {
+		// a binder binds the params with their typed setters
+		if (binder != null) {
+			binder.setValues(ps);
+			return;
+		}
 		// bind the corresponding objects (if any)
 		if (bindObs != null) {
 			LOG.debug("setValues: binding this many objects " + bindObs.length);
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.pull;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static javax.servlet.http.HttpServletResponse.*;
+import static org.metis.utils.Statics.*;
+
+/**
+ * The asynchronous execution of a request, used by a WdsResourceBean in async
+ * mode. The request's work is run on the bean's bounded executor rather than
+ * on the container's thread, and the request is completed when the work and
+ * its response are done.
+ * 
+ * The execution is also the response that the work writes to. A response body
+ * that is written with writeBody is written with a non-blocking WriteListener,
+ * so the executor's thread is not held by a slow client. Once the execution
+ * is done, e.g., because its request timed out, the work can no longer write
+ * to the response.
+ * 
+ * If the request times out while its work is queued, the work is dropped and
+ * the client gets a 503 with a Retry-After. If the work is running, it is
+ * interrupted and the client gets a 504.
+ * 
+ */
+public class AsyncExecution extends HttpServletResponseWrapper implements
+		Runnable, AsyncListener {
+
+	public static final Log LOG = LogFactory.getLog(AsyncExecution.class);
+
+	/**
+	 * The work done by an execution
+	 */
+	public interface Work {
+		/**
+		 * Does the request's work, writing to the given response.
+		 * 
+		 * @param response
+		 * @throws Exception
+		 */
+		public void execute(HttpServletResponse response) throws Exception;
+	}
+
+	// the states of an execution
+	private static final int QUEUED = 0;
+	private static final int RUNNING = 1;
+	private static final int WRITING = 2;
+	private static final int DONE = 3;
+
+	private final AsyncContext asyncContext;
+	private final Work work;
+	private final String name;
+	private final AtomicInteger state = new AtomicInteger(QUEUED);
+	private volatile Future<?> future;
+	private Runnable whenDone;
+	private ServletOutputStream out;
+
+	/**
+	 * Starts the asynchronous execution of the given work for the given
+	 * context's request. Returns the execution, or null if the executor has
+	 * no room for the work, in which case the client is sent a 503.
+	 * 
+	 * @param asyncContext
+	 * @param work
+	 * @param executor
+	 * @param timeout
+	 *            the time, in msecs, the request has to complete
+	 * @param name
+	 *            the name used for logging
+	 * @param whenDone
+	 *            if not null, run once the request has been completed
+	 * @return
+	 * @throws IOException
+	 */
+	public static AsyncExecution start(AsyncContext asyncContext, Work work,
+			ExecutorService executor, long timeout, String name,
+			Runnable whenDone) throws IOException {
+		AsyncExecution execution = new AsyncExecution(asyncContext, work, name);
+		execution.whenDone = whenDone;
+		asyncContext.setTimeout(timeout);
+		asyncContext.addListener(execution);
+		try {
+			execution.future = executor.submit(execution);
+		} catch (RejectedExecutionException exc) {
+			LOG.error(name + ": ERROR, async executor is full, rejecting "
+					+ "request");
+			execution.state.set(DONE);
+			execution.sendUnavailable(timeout);
+			asyncContext.complete();
+			return null;
+		}
+		return execution;
+	}
+
+	private AsyncExecution(AsyncContext asyncContext, Work work, String name) {
+		super((HttpServletResponse) asyncContext.getResponse());
+		this.asyncContext = asyncContext;
+		this.work = work;
+		this.name = name;
+	}
+
+	/**
+	 * Called by the executor's thread to do the work
+	 */
+	public void run() {
+		if (!state.compareAndSet(QUEUED, RUNNING)) {
+			// the request timed out while queued
+			return;
+		}
+		try {
+			work.execute(this);
+		} catch (Exception exc) {
+			LOG.error(name + ": ERROR, caught this exception while executing "
+					+ "async request: " + exc.toString());
+			if (state.get() == RUNNING && !isCommitted()) {
+				try {
+					sendError(SC_INTERNAL_SERVER_ERROR);
+				} catch (IOException ignore) {
+				}
+			}
+		} finally {
+			// unless a body is being written, the execution is done
+			if (state.compareAndSet(RUNNING, DONE)) {
+				asyncContext.complete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the given response body without blocking the calling thread. The
+	 * request is completed once the body has been written.
+	 * 
+	 * @param body
+	 * @throws IOException
+	 */
+	public void writeBody(final byte[] body) throws IOException {
+		if (!state.compareAndSet(RUNNING, WRITING)) {
+			throw new IOException("async request is no longer running");
+		}
+		final ServletOutputStream os = getResponse().getOutputStream();
+		os.setWriteListener(new WriteListener() {
+			private int off;
+
+			public void onWritePossible() throws IOException {
+				while (off < body.length && os.isReady()) {
+					int len = Math.min(body.length - off, ASYNC_WRITE_SIZE);
+					os.write(body, off, len);
+					off += len;
+				}
+				if (off >= body.length && state.compareAndSet(WRITING, DONE)) {
+					asyncContext.complete();
+				}
+			}
+
+			public void onError(Throwable t) {
+				LOG.error(name + ": ERROR, unable to write async response: "
+						+ t.toString());
+				if (state.compareAndSet(WRITING, DONE)) {
+					asyncContext.complete();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns true if the execution is done; i.e., its response has been sent
+	 * or its request has timed out.
+	 * 
+	 * @return
+	 */
+	public boolean isDone() {
+		return state.get() == DONE;
+	}
+
+	/**
+	 * Returns the response's output stream, which refuses writes once the
+	 * execution is done.
+	 */
+	@Override
+	public synchronized ServletOutputStream getOutputStream()
+			throws IOException {
+		if (out == null) {
+			out = new GuardedOutputStream(getResponse().getOutputStream());
+		}
+		return out;
+	}
+
+	@Override
+	public synchronized void sendError(int sc, String msg) throws IOException {
+		checkRunning();
+		super.sendError(sc, msg);
+	}
+
+	@Override
+	public synchronized void sendError(int sc) throws IOException {
+		checkRunning();
+		super.sendError(sc);
+	}
+
+	// once the execution is done, the container may have recycled the
+	// response, so the work's late changes to it are dropped
+
+	@Override
+	public synchronized void setStatus(int sc) {
+		if (!isDone()) {
+			super.setStatus(sc);
+		}
+	}
+
+	@Override
+	public synchronized void setHeader(String name, String value) {
+		if (!isDone()) {
+			super.setHeader(name, value);
+		}
+	}
+
+	@Override
+	public synchronized void addHeader(String name, String value) {
+		if (!isDone()) {
+			super.addHeader(name, value);
+		}
+	}
+
+	@Override
+	public synchronized void setDateHeader(String name, long date) {
+		if (!isDone()) {
+			super.setDateHeader(name, date);
+		}
+	}
+
+	@Override
+	public synchronized void setContentType(String type) {
+		if (!isDone()) {
+			super.setContentType(type);
+		}
+	}
+
+	@Override
+	public synchronized void setContentLength(int len) {
+		if (!isDone()) {
+			super.setContentLength(len);
+		}
+	}
+
+	public void onTimeout(AsyncEvent event) throws IOException {
+		long timeout = asyncContext.getTimeout();
+		if (state.compareAndSet(QUEUED, DONE)) {
+			LOG.error(name + ": ERROR, async request timed out while queued");
+			if (future != null) {
+				future.cancel(false);
+			}
+			synchronized (this) {
+				sendUnavailable(timeout);
+			}
+			asyncContext.complete();
+		} else if (state.compareAndSet(RUNNING, DONE)) {
+			LOG.error(name + ": ERROR, async request timed out while running");
+			if (future != null) {
+				future.cancel(true);
+			}
+			synchronized (this) {
+				if (!isCommitted()) {
+					super.sendError(SC_GATEWAY_TIMEOUT,
+							"request did not complete in time");
+				}
+			}
+			asyncContext.complete();
+		} else if (state.compareAndSet(WRITING, DONE)) {
+			LOG.error(name + ": ERROR, async request timed out while writing");
+			asyncContext.complete();
+		}
+	}
+
+	public void onComplete(AsyncEvent event) {
+		state.set(DONE);
+		if (whenDone != null) {
+			whenDone.run();
+		}
+	}
+
+	public void onError(AsyncEvent event) {
+		LOG.error(name + ": ERROR, async request failed: "
+				+ event.getThrowable());
+		if (state.getAndSet(DONE) != DONE && future != null) {
+			future.cancel(true);
+		}
+	}
+
+	public void onStartAsync(AsyncEvent event) {
+	}
+
+	private void sendUnavailable(long timeout) throws IOException {
+		if (!isCommitted()) {
+			super.setHeader(RETRY_AFTER_HDR,
+					Long.toString(Math.max(1L, timeout / 1000L)));
+			super.sendError(SC_SERVICE_UNAVAILABLE,
+					"server is busy, retry later");
+		}
+	}
+
+	private void checkRunning() throws IOException {
+		if (state.get() == DONE) {
+			throw new IOException("async request is done");
+		}
+	}
+
+	/**
+	 * The output stream that the work writes to. Writes are refused once the
+	 * execution is done.
+	 */
+	private class GuardedOutputStream extends ServletOutputStream {
+
+		private ServletOutputStream os;
+
+		GuardedOutputStream(ServletOutputStream os) {
+			this.os = os;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			synchronized (AsyncExecution.this) {
+				checkRunning();
+				os.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (AsyncExecution.this) {
+				checkRunning();
+				os.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (AsyncExecution.this) {
+				checkRunning();
+				os.flush();
+			}
+		}
+
+		@Override
+		public boolean isReady() {
+			return os.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			os.setWriteListener(writeListener);
+		}
+	}
+
+}
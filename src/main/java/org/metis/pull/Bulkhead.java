@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.pull;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounds the number of requests that are concurrently processed by a
+ * WdsResourceBean, or by one of its HTTP methods, so that one expensive
+ * endpoint cannot take all of the container's threads and the DB's
+ * connections. A request that cannot be admitted within the queue-time budget
+ * is rejected, rather than left to wait.
+ * 
+ * The time that each admitted request waited is kept in a histogram whose
+ * buckets are bounded by the WAIT_BUCKETS (msecs); the last bucket holds the
+ * waits that exceed the last bound.
+ * 
+ */
+public class Bulkhead {
+
+	/**
+	 * The upper bounds (msecs) of the wait histogram's buckets
+	 */
+	public static final long[] WAIT_BUCKETS = { 0L, 1L, 5L, 10L, 50L, 100L,
+			500L, 1000L };
+
+	private final String name;
+	private final int limit;
+	// a fair semaphore admits the waiting requests in their order of arrival
+	private final Semaphore permits;
+
+	private AtomicLong admitted = new AtomicLong(0L);
+	private AtomicLong rejected = new AtomicLong(0L);
+	private AtomicLongArray waits = new AtomicLongArray(
+			WAIT_BUCKETS.length + 1);
+
+	/**
+	 * Create a bulkhead that admits at most the given number of concurrent
+	 * requests.
+	 * 
+	 * @param name
+	 * @param limit
+	 * @throws IllegalArgumentException
+	 */
+	public Bulkhead(String name, int limit) throws IllegalArgumentException {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Bulkhead: limit must be > 0");
+		}
+		this.name = name;
+		this.limit = limit;
+		this.permits = new Semaphore(limit, true);
+	}
+
+	/**
+	 * Admits a request, waiting at most the given time for one of the
+	 * requests being processed to complete. Returns false if the request was
+	 * not admitted. An admitted request must be released.
+	 * 
+	 * @param maxWait
+	 *            msecs; zero means the request is admitted only if there is
+	 *            room for it right away
+	 * @return
+	 */
+	public boolean tryAcquire(long maxWait) {
+		long start = System.currentTimeMillis();
+		boolean acquired = false;
+		// the untimed tryAcquire would barge ahead of the waiting requests,
+		// so even an immediate attempt uses the timed form, which is fair
+		try {
+			acquired = permits.tryAcquire(Math.max(0L, maxWait),
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		if (!acquired) {
+			rejected.incrementAndGet();
+			return false;
+		}
+		admitted.incrementAndGet();
+		long wait = System.currentTimeMillis() - start;
+		int bucket = 0;
+		while (bucket < WAIT_BUCKETS.length && wait > WAIT_BUCKETS[bucket]) {
+			bucket++;
+		}
+		waits.incrementAndGet(bucket);
+		return true;
+	}
+
+	/**
+	 * Releases an admitted request
+	 */
+	public void release() {
+		permits.release();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the number of requests being processed
+	 * 
+	 * @return
+	 */
+	public int getInFlight() {
+		return limit - permits.availablePermits();
+	}
+
+	/**
+	 * Returns the (estimated) number of requests waiting to be admitted
+	 * 
+	 * @return
+	 */
+	public int getQueued() {
+		return permits.getQueueLength();
+	}
+
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Returns the counts of the wait histogram's buckets
+	 * 
+	 * @return
+	 */
+	public long[] getWaitHistogram() {
+		long[] histogram = new long[waits.length()];
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = waits.get(i);
+		}
+		return histogram;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": limit = " + limit + ", in flight = " + getInFlight()
+				+ ", admitted = " + getAdmitted() + ", rejected = "
+				+ getRejected();
+	}
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.pull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.metis.sql.SqlStmnt;
+
+/**
+ * An in-process cache of the responses to GETs, used by a WdsResourceBean.
+ * Each entry holds the UTF-8 encoded JSON response for a SQL statement and
+ * set of params, along with the response's entity tag and the time at which
+ * the entry expires. An entry may also hold compressed variants (e.g., gzip) of
+ * its response, so that a response is compressed once rather than once per
+ * request. The variants count toward the size of the cache.
+ *
+ * The cache is bounded both by the number of entries and by the total size of
+ * the responses that it holds. When either bound is exceeded, the least
+ * recently used entries are evicted. Expired entries are removed as they are
+ * found.
+ *
+ * Each table has an invalidation generation, which is bumped whenever the
+ * table's entries are removed. A response is loaded under the generation
+ * that its statement had before it was executed, and is not cached if a write
+ * to one of its tables has since invalidated it.
+ *
+ */
+public class ResultCache {
+
+	/**
+	 * A cached response
+	 */
+	public static class Entry {
+
+		private final SqlStmnt sqlStmnt;
+		private final byte[] body;
+		private final String eTag;
+		private final long expiresAt;
+		// encoding --> compressed response
+		private final ConcurrentHashMap<String, byte[]> variants = new ConcurrentHashMap<String, byte[]>(
+				2);
+
+		Entry(SqlStmnt sqlStmnt, byte[] body, String eTag, long expiresAt) {
+			this.sqlStmnt = sqlStmnt;
+			this.body = body;
+			this.eTag = eTag;
+			this.expiresAt = expiresAt;
+		}
+
+		public SqlStmnt getSqlStmnt() {
+			return sqlStmnt;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		public String getETag() {
+			return eTag;
+		}
+
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+
+		/**
+		 * Returns the response compressed with the given encoding, or null if
+		 * there is no such variant.
+		 *
+		 * @param encoding
+		 * @return
+		 */
+		public byte[] getVariant(String encoding) {
+			return variants.get(encoding);
+		}
+
+		void setVariant(String encoding, byte[] variant) {
+			variants.put(encoding, variant);
+		}
+
+		/**
+		 * Returns the total size of the response and its variants
+		 *
+		 * @return
+		 */
+		public long getSize() {
+			long size = body.length;
+			for (byte[] variant : variants.values()) {
+				size += variant.length;
+			}
+			return size;
+		}
+	}
+
+	// the entries in least recently used order
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private int maxEntries;
+	private long maxBytes;
+	private long bytes;
+
+	// table --> the number of times that its entries have been invalidated
+	private HashMap<String, Long> generations = new HashMap<String, Long>();
+
+	private AtomicLong hits = new AtomicLong(0L);
+	private AtomicLong misses = new AtomicLong(0L);
+	private AtomicLong evictions = new AtomicLong(0L);
+	private AtomicLong expirations = new AtomicLong(0L);
+	private AtomicLong invalidations = new AtomicLong(0L);
+	private AtomicLong staleLoads = new AtomicLong(0L);
+
+	/**
+	 * Create a cache that holds at most the given number of entries and the
+	 * given number of bytes.
+	 *
+	 * @param maxEntries
+	 * @param maxBytes
+	 */
+	public ResultCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the key for the given statement and params. The params' keys
+	 * are ordered, so the key does not depend on the order in which the
+	 * params were received.
+	 *
+	 * @param sqlStmnt
+	 * @param params
+	 * @return
+	 */
+	public static String toKey(SqlStmnt sqlStmnt,
+			List<Map<String, String>> params) {
+		StringBuilder sb = new StringBuilder(sqlStmnt.getOriginal());
+		if (params != null) {
+			for (Map<String, String> map : params) {
+				sb.append('\0');
+				for (Map.Entry<String, String> entry : new TreeMap<String, String>(
+						map).entrySet()) {
+					String key = entry.getKey();
+					String value = entry.getValue();
+					sb.append(key.length()).append(':').append(key);
+					if (value == null) {
+						sb.append('-');
+					} else {
+						sb.append(value.length()).append('=').append(value);
+					}
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the entry having the given key, or null if there is no such
+	 * entry or it has expired as of the given time.
+	 *
+	 * @param key
+	 * @param now
+	 * @return
+	 */
+	public synchronized Entry get(String key, long now) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.getExpiresAt() <= now) {
+			remove(key);
+			expirations.incrementAndGet();
+			entry = null;
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the invalidation generation of the given statement; i.e., the
+	 * sum of the generations of the tables that it reads. It is to be taken
+	 * before the statement is executed and then passed to put.
+	 *
+	 * @param sqlStmnt
+	 * @return
+	 */
+	public synchronized long getGeneration(SqlStmnt sqlStmnt) {
+		long generation = 0L;
+		if (sqlStmnt == null) {
+			return generation;
+		}
+		for (String table : sqlStmnt.getTables()) {
+			Long tableGeneration = generations.get(table);
+			if (tableGeneration != null) {
+				generation += tableGeneration;
+			}
+		}
+		return generation;
+	}
+
+	/**
+	 * Caches the given response under the given key, evicting the least
+	 * recently used entries as needed. A response that is larger than the
+	 * cache itself is not cached, nor is a response whose statement's
+	 * generation is no longer the given one, because one of its tables was
+	 * written to while the response was being loaded. Returns the new entry,
+	 * or null if the response was not cached.
+	 *
+	 * @param key
+	 * @param sqlStmnt
+	 * @param body
+	 * @param eTag
+	 * @param expiresAt
+	 * @param generation
+	 * @return
+	 */
+	public synchronized Entry put(String key, SqlStmnt sqlStmnt, byte[] body,
+			String eTag, long expiresAt, long generation) {
+		if (maxEntries <= 0 || body.length > maxBytes) {
+			return null;
+		}
+		if (getGeneration(sqlStmnt) != generation) {
+			staleLoads.incrementAndGet();
+			return null;
+		}
+		remove(key);
+		Entry entry = new Entry(sqlStmnt, body, eTag, expiresAt);
+		entries.put(key, entry);
+		bytes += body.length;
+		evict();
+		return entry;
+	}
+
+	/**
+	 * Adds the given compressed variant to the given entry. If the entry is
+	 * still cached under the given key, the variant is added to the size of
+	 * the cache and the least recently used entries are evicted as needed.
+	 *
+	 * @param key
+	 * @param entry
+	 * @param encoding
+	 * @param variant
+	 */
+	public synchronized void putVariant(String key, Entry entry,
+			String encoding, byte[] variant) {
+		byte[] prev = entry.getVariant(encoding);
+		entry.setVariant(encoding, variant);
+		if (entries.get(key) == entry) {
+			bytes += variant.length - ((prev == null) ? 0 : prev.length);
+			evict();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache is within its
+	 * bounds. Must be called while holding this cache's lock.
+	 */
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes)
+				&& it.hasNext()) {
+			Entry eldest = it.next();
+			it.remove();
+			bytes -= eldest.getSize();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes the entry having the given key.
+	 *
+	 * @param key
+	 */
+	public synchronized void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			bytes -= entry.getSize();
+		}
+	}
+
+	/**
+	 * Removes the entries whose statements read the given table and bumps the
+	 * table's generation, so that responses being loaded from the table are
+	 * not cached. Returns the number of entries removed.
+	 *
+	 * @param table
+	 * @return
+	 */
+	public synchronized int removeTable(String table) {
+		Long generation = generations.get(table);
+		generations.put(table, (generation == null) ? 1L : generation + 1L);
+		int removed = 0;
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.getSqlStmnt().getTables().contains(table)) {
+				it.remove();
+				bytes -= entry.getSize();
+				removed++;
+			}
+		}
+		invalidations.addAndGet(removed);
+		return removed;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0L;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Returns the number of responses that were not cached, because their
+	 * tables were written to while they were being loaded.
+	 *
+	 * @return
+	 */
+	public long getStaleLoads() {
+		return staleLoads.get();
+	}
+
+}
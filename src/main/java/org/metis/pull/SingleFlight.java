@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.pull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent executions of the same work, identified by a key. The
+ * first caller for a key executes the work, while the callers that arrive
+ * during that execution wait for, and share, its outcome; i.e., its result or
+ * the exception that it threw. Used by a WdsResourceBean so that a stampede of
+ * identical GETs takes one pooled connection instead of one per request.
+ *
+ * A caller waits at most the given time for the execution in flight; after
+ * that, it executes the work on its own.
+ *
+ */
+public class SingleFlight<T> {
+
+	/**
+	 * An execution in flight
+	 */
+	private static class Flight<T> {
+		private CountDownLatch done = new CountDownLatch(1);
+		private T result;
+		private Exception exception;
+	}
+
+	private ConcurrentHashMap<String, Flight<T>> flights = new ConcurrentHashMap<String, Flight<T>>();
+
+	private AtomicLong executions = new AtomicLong(0L);
+	private AtomicLong coalesced = new AtomicLong(0L);
+	private AtomicLong timeouts = new AtomicLong(0L);
+
+	/**
+	 * Executes the given work for the given key, unless it is already being
+	 * executed for that key, in which case the outcome of that execution is
+	 * returned or thrown.
+	 *
+	 * @param key
+	 * @param work
+	 * @param maxWait
+	 *            the maximum time (msecs) to wait for an execution in flight
+	 * @return
+	 * @throws Exception
+	 */
+	public T execute(String key, Callable<T> work, long maxWait)
+			throws Exception {
+		Flight<T> flight = new Flight<T>();
+		Flight<T> inFlight = flights.putIfAbsent(key, flight);
+
+		if (inFlight == null) {
+			executions.incrementAndGet();
+			try {
+				flight.result = work.call();
+				return flight.result;
+			} catch (Exception exc) {
+				flight.exception = exc;
+				throw exc;
+			} finally {
+				flights.remove(key, flight);
+				flight.done.countDown();
+			}
+		}
+
+		if (inFlight.done.await(maxWait, TimeUnit.MILLISECONDS)) {
+			coalesced.incrementAndGet();
+			if (inFlight.exception != null) {
+				throw inFlight.exception;
+			}
+			return inFlight.result;
+		}
+
+		// the execution in flight is taking too long
+		timeouts.incrementAndGet();
+		executions.incrementAndGet();
+		return work.call();
+	}
+
+	/**
+	 * Returns the number of keys currently in flight
+	 *
+	 * @return
+	 */
+	public int getInFlightCount() {
+		return flights.size();
+	}
+
+	/**
+	 * Returns the number of times that the work was executed
+	 *
+	 * @return
+	 */
+	public long getExecutions() {
+		return executions.get();
+	}
+
+	/**
+	 * Returns the number of callers that shared the outcome of another's
+	 * execution
+	 *
+	 * @return
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Returns the number of callers that gave up waiting and executed the
+	 * work on their own
+	 *
+	 * @return
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Returns the fraction of callers that shared the outcome of another's
+	 * execution
+	 *
+	 * @return
+	 */
+	public double getCoalescingRatio() {
+		long shared = getCoalesced();
+		long total = shared + getExecutions();
+		return (total == 0L) ? 0.0 : (double) shared / total;
+	}
+
+}
@@ -34,6 +34,16 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Set;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
 import java.io.OutputStream;
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -42,6 +52,15 @@ import org.metis.utils.Utils;
 import static org.metis.sql.SqlStmnt.getSQLStmnt;
 import org.metis.sql.SqlStmnt;
 import org.metis.sql.SqlResult;
+import org.metis.sql.SqlDialect;
+import org.metis.sql.SqlStmntIndex;
+import org.metis.utils.BoundedInputStream;
+import org.metis.utils.JsonRowReader;
+import org.metis.sql.ColumnarResult;
+import org.metis.sql.ResultSetJsonWriter;
+import org.metis.sql.TableListener;
+import org.metis.sql.TableRegistry;
+import org.springframework.dao.DataAccessException;
 import static org.metis.utils.Statics.*;
 import static org.metis.utils.Utils.dumpStackTrace;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -65,7 +84,8 @@ import com.hazelcast.core.HazelcastInstance;
  * 
  */
 public class WdsResourceBean extends AbstractController implements
-		InitializingBean, BeanNameAware, DisposableBean, MetisController {
+		InitializingBean, BeanNameAware, DisposableBean, MetisController,
+		TableListener {
 
 	public static final Log LOG = LogFactory.getLog(WdsResourceBean.class);
 
@@ -102,6 +122,12 @@ public class WdsResourceBean extends AbstractController implements
 	private List<SqlStmnt> sqlStmnts4Post;
 	private List<SqlStmnt> sqlStmnts4Delete;
 
+	// the dispatch indexes over the above SQL statements
+	private SqlStmntIndex stmntIndex4Get;
+	private SqlStmntIndex stmntIndex4Put;
+	private SqlStmntIndex stmntIndex4Post;
+	private SqlStmntIndex stmntIndex4Delete;
+
 	private static final String TRANSFER_ENCODING_HDR = "transfer-encoding";
 	private static final String CHUNKED = "chunked";
 
@@ -147,7 +173,7 @@ public class WdsResourceBean extends AbstractController implements
 	 */
 	enum Method {
 
-		POST, GET, PUT, DELETE;
+		POST, GET, PUT, DELETE, HEAD;
 
 		public boolean isPost() {
 			return this == POST;
@@ -164,6 +190,10 @@ public class WdsResourceBean extends AbstractController implements
 		public boolean isDelete() {
 			return this == DELETE;
 		}
+
+		public boolean isHead() {
+			return this == HEAD;
+		}
 	}
 
 	/**
@@ -232,6 +262,148 @@ public class WdsResourceBean extends AbstractController implements
 	 */
 	private HazelcastInstance hazelcastInstance;
 
+	/**
+	 * If true, the result set of a GET that is serviced by a SELECT statement
+	 * is written to the client as its rows are fetched from the DB, instead of
+	 * first being mapped and converted to a JSON string. Memory usage per
+	 * request is then bounded regardless of the size of the result set.
+	 */
+	private boolean streamResults;
+
+	/**
+	 * If true, the result set of a GET that is serviced by a SELECT statement
+	 * is buffered column by column, with its INTEGER, BIGINT and DOUBLE
+	 * columns held in primitive arrays, and its JSON is written directly from
+	 * those arrays. This avoids boxing every numeric value of large, numeric
+	 * result sets. Paged and streamed GETs are not affected.
+	 */
+	private boolean columnarResults;
+
+	/**
+	 * When streaming, the response is flushed each time this many bytes have
+	 * been written. Zero means the response is flushed only by the servlet
+	 * container, as its buffer fills, and at the end of the result set.
+	 */
+	private int streamFlushThreshold = DFLT_STREAM_FLUSH_THRESHOLD;
+
+	/**
+	 * If true, then GET responses of at least 'compressionThreshold' bytes
+	 * are compressed with gzip or deflate, as negotiated with the client's
+	 * Accept-Encoding header. Streamed responses are always compressed, if
+	 * the client accepts it, since their size is not known up front. The
+	 * compressed variant of a cached response is also cached.
+	 */
+	private boolean compressResults;
+	private int compressionThreshold = DFLT_COMPRESSION_THRESHOLD;
+
+	/**
+	 * If true, then concurrent GETs for the same statement and params share
+	 * one execution of the statement and its encoded response. A GET waits at
+	 * most 'coalesceMaxWait' msecs for the execution in flight before
+	 * executing the statement on its own. Streamed GETs are not coalesced.
+	 */
+	private boolean coalesceRequests;
+	private long coalesceMaxWait = DFLT_COALESCE_MAX_WAIT;
+	private SingleFlight<ResultCache.Entry> singleFlight;
+
+	/**
+	 * If a page key (column) is given, then the GETs of SELECT statements are
+	 * paged. A client asks for at most '_limit' rows, ordered by the page key,
+	 * and gets, in the X-Next-Page header of a full page, an opaque token that
+	 * it passes back as '_after' for the next page. The statements are
+	 * rewritten, in the DB's dialect, so that the DB only returns the rows of
+	 * the page. The page size is used if the client does not give a limit.
+	 * Paged GETs are neither cached, coalesced, nor streamed.
+	 */
+	private String pageKey;
+	private int pageSize = DFLT_PAGE_SIZE;
+	private int maxPageSize = DFLT_MAX_PAGE_SIZE;
+	private SqlDialect sqlDialect;
+
+	/**
+	 * If > 0, then a GET may look up several keys at once by repeating its
+	 * query params; e.g., ?id=1&id=2&id=3. Each repetition is a param set, and
+	 * the rows of the distinct sets are returned in one JSON array, in no
+	 * particular order; a repeated set's rows are returned once. A single key
+	 * query that compares its key for equality is executed as an IN list
+	 * query; else, the query is executed once per distinct set with one
+	 * connection. This is the maximum number of sets that a GET may carry.
+	 * Multi-key GETs are not paged.
+	 */
+	private int maxMultiGet = DFLT_MAX_MULTI_GET;
+
+	/**
+	 * If the ingest batch size is > 0, then the JSON array of a POST or PUT is
+	 * ingested as it is read from the request; i.e., its objects are parsed
+	 * one at a time and bound to JDBC batches of this size, which are all
+	 * executed with one connection. If 'ingestTransacted' is true, the batches
+	 * are executed in a single transaction. The response holds the number of
+	 * rows affected by each batch (chunk).
+	 */
+	private int ingestBatchSize;
+	private boolean ingestTransacted;
+
+	/**
+	 * If a max concurrency is given, then at most that many of this bean's
+	 * requests are processed at a time; the max concurrency by method does
+	 * the same for each of the given HTTP methods (GET, PUT, POST, DELETE). A
+	 * request that is not admitted within 'maxQueueWait' msecs is rejected
+	 * with a 503 and a Retry-After, before any of its params are parsed.
+	 */
+	private int maxConcurrent;
+	private Map<String, Integer> maxConcurrentByMethod;
+	private long maxQueueWait;
+	private Bulkhead bulkhead;
+	private Map<String, Bulkhead> methodBulkheads;
+
+	/**
+	 * If true, then requests that go to the DB are executed asynchronously on
+	 * a bounded pool of 'asyncPoolSize' threads, which frees the container's
+	 * threads. A pool size of zero sizes the pool to the DataSource's pool. At
+	 * most 'asyncQueueSize' requests wait for a thread; a request that finds
+	 * the queue full gets a 503. A request that is not completed within
+	 * 'asyncTimeout' msecs gets a 503, if it is still queued, or a 504.
+	 */
+	private boolean asyncMode;
+	private int asyncPoolSize;
+	private int asyncQueueSize = DFLT_ASYNC_QUEUE_SIZE;
+	private long asyncTimeout = DFLT_ASYNC_TIMEOUT;
+	private ThreadPoolExecutor asyncExecutor;
+
+	/**
+	 * The maximum size, in bytes, of a request's entity body and the time, in
+	 * msecs, within which the body must be read. Bodies may be chunked, in
+	 * which case they are bounded as they are read. Zero means there is no
+	 * bound.
+	 */
+	private long maxBodySize;
+	private long bodyReadTimeout;
+
+	/**
+	 * The maximum number of rows returned by, and the fetch size of, the GET
+	 * statements. Zero means that the driver's default is used.
+	 */
+	private int maxRows;
+	private int fetchSize;
+
+	/**
+	 * Returned by loadGetResponse when the statement did not return a result
+	 * set
+	 */
+	private static final ResultCache.Entry NO_RESULT_SET = new ResultCache.Entry(
+			null, new byte[0], null, 0L);
+
+	/**
+	 * The maximum number of GET responses, and their maximum total size
+	 * (bytes), that are held in this bean's result cache. The responses are
+	 * cached for 'expires' seconds, so the cache is only used if both the
+	 * size and 'expires' are greater than zero. By default, there is no
+	 * cache. Responses that are streamed are not cached.
+	 */
+	private int resultCacheSize;
+	private long resultCacheMaxBytes = DFLT_RESULT_CACHE_MAX_BYTES;
+	private ResultCache resultCache;
+
 	public WdsResourceBean() {
 		super();
 	}
@@ -323,389 +495,825 @@ public class WdsResourceBean extends AbstractController implements
 		return cacheControl;
 	}
 
-	public void setCacheControl(String cacheControl) {
-		this.cacheControl = cacheControl;
-	}
-
-	public boolean isOracle() {
-		return isOracle;
+	public int getResultCacheSize() {
+		return resultCacheSize;
 	}
 
-	/**
-	 * Set the list of allowed or not allowed agents.
-	 * 
-	 * @param agentTypes
-	 */
-	public void setAgentNames(String agentsNames)
+	public void setResultCacheSize(int resultCacheSize)
 			throws IllegalArgumentException {
-		if (agentsNames != null && agentsNames.length() > 0) {
-
-			// Convert to lower case as http USER-AGENT header
-			// value has been converted to lower case as well
-			agentsNames = agentsNames.toLowerCase();
-
-			this.agentNames = agentsNames;
-			setAllowedAgents(Utils.getAgentNames(agentsNames, true));
-			setNotAllowedAgents(Utils.getAgentNames(agentsNames, false));
-			if (!getAllowedAgents().isEmpty()
-					&& !getNotAllowedAgents().isEmpty()) {
-				throw new IllegalArgumentException(
-						"ERROR, both allowed and not allowed device types cannot "
-								+ "be in the agentTypes list; it must be one or "
-								+ "the other.");
-			}
+		if (resultCacheSize < 0) {
+			throw new IllegalArgumentException(
+					"setResultCacheSize: cache size must be >= 0");
 		}
+		this.resultCacheSize = resultCacheSize;
 	}
 
-	public String getAgentNames() {
-		return agentNames;
+	public long getResultCacheMaxBytes() {
+		return resultCacheMaxBytes;
 	}
 
-	/**
-	 * The list of illegal characters for input field values. Default value is
-	 * an empty list.
-	 * 
-	 * @param list
-	 */
-	public void setBlackList(String list) {
-		if (list != null && list.length() > 0) {
-			blackList = list;
+	public void setResultCacheMaxBytes(long resultCacheMaxBytes)
+			throws IllegalArgumentException {
+		if (resultCacheMaxBytes <= 0L) {
+			throw new IllegalArgumentException(
+					"setResultCacheMaxBytes: max bytes must be > 0");
 		}
+		this.resultCacheMaxBytes = resultCacheMaxBytes;
 	}
 
-	public String getBlackList() {
-		return blackList;
+	/**
+	 * Returns this bean's result cache, which also provides the cache's hit,
+	 * miss and eviction counts. Returns null if this bean does not have a
+	 * result cache.
+	 * 
+	 * @return
+	 */
+	public ResultCache getResultCache() {
+		return resultCache;
 	}
 
-	public void setCharSet(String charSet) throws IllegalArgumentException {
-		if (charSet != null && charSet.length() > 0) {
-			for (int i = 0; i < validCharSets.length; i++) {
-				if (validCharSets[i].equalsIgnoreCase(charSet)) {
-					this.charSet = charSet;
-					return;
-				}
-			}
+	/**
+	 * Called by the TableRegistry after a statement has written to a table
+	 * that is read by one of this bean's GET statements. The cached responses
+	 * of the statements that read the table are removed.
+	 */
+	public void onTableWrite(String table, SqlStmnt writer) {
+		if (getResultCache() != null) {
+			int removed = getResultCache().removeTable(table);
+			LOG.trace(getBeanName() + ": removed " + removed
+					+ " cached responses for write to " + table);
 		}
-		throw new IllegalArgumentException("invalid char set [" + charSet + "]");
-	}
-
-	public String getCharSet() {
-		return charSet;
 	}
 
 	/**
-	 * Set the content type for this bean. The default being "application/json".
+	 * Returns true if GET responses are to be cached
 	 * 
-	 * @param contentType
+	 * @return
 	 */
-	public void setContentType(String contentType)
+	public boolean isCaching() {
+		return getResultCache() != null && getExpires() > 0;
+	}
+
+	public int getIngestBatchSize() {
+		return ingestBatchSize;
+	}
+
+	public void setIngestBatchSize(int ingestBatchSize)
 			throws IllegalArgumentException {
-		if (contentType != null && contentType.length() > 0) {
-			this.contentType = contentType;
-		} else {
+		if (ingestBatchSize < 0) {
 			throw new IllegalArgumentException(
-					"invalid contentType - null or empty");
+					"setIngestBatchSize: batch size must be >= 0");
 		}
+		this.ingestBatchSize = ingestBatchSize;
 	}
 
 	/**
-	 * Get the content type currently set for this bean
+	 * Returns true if the JSON arrays of POSTs and PUTs are ingested in
+	 * chunked batches as they are read
 	 * 
 	 * @return
 	 */
-	public String getContentType() {
-		return contentType;
+	public boolean isIngesting() {
+		return getIngestBatchSize() > 0;
 	}
 
-	public List<String> getAllowedAgents() {
-		return allowedAgents;
+	public boolean isIngestTransacted() {
+		return ingestTransacted;
 	}
 
-	public void setAllowedAgents(List<String> allowedAgents) {
-		this.allowedAgents = allowedAgents;
+	public void setIngestTransacted(boolean ingestTransacted) {
+		this.ingestTransacted = ingestTransacted;
 	}
 
-	public List<String> getNotAllowedAgents() {
-		return notAllowedAgents;
+	public int getMaxConcurrent() {
+		return maxConcurrent;
 	}
 
-	public void setNotAllowedAgents(List<String> notAllowedAgents) {
-		this.notAllowedAgents = notAllowedAgents;
+	public void setMaxConcurrent(int maxConcurrent)
+			throws IllegalArgumentException {
+		if (maxConcurrent < 0) {
+			throw new IllegalArgumentException(
+					"setMaxConcurrent: max concurrent must be >= 0");
+		}
+		this.maxConcurrent = maxConcurrent;
 	}
 
-	/*
-	 * These are the getter and setter methods for the bean's properties that
-	 * represent the SQL statements mapped to the HTTP methods. The bean must
-	 * have at least one such property defined.
-	 */
+	public Map<String, Integer> getMaxConcurrentByMethod() {
+		return maxConcurrentByMethod;
+	}
 
-	/**
-	 * Used for validating SQL statement for GET method
-	 * 
-	 * @param sql
-	 * @return
-	 * @throws IllegalArgumentException
-	 */
-	private String valSql4Get(String sql) throws IllegalArgumentException {
-		if (sql != null && sql.length() > 0) {
-			sql = Utils.stripCall(sql);
-			String[] tokens = sql.split("\\s+");
-			if (tokens.length < 2) {
-				throw new IllegalArgumentException(
-						"valSql4Get: invalid SQL statement - insufficent "
-								+ "number of tokens");
-			} else if (!tokens[0].equalsIgnoreCase(SELECT_STR)
-					&& !tokens[0].equalsIgnoreCase(CALL_STR)
-					&& !tokens[0].startsWith(BACK_QUOTE_STR)) {
-				throw new IllegalArgumentException(
-						"valSql4Get: invalid SQL statement - must start with "
-								+ "either 'select' or 'call'");
+	public void setMaxConcurrentByMethod(
+			Map<String, Integer> maxConcurrentByMethod)
+			throws IllegalArgumentException {
+		if (maxConcurrentByMethod != null) {
+			for (Map.Entry<String, Integer> entry : maxConcurrentByMethod
+					.entrySet()) {
+				try {
+					Enum.valueOf(Method.class, entry.getKey().toUpperCase());
+				} catch (IllegalArgumentException exc) {
+					throw new IllegalArgumentException(
+							"setMaxConcurrentByMethod: unknown method: "
+									+ entry.getKey());
+				}
+				if (entry.getValue() == null || entry.getValue() <= 0) {
+					throw new IllegalArgumentException(
+							"setMaxConcurrentByMethod: max concurrent must be > 0");
+				}
 			}
-		} else {
-			throw new IllegalArgumentException(
-					"valSql4Get: invalid SQL statement - empty or null statement");
 		}
-		return sql.trim();
+		this.maxConcurrentByMethod = maxConcurrentByMethod;
 	}
 
-	/**
-	 * This method is called by Spring to inject the SQL statements for the GET
-	 * method. You can assign more than one SQL statement to an HTTP method.
-	 * Based on the incoming parameters, WDS will match the service request to
-	 * the SQL statement.
-	 * 
-	 * @param sqls
-	 * @throws IllegalArgumentException
-	 */
-	public void setSqls4Get(List<String> sqls) throws IllegalArgumentException {
-		if (sqls == null || sqls.isEmpty()) {
+	public long getMaxQueueWait() {
+		return maxQueueWait;
+	}
+
+	public void setMaxQueueWait(long maxQueueWait)
+			throws IllegalArgumentException {
+		if (maxQueueWait < 0L) {
 			throw new IllegalArgumentException(
-					"setSqls4Get: invalid list of SQL statements - empty or "
-							+ "null statement");
-		}
-		sqls4Get = new ArrayList<String>();
-		for (String sql : sqls) {
-			sqls4Get.add(valSql4Get(sql));
+					"setMaxQueueWait: max queue wait must be >= 0");
 		}
+		this.maxQueueWait = maxQueueWait;
 	}
 
-	public List<String> getSqls4Get() {
-		return sqls4Get;
+	/**
+	 * Returns the bulkhead for all of this bean's requests, which also
+	 * provides its admission metrics. Returns null if there is none.
+	 * 
+	 * @return
+	 */
+	public Bulkhead getBulkhead() {
+		return bulkhead;
 	}
 
 	/**
-	 * Used for validating SQL statement for POST method
+	 * Returns the bulkhead for the given HTTP method, or null if there is
+	 * none.
 	 * 
-	 * @param sql
+	 * @param method
 	 * @return
-	 * @throws IllegalArgumentException
 	 */
-	private String valSql4Post(String sql) throws IllegalArgumentException {
-		if (sql != null && sql.length() > 0) {
-			sql = Utils.stripCall(sql);
-			String[] tokens = sql.split("\\s+");
-			if (tokens.length < 2) {
-				throw new IllegalArgumentException(
-						"valSql4Post: invalid SQL statement - insufficent "
-								+ "number of tokens");
-			} else if (!tokens[0].equalsIgnoreCase(UPDATE_STR)
-					&& !tokens[0].equalsIgnoreCase(INSERT_STR)
-					&& !tokens[0].equalsIgnoreCase(CALL_STR)
-					&& !tokens[0].startsWith(BACK_QUOTE_STR)) {
-				throw new IllegalArgumentException(
-						"valSql4Post: invalid SQL statement - must start with "
-								+ "'insert', 'update' or 'call'");
-			}
+	public Bulkhead getBulkhead(String method) {
+		return (methodBulkheads == null) ? null : methodBulkheads.get(method
+				.toUpperCase());
+	}
 
-		} else {
+	public boolean isAsyncMode() {
+		return asyncMode;
+	}
+
+	public void setAsyncMode(boolean asyncMode) {
+		this.asyncMode = asyncMode;
+	}
+
+	public int getAsyncPoolSize() {
+		return asyncPoolSize;
+	}
+
+	public void setAsyncPoolSize(int asyncPoolSize)
+			throws IllegalArgumentException {
+		if (asyncPoolSize < 0) {
 			throw new IllegalArgumentException(
-					"valSql4Post: invalid SQL statement - empty or null "
-							+ "statement");
+					"setAsyncPoolSize: pool size must be >= 0");
 		}
-		return sql.trim();
+		this.asyncPoolSize = asyncPoolSize;
 	}
 
-	/**
-	 * This method is called by Spring to inject the SQL statements for the POST
-	 * method.
-	 * 
-	 * @param sqls
-	 * @throws IllegalArgumentException
-	 */
-	public void setSqls4Post(List<String> sqls) throws IllegalArgumentException {
-		if (sqls == null || sqls.isEmpty()) {
+	public int getAsyncQueueSize() {
+		return asyncQueueSize;
+	}
+
+	public void setAsyncQueueSize(int asyncQueueSize)
+			throws IllegalArgumentException {
+		if (asyncQueueSize <= 0) {
 			throw new IllegalArgumentException(
-					"setSqls4Post: invalid list of SQL statements - "
-							+ "empty or null statement");
+					"setAsyncQueueSize: queue size must be > 0");
 		}
-		sqls4Post = new ArrayList<String>();
-		for (String sql : sqls) {
-			sqls4Post.add(valSql4Post(sql));
+		this.asyncQueueSize = asyncQueueSize;
+	}
+
+	public long getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	public void setAsyncTimeout(long asyncTimeout)
+			throws IllegalArgumentException {
+		if (asyncTimeout <= 0L) {
+			throw new IllegalArgumentException(
+					"setAsyncTimeout: timeout must be > 0");
 		}
+		this.asyncTimeout = asyncTimeout;
 	}
 
 	/**
-	 * Get the list of SQLs for the POST method
+	 * Returns the executor of the async requests, which also provides the
+	 * pool's metrics. Returns null if not in async mode.
 	 * 
 	 * @return
 	 */
-	public List<String> getSqls4Post() {
-		return sqls4Post;
+	public ThreadPoolExecutor getAsyncExecutor() {
+		return asyncExecutor;
 	}
 
-	public String getDriverName() {
-		return driverName;
+	public long getMaxBodySize() {
+		return maxBodySize;
 	}
 
-	public void setDriverName(String driverName) {
-		this.driverName = driverName;
-	}
+	public void setMaxBodySize(long maxBodySize)
+			throws IllegalArgumentException {
+		if (maxBodySize < 0L) {
+			throw new IllegalArgumentException(
+					"setMaxBodySize: max body size must be >= 0");
+		}
+		this.maxBodySize = maxBodySize;
+	}
+
+	public long getBodyReadTimeout() {
+		return bodyReadTimeout;
+	}
+
+	public void setBodyReadTimeout(long bodyReadTimeout)
+			throws IllegalArgumentException {
+		if (bodyReadTimeout < 0L) {
+			throw new IllegalArgumentException(
+					"setBodyReadTimeout: read timeout must be >= 0");
+		}
+		this.bodyReadTimeout = bodyReadTimeout;
+	}
+
+	public String getPageKey() {
+		return pageKey;
+	}
+
+	public void setPageKey(String pageKey) throws IllegalArgumentException {
+		if (pageKey != null && !pageKey.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+			throw new IllegalArgumentException(
+					"setPageKey: page key must be a column name");
+		}
+		this.pageKey = pageKey;
+	}
 
 	/**
-	 * Used for validating SQL statement for PUT method
+	 * Returns true if GETs are paged
 	 * 
-	 * @param sql
 	 * @return
-	 * @throws IllegalArgumentException
 	 */
-	private String valSql4Put(String sql) {
-		if (sql != null && sql.length() > 0) {
-			sql = Utils.stripCall(sql);
-			String[] tokens = sql.split("\\s+");
-			if (tokens.length < 2) {
-				throw new IllegalArgumentException(
-						"setSql4Put: invalid SQL statement - insufficent "
-								+ "number of tokens");
-			} else if (!tokens[0].equalsIgnoreCase(UPDATE_STR)
-					&& !tokens[0].equalsIgnoreCase(INSERT_STR)
-					&& !tokens[0].equalsIgnoreCase(CALL_STR)
-					&& !tokens[0].startsWith(BACK_QUOTE_STR)) {
-				throw new IllegalArgumentException(
-						"setSql4Put: invalid SQL statement - must start "
-								+ "with 'insert', 'update' or 'call'");
-			}
-		} else {
+	public boolean isPaging() {
+		return getPageKey() != null;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(int pageSize) throws IllegalArgumentException {
+		if (pageSize <= 0) {
 			throw new IllegalArgumentException(
-					"setSql4Put: invalid SQL statement - empty or null "
-							+ "statement");
+					"setPageSize: page size must be > 0");
 		}
-		return sql.trim();
+		this.pageSize = pageSize;
+	}
+
+	public int getMaxPageSize() {
+		return maxPageSize;
+	}
+
+	public void setMaxPageSize(int maxPageSize)
+			throws IllegalArgumentException {
+		if (maxPageSize <= 0) {
+			throw new IllegalArgumentException(
+					"setMaxPageSize: max page size must be > 0");
+		}
+		this.maxPageSize = maxPageSize;
+	}
+
+	public int getMaxMultiGet() {
+		return maxMultiGet;
+	}
+
+	public void setMaxMultiGet(int maxMultiGet) throws IllegalArgumentException {
+		if (maxMultiGet < 0) {
+			throw new IllegalArgumentException(
+					"setMaxMultiGet: max multi get must be >= 0");
+		}
+		this.maxMultiGet = maxMultiGet;
 	}
 
 	/**
-	 * This method is called by Spring to inject the SQL statements for the PUT
-	 * method.
+	 * Returns the dialect used for rewriting paged statements, which is
+	 * chosen from the JDBC driver's name
 	 * 
-	 * @param sqls
-	 * @throws IllegalArgumentException
+	 * @return
 	 */
-	public void setSqls4Put(List<String> sqls) throws IllegalArgumentException {
-		if (sqls == null || sqls.isEmpty()) {
+	public SqlDialect getSqlDialect() {
+		return sqlDialect;
+	}
+
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	public void setMaxRows(int maxRows) throws IllegalArgumentException {
+		if (maxRows < 0) {
 			throw new IllegalArgumentException(
-					"setSqls4Put: invalid list of SQL statements - empty or "
-							+ "null statement");
+					"setMaxRows: max rows must be >= 0");
 		}
-		sqls4Put = new ArrayList<String>();
-		for (String sql : sqls) {
-			sqls4Put.add(valSql4Put(sql));
+		this.maxRows = maxRows;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) throws IllegalArgumentException {
+		if (fetchSize < 0) {
+			throw new IllegalArgumentException(
+					"setFetchSize: fetch size must be >= 0");
+		}
+		this.fetchSize = fetchSize;
+	}
+
+	public boolean isCoalesceRequests() {
+		return coalesceRequests;
+	}
+
+	public void setCoalesceRequests(boolean coalesceRequests) {
+		this.coalesceRequests = coalesceRequests;
+	}
+
+	public long getCoalesceMaxWait() {
+		return coalesceMaxWait;
+	}
+
+	public void setCoalesceMaxWait(long coalesceMaxWait)
+			throws IllegalArgumentException {
+		if (coalesceMaxWait <= 0L) {
+			throw new IllegalArgumentException(
+					"setCoalesceMaxWait: max wait must be > 0");
 		}
+		this.coalesceMaxWait = coalesceMaxWait;
 	}
 
 	/**
-	 * Get the list of SQLs for the PUT method
+	 * Returns the object that coalesces this bean's GETs, which also provides
+	 * the coalescing metrics. Returns null if GETs are not coalesced.
 	 * 
 	 * @return
 	 */
-	public List<String> getSqls4Put() {
-		return sqls4Put;
+	public SingleFlight<ResultCache.Entry> getSingleFlight() {
+		return singleFlight;
+	}
+
+	public boolean isCompressResults() {
+		return compressResults;
+	}
+
+	public void setCompressResults(boolean compressResults) {
+		this.compressResults = compressResults;
+	}
+
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public void setCompressionThreshold(int compressionThreshold)
+			throws IllegalArgumentException {
+		if (compressionThreshold < 0) {
+			throw new IllegalArgumentException(
+					"setCompressionThreshold: threshold must be >= 0");
+		}
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public boolean isStreamResults() {
+		return streamResults;
+	}
+
+	public void setStreamResults(boolean streamResults) {
+		this.streamResults = streamResults;
+	}
+
+	public boolean isColumnarResults() {
+		return columnarResults;
+	}
+
+	public void setColumnarResults(boolean columnarResults) {
+		this.columnarResults = columnarResults;
+	}
+
+	public int getStreamFlushThreshold() {
+		return streamFlushThreshold;
+	}
+
+	public void setStreamFlushThreshold(int streamFlushThreshold)
+			throws IllegalArgumentException {
+		if (streamFlushThreshold < 0) {
+			throw new IllegalArgumentException(
+					"setStreamFlushThreshold: flush threshold must be >= 0");
+		}
+		this.streamFlushThreshold = streamFlushThreshold;
+	}
+
+	public void setCacheControl(String cacheControl) {
+		this.cacheControl = cacheControl;
+	}
+
+	public boolean isOracle() {
+		return isOracle;
 	}
 
 	/**
-	 * Used for validating SQL statement for DELETE method
+	 * Set the list of allowed or not allowed agents.
 	 * 
-	 * @param sql
-	 * @return
-	 * @throws IllegalArgumentException
+	 * @param agentTypes
 	 */
-	private String valSql4Delete(String sql) throws IllegalArgumentException {
-		if (sql != null && sql.length() > 0) {
-			sql = Utils.stripCall(sql);
-			String[] tokens = sql.split("\\s+");
-			if (tokens.length < 2) {
-				throw new IllegalArgumentException(
-						"valSql4Delete: invalid SQL statement - insufficent "
-								+ "number of tokens");
-			} else if (!tokens[0].equalsIgnoreCase(DELETE_STR)
-					&& !tokens[0].equalsIgnoreCase(CALL_STR)
-					&& !tokens[0].startsWith(BACK_QUOTE_STR)) {
+	public void setAgentNames(String agentsNames)
+			throws IllegalArgumentException {
+		if (agentsNames != null && agentsNames.length() > 0) {
+
+			// Convert to lower case as http USER-AGENT header
+			// value has been converted to lower case as well
+			agentsNames = agentsNames.toLowerCase();
+
+			this.agentNames = agentsNames;
+			setAllowedAgents(Utils.getAgentNames(agentsNames, true));
+			setNotAllowedAgents(Utils.getAgentNames(agentsNames, false));
+			if (!getAllowedAgents().isEmpty()
+					&& !getNotAllowedAgents().isEmpty()) {
 				throw new IllegalArgumentException(
-						"valSql4Delete: invalid SQL statement - must start "
-								+ "with 'delete' or 'call' ");
+						"ERROR, both allowed and not allowed device types cannot "
+								+ "be in the agentTypes list; it must be one or "
+								+ "the other.");
 			}
-		} else {
-			throw new IllegalArgumentException(
-					"valSql4Delete: invalid SQL statement - empty or null "
-							+ "statement");
 		}
-		return sql.trim();
+	}
+
+	public String getAgentNames() {
+		return agentNames;
 	}
 
 	/**
-	 * This method is called by Spring to inject the SQL statements for the
-	 * DELETE method.
+	 * The list of illegal characters for input field values. Default value is
+	 * an empty list.
 	 * 
-	 * @param sqls
-	 * @throws IllegalArgumentException
+	 * @param list
 	 */
-	public void setSqls4Delete(List<String> sqls)
-			throws IllegalArgumentException {
-		if (sqls == null || sqls.isEmpty()) {
-			throw new IllegalArgumentException(
-					"setSqls4Delete: invalid list of SQL statements - empty "
-							+ "or null statement");
+	public void setBlackList(String list) {
+		if (list != null && list.length() > 0) {
+			blackList = list;
 		}
-		sqls4Delete = new ArrayList<String>();
-		for (String sql : sqls) {
-			sqls4Delete.add(valSql4Delete(sql));
+	}
+
+	public String getBlackList() {
+		return blackList;
+	}
+
+	public void setCharSet(String charSet) throws IllegalArgumentException {
+		if (charSet != null && charSet.length() > 0) {
+			for (int i = 0; i < validCharSets.length; i++) {
+				if (validCharSets[i].equalsIgnoreCase(charSet)) {
+					this.charSet = charSet;
+					return;
+				}
+			}
 		}
+		throw new IllegalArgumentException("invalid char set [" + charSet + "]");
 	}
 
-	// these are the accessor or getter methods for the SQL statements, which
-	// are assigned values by the afterProperties method.
+	public String getCharSet() {
+		return charSet;
+	}
 
 	/**
-	 * Get the list of SQLs for the DELETE method
+	 * Set the content type for this bean. The default being "application/json".
 	 * 
-	 * @return
+	 * @param contentType
 	 */
-	public List<String> getSqls4Delete() {
-		return sqls4Delete;
+	public void setContentType(String contentType)
+			throws IllegalArgumentException {
+		if (contentType != null && contentType.length() > 0) {
+			this.contentType = contentType;
+		} else {
+			throw new IllegalArgumentException(
+					"invalid contentType - null or empty");
+		}
 	}
 
-	public List<SqlStmnt> getSqlStmnts4Get() {
-		return sqlStmnts4Get;
+	/**
+	 * Get the content type currently set for this bean
+	 * 
+	 * @return
+	 */
+	public String getContentType() {
+		return contentType;
 	}
 
-	public List<SqlStmnt> getSqlStmnts4Post() {
-		return sqlStmnts4Post;
+	public List<String> getAllowedAgents() {
+		return allowedAgents;
 	}
 
-	public List<SqlStmnt> getSqlStmnts4Put() {
-		return sqlStmnts4Put;
+	public void setAllowedAgents(List<String> allowedAgents) {
+		this.allowedAgents = allowedAgents;
 	}
 
-	public List<SqlStmnt> getSqlStmnts4Delete() {
-		return sqlStmnts4Delete;
+	public List<String> getNotAllowedAgents() {
+		return notAllowedAgents;
 	}
 
-	// -----------------------
+	public void setNotAllowedAgents(List<String> notAllowedAgents) {
+		this.notAllowedAgents = notAllowedAgents;
+	}
 
-	/**
-	 * Called by Spring after all of this bean's properties have been set.
+	/*
+	 * These are the getter and setter methods for the bean's properties that
+	 * represent the SQL statements mapped to the HTTP methods. The bean must
+	 * have at least one such property defined.
 	 */
-	public void afterPropertiesSet() throws Exception {
 
-		// log info for the jdbc driver being used
+	/**
+	 * Used for validating SQL statement for GET method
+	 * 
+	 * @param sql
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private String valSql4Get(String sql) throws IllegalArgumentException {
+		if (sql != null && sql.length() > 0) {
+			sql = Utils.stripCall(sql);
+			String[] tokens = sql.split("\\s+");
+			if (tokens.length < 2) {
+				throw new IllegalArgumentException(
+						"valSql4Get: invalid SQL statement - insufficent "
+								+ "number of tokens");
+			} else if (!tokens[0].equalsIgnoreCase(SELECT_STR)
+					&& !tokens[0].equalsIgnoreCase(CALL_STR)
+					&& !tokens[0].startsWith(BACK_QUOTE_STR)) {
+				throw new IllegalArgumentException(
+						"valSql4Get: invalid SQL statement - must start with "
+								+ "either 'select' or 'call'");
+			}
+		} else {
+			throw new IllegalArgumentException(
+					"valSql4Get: invalid SQL statement - empty or null statement");
+		}
+		return sql.trim();
+	}
+
+	/**
+	 * This method is called by Spring to inject the SQL statements for the GET
+	 * method. You can assign more than one SQL statement to an HTTP method.
+	 * Based on the incoming parameters, WDS will match the service request to
+	 * the SQL statement.
+	 * 
+	 * @param sqls
+	 * @throws IllegalArgumentException
+	 */
+	public void setSqls4Get(List<String> sqls) throws IllegalArgumentException {
+		if (sqls == null || sqls.isEmpty()) {
+			throw new IllegalArgumentException(
+					"setSqls4Get: invalid list of SQL statements - empty or "
+							+ "null statement");
+		}
+		sqls4Get = new ArrayList<String>();
+		for (String sql : sqls) {
+			sqls4Get.add(valSql4Get(sql));
+		}
+	}
+
+	public List<String> getSqls4Get() {
+		return sqls4Get;
+	}
+
+	/**
+	 * Used for validating SQL statement for POST method
+	 * 
+	 * @param sql
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private String valSql4Post(String sql) throws IllegalArgumentException {
+		if (sql != null && sql.length() > 0) {
+			sql = Utils.stripCall(sql);
+			String[] tokens = sql.split("\\s+");
+			if (tokens.length < 2) {
+				throw new IllegalArgumentException(
+						"valSql4Post: invalid SQL statement - insufficent "
+								+ "number of tokens");
+			} else if (!tokens[0].equalsIgnoreCase(UPDATE_STR)
+					&& !tokens[0].equalsIgnoreCase(INSERT_STR)
+					&& !tokens[0].equalsIgnoreCase(CALL_STR)
+					&& !tokens[0].startsWith(BACK_QUOTE_STR)) {
+				throw new IllegalArgumentException(
+						"valSql4Post: invalid SQL statement - must start with "
+								+ "'insert', 'update' or 'call'");
+			}
+
+		} else {
+			throw new IllegalArgumentException(
+					"valSql4Post: invalid SQL statement - empty or null "
+							+ "statement");
+		}
+		return sql.trim();
+	}
+
+	/**
+	 * This method is called by Spring to inject the SQL statements for the POST
+	 * method.
+	 * 
+	 * @param sqls
+	 * @throws IllegalArgumentException
+	 */
+	public void setSqls4Post(List<String> sqls) throws IllegalArgumentException {
+		if (sqls == null || sqls.isEmpty()) {
+			throw new IllegalArgumentException(
+					"setSqls4Post: invalid list of SQL statements - "
+							+ "empty or null statement");
+		}
+		sqls4Post = new ArrayList<String>();
+		for (String sql : sqls) {
+			sqls4Post.add(valSql4Post(sql));
+		}
+	}
+
+	/**
+	 * Get the list of SQLs for the POST method
+	 * 
+	 * @return
+	 */
+	public List<String> getSqls4Post() {
+		return sqls4Post;
+	}
+
+	public String getDriverName() {
+		return driverName;
+	}
+
+	public void setDriverName(String driverName) {
+		this.driverName = driverName;
+	}
+
+	/**
+	 * Used for validating SQL statement for PUT method
+	 * 
+	 * @param sql
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private String valSql4Put(String sql) {
+		if (sql != null && sql.length() > 0) {
+			sql = Utils.stripCall(sql);
+			String[] tokens = sql.split("\\s+");
+			if (tokens.length < 2) {
+				throw new IllegalArgumentException(
+						"setSql4Put: invalid SQL statement - insufficent "
+								+ "number of tokens");
+			} else if (!tokens[0].equalsIgnoreCase(UPDATE_STR)
+					&& !tokens[0].equalsIgnoreCase(INSERT_STR)
+					&& !tokens[0].equalsIgnoreCase(CALL_STR)
+					&& !tokens[0].startsWith(BACK_QUOTE_STR)) {
+				throw new IllegalArgumentException(
+						"setSql4Put: invalid SQL statement - must start "
+								+ "with 'insert', 'update' or 'call'");
+			}
+		} else {
+			throw new IllegalArgumentException(
+					"setSql4Put: invalid SQL statement - empty or null "
+							+ "statement");
+		}
+		return sql.trim();
+	}
+
+	/**
+	 * This method is called by Spring to inject the SQL statements for the PUT
+	 * method.
+	 * 
+	 * @param sqls
+	 * @throws IllegalArgumentException
+	 */
+	public void setSqls4Put(List<String> sqls) throws IllegalArgumentException {
+		if (sqls == null || sqls.isEmpty()) {
+			throw new IllegalArgumentException(
+					"setSqls4Put: invalid list of SQL statements - empty or "
+							+ "null statement");
+		}
+		sqls4Put = new ArrayList<String>();
+		for (String sql : sqls) {
+			sqls4Put.add(valSql4Put(sql));
+		}
+	}
+
+	/**
+	 * Get the list of SQLs for the PUT method
+	 * 
+	 * @return
+	 */
+	public List<String> getSqls4Put() {
+		return sqls4Put;
+	}
+
+	/**
+	 * Used for validating SQL statement for DELETE method
+	 * 
+	 * @param sql
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private String valSql4Delete(String sql) throws IllegalArgumentException {
+		if (sql != null && sql.length() > 0) {
+			sql = Utils.stripCall(sql);
+			String[] tokens = sql.split("\\s+");
+			if (tokens.length < 2) {
+				throw new IllegalArgumentException(
+						"valSql4Delete: invalid SQL statement - insufficent "
+								+ "number of tokens");
+			} else if (!tokens[0].equalsIgnoreCase(DELETE_STR)
+					&& !tokens[0].equalsIgnoreCase(CALL_STR)
+					&& !tokens[0].startsWith(BACK_QUOTE_STR)) {
+				throw new IllegalArgumentException(
+						"valSql4Delete: invalid SQL statement - must start "
+								+ "with 'delete' or 'call' ");
+			}
+		} else {
+			throw new IllegalArgumentException(
+					"valSql4Delete: invalid SQL statement - empty or null "
+							+ "statement");
+		}
+		return sql.trim();
+	}
+
+	/**
+	 * This method is called by Spring to inject the SQL statements for the
+	 * DELETE method.
+	 * 
+	 * @param sqls
+	 * @throws IllegalArgumentException
+	 */
+	public void setSqls4Delete(List<String> sqls)
+			throws IllegalArgumentException {
+		if (sqls == null || sqls.isEmpty()) {
+			throw new IllegalArgumentException(
+					"setSqls4Delete: invalid list of SQL statements - empty "
+							+ "or null statement");
+		}
+		sqls4Delete = new ArrayList<String>();
+		for (String sql : sqls) {
+			sqls4Delete.add(valSql4Delete(sql));
+		}
+	}
+
+	// these are the accessor or getter methods for the SQL statements, which
+	// are assigned values by the afterProperties method.
+
+	/**
+	 * Get the list of SQLs for the DELETE method
+	 * 
+	 * @return
+	 */
+	public List<String> getSqls4Delete() {
+		return sqls4Delete;
+	}
+
+	public List<SqlStmnt> getSqlStmnts4Get() {
+		return sqlStmnts4Get;
+	}
+
+	public List<SqlStmnt> getSqlStmnts4Post() {
+		return sqlStmnts4Post;
+	}
+
+	public List<SqlStmnt> getSqlStmnts4Put() {
+		return sqlStmnts4Put;
+	}
+
+	public List<SqlStmnt> getSqlStmnts4Delete() {
+		return sqlStmnts4Delete;
+	}
+
+	public SqlStmntIndex getStmntIndex4Get() {
+		return stmntIndex4Get;
+	}
+
+	public SqlStmntIndex getStmntIndex4Put() {
+		return stmntIndex4Put;
+	}
+
+	public SqlStmntIndex getStmntIndex4Post() {
+		return stmntIndex4Post;
+	}
+
+	public SqlStmntIndex getStmntIndex4Delete() {
+		return stmntIndex4Delete;
+	}
+
+	// -----------------------
+
+	/**
+	 * Called by Spring after all of this bean's properties have been set.
+	 */
+	public void afterPropertiesSet() throws Exception {
+
+		// log info for the jdbc driver being used
 		// this will also attempt to open connection
 		// with jdbc driver
 		try {
@@ -763,6 +1371,9 @@ public class WdsResourceBean extends AbstractController implements
 							+ "not been assigned a SQL statement");
 		}
 
+		// the dialect used for rewriting paged statements
+		sqlDialect = SqlDialect.forDriver(getDriverName());
+
 		// create and validate the different SQL statements
 		if (getSqls4Get() != null) {
 			sqlStmnts4Get = new ArrayList<SqlStmnt>();
@@ -772,8 +1383,11 @@ public class WdsResourceBean extends AbstractController implements
 					throw new Exception(
 							"Injected SQL statements for GET are not distinct");
 				}
+				stmt.setMaxRows(getMaxRows());
+				stmt.setFetchSize(getFetchSize());
 				sqlStmnts4Get.add(stmt);
 			}
+			stmntIndex4Get = new SqlStmntIndex(sqlStmnts4Get);
 			if (LOG.isDebugEnabled()) {
 				for (SqlStmnt sqlstmnt : sqlStmnts4Get) {
 					LOG.debug(getBeanName() + ": SQL for GET = "
@@ -782,7 +1396,28 @@ public class WdsResourceBean extends AbstractController implements
 							+ sqlstmnt.getPrepared());
 				}
 			}
-			allowedMethodsRsp += "GET ";
+			// a HEAD is answered the same as a GET
+			allowedMethodsRsp += "GET HEAD ";
+
+			if (isCoalesceRequests()) {
+				singleFlight = new SingleFlight<ResultCache.Entry>();
+			}
+
+			if (getResultCacheSize() > 0) {
+				resultCache = new ResultCache(getResultCacheSize(),
+						getResultCacheMaxBytes());
+				if (getExpires() <= 0) {
+					LOG.warn(getBeanName() + ": result cache will not be "
+							+ "used, because 'expires' has not been set");
+				} else {
+					// a write, through Metis, to a table that is read by a GET
+					// statement invalidates the cached responses of that
+					// statement
+					for (SqlStmnt stmt : sqlStmnts4Get) {
+						TableRegistry.register(stmt.getTables(), this);
+					}
+				}
+			}
 		}
 
 		if (getSqls4Put() != null) {
@@ -795,6 +1430,7 @@ public class WdsResourceBean extends AbstractController implements
 				}
 				sqlStmnts4Put.add(stmt);
 			}
+			stmntIndex4Put = new SqlStmntIndex(sqlStmnts4Put);
 			if (LOG.isDebugEnabled()) {
 				for (SqlStmnt sqlstmnt : sqlStmnts4Put) {
 					LOG.debug(getBeanName() + ": SQL for PUT = "
@@ -816,6 +1452,7 @@ public class WdsResourceBean extends AbstractController implements
 				}
 				sqlStmnts4Post.add(stmt);
 			}
+			stmntIndex4Post = new SqlStmntIndex(sqlStmnts4Post);
 			if (LOG.isDebugEnabled()) {
 				for (SqlStmnt sqlstmnt : sqlStmnts4Post) {
 					LOG.debug(getBeanName() + ": SQL for POST = "
@@ -837,6 +1474,7 @@ public class WdsResourceBean extends AbstractController implements
 				}
 				sqlStmnts4Delete.add(stmt);
 			}
+			stmntIndex4Delete = new SqlStmntIndex(sqlStmnts4Delete);
 			if (LOG.isDebugEnabled()) {
 				for (SqlStmnt sqlstmnt : sqlStmnts4Delete) {
 					LOG.debug(getBeanName() + ": SQL for DELETE = "
@@ -865,12 +1503,64 @@ public class WdsResourceBean extends AbstractController implements
 			}
 		}
 
+		// create the bulkheads, if any
+		if (getMaxConcurrent() > 0) {
+			bulkhead = new Bulkhead(getBeanName(), getMaxConcurrent());
+		}
+		if (getMaxConcurrentByMethod() != null
+				&& !getMaxConcurrentByMethod().isEmpty()) {
+			methodBulkheads = new HashMap<String, Bulkhead>();
+			for (Map.Entry<String, Integer> entry : getMaxConcurrentByMethod()
+					.entrySet()) {
+				String method = entry.getKey().toUpperCase();
+				methodBulkheads.put(method, new Bulkhead(getBeanName() + "."
+						+ method, entry.getValue()));
+			}
+		}
+
+		// in async mode, the statements are executed by a bounded pool of
+		// threads that is, unless told otherwise, the size of the DB's
+		// connection pool; there is no use in having more threads waiting on
+		// connections
+		if (isAsyncMode()) {
+			int poolSize = getAsyncPoolSize();
+			if (poolSize == 0) {
+				poolSize = Utils.getMaxPoolSize(getDataSource());
+				if (poolSize <= 0) {
+					poolSize = DFLT_ASYNC_POOL_SIZE;
+				}
+			}
+			asyncExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60L,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+							getAsyncQueueSize()), new ThreadFactory() {
+						private AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, getBeanName() + ".async."
+									+ count.getAndIncrement());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			asyncExecutor.allowCoreThreadTimeOut(true);
+			LOG.info(getBeanName() + ": async mode with pool size = "
+					+ poolSize + ", queue size = " + getAsyncQueueSize());
+		}
+
 	}
 
 	/**
 	 * Invoked by the BeanFactory on destruction of this singleton.
 	 */
 	public void destroy() {
+		TableRegistry.unregister(this);
+		if (getResultCache() != null) {
+			getResultCache().clear();
+		}
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdownNow();
+			asyncExecutor = null;
+		}
 	}
 
 	/**
@@ -885,10 +1575,39 @@ public class WdsResourceBean extends AbstractController implements
 	 * @return must return null since we're not using a view
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
 	protected ModelAndView handleRequestInternal(HttpServletRequest request,
 			HttpServletResponse response) throws Exception {
 
+		// admission control comes first, so that an overloaded bean turns
+		// away a request before doing any work for it
+		Admission admission = admit(request, response);
+		if (admission == null) {
+			return null;
+		}
+		try {
+			return processRequest(request, response, admission);
+		} finally {
+			// an async request is released when it completes
+			if (!request.isAsyncStarted()) {
+				admission.run();
+			}
+		}
+	}
+
+	/**
+	 * Processes a request that has been admitted.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param admission
+	 * @return must return null since we're not using a view
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private ModelAndView processRequest(HttpServletRequest request,
+			HttpServletResponse response, Admission admission)
+			throws Exception {
+
 		LOG.debug(getBeanName()
 				+ ": handleRequestInternal - **** new request ****");
 
@@ -1018,13 +1737,20 @@ public class WdsResourceBean extends AbstractController implements
 			}
 		}
 
-		// we do not support chunked transfer encoding, which is a http
-		// 1.1 feature.
-		if (request.getHeader(TRANSFER_ENCODING_HDR) != null
-				&& request.getHeader(TRANSFER_ENCODING_HDR).equalsIgnoreCase(
-						CHUNKED)) {
-			response.sendError(SC_BAD_REQUEST,
-					"Chunked tranfer encoding is not " + "supported");
+		// an entity body either has a content length or, with http 1.1's
+		// chunked transfer encoding, an unknown length. a body that is known
+		// to be too large is rejected before any of it is read
+		boolean chunked = request.getHeader(TRANSFER_ENCODING_HDR) != null
+				&& request.getHeader(TRANSFER_ENCODING_HDR).toLowerCase()
+						.indexOf(CHUNKED) >= 0;
+		boolean bodyPresent = chunked || request.getContentLength() > 0;
+		if (getMaxBodySize() > 0
+				&& request.getContentLength() > getMaxBodySize()) {
+			LOG.error(getBeanName() + ": ERROR, entity body of "
+					+ request.getContentLength() + " bytes is too large");
+			response.sendError(SC_REQUEST_ENTITY_TOO_LARGE,
+					"entity body exceeds max size of " + getMaxBodySize()
+							+ " bytes");
 			return null;
 		}
 
@@ -1088,6 +1814,13 @@ public class WdsResourceBean extends AbstractController implements
 			return null;
 		}
 
+		// a HEAD is processed as a GET, but its response does not include the
+		// entity body
+		boolean isHead = method.isHead();
+		if (isHead) {
+			method = Method.GET;
+		}
+
 		// do some more method validation; i.e., make sure requested method has
 		// been assigned a SQL statement
 		//
@@ -1135,20 +1868,20 @@ public class WdsResourceBean extends AbstractController implements
 			}
 		}
 
-		// pick up the corresponding list of SQL statements for this request
-		List<SqlStmnt> sqlStmnts = null;
+		// pick up the corresponding index of SQL statements for this request
+		SqlStmntIndex stmntIndex = null;
 		switch (method) {
 		case GET:
-			sqlStmnts = getSqlStmnts4Get();
+			stmntIndex = getStmntIndex4Get();
 			break;
 		case DELETE:
-			sqlStmnts = getSqlStmnts4Delete();
+			stmntIndex = getStmntIndex4Delete();
 			break;
 		case PUT:
-			sqlStmnts = getSqlStmnts4Put();
+			stmntIndex = getStmntIndex4Put();
 			break;
 		case POST:
-			sqlStmnts = getSqlStmnts4Post();
+			stmntIndex = getStmntIndex4Post();
 			break;
 		default:
 			response.sendError(SC_METHOD_NOT_ALLOWED,
@@ -1162,7 +1895,7 @@ public class WdsResourceBean extends AbstractController implements
 		// ~~~~~~ EXTRACT PARAMERTERS, IF ANY ~~~~~~~~~~~
 
 		// GETs with entity bodies are illegal
-		if (method.isGet() && request.getContentLength() > 0) {
+		if (method.isGet() && bodyPresent) {
 			response.sendError(SC_BAD_REQUEST,
 					"Client has issued a malformed or illegal request; "
 							+ "GET cannot include entity body");
@@ -1174,17 +1907,15 @@ public class WdsResourceBean extends AbstractController implements
 
 		// see if json object arrived
 		boolean jsonObjectPresent = (method.isPost() || method.isPut())
-				&& (request.getContentLength() > 0 && request.getContentType()
-						.equalsIgnoreCase(jsonContentType));
+				&& bodyPresent && isContentType(request, jsonContentType);
 
 		LOG.debug(getBeanName() + ": jsonObjectPresent = " + jsonObjectPresent);
 
 		// see if this is a PUT with entity. we've learned that for PUTs,
 		// getParameterMap does not work the same across all servlet containers.
 		// so we need take care of this ourselves
-		boolean putWithBodyPresent = (method.isPut())
-				&& (request.getContentLength() > 0 && request.getContentType()
-						.equalsIgnoreCase(urlEncodedContentType));
+		boolean putWithBodyPresent = (method.isPut()) && bodyPresent
+				&& isContentType(request, urlEncodedContentType);
 
 		LOG.debug(getBeanName() + ": putWithBodyPresent = "
 				+ putWithBodyPresent);
@@ -1194,13 +1925,35 @@ public class WdsResourceBean extends AbstractController implements
 		// ~~~~ ALL PARAMETER KEY NAMES MUST BE FORCED TO LOWER CASE ~~~
 		//
 		List<Map<String, String>> cParams = new ArrayList<Map<String, String>>();
+		JsonRowReader rowReader = null;
+
+		// the entity body, if any, is read as it arrives and is bounded in
+		// size and read time
+		BoundedInputStream bodyStream = null;
+		if (putWithBodyPresent || jsonObjectPresent) {
+			bodyStream = new BoundedInputStream(request.getInputStream(),
+					getMaxBodySize(), (getBodyReadTimeout() > 0) ? System
+							.currentTimeMillis() + getBodyReadTimeout() : 0L);
+		}
 
 		// first, get the incoming query or form parameters (if any); we will
 		// assume that each key has only one parameter. in other words,
 		// we're not dealing with drop-down boxes or things similar
 		if (!putWithBodyPresent && !jsonObjectPresent) {
 			Map<String, String[]> qParams = request.getParameterMap();
-			if (qParams != null && !qParams.isEmpty()) {
+			// a GET may carry several param sets by repeating its params
+			if (method.isGet() && getMaxMultiGet() > 0) {
+				try {
+					cParams.addAll(Utils.getParamSets(qParams,
+							getMaxMultiGet()));
+				} catch (IllegalArgumentException exc) {
+					LOG.error(getBeanName() + ": ERROR, invalid multi-key "
+							+ "params: " + exc.getMessage());
+					response.sendError(SC_BAD_REQUEST,
+							"invalid multi-key params: " + exc.getMessage());
+					return null;
+				}
+			} else if (qParams != null && !qParams.isEmpty()) {
 				Map<String, String> qMap = new HashMap<String, String>();
 				for (String key : qParams.keySet()) {
 					qMap.put(key.toLowerCase(), qParams.get(key)[0]);
@@ -1220,7 +1973,7 @@ public class WdsResourceBean extends AbstractController implements
 			try {
 				Map<String, String> putParams = null;
 				// parseUrlEncoded will force keys to lower case
-				putParams = Utils.parseUrlEncoded(request.getInputStream());
+				putParams = Utils.parseUrlEncoded(bodyStream);
 				if (putParams != null && !putParams.isEmpty()) {
 					cParams.add(putParams);
 				}
@@ -1237,8 +1990,27 @@ public class WdsResourceBean extends AbstractController implements
 							+ ": causing exception stack trace follows:");
 					dumpStackTrace(exc.getCause().getStackTrace());
 				}
-				response.sendError(SC_BAD_REQUEST,
-						"urlencoded string parsing error: " + exc.getMessage());
+				sendBodyError(response, exc, "urlencoded string parsing error: ");
+				return null;
+			}
+		}
+
+		// a json object arrived and it is to be ingested as it is read. so
+		// only read its first object, which is used for finding the SQL
+		// statement
+		else if (isIngesting()) {
+			try {
+				rowReader = Utils.createJsonRowReader(bodyStream);
+				rowReader.setBlackList(getBlackList().toCharArray());
+				Map<String, String> firstRow = rowReader.nextRow();
+				if (firstRow != null) {
+					cParams.add(firstRow);
+				}
+			} catch (Exception exc) {
+				LOG.error(getBeanName() + ": ERROR, caught this "
+						+ "exception while parsing json object: "
+						+ exc.toString());
+				sendBodyError(response, exc, "json parsing error: ");
 				return null;
 			}
 		}
@@ -1251,7 +2023,7 @@ public class WdsResourceBean extends AbstractController implements
 				List<Map<String, String>> jParams = null;
 				// parseJson will ensure that all passed-in JSON objects have
 				// the same set of identical keys
-				jParams = Utils.parseJson(request.getInputStream());
+				jParams = Utils.parseJson(bodyStream);
 				if (jParams != null && !jParams.isEmpty()) {
 					// if we also got query params then ensure they have the
 					// same set of keys as the json params. why anyone would
@@ -1290,8 +2062,7 @@ public class WdsResourceBean extends AbstractController implements
 							+ ": causing exception stack trace follows:");
 					dumpStackTrace(exc.getCause().getStackTrace());
 				}
-				response.sendError(SC_BAD_REQUEST,
-						"json parsing error: " + exc.getMessage());
+				sendBodyError(response, exc, "json parsing error: ");
 				return null;
 			}
 		}
@@ -1304,273 +2075,1024 @@ public class WdsResourceBean extends AbstractController implements
 							+ ": handleRequestInternal - received these params: "
 							+ cParams.get(i).toString());
 				}
-			} else {
-				LOG.debug(getBeanName()
-						+ ": handleRequestInternal - did not receive any params");
+			} else {
+				LOG.debug(getBeanName()
+						+ ": handleRequestInternal - did not receive any params");
+			}
+		}
+
+		// ensure none of the params' values have been black listed
+		if (!cParams.isEmpty() && getBlackList().length() > 0) {
+			char[] bl = getBlackList().toCharArray();
+			for (int i = 0; i < cParams.size(); i++) {
+				for (String value : cParams.get(i).values()) {
+					if (Utils.isOnBlackList(value, bl)) {
+						response.sendError(SC_BAD_REQUEST,
+								"encountered black listed character in this param "
+										+ "value: " + value);
+						LOG.error(getBeanName()
+								+ "handleRequestInternal - encountered black listed "
+								+ "character in this param value: " + value);
+						return null;
+					}
+
+				}
+			}
+		}
+
+		// if paging, take the paging params out of the params that are used
+		// for finding the SQL statement
+		int pageLimit = 0;
+		Object pageAfter = null;
+		if (method.isGet() && isPaging() && cParams.size() > 1) {
+			if (cParams.get(0).containsKey(PAGE_LIMIT_PARAM)
+					|| cParams.get(0).containsKey(PAGE_AFTER_PARAM)) {
+				response.sendError(SC_BAD_REQUEST,
+						"paging is not supported for multi-key GETs");
+				return null;
+			}
+		} else if (method.isGet() && isPaging()) {
+			Map<String, String> pMap = cParams.isEmpty() ? null : cParams
+					.get(0);
+			String limitStr = (pMap == null) ? null : pMap
+					.remove(PAGE_LIMIT_PARAM);
+			String afterStr = (pMap == null) ? null : pMap
+					.remove(PAGE_AFTER_PARAM);
+			if (pMap != null && pMap.isEmpty()) {
+				cParams.clear();
+			}
+			try {
+				pageLimit = (limitStr == null) ? getPageSize() : Math.min(
+						Integer.parseInt(limitStr.trim()), getMaxPageSize());
+				if (pageLimit <= 0) {
+					throw new IllegalArgumentException("limit must be > 0");
+				}
+				if (afterStr != null) {
+					pageAfter = Utils.decodePageToken(afterStr);
+				}
+			} catch (IllegalArgumentException exc) {
+				LOG.error(getBeanName() + ": ERROR, invalid paging param: "
+						+ exc.getMessage());
+				response.sendError(SC_BAD_REQUEST, "invalid paging param: "
+						+ exc.getMessage());
+				return null;
+			}
+		}
+
+		// find the proper SQL statement based on the incoming parameters' (if
+		// any) keys
+		SqlStmnt sqlStmnt = null;
+		try {
+			// getMatch will try and find a match, even if no params were
+			// provided.
+			// @formatter:off
+			sqlStmnt = (stmntIndex == null) ? null 
+					: (cParams.isEmpty()) 
+					? stmntIndex.getMatch((Set<String>) null) 
+					: stmntIndex.getMatch(cParams.get(0).keySet());
+			// @formatter:on
+
+			if (sqlStmnt == null && !cParams.isEmpty()) {
+				LOG.error(getBeanName() + ":ERROR, unable to find sql "
+						+ "statement with this incoming param set: "
+						+ cParams.toString());
+				response.sendError(SC_INTERNAL_SERVER_ERROR,
+						"internal server error: mapping error");
+				return null;
+			} else if (sqlStmnt == null) {
+				LOG.warn(getBeanName() + ": warning, unable to find sql "
+						+ "statement on first pass, will use extra path info");
+			} else {
+				LOG.debug(getBeanName()
+						+ ": handleRequestInternal - matching sql stmt = "
+						+ sqlStmnt.toString());
+			}
+		} catch (Exception exc) {
+			LOG.error(getBeanName() + ":ERROR, caught this exception "
+					+ "while mapping sql to params: " + exc.toString());
+			LOG.error(getBeanName() + ": exception stack trace follows:");
+			dumpStackTrace(exc.getStackTrace());
+			if (exc.getCause() != null) {
+				LOG.error(getBeanName() + ": Caused by "
+						+ exc.getCause().toString());
+				LOG.error(getBeanName()
+						+ ": causing exception stack trace follows:");
+				dumpStackTrace(exc.getCause().getStackTrace());
+			}
+			response.sendError(SC_INTERNAL_SERVER_ERROR, "mapping error");
+			return null;
+		}
+
+		// if getMatch could not find a match - perhaps input params were not
+		// provided - then use the URI's 'extended path' information as an input
+		// param
+		if (sqlStmnt == null) {
+			LOG.debug(getBeanName() + ": invoking getExtraPathInfo");
+			String[] xtraPathInfo = Utils.getExtraPathInfo(request
+					.getPathInfo());
+			if (xtraPathInfo != null && xtraPathInfo.length >= 2) {
+				LOG.debug(getBeanName() + ": extra path key:value = "
+						+ xtraPathInfo[0] + ":" + xtraPathInfo[1]);
+			} else {
+				LOG.error(getBeanName()
+						+ ":ERROR, getExtraPathInfo failed to find info");
+				response.sendError(SC_INTERNAL_SERVER_ERROR,
+						"internal server error: mapping error");
+				return null;
+			}
+			// put the xtra path info in the common param bucket and try again
+			cParams.clear();
+			Map<String, String> xMap = new HashMap<String, String>();
+			xMap.put(xtraPathInfo[0], xtraPathInfo[1]);
+			cParams.add(xMap);
+			// try again with the extra path info
+			sqlStmnt = (stmntIndex == null) ? null : stmntIndex
+					.getMatch(xtraPathInfo[0]);
+			if (sqlStmnt == null) {
+				LOG.error(getBeanName() + ":ERROR, unable to find sql "
+						+ "statement with this xtra path info: "
+						+ cParams.toString());
+				response.sendError(SC_NOT_FOUND,
+						"internal server error: mapping error");
+				return null;
+			}
+		}
+
+		// if we've gotten this far, we've gotten past the security gauntlet and
+		// we have a SQL statement to work with. a GET may be answered from the
+		// result cache without going to the DB
+		boolean paged = pageLimit > 0 && sqlStmnt.isSelect();
+		String cacheKey = null;
+		if (method.isGet() && !paged && isCaching()) {
+			cacheKey = ResultCache.toKey(sqlStmnt, cParams);
+			ResultCache.Entry entry = getResultCache().get(cacheKey,
+					currentTime);
+			if (entry != null) {
+				LOG.debug(getBeanName()
+						+ ": answering GET from the result cache");
+				writeGetResponse(request, response, cacheKey, entry, isHead);
+				return null;
+			}
+		}
+
+		StmntExecution execution = new StmntExecution(request, method, isHead,
+				sqlStmnt, cParams, paged, pageLimit, pageAfter, cacheKey,
+				currentTime, rowReader, bodyStream);
+
+		// in async mode, the statement is executed on this bean's executor,
+		// which frees the container's thread for requests that do not need
+		// the DB
+		if (getAsyncExecutor() != null && request.isAsyncSupported()) {
+			AsyncExecution.start(request.startAsync(request, response),
+					execution, getAsyncExecutor(), getAsyncTimeout(),
+					getBeanName(), admission);
+			return null;
+		}
+		execution.execute(response);
+
+		// must return null, because we're not using views!
+		return null;
+	}
+
+	/**
+	 * Admits the given request through this bean's bulkheads, if any. Returns
+	 * the admission, which must be run to release the request, or null if the
+	 * request was rejected, in which case the client has been sent a 503.
+	 * 
+	 * @param request
+	 * @param response
+	 * @return
+	 * @throws IOException
+	 */
+	private Admission admit(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		Bulkhead methodBulkhead = null;
+		if (methodBulkheads != null && request.getMethod() != null) {
+			String name = request.getMethod().toUpperCase();
+			// a HEAD is processed as a GET
+			methodBulkhead = methodBulkheads.get(name.equals("HEAD") ? "GET"
+					: name);
+		}
+		if (bulkhead == null && methodBulkhead == null) {
+			return new Admission(null, null);
+		}
+		// the queue-time budget is shared by the bulkheads
+		long deadline = System.currentTimeMillis() + getMaxQueueWait();
+		if (methodBulkhead != null
+				&& !methodBulkhead.tryAcquire(getMaxQueueWait())) {
+			reject(methodBulkhead, response);
+			return null;
+		}
+		if (bulkhead != null
+				&& !bulkhead.tryAcquire(Math.max(0L,
+						deadline - System.currentTimeMillis()))) {
+			if (methodBulkhead != null) {
+				methodBulkhead.release();
+			}
+			reject(bulkhead, response);
+			return null;
+		}
+		return new Admission(bulkhead, methodBulkhead);
+	}
+
+	private void reject(Bulkhead rejecter, HttpServletResponse response)
+			throws IOException {
+		LOG.error(getBeanName() + ": ERROR, rejecting request, " + rejecter);
+		response.setHeader(RETRY_AFTER_HDR,
+				Long.toString(Math.max(1L, (getMaxQueueWait() + 999L) / 1000L)));
+		response.sendError(SC_SERVICE_UNAVAILABLE,
+				"server is busy, retry later");
+	}
+
+	/**
+	 * An admitted request's hold on the bulkheads, which is released, once,
+	 * when run.
+	 */
+	private static class Admission implements Runnable {
+
+		private final Bulkhead[] bulkheads;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		Admission(Bulkhead bulkhead, Bulkhead methodBulkhead) {
+			this.bulkheads = new Bulkhead[] { bulkhead, methodBulkhead };
+		}
+
+		public void run() {
+			if (released.compareAndSet(false, true)) {
+				for (Bulkhead bulkhead : bulkheads) {
+					if (bulkhead != null) {
+						bulkhead.release();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The execution of a request's SQL statement and the writing of its
+	 * response, which is done on the container's thread or, in async mode, on
+	 * this bean's executor.
+	 */
+	private class StmntExecution implements AsyncExecution.Work {
+
+		private final HttpServletRequest request;
+		private final Method method;
+		private final boolean isHead;
+		private final SqlStmnt sqlStmnt;
+		private final List<Map<String, String>> cParams;
+		private final boolean paged;
+		private final int pageLimit;
+		private final Object pageAfter;
+		private final String cacheKey;
+		private final long currentTime;
+		private final JsonRowReader rowReader;
+		private final BoundedInputStream bodyStream;
+
+		StmntExecution(HttpServletRequest request, Method method,
+				boolean isHead, SqlStmnt sqlStmnt,
+				List<Map<String, String>> cParams, boolean paged,
+				int pageLimit, Object pageAfter, String cacheKey,
+				long currentTime, JsonRowReader rowReader,
+				BoundedInputStream bodyStream) {
+			this.request = request;
+			this.method = method;
+			this.isHead = isHead;
+			this.sqlStmnt = sqlStmnt;
+			this.cParams = cParams;
+			this.paged = paged;
+			this.pageLimit = pageLimit;
+			this.pageAfter = pageAfter;
+			this.cacheKey = cacheKey;
+			this.currentTime = currentTime;
+			this.rowReader = rowReader;
+			this.bodyStream = bodyStream;
+		}
+
+		public void execute(HttpServletResponse response) throws Exception {
+
+			SqlResult sqlResult = null;
+			try {
+				// get the output stream
+				OutputStream os = response.getOutputStream();
+
+				// if streaming, write the result set as its rows are fetched. a
+				// streamed response has no entity tag, because it is sent before
+				// it has all been read from the DB
+				if (method.isGet() && !isHead && !paged && isStreamResults()
+						&& sqlStmnt.isSelect()) {
+					streamResultSet(sqlStmnt, cParams, os, request, response,
+							currentTime);
+					return;
+				}
+
+				// a GET's response is loaded by this request or, if coalescing,
+				// by a concurrent request for the same statement and params
+				if (method.isGet()) {
+					ResultCache.Entry entry = null;
+					if (paged) {
+						entry = loadPage(sqlStmnt, cParams, pageLimit, pageAfter,
+								currentTime, response);
+					} else if (getSingleFlight() != null) {
+						entry = getSingleFlight().execute(
+								(cacheKey != null) ? cacheKey : ResultCache.toKey(
+										sqlStmnt, cParams),
+								createGetLoader(sqlStmnt, cParams, cacheKey,
+										currentTime), getCoalesceMaxWait());
+					} else {
+						entry = loadGetResponse(sqlStmnt, cParams, cacheKey,
+								currentTime);
+					}
+					if (entry == null) {
+						// execute will have logged the necessary debug/error info
+						response.sendError(SC_INTERNAL_SERVER_ERROR);
+					} else if (entry == NO_RESULT_SET) {
+						LOG.debug(getBeanName() + ": NOT returning json message");
+						response.setStatus(SC_OK);
+					} else {
+						writeGetResponse(request, response, cacheKey, entry,
+								isHead);
+					}
+					return;
+				}
+
+				// the rest of an ingested json array is either executed in chunked
+				// batches or, if the statement cannot be batched, read in its
+				// entirety
+				if (rowReader != null) {
+					if (sqlStmnt.isPrepared() && !sqlStmnt.isCallable()
+							&& !sqlStmnt.isSelect() && !cParams.isEmpty()) {
+						ingest(sqlStmnt, cParams.get(0), rowReader, bodyStream,
+								method, response);
+						return;
+					}
+					try {
+						Map<String, String> row = null;
+						while ((row = rowReader.nextRow()) != null) {
+							cParams.add(row);
+						}
+					} catch (Exception exc) {
+						LOG.error(getBeanName() + ": ERROR, caught this "
+								+ "exception while parsing json object: "
+								+ exc.toString());
+						sendBodyError(response, exc, "json parsing error: ");
+						return;
+					} finally {
+						rowReader.close();
+					}
+				}
+
+				// FIRE IN THE DB HOLE :)
+				if ((sqlResult = sqlStmnt.execute(cParams)) == null) {
+					// execute will have logged the necessary debug/error info
+					response.sendError(SC_INTERNAL_SERVER_ERROR);
+					return;
+				}
+
+				// execute went through ok, lets see how to respond
+				switch (method) {
+				case DELETE:
+					// a DELETE should not send back an entity body
+					response.setStatus(SC_NO_CONTENT);
+					break;
+				case PUT:
+					/*
+					 * PUTs are idempotent; therefore, they must provide ALL the
+					 * properties that pertain to the resource/entity that they are
+					 * creating or updating. Updates cannot be partial updates; they
+					 * must be full updates. A PUT is issued by a client that knows
+					 * the identifier (in our case, primary key) of the
+					 * resource/entity. Therefore, we do not have to send back a
+					 * Location header in response to a PUT that has created a
+					 * resource.
+					 */
+					if (sqlStmnt.isInsert()) {
+						response.setStatus(SC_CREATED);
+					} else {
+						response.setStatus(SC_OK);
+					}
+					break;
+				case POST:
+					/*
+					 * A POST is not idempotent; therefore, it can be used to
+					 * perform a 'partial' update, as well as a full create. When
+					 * creating a resource via POST, the client does not know the
+					 * primary key, and it assumes it will be auto-generated;
+					 * therefore, a Location header with auto-generated key must be
+					 * returned to client.
+					 */
+					if (sqlStmnt.isInsert()) {
+						response.setStatus(SC_CREATED);
+						// we need to return the new key, but only if it was not a
+						// batch insert. the new key should be returned via the
+						// location header
+
+						// check if a key holder exists; if not, then table was not
+						// configured with auto-generated key.
+						String locationPath = request.getRequestURL().toString();
+						if (sqlResult.getKeyHolder() != null) {
+							// key holder exists, check and see if a key is
+							// present
+							if (sqlResult.getKeyHolder().getKey() != null) {
+								String id = sqlResult.getKeyHolder().getKey()
+										.toString();
+								LOG.debug(getBeanName() + ": getKey() returns "
+										+ id);
+								locationPath += ("/" + id);
+								LOG.debug(getBeanName() + ": locationPath = "
+										+ locationPath);
+								response.setHeader(LOCATION_HDR, locationPath);
+							}
+							// no key, check for multiple keys
+							// TODO: should we send back all keys?
+							else if (sqlResult.getKeyHolder().getKeys() != null) {
+								Map<String, Object> keyMap = sqlResult
+										.getKeyHolder().getKeys();
+								LOG.debug(getBeanName() + ": getKeys() returns "
+										+ keyMap);
+							}
+							// maybe map of keys?
+							// TODO: should we send back all keys?
+							else if (sqlResult.getKeyHolder().getKeyList() != null) {
+								for (Map<String, Object> map : sqlResult
+										.getKeyHolder().getKeyList()) {
+									LOG.debug(getBeanName()
+											+ ": Map from getKeyList(): " + map);
+								}
+							}
+						} else {
+							// if it was not an insert, then it was an update.
+							LOG.debug(getBeanName()
+									+ ": key holder was not returned for the insert");
+						}
+					} else {
+						// it was not an insert, so just send back an OK for the
+						// update
+						response.setStatus(SC_OK);
+					}
+					break;
+				default:
+					response.setStatus(SC_OK);
+					break;
+				}
+			} catch (JsonProcessingException exc) {
+				LOG.error(getBeanName() + ":ERROR, caught this "
+						+ "JsonProcessingException while trying to gen json "
+						+ "message: " + exc.toString());
+				LOG.error(getBeanName() + ": exception stack trace follows:");
+				dumpStackTrace(exc.getStackTrace());
+				if (exc.getCause() != null) {
+					LOG.error(getBeanName() + ": Caused by "
+							+ exc.getCause().toString());
+					LOG.error(getBeanName()
+							+ ": causing exception stack trace follows:");
+					dumpStackTrace(exc.getCause().getStackTrace());
+				}
+				response.sendError(SC_INTERNAL_SERVER_ERROR, "parsing error");
+				return;
+			} catch (Exception exc) {
+				LOG.error(getBeanName() + ":ERROR, caught this "
+						+ "Exception while trying to gen json " + "message: "
+						+ exc.toString());
+				LOG.error(getBeanName() + ": exception stack trace follows:");
+				dumpStackTrace(exc.getStackTrace());
+				if (exc.getCause() != null) {
+					LOG.error(getBeanName() + ": Caused by "
+							+ exc.getCause().toString());
+					LOG.error(getBeanName()
+							+ ": causing exception stack trace follows:");
+					dumpStackTrace(exc.getCause().getStackTrace());
+				}
+				response.sendError(SC_INTERNAL_SERVER_ERROR, "parsing error");
+				return;
+
+			} finally {
+				if (sqlResult != null) {
+					SqlResult.enqueue(sqlResult);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ingests the rows of a POST or PUT, with the given statement, in chunked
+	 * batches and responds with the number of rows affected by each chunk.
+	 * 
+	 * @param sqlStmnt
+	 * @param firstRow
+	 * @param rowReader
+	 * @param bodyStream
+	 * @param method
+	 * @param response
+	 * @throws Exception
+	 */
+	private void ingest(SqlStmnt sqlStmnt, Map<String, String> firstRow,
+			JsonRowReader rowReader, BoundedInputStream bodyStream,
+			Method method, HttpServletResponse response) throws Exception {
+
+		SqlResult sqlResult = null;
+		try {
+			sqlResult = sqlStmnt.executeIngest(firstRow, rowReader,
+					getIngestBatchSize(), isIngestTransacted());
+			if (sqlResult == null) {
+				// executeIngest will have logged the necessary error info
+				if (bodyStream.getLimitException() != null) {
+					sendBodyError(response, bodyStream.getLimitException(),
+							"");
+				} else {
+					response.sendError(SC_INTERNAL_SERVER_ERROR);
+				}
+				return;
+			}
+			LOG.debug(getBeanName() + ": ingested " + rowReader.getRowCount()
+					+ " rows in " + sqlResult.getChunkNumRows().length
+					+ " chunks");
+			List<Integer> chunks = new ArrayList<Integer>();
+			for (int numRows : sqlResult.getChunkNumRows()) {
+				chunks.add(numRows);
+			}
+			Map<String, Object> map = new HashMap<String, Object>();
+			map.put(NUM_ROWS_STR, sqlResult.getNumRows());
+			map.put(CHUNK_NUM_ROWS_STR, chunks);
+			List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+			list.add(map);
+			byte[] body = Utils.generateJson(list).getBytes(UTF8_STR);
+			response.setContentType(rspJsonContentType);
+			response.setContentLength(body.length);
+			response.setStatus((sqlStmnt.isInsert() && (method.isPost() || method
+					.isPut())) ? SC_CREATED : SC_OK);
+			writeBody(response, body);
+		} finally {
+			rowReader.close();
+			if (sqlResult != null) {
+				SqlResult.enqueue(sqlResult);
 			}
 		}
+	}
 
-		// ensure none of the params' values have been black listed
-		if (!cParams.isEmpty() && getBlackList().length() > 0) {
-			char[] bl = getBlackList().toCharArray();
-			for (int i = 0; i < cParams.size(); i++) {
-				for (String value : cParams.get(i).values()) {
-					if (Utils.isOnBlackList(value, bl)) {
-						response.sendError(SC_BAD_REQUEST,
-								"encountered black listed character in this param "
-										+ "value: " + value);
-						LOG.error(getBeanName()
-								+ "handleRequestInternal - encountered black listed "
-								+ "character in this param value: " + value);
-						return null;
-					}
+	/**
+	 * Writes the given response body. In async mode, the body is written
+	 * without blocking the executor's thread.
+	 * 
+	 * @param response
+	 * @param body
+	 * @throws IOException
+	 */
+	private void writeBody(HttpServletResponse response, byte[] body)
+			throws IOException {
+		if (response instanceof AsyncExecution) {
+			((AsyncExecution) response).writeBody(body);
+		} else {
+			response.getOutputStream().write(body);
+		}
+	}
 
-				}
-			}
+	/**
+	 * Returns true if the given request's content type, without any of its
+	 * parameters (e.g., charset), is the given type.
+	 * 
+	 * @param request
+	 * @param type
+	 * @return
+	 */
+	private boolean isContentType(HttpServletRequest request, String type) {
+		String contentType = request.getContentType();
+		if (contentType == null) {
+			return false;
 		}
+		int semi = contentType.indexOf(';');
+		if (semi >= 0) {
+			contentType = contentType.substring(0, semi);
+		}
+		return contentType.trim().equalsIgnoreCase(type);
+	}
 
-		// find the proper SQL statement based on the incoming parameters' (if
-		// any) keys
-		SqlStmnt sqlStmnt = null;
-		try {
-			// getMatch will try and find a match, even if no params were
-			// provided.
-			// @formatter:off
-			sqlStmnt = (cParams.isEmpty()) 
-					? SqlStmnt.getMatch(sqlStmnts, null) 
-					: SqlStmnt.getMatch(sqlStmnts, cParams.get(0).keySet());
-			// @formatter:on
+	/**
+	 * Sends the error for an entity body that could not be read or parsed. A
+	 * body that was too large or not read in time gets a 413 or 408; else, the
+	 * body was malformed and gets a 400.
+	 * 
+	 * @param response
+	 * @param exc
+	 * @param prefix
+	 * @throws IOException
+	 */
+	private void sendBodyError(HttpServletResponse response, Exception exc,
+			String prefix) throws IOException {
+		BoundedInputStream.LimitException limitExc = Utils
+				.getLimitException(exc);
+		if (limitExc == null) {
+			response.sendError(SC_BAD_REQUEST, prefix + exc.getMessage());
+		} else if (limitExc.isTimedOut()) {
+			LOG.error(getBeanName() + ": ERROR, " + limitExc.getMessage());
+			response.sendError(SC_REQUEST_TIMEOUT, limitExc.getMessage());
+		} else {
+			LOG.error(getBeanName() + ": ERROR, " + limitExc.getMessage());
+			response.sendError(SC_REQUEST_ENTITY_TOO_LARGE,
+					limitExc.getMessage());
+		}
+	}
 
-			if (sqlStmnt == null && !cParams.isEmpty()) {
-				LOG.error(getBeanName() + ":ERROR, unable to find sql "
-						+ "statement with this incoming param set: "
-						+ cParams.toString());
-				response.sendError(SC_INTERNAL_SERVER_ERROR,
-						"internal server error: mapping error");
+	/**
+	 * Executes the given GET statement and returns its encoded response, which
+	 * is also cached if the given cache key is not null. Returns NO_RESULT_SET
+	 * if a result set was not returned or null if the execution failed.
+	 * 
+	 * @param sqlStmnt
+	 * @param cParams
+	 * @param cacheKey
+	 * @param currentTime
+	 * @return
+	 * @throws Exception
+	 */
+	private ResultCache.Entry loadGetResponse(SqlStmnt sqlStmnt,
+			List<Map<String, String>> cParams, String cacheKey,
+			long currentTime) throws Exception {
+
+		// the cache's generation is taken before going to the DB, so that a
+		// response that a concurrent write has made stale is not cached
+		long generation = (cacheKey != null) ? getResultCache().getGeneration(
+				sqlStmnt) : 0L;
+
+		// a columnar result set is converted to json without mapping its rows
+		if (isColumnarResults() && sqlStmnt.isSelect()) {
+			ColumnarResult result = sqlStmnt.executeColumnar(cParams);
+			if (result == null) {
 				return null;
-			} else if (sqlStmnt == null) {
-				LOG.warn(getBeanName() + ": warning, unable to find sql "
-						+ "statement on first pass, will use extra path info");
-			} else {
-				LOG.debug(getBeanName()
-						+ ": handleRequestInternal - matching sql stmt = "
-						+ sqlStmnt.toString());
 			}
-		} catch (Exception exc) {
-			LOG.error(getBeanName() + ":ERROR, caught this exception "
-					+ "while mapping sql to params: " + exc.toString());
-			LOG.error(getBeanName() + ": exception stack trace follows:");
-			dumpStackTrace(exc.getStackTrace());
-			if (exc.getCause() != null) {
-				LOG.error(getBeanName() + ": Caused by "
-						+ exc.getCause().toString());
-				LOG.error(getBeanName()
-						+ ": causing exception stack trace follows:");
-				dumpStackTrace(exc.getCause().getStackTrace());
+			// as with the mapped rows, an empty result set is not returned
+			if (result.getRowCount() == 0) {
+				return NO_RESULT_SET;
 			}
-			response.sendError(SC_INTERNAL_SERVER_ERROR, "mapping error");
+			return encodeResponse(sqlStmnt, result.toJson(), cacheKey,
+					generation, currentTime);
+		}
+
+		// FIRE IN THE DB HOLE :)
+		SqlResult sqlResult = sqlStmnt.execute(cParams);
+		if (sqlResult == null) {
 			return null;
 		}
+		try {
+			// if a resultset was returned, then convert it to json
+			List<Map<String, Object>> listMap = sqlResult.getResultSet();
+			if (listMap == null) {
+				return NO_RESULT_SET;
+			}
+			return encodeResponse(sqlStmnt, listMap, cacheKey, generation,
+					currentTime);
+		} finally {
+			SqlResult.enqueue(sqlResult);
+		}
+	}
 
-		// if getMatch could not find a match - perhaps input params were not
-		// provided - then use the URI's 'extended path' information as an input
-		// param
-		if (sqlStmnt == null) {
-			LOG.debug(getBeanName() + ": invoking getExtraPathInfo");
-			String[] xtraPathInfo = Utils.getExtraPathInfo(request
-					.getPathInfo());
-			if (xtraPathInfo != null && xtraPathInfo.length >= 2) {
-				LOG.debug(getBeanName() + ": extra path key:value = "
-						+ xtraPathInfo[0] + ":" + xtraPathInfo[1]);
-			} else {
-				LOG.error(getBeanName()
-						+ ":ERROR, getExtraPathInfo failed to find info");
-				response.sendError(SC_INTERNAL_SERVER_ERROR,
-						"internal server error: mapping error");
-				return null;
+	/**
+	 * Executes the given GET statement for one page of its rows and returns
+	 * the page's encoded response. If the page is full, the token for the
+	 * next page is placed in the response's X-Next-Page header. Returns
+	 * NO_RESULT_SET if there are no rows or null if the execution failed.
+	 * 
+	 * @param sqlStmnt
+	 * @param cParams
+	 * @param limit
+	 * @param after
+	 * @param currentTime
+	 * @param response
+	 * @return
+	 * @throws Exception
+	 */
+	private ResultCache.Entry loadPage(SqlStmnt sqlStmnt,
+			List<Map<String, String>> cParams, int limit, Object after,
+			long currentTime, HttpServletResponse response) throws Exception {
+
+		SqlResult sqlResult = sqlStmnt.executePage(cParams, getPageKey(),
+				after, limit, getSqlDialect());
+		if (sqlResult == null) {
+			return null;
+		}
+		try {
+			List<Map<String, Object>> listMap = sqlResult.getResultSet();
+			if (listMap == null) {
+				return NO_RESULT_SET;
 			}
-			// put the xtra path info in the common param bucket and try again
-			cParams.clear();
-			Map<String, String> xMap = new HashMap<String, String>();
-			xMap.put(xtraPathInfo[0], xtraPathInfo[1]);
-			cParams.add(xMap);
-			// try again with the extra path info
-			sqlStmnt = SqlStmnt.getMatch(sqlStmnts, xMap.keySet());
-			if (sqlStmnt == null) {
-				LOG.error(getBeanName() + ":ERROR, unable to find sql "
-						+ "statement with this xtra path info: "
-						+ cParams.toString());
-				response.sendError(SC_NOT_FOUND,
-						"internal server error: mapping error");
-				return null;
+			// a full page may be followed by another
+			if (listMap.size() >= limit) {
+				Object last = getPageKeyValue(listMap.get(listMap.size() - 1));
+				if (last != null) {
+					response.setHeader(NEXT_PAGE_HDR,
+							Utils.encodePageToken(last));
+				}
 			}
+			return encodeResponse(sqlStmnt, listMap, null, 0L, currentTime);
+		} finally {
+			SqlResult.enqueue(sqlResult);
 		}
+	}
 
-		// if we've gotten this far, we've gotten past the security gauntlet and
-		// we have a SQL statement to work with.
-		SqlResult sqlResult = null;
-		try {
-			// get the output stream
-			OutputStream os = response.getOutputStream();
+	/**
+	 * Returns the value of the page key in the given row. The DB may have
+	 * changed the case of the column's name.
+	 * 
+	 * @param row
+	 * @return
+	 */
+	private Object getPageKeyValue(Map<String, Object> row) {
+		for (Map.Entry<String, Object> column : row.entrySet()) {
+			if (column.getKey().equalsIgnoreCase(getPageKey())) {
+				return column.getValue();
+			}
+		}
+		return null;
+	}
 
-			// FIRE IN THE DB HOLE :)
-			if ((sqlResult = sqlStmnt.execute(cParams)) == null) {
-				// execute will have logged the necessary debug/error info
-				response.sendError(SC_INTERNAL_SERVER_ERROR);
-				return null;
+	/**
+	 * Encodes the given rows as the JSON response to a GET. The response is
+	 * also cached if the given cache key is not null and the cache is still at
+	 * the given generation.
+	 * 
+	 * @param sqlStmnt
+	 * @param listMap
+	 * @param cacheKey
+	 * @param generation
+	 * @param currentTime
+	 * @return
+	 * @throws Exception
+	 */
+	private ResultCache.Entry encodeResponse(SqlStmnt sqlStmnt,
+			List<Map<String, Object>> listMap, String cacheKey,
+			long generation, long currentTime) throws Exception {
+		String jsonOutput = Utils.generateJson(listMap);
+		LOG.trace(getBeanName() + ": returning this payload - " + jsonOutput);
+		return encodeResponse(sqlStmnt, jsonOutput.getBytes(UTF8_STR),
+				cacheKey, generation, currentTime);
+	}
+
+	/**
+	 * Returns the given UTF-8 encoded JSON as the response to a GET. The
+	 * response is also cached if the given cache key is not null and the
+	 * cache is still at the given generation.
+	 * 
+	 * @param sqlStmnt
+	 * @param body
+	 * @param cacheKey
+	 * @param generation
+	 * @param currentTime
+	 * @return
+	 * @throws Exception
+	 */
+	private ResultCache.Entry encodeResponse(SqlStmnt sqlStmnt, byte[] body,
+			String cacheKey, long generation, long currentTime)
+			throws Exception {
+		String eTag = Utils.createETag(body);
+		long expiresAt = currentTime + (getExpires() * 1000);
+
+		// keep the encoded response for subsequent GETs
+		ResultCache.Entry entry = null;
+		if (cacheKey != null) {
+			entry = getResultCache().put(cacheKey, sqlStmnt, body, eTag,
+					expiresAt, generation);
+		}
+		if (entry == null) {
+			entry = new ResultCache.Entry(sqlStmnt, body, eTag, expiresAt);
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the work, given to the SingleFlight, that loads the response
+	 * to a GET
+	 * 
+	 * @return
+	 */
+	private Callable<ResultCache.Entry> createGetLoader(
+			final SqlStmnt sqlStmnt, final List<Map<String, String>> cParams,
+			final String cacheKey, final long currentTime) {
+		return new Callable<ResultCache.Entry>() {
+			public ResultCache.Entry call() throws Exception {
+				return loadGetResponse(sqlStmnt, cParams, cacheKey,
+						currentTime);
 			}
+		};
+	}
 
-			// execute went through ok, lets see how to respond
-			switch (method) {
-			case GET:
-				// if a resultset was returned, then set the content type,
-				// convert it to json, and write it out
-				List<Map<String, Object>> listMap = sqlResult.getResultSet();
-				if (listMap != null) {
-					// tell the client the content type
-					response.setContentType(rspJsonContentType);
-					String jsonOutput = Utils.generateJson(sqlResult
-							.getResultSet());
-					LOG.trace(getBeanName() + ": returning this payload - "
-							+ jsonOutput);
-					os.write(jsonOutput.getBytes());
-
-					// ensure that only the client can cache the data and tell
-					// the client how long the data can remain active
-					response.setHeader(CACHE_CNTRL_HDR,
-							(getCacheControl() != null) ? getCacheControl()
-									: DFLT_CACHE_CNTRL_STR);
-					response.setHeader(PRAGMA_HDR, PRAGMA_NO_CACHE_STR);					
-					response.setDateHeader(EXPIRES_HDR, currentTime
-							+ (getExpires() * 1000));
-				} else {
-					LOG.debug(getBeanName() + ": NOT returning json message");
-				}
-				response.setStatus(SC_OK);
-				break;
-			case DELETE:
-				// a DELETE should not send back an entity body
-				response.setStatus(SC_NO_CONTENT);
-				break;
-			case PUT:
-				/*
-				 * PUTs are idempotent; therefore, they must provide ALL the
-				 * properties that pertain to the resource/entity that they are
-				 * creating or updating. Updates cannot be partial updates; they
-				 * must be full updates. A PUT is issued by a client that knows
-				 * the identifier (in our case, primary key) of the
-				 * resource/entity. Therefore, we do not have to send back a
-				 * Location header in response to a PUT that has created a
-				 * resource.
-				 */
-				if (sqlStmnt.isInsert()) {
-					response.setStatus(SC_CREATED);
-				} else {
-					response.setStatus(SC_OK);
-				}
-				break;
-			case POST:
-				/*
-				 * A POST is not idempotent; therefore, it can be used to
-				 * perform a 'partial' update, as well as a full create. When
-				 * creating a resource via POST, the client does not know the
-				 * primary key, and it assumes it will be auto-generated;
-				 * therefore, a Location header with auto-generated key must be
-				 * returned to client.
-				 */
-				if (sqlStmnt.isInsert()) {
-					response.setStatus(SC_CREATED);
-					// we need to return the new key, but only if it was not a
-					// batch insert. the new key should be returned via the
-					// location header
-
-					// check if a key holder exists; if not, then table was not
-					// configured with auto-generated key.
-					String locationPath = request.getRequestURL().toString();
-					if (sqlResult.getKeyHolder() != null) {
-						// key holder exists, check and see if a key is
-						// present
-						if (sqlResult.getKeyHolder().getKey() != null) {
-							String id = sqlResult.getKeyHolder().getKey()
-									.toString();
-							LOG.debug(getBeanName() + ": getKey() returns "
-									+ id);
-							locationPath += ("/" + id);
-							LOG.debug(getBeanName() + ": locationPath = "
-									+ locationPath);
-							response.setHeader(LOCATION_HDR, locationPath);
-						}
-						// no key, check for multiple keys
-						// TODO: should we send back all keys?
-						else if (sqlResult.getKeyHolder().getKeys() != null) {
-							Map<String, Object> keyMap = sqlResult
-									.getKeyHolder().getKeys();
-							LOG.debug(getBeanName() + ": getKeys() returns "
-									+ keyMap);
-						}
-						// maybe map of keys?
-						// TODO: should we send back all keys?
-						else if (sqlResult.getKeyHolder().getKeyList() != null) {
-							for (Map<String, Object> map : sqlResult
-									.getKeyHolder().getKeyList()) {
-								LOG.debug(getBeanName()
-										+ ": Map from getKeyList(): " + map);
-							}
-						}
-					} else {
-						// if it was not an insert, then it was an update.
-						LOG.debug(getBeanName()
-								+ ": key holder was not returned for the insert");
-					}
-				} else {
-					// it was not an insert, so just send back an OK for the
-					// update
-					response.setStatus(SC_OK);
+	/**
+	 * Writes the JSON response, held by the given entry, to a GET or HEAD. If
+	 * the client already has the response, as given by its If-None-Match
+	 * header, then a 304 (Not Modified) is returned without the entity body.
+	 * If compressing, the response's compressed variant is written; the
+	 * variant is taken from, or added to, the entry.
+	 * 
+	 * @param request
+	 * @param response
+	 * @param cacheKey
+	 *            the key under which the entry is cached or null if it is not
+	 *            cached
+	 * @param entry
+	 * @param isHead
+	 * @throws IOException
+	 */
+	private void writeGetResponse(HttpServletRequest request,
+			HttpServletResponse response, String cacheKey,
+			ResultCache.Entry entry, boolean isHead) throws IOException {
+		byte[] body = entry.getBody();
+		String eTag = entry.getETag();
+
+		// the response depends on the encodings accepted by the client
+		String encoding = null;
+		if (isCompressResults()) {
+			response.setHeader(VARY_HDR, ACCEPT_ENCODING_HDR);
+			if (body.length >= getCompressionThreshold()) {
+				encoding = Utils.negotiateEncoding(request
+						.getHeader(ACCEPT_ENCODING_HDR));
+			}
+		}
+		if (encoding != null) {
+			eTag = Utils.toVariantETag(eTag, encoding);
+		}
+
+		// ensure that only the client can cache the data and tell the client
+		// how long the data can remain active
+		setCacheHeaders(response, entry.getExpiresAt());
+		response.setHeader(ETAG_HDR, eTag);
+		if (Utils.isETagMatch(request.getHeader(IF_NONE_MATCH_HDR), eTag)) {
+			LOG.debug(getBeanName() + ": client's copy is not modified");
+			response.setStatus(SC_NOT_MODIFIED);
+			return;
+		}
+
+		if (encoding != null) {
+			byte[] variant = entry.getVariant(encoding);
+			if (variant == null) {
+				variant = Utils.compress(body, encoding);
+				if (cacheKey != null) {
+					getResultCache().putVariant(cacheKey, entry, encoding,
+							variant);
 				}
-				break;
-			default:
-				response.setStatus(SC_OK);
-				break;
+				LOG.trace(getBeanName() + ": compressed response from "
+						+ body.length + " to " + variant.length + " bytes");
 			}
-		} catch (JsonProcessingException exc) {
+			body = variant;
+			response.setHeader(CONTENT_ENCODING_HDR, encoding);
+		}
+
+		// tell the client the content type
+		response.setContentType(rspJsonContentType);
+		response.setContentLength(body.length);
+		response.setStatus(SC_OK);
+		if (!isHead) {
+			writeBody(response, body);
+		}
+	}
+
+	/**
+	 * Ensures that only the client can cache the data of a GET and tells the
+	 * client how long the data can remain active.
+	 * 
+	 * @param response
+	 * @param expiresAt
+	 */
+	private void setCacheHeaders(HttpServletResponse response, long expiresAt) {
+		response.setHeader(CACHE_CNTRL_HDR,
+				(getCacheControl() != null) ? getCacheControl()
+						: DFLT_CACHE_CNTRL_STR);
+		response.setHeader(PRAGMA_HDR, PRAGMA_NO_CACHE_STR);
+		response.setDateHeader(EXPIRES_HDR, expiresAt);
+	}
+
+	/**
+	 * Executes the given SELECT statement and writes its result set to the
+	 * client, as a JSON array, as the rows are fetched from the DB. If the
+	 * statement fails after part of the result set has been sent, the
+	 * response is cut short, which leaves the client with an incomplete JSON
+	 * array. As with a GET that is not streamed, a result set without rows
+	 * results in a 200 without a body.
+	 * 
+	 * @param sqlStmnt
+	 * @param cParams
+	 * @param os
+	 * @param response
+	 * @param currentTime
+	 * @throws IOException
+	 */
+	private void streamResultSet(SqlStmnt sqlStmnt,
+			List<Map<String, String>> cParams, OutputStream os,
+			HttpServletRequest request, HttpServletResponse response,
+			long currentTime) throws IOException {
+
+		// the response's headers are set when the first row is written
+		StreamedResponse streamed = new StreamedResponse(os, request,
+				response, currentTime);
+		ResultSetJsonWriter writer = new ResultSetJsonWriter(streamed,
+				getStreamFlushThreshold());
+		try {
+			sqlStmnt.query(cParams, writer);
+			writer.finish();
+			streamed.finish();
+			LOG.debug(getBeanName() + ": streamed this many rows: "
+					+ writer.getRowCount() + ", bytes: " + writer.getByteCount());
+			return;
+		} catch (IllegalArgumentException exc) {
 			LOG.error(getBeanName() + ":ERROR, caught this "
-					+ "JsonProcessingException while trying to gen json "
-					+ "message: " + exc.toString());
+					+ "IllegalArgumentException while streaming result set: "
+					+ exc.toString());
 			LOG.error(getBeanName() + ": exception stack trace follows:");
 			dumpStackTrace(exc.getStackTrace());
-			if (exc.getCause() != null) {
-				LOG.error(getBeanName() + ": Caused by "
-						+ exc.getCause().toString());
-				LOG.error(getBeanName()
-						+ ": causing exception stack trace follows:");
-				dumpStackTrace(exc.getCause().getStackTrace());
-			}
-			response.sendError(SC_INTERNAL_SERVER_ERROR, "parsing error");
-			return null;
-		} catch (Exception exc) {
+		} catch (DataAccessException exc) {
 			LOG.error(getBeanName() + ":ERROR, caught this "
-					+ "Exception while trying to gen json " + "message: "
+					+ "DataAccessException while streaming result set: "
 					+ exc.toString());
 			LOG.error(getBeanName() + ": exception stack trace follows:");
 			dumpStackTrace(exc.getStackTrace());
-			if (exc.getCause() != null) {
-				LOG.error(getBeanName() + ": Caused by "
-						+ exc.getCause().toString());
-				LOG.error(getBeanName()
-						+ ": causing exception stack trace follows:");
-				dumpStackTrace(exc.getCause().getStackTrace());
+			LOG.error(getBeanName() + ": Most Specific Cause = "
+					+ exc.getMostSpecificCause().toString());
+			LOG.error(getBeanName() + ": MSC exception stack trace follows:");
+			dumpStackTrace(exc.getMostSpecificCause().getStackTrace());
+		}
+		// the error can only be reported if nothing has been sent
+		if (!response.isCommitted()) {
+			response.reset();
+			response.sendError(SC_INTERNAL_SERVER_ERROR);
+		} else {
+			LOG.error(getBeanName() + ": response already committed after "
+					+ writer.getRowCount() + " rows, cutting it short");
+		}
+	}
+
+	/**
+	 * The output stream of a streamed GET. The response's headers are set and,
+	 * if compressing, the compressing stream is created when the first byte
+	 * is written, so nothing is sent for a result set without rows.
+	 */
+	private class StreamedResponse extends OutputStream {
+
+		private final OutputStream os;
+		private final HttpServletRequest request;
+		private final HttpServletResponse response;
+		private final long currentTime;
+		private OutputStream out;
+		private DeflaterOutputStream dos;
+
+		StreamedResponse(OutputStream os, HttpServletRequest request,
+				HttpServletResponse response, long currentTime) {
+			this.os = os;
+			this.request = request;
+			this.response = response;
+			this.currentTime = currentTime;
+		}
+
+		private OutputStream open() throws IOException {
+			if (out != null) {
+				return out;
 			}
-			response.sendError(SC_INTERNAL_SERVER_ERROR, "parsing error");
-			return null;
+			response.setContentType(rspJsonContentType);
+			setCacheHeaders(response, currentTime + (getExpires() * 1000));
+			out = os;
+			// if compressing, the rows are compressed as they are written and
+			// each flush sends what has been compressed so far
+			if (isCompressResults()) {
+				response.setHeader(VARY_HDR, ACCEPT_ENCODING_HDR);
+				String encoding = Utils.negotiateEncoding(request
+						.getHeader(ACCEPT_ENCODING_HDR));
+				if (encoding != null) {
+					response.setHeader(CONTENT_ENCODING_HDR, encoding);
+					dos = Utils.createCompressingStream(os, encoding);
+					out = dos;
+				}
+			}
+			response.setStatus(SC_OK);
+			return out;
+		}
 
-		} finally {
-			if (sqlResult != null) {
-				SqlResult.enqueue(sqlResult);
+		@Override
+		public void write(int b) throws IOException {
+			open().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			open().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (out != null) {
+				out.flush();
 			}
 		}
 
-		// must return null, because we're not using views!
-		return null;
+		/**
+		 * Completes the response; if nothing was written, the client is sent
+		 * a 200 without a body.
+		 * 
+		 * @throws IOException
+		 */
+		void finish() throws IOException {
+			if (out == null) {
+				LOG.debug(getBeanName() + ": NOT returning json message");
+				response.setStatus(SC_OK);
+			} else if (dos != null) {
+				dos.finish();
+			}
+		}
 	}
 
 	public String getDbUrl() {
@@ -22,9 +22,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Hashtable;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.sql.DataSource;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.TextMessage;
@@ -38,7 +43,11 @@ import static org.springframework.web.socket.CloseStatus.*;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.logging.Log;
 import org.metis.sql.SqlStmnt;
+import org.metis.sql.SqlStmntIndex;
 import org.metis.sql.SqlJob;
+import org.metis.sql.SqlJobCluster;
+import org.metis.sql.SqlJobScheduler;
+import org.metis.sql.TableRegistry;
 import org.metis.utils.Utils;
 import org.metis.MetisController;
 import static org.metis.utils.Statics.*;
@@ -66,6 +75,8 @@ public class PusherBean extends TextWebSocketHandler implements
 	 * The SQL statements assigned to this controller bean
 	 */
 	private List<SqlStmnt> sqlStmnts4Get;
+	// the dispatch index over the above SQL statements
+	private SqlStmntIndex stmntIndex4Get;
 
 	/**
 	 * The initial capacity for the session registry
@@ -75,7 +86,7 @@ public class PusherBean extends TextWebSocketHandler implements
 	/**
 	 * The session registry
 	 */
-	private Hashtable<String, WdsSocketSession> wdsSessions;
+	private ConcurrentHashMap<String, WdsSocketSession> wdsSessions;
 
 	/**
 	 * The Spring JDBC Template for this pusher bean
@@ -113,11 +124,6 @@ public class PusherBean extends TextWebSocketHandler implements
 	 */
 	private boolean dbConnectionAcquired;
 
-	/**
-	 * Lock used to synchronize access to SqlStmnts and their SqlJobs
-	 */
-	private static Lock mainLock = new ReentrantLock();
-
 	/**
 	 * The name of the MetisServlet that this PushBean belongs to.
 	 */
@@ -128,6 +134,82 @@ public class PusherBean extends TextWebSocketHandler implements
 	 */
 	private HazelcastInstance hazelcastInstance;
 
+	/**
+	 * The optional scheduler used for running this controller's SqlJobs. If
+	 * one is not wired in, the default scheduler is used.
+	 */
+	private SqlJobScheduler jobScheduler;
+
+	/**
+	 * Decides which member of the Hazelcast cluster polls for each cluster of
+	 * identical SqlJobs; only created if a Hazelcast instance has been wired
+	 * in.
+	 */
+	private SqlJobCluster jobCluster;
+
+	/**
+	 * The time (msecs) that a cluster master's change notification waits to be
+	 * batched with others before it is published to the other members.
+	 */
+	private long clusterPublishDelay = SqlJobCluster.DFLT_PUBLISH_DELAY;
+
+	/**
+	 * The optional name of the column (e.g., the primary key) that identifies
+	 * the rows returned by this controller's SQL statements. If set, the
+	 * SqlJobs push the rows that have been inserted, updated or deleted,
+	 * instead of a change notification that has the clients re-read the entire
+	 * resource.
+	 */
+	private String deltaKey;
+
+	/**
+	 * The maximum number of changed rows that a SqlJob will push. If exceeded,
+	 * the SqlJob falls back to a change notification.
+	 */
+	private int deltaMax = DFLT_DELTA_MAX;
+
+	/**
+	 * The maximum size (bytes) of the last result that a SqlJob retains and
+	 * sends to the clients that join it. Zero means the SqlJobs do not retain
+	 * their last result.
+	 */
+	private int lastResultMax = DFLT_LAST_RESULT_MAX;
+
+	/**
+	 * The interval (msecs) at which the SqlJobs audit their sessions for any
+	 * that were closed without being removed. Closed sessions are normally
+	 * removed as soon as they are closed, so the audit is only a safety net.
+	 */
+	private long sessionAuditInterval = DFLT_SESSION_AUDIT_INTERVAL;
+
+	/**
+	 * If true, then a client may ask, via the 'ws_encoding' param, for the
+	 * messages of at least 'compressionThreshold' bytes to be sent to it as
+	 * binary frames compressed with gzip or deflate.
+	 */
+	private boolean compressFrames;
+	private int compressionThreshold = DFLT_COMPRESSION_THRESHOLD;
+
+	/**
+	 * The optional executor used for sending messages to the web socket
+	 * clients. If one is not wired in, this bean creates its own, having
+	 * 'sendPoolSize' workers.
+	 */
+	private Executor sendExecutor;
+	private int sendPoolSize = DFLT_SEND_POOL_SIZE;
+	private boolean ownSendExecutor;
+	private AtomicLong senderCount = new AtomicLong(0L);
+
+	/**
+	 * The send time limit (msecs), buffer size limit (chars) and overflow
+	 * policy that are assigned to each web socket session. See
+	 * WdsSocketSession. If an overflow policy is not given, it defaults to
+	 * CLOSE when deltas are pushed and to CONFLATE otherwise.
+	 */
+	private long sendTimeLimit = WdsSocketSession.DFLT_SEND_TIME_LIMIT;
+	private int sendBufferSizeLimit = WdsSocketSession.DFLT_BUFFER_SIZE_LIMIT;
+	private WdsSocketSession.OverflowPolicy overflowPolicy;
+
 	public PusherBean() {
 		super();
 	}
@@ -258,6 +340,13 @@ public class PusherBean extends TextWebSocketHandler implements
 			return;
 		}
 
+		// the client may provide the signature that it last received, so that
+		// it is not sent a result that it already has
+		wdsSession.setLastSignature(map.remove(WS_SIGNATURE));
+
+		// the client may ask for compressed frames
+		setFrameEncoding(wdsSession, map.remove(WS_ENCODING));
+
 		// Get the SQL Job, if any, that this session is currently subscribed to
 		SqlJob job = wdsSession.getMyJob();
 
@@ -281,15 +370,14 @@ public class PusherBean extends TextWebSocketHandler implements
 			}
 			response.add(map0);
 			// send response back to client
-			session.sendMessage(new TextMessage(Utils.generateJson(response)));
+			wdsSession.send(new TextMessage(Utils.generateJson(response)));
 			return;
 		}
 
 		// find a sql statement that matches the incoming session request's
 		// params
-		SqlStmnt sqlStmnt = (map == null || map.isEmpty()) ? SqlStmnt.getMatch(
-				getSqlStmnts4Get(), null) : SqlStmnt.getMatch(
-				getSqlStmnts4Get(), map.keySet());
+		SqlStmnt sqlStmnt = getStmntIndex4Get().getMatch(
+				(map == null) ? null : map.keySet());
 
 		// if getMatch could not find a match, then return error to client
 		if (sqlStmnt == null) {
@@ -304,7 +392,7 @@ public class PusherBean extends TextWebSocketHandler implements
 			}
 			map0.put(WS_STATUS, WS_NOT_FOUND);
 			// send response back to client
-			session.sendMessage(new TextMessage(Utils.generateJson(response)));
+			wdsSession.send(new TextMessage(Utils.generateJson(response)));
 			return;
 		}
 
@@ -326,18 +414,11 @@ public class PusherBean extends TextWebSocketHandler implements
 			}
 		}
 
-		mainLock.lock();
-		try {
-			// if we've gotten this far, the session does not pertain to a job
-			// or it is a subscription change. so we now need to find an
-			// existing job whose params match that of the incoming session. if
-			// no job was found, then create and start one
-			if (sqlStmnt.findSqlJob(map, wdsSession) == null) {
-				sqlStmnt.createSqlJob(map, wdsSession);
-			}
-		} finally {
-			mainLock.unlock();
-		}
+		// if we've gotten this far, the session does not pertain to a job or
+		// it is a subscription change. so we now need to find an existing job
+		// whose params match that of the incoming session. if no job was
+		// found, then the statement creates and starts one
+		sqlStmnt.subscribe(map, wdsSession);
 	}
 
 	public boolean supportsPartialMessages() {
@@ -365,8 +446,12 @@ public class PusherBean extends TextWebSocketHandler implements
 			return;
 		}
 
+		// discard any messages that are still waiting to be sent
+		wdsSession.clearQueue();
+
 		// get the sql job that the session had been subsribed to and remove the
-		// session from that job
+		// session from that job. if this was the job's last session, the job
+		// is retired right away
 		SqlJob job = wdsSession.getMyJob();
 		if (job != null) {
 			job.removeSession(session.getId());
@@ -391,6 +476,11 @@ public class PusherBean extends TextWebSocketHandler implements
 		// place the session in the global session registry. it will be removed
 		// from the registry when it is closed
 		WdsSocketSession wds = new WdsSocketSession(session);
+		wds.setSendExecutor(getSendExecutor());
+		wds.setSendTimeLimit(getSendTimeLimit());
+		wds.setBufferSizeLimit(getSendBufferSizeLimit());
+		wds.setOverflowPolicy(getOverflowPolicy());
+		wds.setCompressionThreshold(getCompressionThreshold());
 		getWdsSessions().put(session.getId(), wds);
 
 		// based on the query string (if any), attempt to find a SqlStmnt for
@@ -398,9 +488,14 @@ public class PusherBean extends TextWebSocketHandler implements
 		Map<String, String> map = Utils
 				.getQueryMap(session.getUri().getQuery());
 
-		SqlStmnt sqlStmnt = (map == null || map.isEmpty()) ? SqlStmnt.getMatch(
-				getSqlStmnts4Get(), null) : SqlStmnt.getMatch(
-				getSqlStmnts4Get(), map.keySet());
+		// the client may provide the signature that it last received
+		if (map != null) {
+			wds.setLastSignature(map.remove(WS_SIGNATURE));
+			setFrameEncoding(wds, map.remove(WS_ENCODING));
+		}
+
+		SqlStmnt sqlStmnt = getStmntIndex4Get().getMatch(
+				(map == null) ? null : map.keySet());
 
 		// if statement was not found and query params were provided, then
 		// close connection because search for statement had to take place based
@@ -431,7 +526,7 @@ public class PusherBean extends TextWebSocketHandler implements
 				map.clear();
 				map.put(xtraPathInfo[0], xtraPathInfo[1]);
 				// try again with the extra path info
-				sqlStmnt = SqlStmnt.getMatch(getSqlStmnts4Get(), map.keySet());
+				sqlStmnt = getStmntIndex4Get().getMatch(xtraPathInfo[0]);
 				// if statement could not be found, then simply return - client
 				// may later subscribe with valid params
 				if (sqlStmnt == null) {
@@ -447,18 +542,11 @@ public class PusherBean extends TextWebSocketHandler implements
 			}
 		}
 
-		mainLock.lock();
-		try {
-			// if we've gotten this far, a SqlStmnt was found based on query or
-			// extra path info, now see if SqlStmnt already has a job with the
-			// same param set (map). if no job was found, then create and start
-			// one
-			if (sqlStmnt.findSqlJob(map, wds) == null) {
-				sqlStmnt.createSqlJob(map, wds);
-			}
-		} finally {
-			mainLock.unlock();
-		}
+		// if we've gotten this far, a SqlStmnt was found based on query or
+		// extra path info, now see if SqlStmnt already has a job with the same
+		// param set (map). if no job was found, then the statement creates and
+		// starts one
+		sqlStmnt.subscribe(map, wds);
 	}
 
 	/**
@@ -468,6 +556,12 @@ public class PusherBean extends TextWebSocketHandler implements
 		for (SqlStmnt stmnt : getSqlStmnts4Get()) {
 			stmnt.destroy();
 		}
+		if (ownSendExecutor) {
+			((ExecutorService) getSendExecutor()).shutdownNow();
+		}
+		if (getJobCluster() != null) {
+			getJobCluster().shutdown();
+		}
 	}
 
 	/**
@@ -476,7 +570,7 @@ public class PusherBean extends TextWebSocketHandler implements
 	public void afterPropertiesSet() throws Exception {
 
 		// create the session registry
-		setWdsSessions(new Hashtable<String, WdsSocketSession>(
+		setWdsSessions(new ConcurrentHashMap<String, WdsSocketSession>(
 				getInitCapacity()));
 
 		// log info for the jdbc driver being used
@@ -538,6 +632,39 @@ public class PusherBean extends TextWebSocketHandler implements
 					"The PusherBean must be assigned at least one SQL statement");
 		}
 
+		// if a scheduler for the SqlJobs has not been wired in, then use the
+		// default scheduler
+		if (getJobScheduler() == null) {
+			setJobScheduler(SqlJobScheduler.getDefault());
+		}
+		LOG.debug(getBeanName() + ": using this SqlJob scheduler = "
+				+ getJobScheduler().getBeanName());
+
+		// if an executor for sending messages has not been wired in, then
+		// create one
+		if (getSendExecutor() == null) {
+			setSendExecutor(new ThreadPoolExecutor(getSendPoolSize(),
+					getSendPoolSize(), 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, getBeanName() + ".sender."
+									+ senderCount.getAndIncrement());
+							t.setDaemon(true);
+							return t;
+						}
+					}));
+			ownSendExecutor = true;
+		}
+
+		// if operating within a hazelcast instance, then create the cluster
+		// that decides which member polls for the SqlJobs
+		if (getHazelcastInstance() != null) {
+			jobCluster = new SqlJobCluster(getHazelcastInstance(),
+					"metis.sqljob.cluster." + getBeanName());
+			jobCluster.setPublishDelay(getClusterPublishDelay());
+			jobCluster.start();
+		}
+
 		// create and validate the injected SQL statements
 
 		sqlStmnts4Get = new ArrayList<SqlStmnt>();
@@ -560,8 +687,24 @@ public class PusherBean extends TextWebSocketHandler implements
 			if (map.get(TIME_INTERVAL_STEP) != null) {
 				stmt.setIntervalStep(map.get(TIME_INTERVAL_STEP));
 			}
+			stmt.setJobScheduler(getJobScheduler());
+			stmt.setJobCluster(getJobCluster());
+			if (stmt.isSelect()) {
+				stmt.setDeltaKey(getDeltaKey());
+				stmt.setDeltaMax(getDeltaMax());
+			}
+			stmt.setLastResultMax(getLastResultMax());
+			stmt.setSessionAuditInterval(getSessionAuditInterval());
 			sqlStmnts4Get.add(stmt);
 		}
+
+		stmntIndex4Get = new SqlStmntIndex(sqlStmnts4Get);
+
+		// a write, through Metis, to a table that a statement reads has that
+		// statement's jobs poll the DB right away
+		for (SqlStmnt stmt : sqlStmnts4Get) {
+			TableRegistry.register(stmt.getTables(), stmt);
+		}
 		if (LOG.isDebugEnabled()) {
 			for (SqlStmnt sqlstmnt : sqlStmnts4Get) {
 				LOG.debug(getBeanName() + ": SQL for GET = "
@@ -643,6 +786,10 @@ public class PusherBean extends TextWebSocketHandler implements
 		return sqlStmnts4Get;
 	}
 
+	public SqlStmntIndex getStmntIndex4Get() {
+		return stmntIndex4Get;
+	}
+
 	// -----------------------
 
 	/**
@@ -706,11 +853,12 @@ public class PusherBean extends TextWebSocketHandler implements
 		}
 	}
 
-	public Hashtable<String, WdsSocketSession> getWdsSessions() {
+	public ConcurrentHashMap<String, WdsSocketSession> getWdsSessions() {
 		return wdsSessions;
 	}
 
-	public void setWdsSessions(Hashtable<String, WdsSocketSession> wdsSessions) {
+	public void setWdsSessions(
+			ConcurrentHashMap<String, WdsSocketSession> wdsSessions) {
 		this.wdsSessions = wdsSessions;
 	}
 
@@ -746,4 +894,179 @@ public class PusherBean extends TextWebSocketHandler implements
 		this.hazelcastInstance = hazelcastInstance;
 	}
 
+	public SqlJobScheduler getJobScheduler() {
+		return jobScheduler;
+	}
+
+	public void setJobScheduler(SqlJobScheduler jobScheduler) {
+		this.jobScheduler = jobScheduler;
+	}
+
+	public SqlJobCluster getJobCluster() {
+		return jobCluster;
+	}
+
+	public long getClusterPublishDelay() {
+		return clusterPublishDelay;
+	}
+
+	public void setClusterPublishDelay(long clusterPublishDelay)
+			throws IllegalArgumentException {
+		if (clusterPublishDelay < 0L) {
+			throw new IllegalArgumentException(
+					"setClusterPublishDelay: publish delay must be >= 0");
+		}
+		this.clusterPublishDelay = clusterPublishDelay;
+	}
+
+	public String getDeltaKey() {
+		return deltaKey;
+	}
+
+	public void setDeltaKey(String deltaKey) {
+		this.deltaKey = (deltaKey != null && deltaKey.trim().isEmpty()) ? null
+				: deltaKey;
+	}
+
+	public int getDeltaMax() {
+		return deltaMax;
+	}
+
+	/**
+	 * Assigns the given encoding, requested by the client, to the given
+	 * session. The session's messages are sent uncompressed if this bean does
+	 * not compress frames or the encoding is not supported.
+	 * 
+	 * @param wds
+	 * @param encoding
+	 */
+	private void setFrameEncoding(WdsSocketSession wds, String encoding) {
+		if (encoding == null) {
+			return;
+		}
+		encoding = encoding.trim().toLowerCase();
+		if (isCompressFrames()
+				&& (encoding.equals(GZIP_STR) || encoding.equals(DEFLATE_STR))) {
+			wds.setFrameEncoding(encoding);
+		} else {
+			LOG.debug(getBeanName() + ": not compressing frames with "
+					+ "requested encoding: " + encoding);
+			wds.setFrameEncoding(null);
+		}
+	}
+
+	public boolean isCompressFrames() {
+		return compressFrames;
+	}
+
+	public void setCompressFrames(boolean compressFrames) {
+		this.compressFrames = compressFrames;
+	}
+
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public void setCompressionThreshold(int compressionThreshold)
+			throws IllegalArgumentException {
+		if (compressionThreshold < 0) {
+			throw new IllegalArgumentException(
+					"setCompressionThreshold: threshold must be >= 0");
+		}
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public int getLastResultMax() {
+		return lastResultMax;
+	}
+
+	public void setLastResultMax(int lastResultMax)
+			throws IllegalArgumentException {
+		if (lastResultMax < 0) {
+			throw new IllegalArgumentException(
+					"setLastResultMax: last result max must be >= 0");
+		}
+		this.lastResultMax = lastResultMax;
+	}
+
+	public long getSessionAuditInterval() {
+		return sessionAuditInterval;
+	}
+
+	public void setSessionAuditInterval(long sessionAuditInterval)
+			throws IllegalArgumentException {
+		if (sessionAuditInterval <= 0L) {
+			throw new IllegalArgumentException(
+					"setSessionAuditInterval: audit interval must be > 0");
+		}
+		this.sessionAuditInterval = sessionAuditInterval;
+	}
+
+	public Executor getSendExecutor() {
+		return sendExecutor;
+	}
+
+	public void setSendExecutor(Executor sendExecutor) {
+		this.sendExecutor = sendExecutor;
+	}
+
+	public int getSendPoolSize() {
+		return sendPoolSize;
+	}
+
+	public void setSendPoolSize(int sendPoolSize)
+			throws IllegalArgumentException {
+		if (sendPoolSize <= 0) {
+			throw new IllegalArgumentException(
+					"setSendPoolSize: send pool size must be > 0");
+		}
+		this.sendPoolSize = sendPoolSize;
+	}
+
+	public long getSendTimeLimit() {
+		return sendTimeLimit;
+	}
+
+	public void setSendTimeLimit(long sendTimeLimit)
+			throws IllegalArgumentException {
+		if (sendTimeLimit <= 0L) {
+			throw new IllegalArgumentException(
+					"setSendTimeLimit: send time limit must be > 0");
+		}
+		this.sendTimeLimit = sendTimeLimit;
+	}
+
+	public int getSendBufferSizeLimit() {
+		return sendBufferSizeLimit;
+	}
+
+	public void setSendBufferSizeLimit(int sendBufferSizeLimit)
+			throws IllegalArgumentException {
+		if (sendBufferSizeLimit <= 0) {
+			throw new IllegalArgumentException(
+					"setSendBufferSizeLimit: send buffer size limit must be > 0");
+		}
+		this.sendBufferSizeLimit = sendBufferSizeLimit;
+	}
+
+	public WdsSocketSession.OverflowPolicy getOverflowPolicy() {
+		if (overflowPolicy == null) {
+			return (getDeltaKey() != null) ? WdsSocketSession.OverflowPolicy.CLOSE
+					: WdsSocketSession.OverflowPolicy.CONFLATE;
+		}
+		return overflowPolicy;
+	}
+
+	public void setOverflowPolicy(WdsSocketSession.OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public void setDeltaMax(int deltaMax) throws IllegalArgumentException {
+		if (deltaMax <= 0) {
+			throw new IllegalArgumentException(
+					"setDeltaMax: delta max must be > 0");
+		}
+		this.deltaMax = deltaMax;
+	}
+
 }
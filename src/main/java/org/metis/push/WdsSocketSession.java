@@ -1,5 +1,5 @@
 /*
- * Copyright 2014 Joe Fernandez 
+ * Copyright 2014 Joe Fernandez
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,14 +15,43 @@
  */
 package org.metis.push;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.metis.sql.SqlJob;
+import org.metis.utils.Utils;
 
 /**
  * Decorator for a SocketSession
- * 
+ *
+ * Outbound messages are placed on the session's queue and sent by a worker of
+ * the send executor; thus a slow or broken client does not hold up the thread
+ * that is broadcasting to many sessions. The queue is bounded by the total
+ * size of the messages that it holds. When the bound is exceeded, the
+ * session's overflow policy is applied. If a send is taking longer than the
+ * send time limit, the client is considered to be no longer reading and the
+ * session is closed.
+ *
+ * If the session has not been assigned a send executor, messages are sent on
+ * the caller's thread.
+ *
+ * If the client has asked for compressed frames, then messages of at least
+ * the compression threshold are sent as binary frames holding the message's
+ * UTF-8 text compressed with the client's encoding (gzip or deflate).
+ *
  * @author jfernandez
  *
  */
@@ -30,16 +59,337 @@ public class WdsSocketSession {
 
 	private static final Log LOG = LogFactory.getLog(WdsSocketSession.class);
 
+	/**
+	 * The default send time limit (msecs)
+	 */
+	public static final long DFLT_SEND_TIME_LIMIT = 10000L;
+
+	/**
+	 * The default limit (chars) on the size of the queued messages
+	 */
+	public static final int DFLT_BUFFER_SIZE_LIMIT = 512 * 1024;
+
+	/**
+	 * What to do when the queue's size limit has been exceeded. DROP_OLDEST
+	 * discards the oldest queued messages until the queue is back within its
+	 * limit. CONFLATE discards all but the newest message, which suits
+	 * notifications where only the latest signature matters. CLOSE discards
+	 * the queue and closes the session.
+	 * 
+	 * Deltas and snapshots are never discarded, because a client that applies
+	 * deltas to its copy of the result set would silently go out of sync. If
+	 * DROP_OLDEST or CONFLATE would have to discard one, the session is closed
+	 * instead, and the client resyncs when it subscribes again. CLOSE is
+	 * therefore the default policy for statements that push deltas.
+	 */
+	public enum OverflowPolicy {
+		DROP_OLDEST, CONFLATE, CLOSE
+	}
+
 	private long hash = -1L;
 
 	private WebSocketSession session;
-	
+
 	private SqlJob myJob = null;
 
+	/**
+	 * The signature that the client last received, if it provided one when
+	 * subscribing. It is consumed by the SqlJob that the session joins.
+	 */
+	private String lastSignature;
+
+	private Executor sendExecutor;
+
+	private long sendTimeLimit = DFLT_SEND_TIME_LIMIT;
+
+	private int bufferSizeLimit = DFLT_BUFFER_SIZE_LIMIT;
+
+	private OverflowPolicy overflowPolicy = OverflowPolicy.CONFLATE;
+
+	/**
+	 * The encoding used for compressing the messages sent to the client, or
+	 * null if they are not compressed
+	 */
+	private String frameEncoding;
+
+	private int compressionThreshold;
+
+	/**
+	 * The outbound queue and the total size of the messages that it holds
+	 */
+	private Deque<WebSocketMessage<?>> queue = new ArrayDeque<WebSocketMessage<?>>();
+	private int bufferSize;
+
+	/**
+	 * The queued messages that must not be discarded on an overflow; i.e.,
+	 * deltas and snapshots
+	 */
+	private Set<WebSocketMessage<?>> lossless = Collections
+			.newSetFromMap(new IdentityHashMap<WebSocketMessage<?>, Boolean>());
+
+	/**
+	 * True while a worker is draining the queue
+	 */
+	private boolean draining;
+
+	/**
+	 * The time at which the current send started; 0 if no send is in progress
+	 */
+	private volatile long sendStartTime;
+
+	/**
+	 * The number of messages discarded because of an overflow
+	 */
+	private long droppedCount;
+
+	/**
+	 * Drains the queue
+	 */
+	private Runnable drainer = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
 	public WdsSocketSession(WebSocketSession session) {
 		setSession(session);
 	}
 
+	/**
+	 * Sends the given message to the client, compressing it if the client has
+	 * asked for compressed frames.
+	 *
+	 * @param message
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean send(TextMessage message) throws IOException {
+		return sendFrame(encode(message), false);
+	}
+
+	/**
+	 * Sends the given message to the client. If lossless is true, the message
+	 * is a delta or snapshot that cannot be discarded on an overflow.
+	 *
+	 * @param message
+	 * @param lossless
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean send(TextMessage message, boolean lossless)
+			throws IOException {
+		return sendFrame(encode(message), lossless);
+	}
+
+	/**
+	 * Returns the frame that is to be sent to the client for the given
+	 * message; i.e., either the message itself or a binary frame holding the
+	 * compressed message.
+	 *
+	 * @param message
+	 * @return
+	 * @throws IOException
+	 */
+	public WebSocketMessage<?> encode(TextMessage message) throws IOException {
+		if (getFrameEncoding() == null
+				|| message.getPayloadLength() < getCompressionThreshold()) {
+			return message;
+		}
+		return new BinaryMessage(Utils.compress(message.asBytes(),
+				getFrameEncoding()));
+	}
+
+	/**
+	 * Sends the given frame, as is, to the client. If this session has a send
+	 * executor, the frame is queued and this method returns right away.
+	 * Returns false if the frame was not accepted, because the session is
+	 * closed or has been closed due to an overflow or a send timeout.
+	 *
+	 * @param message
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean sendFrame(WebSocketMessage<?> message) throws IOException {
+		return sendFrame(message, false);
+	}
+
+	/**
+	 * Sends the given frame, as is, to the client. If lossless is true, the
+	 * frame is a delta or snapshot, which is never discarded on an overflow;
+	 * the session is closed instead.
+	 *
+	 * @param message
+	 * @param lossless
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean sendFrame(WebSocketMessage<?> message, boolean lossless)
+			throws IOException {
+
+		if (!isOpen()) {
+			return false;
+		}
+
+		if (getSendExecutor() == null) {
+			synchronized (this) {
+				getSession().sendMessage(message);
+			}
+			return true;
+		}
+
+		String closeReason = null;
+		boolean startDrain = false;
+		synchronized (queue) {
+			// a send that is taking too long means that the client is not
+			// reading its messages
+			long start = sendStartTime;
+			if (start > 0L
+					&& System.currentTimeMillis() - start > getSendTimeLimit()) {
+				closeReason = "send time limit exceeded";
+			} else {
+				queue.addLast(message);
+				bufferSize += message.getPayloadLength();
+				if (lossless) {
+					this.lossless.add(message);
+				}
+				if (bufferSize > getBufferSizeLimit() && queue.size() > 1) {
+					closeReason = overflow();
+				}
+				if (closeReason == null && !draining) {
+					draining = true;
+					startDrain = true;
+				}
+			}
+			if (closeReason != null) {
+				clearQueue();
+			}
+		}
+
+		if (closeReason != null) {
+			LOG.warn(getId() + ": closing session - " + closeReason);
+			close(new CloseStatus(CloseStatus.SESSION_NOT_RELIABLE.getCode(),
+					closeReason));
+			return false;
+		}
+
+		if (startDrain) {
+			try {
+				getSendExecutor().execute(drainer);
+			} catch (RejectedExecutionException exc) {
+				LOG.error(getId() + ": send executor rejected drain task - "
+						+ exc.toString());
+				synchronized (queue) {
+					draining = false;
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the overflow policy to the queue. Returns a reason for closing
+	 * the session or null if the session should remain open. Must be called
+	 * while holding the queue's lock.
+	 *
+	 * @return
+	 */
+	private String overflow() {
+		switch (getOverflowPolicy()) {
+		case CLOSE:
+			return "send buffer size limit exceeded";
+		case CONFLATE:
+			while (queue.size() > 1) {
+				if (!discardOldest()) {
+					return "send buffer size limit exceeded with a delta or "
+							+ "snapshot queued";
+				}
+			}
+			break;
+		default:
+			while (bufferSize > getBufferSizeLimit() && queue.size() > 1) {
+				if (!discardOldest()) {
+					return "send buffer size limit exceeded with a delta or "
+							+ "snapshot queued";
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Discards the oldest queued message. Returns false, without discarding
+	 * it, if the message is a delta or snapshot.
+	 *
+	 * @return
+	 */
+	private boolean discardOldest() {
+		if (lossless.contains(queue.peekFirst())) {
+			return false;
+		}
+		bufferSize -= queue.removeFirst().getPayloadLength();
+		droppedCount++;
+		return true;
+	}
+
+	/**
+	 * Sends the queued messages, one at a time, until the queue is empty.
+	 */
+	private void drain() {
+		while (true) {
+			WebSocketMessage<?> message = null;
+			synchronized (queue) {
+				message = queue.pollFirst();
+				if (message == null) {
+					draining = false;
+					return;
+				}
+				bufferSize -= message.getPayloadLength();
+				lossless.remove(message);
+			}
+			sendStartTime = System.currentTimeMillis();
+			try {
+				getSession().sendMessage(message);
+			} catch (Exception exc) {
+				LOG.error(getId() + ": caught this exception while sending "
+						+ "message, session will be closed: " + exc.toString());
+				synchronized (queue) {
+					clearQueue();
+					draining = false;
+				}
+				close(CloseStatus.SESSION_NOT_RELIABLE);
+				return;
+			} finally {
+				sendStartTime = 0L;
+			}
+		}
+	}
+
+	/**
+	 * Discards all queued messages.
+	 */
+	public void clearQueue() {
+		synchronized (queue) {
+			queue.clear();
+			lossless.clear();
+			bufferSize = 0;
+		}
+	}
+
+	/**
+	 * Closes the underlying session, ignoring any exception
+	 *
+	 * @param status
+	 */
+	private void close(CloseStatus status) {
+		try {
+			getSession().close(status);
+		} catch (Exception exc) {
+			LOG.debug(getId() + ": caught this exception while closing "
+					+ "session: " + exc.toString());
+		}
+	}
+
 	public String getId() {
 		return getSession().getId();
 	}
@@ -72,4 +422,82 @@ public class WdsSocketSession {
 		this.myJob = myJob;
 	}
 
+	public String getLastSignature() {
+		return lastSignature;
+	}
+
+	public void setLastSignature(String lastSignature) {
+		this.lastSignature = lastSignature;
+	}
+
+	public Executor getSendExecutor() {
+		return sendExecutor;
+	}
+
+	public void setSendExecutor(Executor sendExecutor) {
+		this.sendExecutor = sendExecutor;
+	}
+
+	public long getSendTimeLimit() {
+		return sendTimeLimit;
+	}
+
+	public void setSendTimeLimit(long sendTimeLimit) {
+		this.sendTimeLimit = sendTimeLimit;
+	}
+
+	public int getBufferSizeLimit() {
+		return bufferSizeLimit;
+	}
+
+	public void setBufferSizeLimit(int bufferSizeLimit) {
+		this.bufferSizeLimit = bufferSizeLimit;
+	}
+
+	public String getFrameEncoding() {
+		return frameEncoding;
+	}
+
+	public void setFrameEncoding(String frameEncoding) {
+		this.frameEncoding = frameEncoding;
+	}
+
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Returns the total size of the messages currently queued
+	 *
+	 * @return
+	 */
+	public int getBufferSize() {
+		synchronized (queue) {
+			return bufferSize;
+		}
+	}
+
+	/**
+	 * Returns the number of messages discarded due to an overflow
+	 *
+	 * @return
+	 */
+	public long getDroppedCount() {
+		synchronized (queue) {
+			return droppedCount;
+		}
+	}
+
 }
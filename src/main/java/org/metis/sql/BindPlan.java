@@ -0,0 +1,451 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+/**
+ * The plan for binding a prepared, non call'able SqlStmnt's input params to
+ * its PreparedStatement. The plan is compiled once, when the statement is
+ * created, from the statement's key tokens. Each distinct key is given a slot
+ * and a Binder that is chosen by the key's jdbc type, and each position (i.e.,
+ * '?') of the statement is resolved to the slot of its key; thus, a key that
+ * appears more than once in the statement is parsed once and bound at each of
+ * its positions.
+ * 
+ * A plan is immutable and shared by all executions of its statement. The
+ * values of one set of params are parsed into a Binding, which then binds
+ * them with the typed setters of the PreparedStatement (e.g., setInt,
+ * setLong, setTimestamp) rather than with setObject. The numeric values are
+ * held in primitive arrays, so they are not boxed. A Binding can be reused
+ * for successive sets of params; e.g., the rows of a batch.
+ * 
+ */
+public class BindPlan {
+
+	public static final Log LOG = LogFactory.getLog(BindPlan.class);
+
+	/**
+	 * Parses a param's string value into a Binding's slot and binds it from
+	 * that slot to a PreparedStatement. There is one Binder per group of jdbc
+	 * types that share a Java representation.
+	 */
+	public enum Binder {
+		INT {
+			void parse(String value, Binding binding, int slot) {
+				binding.longs[slot] = Integer.parseInt(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setInt(index, (int) binding.longs[slot]);
+			}
+		},
+		LONG {
+			void parse(String value, Binding binding, int slot) {
+				binding.longs[slot] = Long.parseLong(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setLong(index, binding.longs[slot]);
+			}
+		},
+		BOOLEAN {
+			void parse(String value, Binding binding, int slot) {
+				if (!value.trim().equalsIgnoreCase("true")
+						&& !value.trim().equalsIgnoreCase("false")) {
+					throw new NumberFormatException(
+							"this value is set to neither 'true' nor 'false' :"
+									+ value);
+				}
+				binding.longs[slot] = Boolean.parseBoolean(value) ? 1L : 0L;
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setBoolean(index, binding.longs[slot] != 0L);
+			}
+		},
+		FLOAT {
+			void parse(String value, Binding binding, int slot) {
+				binding.doubles[slot] = Float.parseFloat(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setFloat(index, (float) binding.doubles[slot]);
+			}
+		},
+		DOUBLE {
+			void parse(String value, Binding binding, int slot) {
+				binding.doubles[slot] = Double.parseDouble(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setDouble(index, binding.doubles[slot]);
+			}
+		},
+		DECIMAL {
+			void parse(String value, Binding binding, int slot) {
+				binding.objects[slot] = new BigDecimal(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setBigDecimal(index, (BigDecimal) binding.objects[slot]);
+			}
+		},
+		DATE {
+			void parse(String value, Binding binding, int slot) {
+				binding.objects[slot] = Date.valueOf(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setDate(index, (Date) binding.objects[slot]);
+			}
+		},
+		TIME {
+			void parse(String value, Binding binding, int slot) {
+				binding.objects[slot] = Time.valueOf(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setTime(index, (Time) binding.objects[slot]);
+			}
+		},
+		TIMESTAMP {
+			void parse(String value, Binding binding, int slot) {
+				binding.objects[slot] = Timestamp.valueOf(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setTimestamp(index, (Timestamp) binding.objects[slot]);
+			}
+		},
+		URL {
+			void parse(String value, Binding binding, int slot)
+					throws MalformedURLException {
+				binding.objects[slot] = new URL(value);
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setURL(index, (URL) binding.objects[slot]);
+			}
+		},
+		STRING {
+			void parse(String value, Binding binding, int slot) {
+				binding.objects[slot] = value;
+			}
+
+			void bind(PreparedStatement ps, int index, Binding binding,
+					int slot) throws SQLException {
+				ps.setString(index, (String) binding.objects[slot]);
+			}
+		};
+
+		abstract void parse(String value, Binding binding, int slot)
+				throws MalformedURLException;
+
+		abstract void bind(PreparedStatement ps, int index, Binding binding,
+				int slot) throws SQLException;
+
+		/**
+		 * Returns the Binder for the given jdbc type
+		 * 
+		 * @param jdbcType
+		 * @return
+		 */
+		public static Binder forJdbcType(SqlToken.JdbcType jdbcType) {
+			switch (jdbcType) {
+			case TINYINT:
+			case SMALLINT:
+			case INTEGER:
+				return INT;
+			case BIGINT:
+				return LONG;
+			case BIT:
+			case BOOLEAN:
+				return BOOLEAN;
+			case REAL:
+				return FLOAT;
+			case FLOAT:
+			case DOUBLE:
+				return DOUBLE;
+			case NUMERIC:
+			case DECIMAL:
+				return DECIMAL;
+			case DATE:
+				return DATE;
+			case TIME:
+				return TIME;
+			case TIMESTAMP:
+				return TIMESTAMP;
+			case DATALINK:
+				return URL;
+			default:
+				// if it is none of the above, then it is a String type
+				return STRING;
+			}
+		}
+
+		boolean isLong() {
+			return this == INT || this == LONG || this == BOOLEAN;
+		}
+
+		boolean isDouble() {
+			return this == FLOAT || this == DOUBLE;
+		}
+	}
+
+	// the key, and its binder, of each slot
+	private final String[] keys;
+	private final Binder[] binders;
+	// the slot bound to each position
+	private final int[] slots;
+	private final boolean hasLongs;
+	private final boolean hasDoubles;
+	private final boolean hasObjects;
+
+	/**
+	 * Compiles a plan from the given key tokens, which must be sorted by their
+	 * positions. A token's additional positions, if any, are those at which
+	 * its key is duplicated.
+	 * 
+	 * @param keyTokens
+	 */
+	public BindPlan(List<SqlToken> keyTokens) {
+		keys = new String[keyTokens.size()];
+		binders = new Binder[keys.length];
+		int numPositions = keys.length;
+		for (SqlToken token : keyTokens) {
+			numPositions += token.getPositions().size();
+		}
+		slots = new int[numPositions];
+		boolean longs = false, doubles = false, objects = false;
+		for (int slot = 0; slot < keys.length; slot++) {
+			SqlToken token = keyTokens.get(slot);
+			keys[slot] = token.getKey();
+			binders[slot] = Binder.forJdbcType(token.getJdbcType());
+			slots[token.getPosition() - 1] = slot;
+			for (Integer pos : token.getPositions()) {
+				slots[pos.intValue() - 1] = slot;
+			}
+			if (binders[slot].isLong()) {
+				longs = true;
+			} else if (binders[slot].isDouble()) {
+				doubles = true;
+			} else {
+				objects = true;
+			}
+		}
+		hasLongs = longs;
+		hasDoubles = doubles;
+		hasObjects = objects;
+	}
+
+	/**
+	 * Returns the number of positions (i.e., '?') to which params are bound
+	 * 
+	 * @return
+	 */
+	public int getPositionCount() {
+		return slots.length;
+	}
+
+	/**
+	 * Returns the number of distinct keys
+	 * 
+	 * @return
+	 */
+	public int getKeyCount() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns the binder for the given position. Positions are numbered from
+	 * 1.
+	 * 
+	 * @param position
+	 * @return
+	 */
+	public Binder getBinder(int position) {
+		return binders[slots[position - 1]];
+	}
+
+	/**
+	 * Returns a new, empty binding for this plan
+	 * 
+	 * @return
+	 */
+	public Binding newBinding() {
+		return new Binding();
+	}
+
+	/**
+	 * Returns a new binding for the given params
+	 * 
+	 * @param params
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the params do not match this plan or a param's value
+	 *             cannot be parsed
+	 */
+	public Binding bind(Map<String, String> params)
+			throws IllegalArgumentException {
+		return newBinding().set(params);
+	}
+
+	/**
+	 * The parsed values of one set of params. A Binding is a Spring
+	 * PreparedStatementSetter, so it can be given directly to a JdbcTemplate.
+	 */
+	public class Binding implements PreparedStatementSetter {
+
+		private final long[] longs = hasLongs ? new long[keys.length] : null;
+		private final double[] doubles = hasDoubles ? new double[keys.length]
+				: null;
+		private final Object[] objects = hasObjects ? new Object[keys.length]
+				: null;
+
+		private Binding() {
+		}
+
+		/**
+		 * Parses the given params' values into this binding, replacing its
+		 * previous values.
+		 * 
+		 * @param params
+		 * @return this binding
+		 * @throws IllegalArgumentException
+		 *             if the params do not match the plan or a param's value
+		 *             cannot be parsed
+		 */
+		public Binding set(Map<String, String> params)
+				throws IllegalArgumentException {
+			if (params == null || params.size() == 0) {
+				throw new IllegalArgumentException(
+						"statement requires in params, "
+								+ "but params map was null or empty");
+			}
+			if (params.size() != keys.length) {
+				String eStr = "bind: number of given params does "
+						+ "not match number of params required by this "
+						+ "statement";
+				LOG.error(eStr);
+				throw new IllegalArgumentException(eStr);
+			}
+			String paramValue = null;
+			for (int slot = 0; slot < keys.length; slot++) {
+				if ((paramValue = params.get(keys[slot])) == null) {
+					LOG.error("bind: this key has no corresponding "
+							+ "param in the given param map: " + keys[slot]);
+					throw new IllegalArgumentException(
+							"this key has no corresponding param in the given "
+									+ "param map: " + keys[slot]);
+				}
+				try {
+					binders[slot].parse(paramValue, this, slot);
+				} catch (NumberFormatException e) {
+					LOG.error("bind: this param value results in a  "
+							+ "NumberFormatException: " + paramValue);
+					throw new IllegalArgumentException("bind: this "
+							+ "param value results in a  NumberFormatException: "
+							+ paramValue);
+				} catch (MalformedURLException e) {
+					LOG.error("bind: this param value results in a  "
+							+ "MalformedURLException: " + paramValue);
+					throw new IllegalArgumentException("bind: this "
+							+ "param value results in a  MalformedURLException: "
+							+ paramValue);
+				} catch (IllegalArgumentException e) {
+					LOG.error("bind: this param value results in a  "
+							+ "IllegalArgumentException: " + paramValue);
+					throw e;
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Binds this binding's values to the given statement, starting at its
+		 * first position.
+		 */
+		public void setValues(PreparedStatement ps) throws SQLException {
+			setValues(ps, 1);
+		}
+
+		/**
+		 * Binds this binding's values to the given statement, starting at the
+		 * given position; e.g., to bind successive sets of params to the
+		 * positions of an IN list.
+		 * 
+		 * @param ps
+		 * @param first
+		 * @throws SQLException
+		 */
+		public void setValues(PreparedStatement ps, int first)
+				throws SQLException {
+			for (int i = 0; i < slots.length; i++) {
+				binders[slots[i]].bind(ps, first + i, this, slots[i]);
+			}
+		}
+
+		/**
+		 * Returns the value bound to the given position, boxed. Positions are
+		 * numbered from 1.
+		 * 
+		 * @param position
+		 * @return
+		 */
+		public Object getValue(int position) {
+			int slot = slots[position - 1];
+			switch (binders[slot]) {
+			case INT:
+				return (int) longs[slot];
+			case LONG:
+				return longs[slot];
+			case BOOLEAN:
+				return longs[slot] != 0L;
+			case FLOAT:
+				return (float) doubles[slot];
+			case DOUBLE:
+				return doubles[slot];
+			default:
+				return objects[slot];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.metis.utils.Utils;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * A Spring JDBC row callback that buffers a result set column by column. The
+ * INTEGER, SMALLINT and TINYINT columns are read with getInt into an int[],
+ * the BIGINT columns with getLong into a long[] and the DOUBLE and FLOAT
+ * columns with getDouble into a double[]. A column's SQL NULLs are recorded
+ * in a bitmap, one bit per row. All other columns are read with getObject
+ * into an Object[]. The numeric values are thus neither boxed when fetched
+ * nor unboxed when they are written as JSON.
+ * 
+ * An unsigned column is read as the next larger type, so that its values are
+ * not truncated; an unsigned BIGINT is read with getObject.
+ * 
+ * The JSON written by writeJson is identical to what Utils.generateJson
+ * produces for the rows mapped by a CompactRowMapper. An empty result set is
+ * written as an empty array, so a caller that does not return empty result
+ * sets (e.g., a GET) must check the row count first. A ColumnarResult must
+ * only be used for one execution; i.e., one result set.
+ * 
+ */
+public class ColumnarResult implements RowCallbackHandler {
+
+	// the kinds of columns
+	private static final byte INT = 0;
+	private static final byte LONG = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte OBJECT = 3;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int columnCount = -1;
+	private String[] columns;
+	private byte[] kinds;
+	// a primitive array or Object[] per column
+	private Object[] values;
+	// a bitmap of the NULLs per column
+	private long[][] nulls;
+	private int capacity;
+	private int rowCount;
+
+	/**
+	 * Called by the Spring JdbcTemplate for each row of the result set.
+	 */
+	public void processRow(ResultSet rs) throws SQLException {
+		if (columnCount < 0) {
+			init(rs.getMetaData());
+		}
+		if (rowCount == capacity) {
+			grow();
+		}
+		int row = rowCount;
+		for (int index = 1; index <= columnCount; index++) {
+			int column = index - 1;
+			switch (kinds[column]) {
+			case INT:
+				((int[]) values[column])[row] = rs.getInt(index);
+				break;
+			case LONG:
+				((long[]) values[column])[row] = rs.getLong(index);
+				break;
+			case DOUBLE:
+				((double[]) values[column])[row] = rs.getDouble(index);
+				break;
+			default:
+				((Object[]) values[column])[row] = rs.getObject(index);
+				continue;
+			}
+			if (rs.wasNull()) {
+				nulls[column][row >>> 6] |= (1L << row);
+			}
+		}
+		rowCount++;
+	}
+
+	/**
+	 * Looks up the names and picks the kinds of the columns
+	 * 
+	 * @param rsmd
+	 * @throws SQLException
+	 */
+	private void init(ResultSetMetaData rsmd) throws SQLException {
+		columnCount = rsmd.getColumnCount();
+		columns = new String[columnCount];
+		kinds = new byte[columnCount];
+		values = new Object[columnCount];
+		nulls = new long[columnCount][];
+		for (int index = 1; index <= columnCount; index++) {
+			columns[index - 1] = JdbcUtils.lookupColumnName(rsmd, index);
+			kinds[index - 1] = toKind(rsmd, index);
+		}
+	}
+
+	private static byte toKind(ResultSetMetaData rsmd, int index)
+			throws SQLException {
+		switch (rsmd.getColumnType(index)) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+			return INT;
+		case Types.INTEGER:
+			return rsmd.isSigned(index) ? INT : LONG;
+		case Types.BIGINT:
+			return rsmd.isSigned(index) ? LONG : OBJECT;
+		case Types.DOUBLE:
+		case Types.FLOAT:
+			return DOUBLE;
+		default:
+			return OBJECT;
+		}
+	}
+
+	/**
+	 * Doubles the capacity of the columns
+	 */
+	private void grow() {
+		capacity = (capacity == 0) ? INITIAL_CAPACITY : capacity * 2;
+		for (int column = 0; column < columnCount; column++) {
+			switch (kinds[column]) {
+			case INT:
+				values[column] = (values[column] == null) ? new int[capacity]
+						: Arrays.copyOf((int[]) values[column], capacity);
+				break;
+			case LONG:
+				values[column] = (values[column] == null) ? new long[capacity]
+						: Arrays.copyOf((long[]) values[column], capacity);
+				break;
+			case DOUBLE:
+				values[column] = (values[column] == null) ? new double[capacity]
+						: Arrays.copyOf((double[]) values[column], capacity);
+				break;
+			default:
+				values[column] = (values[column] == null) ? new Object[capacity]
+						: Arrays.copyOf((Object[]) values[column], capacity);
+				continue;
+			}
+			int words = (capacity + 63) >>> 6;
+			nulls[column] = (nulls[column] == null) ? new long[words] : Arrays
+					.copyOf(nulls[column], words);
+		}
+	}
+
+	/**
+	 * Returns the number of rows that have been buffered.
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Returns the number of columns, or -1 if no rows have been buffered.
+	 * 
+	 * @return
+	 */
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * Returns the name of the given column. The columns are numbered from 0.
+	 * 
+	 * @param column
+	 * @return
+	 */
+	public String getColumnName(int column) {
+		return columns[column];
+	}
+
+	/**
+	 * Returns true if the given column is held in a primitive array.
+	 * 
+	 * @param column
+	 * @return
+	 */
+	public boolean isPrimitive(int column) {
+		return kinds[column] != OBJECT;
+	}
+
+	/**
+	 * Returns true if the value in the given row and column is NULL. Rows and
+	 * columns are numbered from 0.
+	 * 
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public boolean isNull(int row, int column) {
+		if (kinds[column] == OBJECT) {
+			return ((Object[]) values[column])[row] == null;
+		}
+		return (nulls[column][row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Returns the value in the given row and column, boxed if the column is
+	 * held in a primitive array. Rows and columns are numbered from 0.
+	 * 
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public Object getValue(int row, int column) {
+		if (isNull(row, column)) {
+			return null;
+		}
+		switch (kinds[column]) {
+		case INT:
+			return ((int[]) values[column])[row];
+		case LONG:
+			return ((long[]) values[column])[row];
+		case DOUBLE:
+			return ((double[]) values[column])[row];
+		default:
+			return ((Object[]) values[column])[row];
+		}
+	}
+
+	/**
+	 * Writes the rows, as a JSON array of objects, to the given generator. The
+	 * numeric values are written directly from their primitive arrays.
+	 * 
+	 * @param generator
+	 * @throws IOException
+	 */
+	public void writeJson(JsonGenerator generator) throws IOException {
+		generator.writeStartArray();
+		for (int row = 0; row < rowCount; row++) {
+			generator.writeStartObject();
+			for (int column = 0; column < columnCount; column++) {
+				generator.writeFieldName(columns[column]);
+				if (isNull(row, column)) {
+					generator.writeNull();
+					continue;
+				}
+				switch (kinds[column]) {
+				case INT:
+					generator.writeNumber(((int[]) values[column])[row]);
+					break;
+				case LONG:
+					generator.writeNumber(((long[]) values[column])[row]);
+					break;
+				case DOUBLE:
+					generator.writeNumber(((double[]) values[column])[row]);
+					break;
+				default:
+					generator.writeObject(((Object[]) values[column])[row]);
+				}
+			}
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+	}
+
+	/**
+	 * Returns the rows as a UTF-8 encoded JSON array of objects.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] toJson() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				(rowCount + 1) * (columnCount + 1) * 16);
+		JsonGenerator generator = Utils.createJsonGenerator(out);
+		writeJson(generator);
+		generator.close();
+		return out.toByteArray();
+	}
+
+}
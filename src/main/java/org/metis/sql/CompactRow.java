@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, read-only row of a result set. The row's values are held in an
+ * array and read by index, while the names of the row's columns are held by a
+ * Schema that is shared by all the rows of the result set. So a row costs an
+ * array of values rather than a HashMap with an entry per column.
+ * 
+ * The row is a Map of column names to values, so that it can be used wherever
+ * the rows of a result set are used as Maps; e.g., SqlResult.getResultSet().
+ * The row's entries are in the order of the result set's columns. As with
+ * ResultSet.getObject(String), a column name that appears more than once maps
+ * to the value of its first column.
+ * 
+ */
+public class CompactRow extends AbstractMap<String, Object> {
+
+	/**
+	 * The column names of a result set, shared by all of its rows
+	 */
+	public static class Schema {
+
+		// the distinct column names, in column order
+		private final String[] names;
+		// the value index of each distinct column name
+		private final int[] positions;
+		private final int columnCount;
+		private final HashMap<String, Integer> index;
+
+		/**
+		 * Create the schema for the given column names
+		 * 
+		 * @param columns
+		 */
+		public Schema(String[] columns) {
+			columnCount = columns.length;
+			index = new HashMap<String, Integer>(columns.length * 2);
+			for (int i = 0; i < columns.length; i++) {
+				if (!index.containsKey(columns[i])) {
+					index.put(columns[i], i);
+				}
+			}
+			names = new String[index.size()];
+			positions = new int[index.size()];
+			int n = 0;
+			for (int i = 0; i < columns.length; i++) {
+				// keep the name only at its first column
+				if (index.get(columns[i]) == i) {
+					names[n] = columns[i];
+					positions[n++] = i;
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of columns, including duplicates, which is the
+		 * number of values in each row.
+		 * 
+		 * @return
+		 */
+		public int getColumnCount() {
+			return columnCount;
+		}
+
+		/**
+		 * Returns the value index of the given column name, or -1 if there is
+		 * no such column.
+		 * 
+		 * @param name
+		 * @return
+		 */
+		public int indexOf(Object name) {
+			Integer i = index.get(name);
+			return (i == null) ? -1 : i;
+		}
+	}
+
+	private final Schema schema;
+	private final Object[] values;
+	private transient Set<Map.Entry<String, Object>> entrySet;
+
+	/**
+	 * Create a row of the given schema having the given values, which are in
+	 * column order
+	 * 
+	 * @param schema
+	 * @param values
+	 */
+	public CompactRow(Schema schema, Object[] values) {
+		if (values.length != schema.getColumnCount()) {
+			throw new IllegalArgumentException(
+					"CompactRow: number of values does not match schema");
+		}
+		this.schema = schema;
+		this.values = values;
+	}
+
+	public Schema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Returns the value of the given (1 based) column
+	 * 
+	 * @param column
+	 * @return
+	 */
+	public Object getValue(int column) {
+		return values[column - 1];
+	}
+
+	@Override
+	public Object get(Object key) {
+		int i = schema.indexOf(key);
+		return (i < 0) ? null : values[i];
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return schema.indexOf(key) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return schema.names.length;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					return new Iterator<Map.Entry<String, Object>>() {
+						private int next;
+
+						public boolean hasNext() {
+							return next < schema.names.length;
+						}
+
+						public Map.Entry<String, Object> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							int n = next++;
+							return new AbstractMap.SimpleImmutableEntry<String, Object>(
+									schema.names[n],
+									values[schema.positions[n]]);
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException(
+									"CompactRow is read-only");
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return schema.names.length;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * A Spring JDBC row mapper that maps the rows of one execution of a query to
+ * CompactRows. The column names are looked up once, from the first row's
+ * meta data, and the values are fetched by index. A mapper must only be used
+ * for one execution; i.e., one result set.
+ * 
+ */
+public class CompactRowMapper implements RowMapper<Map<String, Object>> {
+
+	private CompactRow.Schema schema;
+
+	public Map<String, Object> mapRow(ResultSet rs, int rowNum)
+			throws SQLException {
+		if (schema == null) {
+			ResultSetMetaData rsmd = rs.getMetaData();
+			String[] columns = new String[rsmd.getColumnCount()];
+			for (int index = 1; index <= columns.length; index++) {
+				columns[index - 1] = JdbcUtils.lookupColumnName(rsmd, index);
+			}
+			schema = new CompactRow.Schema(columns);
+		}
+		Object[] values = new Object[schema.getColumnCount()];
+		for (int index = 1; index <= values.length; index++) {
+			values[index - 1] = rs.getObject(index);
+		}
+		return new CompactRow(schema, values);
+	}
+
+	/**
+	 * Returns the schema of the mapped rows, or null if no rows have been
+	 * mapped.
+	 * 
+	 * @return
+	 */
+	public CompactRow.Schema getSchema() {
+		return schema;
+	}
+
+}
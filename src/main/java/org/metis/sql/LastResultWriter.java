@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.metis.utils.Utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import static org.metis.utils.Statics.*;
+
+/**
+ * Encodes a result set, one row at a time, as the UTF-8 encoded snapshot
+ * message that a SqlJob sends to the clients that join it. The message has
+ * this form:
+ *
+ * [{"ws_status":"snapshot","ws_rows":[{...},{...}],"ws_message":"<signature>"}]
+ *
+ * The rows are written as they are fetched from the DB, so they are never
+ * mapped. The size of the message is bounded; if the bound is exceeded, the
+ * writer gives up and there is no snapshot.
+ *
+ */
+public class LastResultWriter {
+
+	private BoundedOutputStream out;
+	private JsonGenerator generator;
+	private boolean abandoned;
+
+	/**
+	 * Create a writer whose message cannot exceed the given number of bytes.
+	 *
+	 * @param maxBytes
+	 */
+	public LastResultWriter(int maxBytes) {
+		out = new BoundedOutputStream(maxBytes);
+		try {
+			generator = Utils.createJsonGenerator(out);
+			generator.writeStartArray();
+			generator.writeStartObject();
+			generator.writeStringField(WS_STATUS, WS_SNAPSHOT);
+			generator.writeArrayFieldStart(WS_ROWS);
+		} catch (IOException exc) {
+			abandon();
+		}
+	}
+
+	/**
+	 * Writes a row, given the row's column names and values.
+	 *
+	 * @param columns
+	 * @param values
+	 */
+	public void writeRow(String[] columns, Object[] values) {
+		if (abandoned) {
+			return;
+		}
+		try {
+			generator.writeStartObject();
+			for (int i = 0; i < columns.length; i++) {
+				generator.writeFieldName(columns[i]);
+				generator.writeObject(values[i]);
+			}
+			generator.writeEndObject();
+		} catch (IOException exc) {
+			abandon();
+		}
+	}
+
+	/**
+	 * Writes a row that has already been mapped.
+	 *
+	 * @param row
+	 */
+	public void writeRow(Map<String, Object> row) {
+		if (abandoned) {
+			return;
+		}
+		try {
+			generator.writeObject(row);
+		} catch (IOException exc) {
+			abandon();
+		}
+	}
+
+	/**
+	 * Completes the message with the given signature and returns the message.
+	 * Returns null if the message could not be completed.
+	 *
+	 * @param signature
+	 * @return
+	 */
+	public byte[] finish(String signature) {
+		if (abandoned) {
+			return null;
+		}
+		try {
+			generator.writeEndArray();
+			generator.writeStringField(WS_MSG, signature);
+			generator.writeEndObject();
+			generator.writeEndArray();
+			generator.close();
+		} catch (IOException exc) {
+			abandon();
+			return null;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns true if the message exceeded its bound or could not otherwise be
+	 * written.
+	 *
+	 * @return
+	 */
+	public boolean isAbandoned() {
+		return abandoned;
+	}
+
+	private void abandon() {
+		abandoned = true;
+		out.release();
+	}
+
+	/**
+	 * Byte buffer that refuses to grow beyond a given size.
+	 */
+	private static class BoundedOutputStream extends OutputStream {
+
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private int maxBytes;
+
+		BoundedOutputStream(int maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			ensure(1);
+			buffer.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ensure(len);
+			buffer.write(b, off, len);
+		}
+
+		private void ensure(int len) throws IOException {
+			if (buffer == null) {
+				throw new IOException("buffer has been released");
+			} else if (buffer.size() + len > maxBytes) {
+				throw new IOException("size limit of " + maxBytes
+						+ " bytes exceeded");
+			}
+		}
+
+		byte[] toByteArray() {
+			return buffer.toByteArray();
+		}
+
+		void release() {
+			buffer = null;
+		}
+	}
+
+}
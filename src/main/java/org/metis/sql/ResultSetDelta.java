@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ResultSetDigest that, in addition to computing the digital signature of the
+ * result set, compares the result set against a previous snapshot of the same
+ * result set and determines which rows have been inserted, updated and
+ * deleted.
+ *
+ * Rows are identified by the value of a key column (e.g., the primary key of
+ * the table being queried). A snapshot maps the key of each row, as the value
+ * read from the result set, to the digest of the row's values, so only the
+ * rows that have changed are ever mapped and retained. The keys of the deleted
+ * rows are therefore reported with the same type as the key column's values
+ * in the inserted and updated rows.
+ *
+ * The delta is not valid, and the caller should fall back to a plain change
+ * notification, if the key column is not part of the result set, a key is
+ * null or duplicated, or the number of changed rows exceeds the given maximum.
+ * In the first three cases, there is also no snapshot.
+ *
+ */
+public class ResultSetDelta extends ResultSetDigest {
+
+	private MessageDigest rowMd;
+	private String keyColumn;
+	private int keyIndex = -1;
+	private int maxChanges;
+	private boolean keyed = true;
+	private boolean overflow;
+	private Map<Object, byte[]> previous;
+	private Map<Object, byte[]> snapshot = new HashMap<Object, byte[]>();
+	private List<Map<String, Object>> inserted = new ArrayList<Map<String, Object>>();
+	private List<Map<String, Object>> updated = new ArrayList<Map<String, Object>>();
+	private List<Object> deleted;
+
+	/**
+	 * Create a delta.
+	 *
+	 * @param md
+	 *            the hash function used for the signature of the result set
+	 * @param rowMd
+	 *            the hash function used for the signature of each row
+	 * @param keyColumn
+	 *            the name of the column that identifies a row
+	 * @param previous
+	 *            the previous snapshot; null if there is none, in which case
+	 *            every row is considered to have been inserted
+	 * @param maxChanges
+	 *            the maximum number of changed rows that the delta can carry
+	 */
+	public ResultSetDelta(MessageDigest md, MessageDigest rowMd,
+			String keyColumn, Map<Object, byte[]> previous, int maxChanges) {
+		super(md);
+		this.rowMd = rowMd;
+		this.keyColumn = keyColumn;
+		this.previous = (previous != null) ? previous
+				: new HashMap<Object, byte[]>();
+		this.maxChanges = maxChanges;
+	}
+
+	@Override
+	protected void processValues(String[] columns, Object[] values)
+			throws SQLException {
+		if (!keyed) {
+			return;
+		}
+		// locate the key column, once
+		if (keyIndex < 0) {
+			for (int i = 0; i < columns.length; i++) {
+				if (columns[i].equalsIgnoreCase(keyColumn)) {
+					keyIndex = i;
+					break;
+				}
+			}
+			if (keyIndex < 0) {
+				invalidate();
+				return;
+			}
+		}
+		Object key = values[keyIndex];
+		if (key == null) {
+			invalidate();
+			return;
+		}
+
+		// compute the row's signature
+		rowMd.reset();
+		for (Object v : values) {
+			update(rowMd, v);
+		}
+		byte[] rowSign = rowMd.digest();
+		if (snapshot.put(key, rowSign) != null) {
+			// duplicate key
+			invalidate();
+			return;
+		}
+
+		// compare against the previous snapshot
+		byte[] prevSign = previous.get(key);
+		if (prevSign == null) {
+			addChange(inserted, columns, values);
+		} else if (!Arrays.equals(prevSign, rowSign)) {
+			addChange(updated, columns, values);
+		}
+	}
+
+	private void addChange(List<Map<String, Object>> changes,
+			String[] columns, Object[] values) {
+		if (overflow) {
+			return;
+		} else if (inserted.size() + updated.size() >= maxChanges) {
+			// too many changes; the rows are no longer worth retaining
+			overflow = true;
+			inserted.clear();
+			updated.clear();
+			return;
+		}
+		Map<String, Object> row = new HashMap<String, Object>();
+		for (int i = 0; i < columns.length; i++) {
+			row.put(columns[i], values[i]);
+		}
+		changes.add(row);
+	}
+
+	private void invalidate() {
+		keyed = false;
+		snapshot = null;
+		inserted.clear();
+		updated.clear();
+	}
+
+	/**
+	 * Returns true if the delta is valid; i.e., it carries all the changes
+	 * that were made since the previous snapshot.
+	 *
+	 * @return
+	 */
+	public boolean isValid() {
+		return keyed
+				&& !overflow
+				&& (getDeleted().size() + inserted.size() + updated.size()) <= maxChanges;
+	}
+
+	/**
+	 * Returns the snapshot of the result set that was just processed, which is
+	 * to be used as the previous snapshot of the next delta. Returns null if
+	 * the rows could not be identified by the key column.
+	 *
+	 * @return
+	 */
+	public Map<Object, byte[]> getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the rows that are not in the previous snapshot
+	 *
+	 * @return
+	 */
+	public List<Map<String, Object>> getInserted() {
+		return inserted;
+	}
+
+	/**
+	 * Returns the rows whose values differ from those in the previous snapshot
+	 *
+	 * @return
+	 */
+	public List<Map<String, Object>> getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * Returns the keys of the rows, in the previous snapshot, that are no
+	 * longer in the result set.
+	 *
+	 * @return
+	 */
+	public List<Object> getDeleted() {
+		if (deleted == null) {
+			deleted = new ArrayList<Object>();
+			if (keyed) {
+				for (Object key : previous.keySet()) {
+					if (!snapshot.containsKey(key)) {
+						deleted.add(key);
+					}
+				}
+			}
+		}
+		return deleted;
+	}
+
+}
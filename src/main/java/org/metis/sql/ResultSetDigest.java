@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.metis.utils.Utils;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * A Spring JDBC row callback that computes the digital signature of a result
+ * set, one row at a time, as the rows are fetched from the JDBC ResultSet.
+ * Memory usage is constant regardless of the size of the result set, because
+ * the rows are neither mapped nor retained.
+ *
+ * Each column value is fed to the hash function along with a type marker and
+ * its length, so that, for example, a null value and the string "null" do not
+ * result in the same signature. The column names are also fed to the hash
+ * function, once, so that a change in the shape of the result set results in
+ * a new signature.
+ *
+ */
+public class ResultSetDigest implements RowCallbackHandler {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// markers used for delimiting values and rows
+	private static final byte NULL_MARKER = 0;
+	private static final byte VALUE_MARKER = 1;
+	private static final byte BYTES_MARKER = 2;
+	private static final byte ROW_MARKER = 3;
+
+	private MessageDigest md;
+	private int columnCount = -1;
+	private int rowCount;
+	private String[] columns;
+	private Object[] values;
+	private String signature;
+	private LastResultWriter resultWriter;
+
+	/**
+	 * Create a digest that uses the given hash function. The hash function is
+	 * reset.
+	 *
+	 * @param md
+	 */
+	public ResultSetDigest(MessageDigest md) {
+		this.md = md;
+		md.reset();
+	}
+
+	/**
+	 * Called by the Spring JdbcTemplate for each row of the result set.
+	 */
+	public void processRow(ResultSet rs) throws SQLException {
+		if (columnCount < 0) {
+			ResultSetMetaData rsmd = rs.getMetaData();
+			columnCount = rsmd.getColumnCount();
+			columns = new String[columnCount];
+			values = new Object[columnCount];
+			for (int index = 1; index <= columnCount; index++) {
+				columns[index - 1] = JdbcUtils.lookupColumnName(rsmd, index);
+				update(md, columns[index - 1].getBytes(UTF8), VALUE_MARKER);
+			}
+		}
+		md.update(ROW_MARKER);
+		for (int index = 1; index <= columnCount; index++) {
+			values[index - 1] = rs.getObject(index);
+			update(md, values[index - 1]);
+		}
+		rowCount++;
+		if (resultWriter != null) {
+			resultWriter.writeRow(columns, values);
+		}
+		processValues(columns, values);
+	}
+
+	/**
+	 * Called after each row has been digested, with the row's column names and
+	 * values. The array of values is reused from one row to the next. Does
+	 * nothing by default.
+	 * 
+	 * @param columns
+	 * @param values
+	 * @throws SQLException
+	 */
+	protected void processValues(String[] columns, Object[] values)
+			throws SQLException {
+	}
+
+	/**
+	 * Assigns an optional writer that is given each row, as it is digested, so
+	 * that the result set can also be retained in its encoded form.
+	 * 
+	 * @param resultWriter
+	 */
+	public void setResultWriter(LastResultWriter resultWriter) {
+		this.resultWriter = resultWriter;
+	}
+
+	public LastResultWriter getResultWriter() {
+		return resultWriter;
+	}
+
+	/**
+	 * Returns the number of rows that have been digested.
+	 *
+	 * @return
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Completes the digest and returns the resulting signature as a hex
+	 * string. Returns null if no rows were digested.
+	 *
+	 * @return
+	 */
+	public String getSignature() {
+		if (rowCount == 0) {
+			md.reset();
+			return null;
+		}
+		if (signature == null) {
+			signature = Utils.byteArrayToHexString(md.digest());
+		}
+		return signature;
+	}
+
+	/**
+	 * Feeds the given column value, along with its type marker and length, to
+	 * the given hash function.
+	 * 
+	 * @param md
+	 * @param value
+	 */
+	protected static void update(MessageDigest md, Object value) {
+		if (value == null) {
+			md.update(NULL_MARKER);
+		} else if (value instanceof byte[]) {
+			update(md, (byte[]) value, BYTES_MARKER);
+		} else {
+			update(md, value.toString().getBytes(UTF8), VALUE_MARKER);
+		}
+	}
+
+	private static void update(MessageDigest md, byte[] bytes, byte marker) {
+		md.update(marker);
+		int len = bytes.length;
+		md.update((byte) (len >>> 24));
+		md.update((byte) (len >>> 16));
+		md.update((byte) (len >>> 8));
+		md.update((byte) len);
+		md.update(bytes);
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.metis.utils.Utils;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * A Spring JDBC row callback that writes a result set, as a UTF-8 encoded JSON
+ * array of objects, to an output stream. Each row is written as it is fetched
+ * from the JDBC ResultSet, so the rows are neither mapped nor retained and
+ * memory usage is bounded regardless of the size of the result set.
+ *
+ * The output stream is flushed whenever the number of bytes written to it,
+ * since the last flush, reaches the flush threshold. The JSON generator hands
+ * its output to the stream in chunks of its internal buffer's size (about 8K),
+ * so a smaller threshold results in a flush per chunk. The JSON is identical
+ * to what Utils.generateJson produces for the mapped rows.
+ *
+ * Nothing is written until the first row has been fetched, so a result set
+ * without rows results in no output at all; just as a non-streamed GET, whose
+ * empty result set is not returned, has no body.
+ *
+ */
+public class ResultSetJsonWriter implements RowCallbackHandler {
+
+	private CountingOutputStream out;
+	// created when the first row is written
+	private JsonGenerator generator;
+	private int columnCount = -1;
+	private String[] columns;
+	private int rowCount;
+
+	/**
+	 * Create a writer for the given output stream.
+	 *
+	 * @param os
+	 * @param flushThreshold
+	 *            the number of bytes written after which the output stream is
+	 *            flushed; zero means the stream is only flushed by finish
+	 * @throws IOException
+	 */
+	public ResultSetJsonWriter(OutputStream os, int flushThreshold)
+			throws IOException {
+		out = new CountingOutputStream(os, flushThreshold);
+	}
+
+	/**
+	 * Called by the Spring JdbcTemplate for each row of the result set.
+	 */
+	public void processRow(ResultSet rs) throws SQLException {
+		if (columnCount < 0) {
+			ResultSetMetaData rsmd = rs.getMetaData();
+			columnCount = rsmd.getColumnCount();
+			columns = new String[columnCount];
+			for (int index = 1; index <= columnCount; index++) {
+				columns[index - 1] = JdbcUtils.lookupColumnName(rsmd, index);
+			}
+		}
+		try {
+			if (generator == null) {
+				generator = Utils.createJsonGenerator(out);
+				// the output stream belongs to the caller
+				generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+				generator.writeStartArray();
+			}
+			generator.writeStartObject();
+			for (int index = 1; index <= columnCount; index++) {
+				generator.writeFieldName(columns[index - 1]);
+				generator.writeObject(rs.getObject(index));
+			}
+			generator.writeEndObject();
+		} catch (IOException exc) {
+			// most likely, the client has gone away
+			throw new SQLException("unable to write row " + rowCount + ": "
+					+ exc.getMessage(), exc);
+		}
+		rowCount++;
+	}
+
+	/**
+	 * Completes the JSON array and flushes the output stream. If no rows were
+	 * written, nothing is written.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (generator == null) {
+			return;
+		}
+		generator.writeEndArray();
+		// closing the generator flushes, but does not close, the stream
+		generator.close();
+	}
+
+	/**
+	 * Returns the number of rows that have been written.
+	 *
+	 * @return
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Returns the total number of bytes written to the output stream.
+	 *
+	 * @return
+	 */
+	public long getByteCount() {
+		return out.total;
+	}
+
+	/**
+	 * Output stream that counts the bytes written through it and flushes the
+	 * underlying stream when the flush threshold is reached.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+
+		private OutputStream os;
+		private int flushThreshold;
+		private int count;
+		private long total;
+
+		CountingOutputStream(OutputStream os, int flushThreshold) {
+			this.os = os;
+			this.flushThreshold = flushThreshold;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			os.write(b);
+			written(1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			os.write(b, off, len);
+			written(len);
+		}
+
+		private void written(int len) throws IOException {
+			total += len;
+			count += len;
+			if (flushThreshold > 0 && count >= flushThreshold) {
+				flush();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			count = 0;
+			os.flush();
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+/**
+ * The dialects of SQL used for limiting the number of rows returned by a
+ * query. The dialect is chosen from the name of the bean's JDBC driver.
+ *
+ */
+public enum SqlDialect {
+
+	/**
+	 * LIMIT n; e.g., MySQL, PostgreSQL, H2, HSQLDB, SQLite
+	 */
+	LIMIT,
+
+	/**
+	 * The SQL:2008 FETCH FIRST n ROWS ONLY; e.g., DB2, Derby
+	 */
+	FETCH_FIRST,
+
+	/**
+	 * ROWNUM <= n, which works with all versions of Oracle
+	 */
+	ORACLE,
+
+	/**
+	 * SELECT TOP n; i.e., SQL Server
+	 */
+	SQLSERVER;
+
+	// the alias given to the wrapped query
+	private static final String ALIAS = "metis_page";
+
+	/**
+	 * Returns the dialect used by the DB having the given (lower case) JDBC
+	 * driver name.
+	 * 
+	 * @param driverName
+	 * @return
+	 */
+	public static SqlDialect forDriver(String driverName) {
+		if (driverName == null) {
+			return LIMIT;
+		} else if (driverName.indexOf("oracle") >= 0) {
+			return ORACLE;
+		} else if (driverName.indexOf("sql server") >= 0
+				|| driverName.indexOf("sqlserver") >= 0
+				|| driverName.indexOf("jtds") >= 0) {
+			return SQLSERVER;
+		} else if (driverName.indexOf("db2") >= 0
+				|| driverName.indexOf("derby") >= 0) {
+			return FETCH_FIRST;
+		}
+		return LIMIT;
+	}
+
+	/**
+	 * Rewrites the given query so that it returns, ordered by the given key
+	 * column, at most the given number of rows. If 'after' is true, the
+	 * rewritten query has one more bind parameter, at its end, for the key
+	 * value after which the rows are to start.
+	 * 
+	 * @param sql
+	 * @param key
+	 * @param after
+	 * @param limit
+	 * @return
+	 */
+	public String toPageSql(String sql, String key, boolean after, int limit) {
+		String where = after ? " where " + key + " > ?" : "";
+		switch (this) {
+		case ORACLE:
+			return "select * from (select * from (" + sql + ") " + ALIAS
+					+ where + " order by " + key + ") where rownum <= "
+					+ limit;
+		case SQLSERVER:
+			return "select top " + limit + " * from (" + sql + ") " + ALIAS
+					+ where + " order by " + key;
+		case FETCH_FIRST:
+			return "select * from (" + sql + ") " + ALIAS + where
+					+ " order by " + key + " fetch first " + limit
+					+ " rows only";
+		default:
+			return "select * from (" + sql + ") " + ALIAS + where
+					+ " order by " + key + " limit " + limit;
+		}
+	}
+
+}
@@ -19,26 +19,25 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Hashtable;
 import java.util.HashMap;
+import java.util.TreeMap;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.metis.sql.SqlStmnt;
 import org.metis.push.WdsSocketSession;
 import org.metis.utils.Statics;
 import org.metis.utils.Utils;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import static org.metis.utils.Statics.*;
 import static org.metis.utils.Utils.dumpStackTrace;
 import com.hazelcast.core.HazelcastInstance;
-import com.hazelcast.core.ILock;
-import com.hazelcast.core.ITopic;
-import com.hazelcast.core.Message;
-import com.hazelcast.core.MessageListener;
 
 /**
  * The SqlJob is a runnable that is used for polling the DB at a specified
@@ -46,6 +45,10 @@ import com.hazelcast.core.MessageListener;
  * be informed of a corresponding database change. Nothing precludes the web
  * socket client from subscribing to more than one SqlJob.
  * 
+ * A SqlJob does not have a thread of its own. Each poll cycle is run as a
+ * timed task by a SqlJobScheduler, whose pool of workers is shared by many
+ * SqlJobs. At the end of each cycle, the SqlJob reschedules itself.
+ * 
  * The signature of a SqlJob is defined by a parameterized SQL statement and the
  * parameter values that are bound to the SQL statement. Thus you can have many
  * SqlJobs spawned from this one parameterized SQL statement.
@@ -66,35 +69,96 @@ import com.hazelcast.core.MessageListener;
  * a minimum to a maximum based on a step ratio. If the frequency is one that
  * grows, a change in the DB reverts it back to the starting frequency.
  * 
+ * By default, a change in the DB results in a notification that carries only
+ * the result set's new signature, and the clients must then re-read the
+ * resource. If the SqlStmnt has been assigned a delta key (i.e., the column
+ * that identifies the rows), the SqlJob instead keeps a snapshot of the result
+ * set and pushes only the rows that have been inserted, updated or deleted
+ * since the previous poll.
+ * 
+ * A SqlJob also retains its last result, already encoded as a snapshot
+ * message, so that a client joining the job is brought up to date right away
+ * instead of having to wait for the next change. A client that reconnects with
+ * the signature it last received is sent an "unchanged" reply if that
+ * signature is still current. The last result is not retained if its encoded
+ * size exceeds the SqlStmnt's last result maximum.
+ * 
  * An instance of a SqlJob, which is part of a web application, can be
  * distributed across many servlet containers. If all of these distibuted
  * replicas all point to the same DB instance, the result can be redundant
  * polling. To counter this, the SqlJobs can be clustered using a distributed
  * framework such as Hazelcast. In such a case, the cluster master is the only
- * member of a cluster that performs the polling. If the master terminates,
- * another member of the cluster will take its place.
+ * member of a cluster that performs the polling. Mastership is decided by the
+ * SqlJobCluster, which spreads the masters across the Hazelcast members. If
+ * the master terminates, another member of the cluster will take its place.
  * 
  * 
  */
-public class SqlJob implements Runnable, MessageListener<String> {
+public class SqlJob implements Runnable {
 
 	private static final Log LOG = LogFactory.getLog(SqlJob.class);
 
 	/**
 	 * A list of all the web socket clients that are subscribed to this job.
 	 */
-	private Hashtable<String, WdsSocketSession> socketSessions = new Hashtable<String, WdsSocketSession>();
+	private ConcurrentHashMap<String, WdsSocketSession> socketSessions = new ConcurrentHashMap<String, WdsSocketSession>();
+
+	/**
+	 * The scheduler that runs this job's polls.
+	 */
+	private SqlJobScheduler scheduler;
 
 	/**
-	 * This job's thread.
+	 * The currently scheduled poll, if any.
 	 */
-	private Thread runner;
+	private ScheduledFuture<?> future;
 
 	/**
-	 * Used for indicating whether the thread has started and/or is currently
+	 * Used for indicating whether the job has started and/or is currently
 	 * running
 	 */
-	private boolean started;
+	private volatile boolean started;
+
+	/**
+	 * The polling frequency fields. These are taken from the SqlStmnt when the
+	 * job is started. The intervalTime is the current interval, which grows
+	 * from origIntervalTime to intervalMax based on the intervalStep.
+	 */
+	private long origIntervalTime;
+	private long intervalTime;
+	private long intervalMax;
+	private double intervalStep;
+
+	/**
+	 * Time of the last DB poll; used only for tracing
+	 */
+	private long lastExecTime;
+
+	/**
+	 * Time of the last audit of this job's sessions
+	 */
+	private long lastAuditTime;
+
+	/**
+	 * True if this job has completed at least one poll cycle
+	 */
+	private boolean firstCycleDone;
+
+	/**
+	 * True if this job is the cluster master
+	 */
+	private boolean clusterMaster;
+
+	/**
+	 * True while a cycle is being run by one of the scheduler's workers
+	 */
+	private boolean cycleRunning;
+
+	/**
+	 * Set if the job was interrupted while running a cycle, in which case the
+	 * next cycle is run right away
+	 */
+	private boolean interruptPending;
 
 	/**
 	 * The job's id
@@ -107,11 +171,30 @@ public class SqlJob implements Runnable, MessageListener<String> {
 	 */
 	private MessageDigest sha;
 
+	/**
+	 * The hash function used for digitally signing the individual rows of a
+	 * result set; used only when pushing deltas.
+	 */
+	private MessageDigest rowSha;
+
 	/**
 	 * The digital signature of the result set
 	 */
 	private String digitalSignature;
 
+	/**
+	 * The snapshot of the last result set, which maps each row's key to the
+	 * row's signature; used only when pushing deltas.
+	 */
+	private Map<Object, byte[]> snapshot;
+
+	/**
+	 * The last result set, encoded as the snapshot message that is sent to
+	 * the clients that join this job. Null if it was too large or has not yet
+	 * been acquired.
+	 */
+	private byte[] lastResult;
+
 	/**
 	 * Cluster hash used for identifying a cluster of identical SqlJobs.
 	 */
@@ -124,6 +207,18 @@ public class SqlJob implements Runnable, MessageListener<String> {
 	 */
 	private String threadName;
 
+	/**
+	 * The canonical form of this job's param set, which identifies this job
+	 * among the jobs spawned by its SqlStmnt.
+	 */
+	private String subscriptionKey;
+
+	/**
+	 * Set when this job is on its way out, after which it no longer takes
+	 * sessions.
+	 */
+	private volatile boolean retired;
+
 	/**
 	 * The param set assigned to this job.
 	 */
@@ -147,7 +242,8 @@ public class SqlJob implements Runnable, MessageListener<String> {
 	private boolean changeDetected;
 
 	/**
-	 * Lock used for synchronizing access to the socketSessions.
+	 * Lock used for synchronizing the addition of sessions with the
+	 * retirement of this job.
 	 */
 	private Lock sessionsLock = new ReentrantLock();
 
@@ -157,28 +253,17 @@ public class SqlJob implements Runnable, MessageListener<String> {
 	private HazelcastInstance hazelcastInstance;
 
 	/**
-	 * Hazelcast Lock used to define the cluster master. The SqlJob that
-	 * acquires the lock becomes the cluster master and is responsible for
-	 * polling the DB.
-	 */
-	private ILock masterLock;
-
-	/**
-	 * Hazelcast Topic used for subscribing to messages sent by the publishing
-	 * cluster master.
+	 * Decides whether this SqlJob is the cluster master, which is responsible
+	 * for polling the DB.
 	 */
-	private ITopic<String> topic;
+	private SqlJobCluster jobCluster;
 
 	/**
-	 * Registration id for topic - only used if this SqlJob is not a cluster
-	 * master
+	 * The message last sent to the clients, if it was a delta. When this job
+	 * is the cluster master, it is published along with the signature so that
+	 * the other members can forward it to their clients.
 	 */
-	private String topicRegistrationId;
-
-	/**
-	 * The Message that is published to a Topic by the cluster master
-	 */
-	private Message<String> topicMessage;
+	private String deltaPayload;
 
 	/**
 	 * Create a SqlJob
@@ -196,6 +281,7 @@ public class SqlJob implements Runnable, MessageListener<String> {
 		try {
 			// create the hash function for this job
 			setSha(MessageDigest.getInstance("SHA-256"));
+			setRowSha(MessageDigest.getInstance("SHA-256"));
 		} catch (Exception e) {
 			throw new Exception(
 					"ERROR, sha-256 hash function was not acquired. Cause = "
@@ -208,8 +294,11 @@ public class SqlJob implements Runnable, MessageListener<String> {
 			getlParams().add(params);
 		}
 		setId(id);
+		setSubscriptionKey(toSubscriptionKey(params));
 		sqlStmnt.addSqlJob(this);
 		setThreadName(getPusherBeanName() + ".sqljob." + id);
+		setScheduler((sqlStmnt.getJobScheduler() != null) ? sqlStmnt
+				.getJobScheduler() : SqlJobScheduler.getDefault());
 		// preload the response
 		getResponse().add(getResponseMap());
 
@@ -240,10 +329,9 @@ public class SqlJob implements Runnable, MessageListener<String> {
 				.getHazelcastInstance());
 
 		// if operating within a hazelcast instance, then get a reference to the
-		// master cluster lock and the cluster topic
-		if (inCluster()) {
-			masterLock = getHazelcastInstance().getLock(getClusterHash());
-			topic = getHazelcastInstance().getTopic(getClusterHash());
+		// cluster that decides mastership and carries the notifications
+		if (getHazelcastInstance() != null) {
+			setJobCluster(sqlStmnt.getJobCluster());
 		}
 
 	}
@@ -253,31 +341,78 @@ public class SqlJob implements Runnable, MessageListener<String> {
 	}
 
 	/**
-	 * Starts the internal thread.
+	 * Starts the job by scheduling its first poll.
 	 * 
-	 * @throws Exception
 	 */
 	public synchronized void doStart() {
-		if (getRunner() != null && isStarted()) {
+		if (isStarted() || retired) {
 			return;
 		}
-		setRunner(new Thread(this, getThreadName()));
-		getRunner().setDaemon(true);
-		getRunner().setPriority(Thread.MIN_PRIORITY);
-		getRunner().start();
+		origIntervalTime = getSqlStmnt().getIntervalTime() * 1000;
+		intervalTime = origIntervalTime;
+		intervalMax = getSqlStmnt().getIntervalMax() * 1000;
+		intervalStep = 1.0 + getSqlStmnt().getIntervalStep() / 100.0;
+		firstCycleDone = false;
+		lastAuditTime = System.currentTimeMillis();
+		setStarted(true);
+
+		if (LOG.isTraceEnabled()) {
+			if (getParams() != null) {
+				LOG.trace(getThreadName() + ": started with these params: "
+						+ params.toString());
+			}
+			LOG.trace(getThreadName()
+					+ ":started with intervalTime, intervalMax, intervalStep = "
+					+ intervalTime + ", " + intervalMax + ", " + intervalStep);
+
+			LOG.trace(getThreadName() + ": cluster hash = " + getClusterHash());
+
+			LOG.trace(getThreadName() + ": in cluster = " + inCluster());
+		}
+		// join the cluster of identical jobs, which may make this job the
+		// cluster master
+		if (inCluster()) {
+			getJobCluster().register(this);
+		}
+		// poll right away
+		scheduleCycle(0L);
 	}
 
 	/**
-	 * Interrupts the thread
+	 * Schedules the next cycle of this job to run after the given delay. If
+	 * the scheduler has been shut down, the job is stopped. Must be called
+	 * while holding this job's lock.
+	 * 
+	 * @param delay
 	 */
-	public void doInterrupt() {
-		if (getRunner() != null) {
-			getRunner().interrupt();
+	private void scheduleCycle(long delay) {
+		setFuture(getScheduler().schedule(this, delay));
+		if (getFuture() == null) {
+			LOG.debug(getThreadName() + ": scheduler has been shut down, "
+					+ "stopping job");
+			doStop();
 		}
 	}
 
 	/**
-	 * Stops the internal thread.
+	 * Cuts short the current interval and has the job run its next cycle
+	 * right away.
+	 */
+	public synchronized void doInterrupt() {
+		if (!isStarted()) {
+			return;
+		}
+		// if a cycle is currently running, it will reschedule itself without
+		// a delay; else replace the pending cycle with one that runs now
+		if (cycleRunning) {
+			interruptPending = true;
+		} else if (getFuture() == null || getFuture().cancel(false)) {
+			scheduleCycle(0L);
+		}
+	}
+
+	/**
+	 * Stops the job.
 	 * 
 	 */
 	public synchronized void doStop() {
@@ -285,179 +420,226 @@ public class SqlJob implements Runnable, MessageListener<String> {
 			return;
 		}
 		setStarted(false);
-		if (runner != null) {
-			runner.interrupt();
+		retired = true;
+		if (getFuture() != null) {
+			getFuture().cancel(false);
+			setFuture(null);
 		}
+		// leave the cluster of identical jobs, which gives up mastership if
+		// this job was the cluster master
+		leaveCluster();
 		// divorce this job from its parent
 		// sql statement
 		sqlStmnt.removeSqlJob(this);
 	}
 
 	/**
-	 * SqlJob's main execution block
+	 * SqlJob's main execution block. Each invocation represents one cycle of
+	 * the job, after which the job reschedules itself with its scheduler for
+	 * the current interval time.
 	 */
 	public void run() {
 
-		long lastExecTime = 0L;
-		long origIntervalTime = getSqlStmnt().getIntervalTime() * 1000;
-		long intervalTime = origIntervalTime;
-		long intervalMax = getSqlStmnt().getIntervalMax() * 1000;
-		double intervalStep = 1.0 + getSqlStmnt().getIntervalStep() / 100.0;
-		boolean clusterMaster = false;
-
-		setStarted(true);
+		synchronized (this) {
+			// the job may have been stopped while waiting to be run
+			if (!isStarted() || cycleRunning) {
+				LOG.trace(getThreadName() + ": SqlJob stopped");
+				return;
+			}
+			cycleRunning = true;
+		}
+		boolean reschedule = false;
+		try {
+			reschedule = runCycle();
+		} finally {
+			synchronized (this) {
+				cycleRunning = false;
+				// while polling, this job may have been stopped
+				if (reschedule && isStarted()) {
+					LOG.trace(getThreadName()
+							+ ": scheduling with interval time = "
+							+ intervalTime);
+					scheduleCycle((interruptPending) ? 0L : intervalTime);
+				}
+				interruptPending = false;
+			}
+		}
+	}
 
-		if (LOG.isTraceEnabled()) {
-			if (getParams() != null) {
-				LOG.trace(getThreadName() + ": started with these params: "
-						+ params.toString());
+	/**
+	 * Runs one cycle of the job. Returns true if the job should be scheduled
+	 * for another cycle.
+	 */
+	private boolean runCycle() {
+
+		// if this is not the very first cycle, then finish up the previous
+		// cycle
+		if (firstCycleDone) {
+
+			// closed sessions are removed as they are closed, so the
+			// sessions are only audited once in a while in case a close
+			// was missed
+			long now = System.currentTimeMillis();
+			if (now - lastAuditTime >= getSqlStmnt().getSessionAuditInterval()) {
+				lastAuditTime = now;
+				sweepSessions();
 			}
-			LOG.trace(getThreadName()
-					+ ":started with intervalTime, intervalMax, intervalStep = "
-					+ intervalTime + ", " + intervalMax + ", " + intervalStep);
 
-			LOG.trace(getThreadName() + ": cluster hash = " + getClusterHash());
+			// if this job has no sessions, then terminate
+			if (retired || retireIfIdle()) {
+				return false;
+			}
 
-			LOG.trace(getThreadName() + ": using masterLock = "
-					+ ((getMasterLock() != null) ? true : false));
+			// update the interval time, but only if this job is working
+			// with a step
+			if (intervalMax > 0L && intervalTime < intervalMax) {
+				// step up the interval
+				long step = (long) (intervalTime * intervalStep);
+				// if max breached, then set to max
+				intervalTime = (step < intervalMax) ? step : intervalMax;
+				LOG.trace(getThreadName()
+						+ ": SqlJob stepped up interval time = " + intervalTime);
+			}
 		}
+		firstCycleDone = true;
 
-		try {
+		// If operating within a cluster, then check whether this job is the
+		// cluster master; this is a local check. If not the master, then the
+		// job is notified of changes by the cluster.
+		if (inCluster()) {
+			clusterMaster = getJobCluster().isMaster(getClusterHash());
+			LOG.trace(getThreadName() + ": cluster master = " + clusterMaster);
+		}
 
-			while (true) {
-				// If operating within a cluster and this thread is not a
-				// cluster master, then attempt to acquire the master cluster
-				// lock. If not acquired, then subscribe to the topic - if not
-				// already dones so - that the master will publish to.
-				if (inCluster() && !clusterMaster) {
-					// attempt to become the clusterMaster
-					clusterMaster = getMasterLock().tryLock();
-					LOG.trace(getThreadName() + ": cluster master = "
-							+ clusterMaster);
-					if (!clusterMaster) {
-						// attempt to become cluster master failed, so
-						// subscibe to topic if not already subscribed
-						if (getTopicRegistrationId() == null) {
-							setTopicRegistrationId(getTopic()
-									.addMessageListener(this));
-						}
-					}
-					// we've become the cluster master, remove
-					// subscription if any
-					else if (getTopicRegistrationId() != null) {
-						getTopic().removeMessageListener(
-								getTopicRegistrationId());
-						setTopicRegistrationId(null);
-					}
+		// if this job has not been wired to a Hazelcast cluster-group
+		// or it is the cluster master, then poll the DB
+		if (!inCluster() || clusterMaster) {
+			if (LOG.isTraceEnabled()) {
+				LOG.trace(getThreadName() + ": polling the DB");
+				if (lastExecTime > 0L) {
+					LOG.trace(getThreadName()
+							+ ": elapsed time (msec) since last execute = "
+							+ (System.currentTimeMillis() - lastExecTime));
 				}
-
-				// if this job has not been wired to a Hazelcast cluster-group
-				// or it is the cluster master, then poll the DB
-				if (!inCluster() || clusterMaster) {
-					if (LOG.isTraceEnabled()) {
-						LOG.trace(getThreadName() + ": polling the DB");
-						if (lastExecTime > 0L) {
-							LOG.trace(getThreadName()
-									+ ": elapsed time (msec) since last execute = "
-									+ (System.currentTimeMillis() - lastExecTime));
-						}
-						// record the execution time
-						lastExecTime = System.currentTimeMillis();
-					}
-					// poll the database. if the polling routine throws an
-					// exception, then stop the job and terminate; the polling
-					// routine will have notified the clients of the fatal
-					// error. if the polling polling routine returns non-null, a
-					// database change has occurred and thus notify the clients
-					// by publishing to the cluster topic
-					try {
-						String dSign = pollDB();
-						if (dSign != null) {
-							setChangeDetected(true);
-							if (clusterMaster) {
-								// notify subordinate threads
-								getTopic().publish(dSign);
-							}
-						}
-					} catch (Exception exc) {
-						doStop();
-						return;
+				// record the execution time
+				lastExecTime = System.currentTimeMillis();
+			}
+			// poll the database. if the polling routine throws an
+			// exception, then stop the job and terminate; the polling
+			// routine will have notified the clients of the fatal
+			// error. if the polling polling routine returns non-null, a
+			// database change has occurred and thus notify the clients
+			// by publishing to the cluster topic
+			try {
+				setDeltaPayload(null);
+				String dSign = pollDB();
+				if (dSign != null) {
+					setChangeDetected(true);
+					if (clusterMaster) {
+						// notify subordinate jobs
+						getJobCluster().publish(getClusterHash(), dSign,
+								getDeltaPayload(), getLastResult());
 					}
 				}
+			} catch (Exception exc) {
+				doStop();
+				return false;
+			}
+		}
 
-				// after polling, and possibly sending change notification,
-				// suspend the thread for the current interval time if a change
-				// was detected, reset interval time to original interval time.
-				intervalTime = (isChangeDetected()) ? origIntervalTime
-						: intervalTime;
-				setChangeDetected(false);
-				LOG.trace(getThreadName() + ": sleeping with interval time = "
-						+ intervalTime);
-				try {
-					Thread.sleep(intervalTime);
-				} catch (InterruptedException ignore) {
-				}
-
-				// while sleeping, this thread may have been stopped
-				if (!isStarted()) {
-					LOG.trace(getThreadName() + ": SqlJob stopped");
-					setStarted(false);
-					getSqlStmnt().removeSqlJob(this);
-					return;
-				}
+		// after polling, and possibly sending change notification,
+		// schedule the next cycle for the current interval time. if a change
+		// was detected, reset interval time to original interval time.
+		intervalTime = (isChangeDetected()) ? origIntervalTime : intervalTime;
+		setChangeDetected(false);
+		return true;
+	}
 
-				// sweep out any zombie sessions
-				sweepSessions();
+	/**
+	 * Removes this job from its cluster.
+	 */
+	private void leaveCluster() {
+		if (!inCluster()) {
+			return;
+		}
+		clusterMaster = false;
+		try {
+			getJobCluster().unregister(this);
+		} catch (Exception exc) {
+			LOG.warn(getThreadName() + ": unable to leave cluster: "
+					+ exc.toString());
+		}
+	}
 
-				// if this job has no sessions, then terminate
-				if (socketSessions.isEmpty()) {
-					sessionsLock.lock();
-					try {
-						// make sure session did not sneak in
-						if (socketSessions.isEmpty()) {
-							LOG.trace(getThreadName()
-									+ ": SqlJob stopping because it has no "
-									+ "more sessions");
-							doStop();
-							return;
-						}
-					} finally {
-						sessionsLock.unlock();
+	/**
+	 * This method gets called by the cluster whenever the cluster master
+	 * publishes its state for this job's cluster hash. If the master sent a
+	 * delta to its clients, the payload is that delta and it is forwarded, as
+	 * is, to this job's clients. The master's last result, if any, becomes
+	 * this job's last result, which is sent to the sessions that join this
+	 * job. If this job had yet to receive a signature, its waiting sessions
+	 * are brought up to date; if the signature has not changed, the clients
+	 * are not notified.
+	 * 
+	 * @param signature
+	 * @param payload
+	 * @param lastResult
+	 */
+	public void onClusterNotification(String signature, String payload,
+			byte[] lastResult) {
+		// the master does not publish its snapshot, so any snapshot held by
+		// this job is now stale
+		setSnapshot(null);
+		synchronized (getResponse()) {
+			String prevSign = getDigitalSignature();
+			setLastResult(lastResult);
+			setDigitalSignature(signature);
+			if (prevSign == null) {
+				for (String key : getSocketSessions().keySet()) {
+					WdsSocketSession session = getSocketSessions().get(key);
+					if (session != null) {
+						sendCurrentState(session);
 					}
 				}
-
-				// update the interval time, but only if this job is working
-				// with a step
-				if (intervalMax > 0L && intervalTime < intervalMax) {
-					// step up the interval
-					long step = (long) (intervalTime * intervalStep);
-					// if max breached, then set to max
-					intervalTime = (step < intervalMax) ? step : intervalMax;
-					LOG.trace(getThreadName()
-							+ ": SqlJob stepped up interval time = "
-							+ intervalTime);
-				}
+				return;
+			} else if (signature.equals(prevSign)) {
+				return;
 			}
-		} finally {
-			// if this was the cluster master, then release the lock
-			if (clusterMaster) {
-				getMasterLock().unlock();
-				clusterMaster = false;
+			// the notification is sent while holding the response, so that a
+			// session that is joining cannot be sent the new result and then
+			// the delta that leads to it
+			if (payload != null) {
+				LOG.trace(getThreadName()
+						+ ":forwarding delta from cluster master");
+				broadcast(new TextMessage(payload), true);
+			} else {
+				sendChangeNotification(signature);
 			}
-
 		}
+		setChangeDetected(true);
+		doInterrupt();
 	}
 
 	/**
-	 * This method gets called whenever the cluster master publishes a message
-	 * to the cluster topic.
+	 * Called by the cluster when another member asks for the state of this
+	 * job's cluster hash. If this job is the cluster master and has a
+	 * signature, the signature and last result are published. Returns true if
+	 * the state was published.
+	 * 
+	 * @return
 	 */
-	@Override
-	public void onMessage(Message<String> message) {
-		setChangeDetected(true);
-		setDigitalSignature(message.getMessageObject());
-		sendChangeNotification(message.getMessageObject());
-		doInterrupt();
+	public boolean publishState() {
+		if (!inCluster() || !getJobCluster().isMaster(getClusterHash())) {
+			return false;
+		}
+		synchronized (getResponse()) {
+			if (getDigitalSignature() == null) {
+				return false;
+			}
+			getJobCluster().publish(getClusterHash(), getDigitalSignature(),
+					null, getLastResult());
+		}
+		return true;
 	}
 
 	/**
@@ -472,60 +654,142 @@ public class SqlJob implements Runnable, MessageListener<String> {
 
 		try {
 
-			// execute the sql statement. if a sqlResult was not returned,
-			// then an error occurred and this job must be considered
-			// defunct.
-			if ((sqlResult = sqlStmnt.execute(getlParams())) == null) {
-				// execute will have logged the necessary debug/error info.
-				// notify all subscribed clients, that an error has occurred
-				// and that this job is being stopped
-				LOG.error(getThreadName()
-						+ ":ERROR, execute did not return a sqlResult object");
-				sendInternalServerError("");
-				throw new Exception("execute returns null sqlResult");
-			}
-
-			// sqlResult was returned, but it may not contain a result set
-			List<Map<String, Object>> listMap = sqlResult.getResultSet();
-			String jsonOutput = null;
-			if (listMap == null || listMap.isEmpty()) {
-				LOG.trace(getThreadName()
-						+ ":sqlResult did not contain a result set");
+			String dSign = null;
+			ResultSetDelta delta = null;
+			Map<Object, byte[]> prevSnapshot = getSnapshot();
+			LastResultWriter resultWriter = (getSqlStmnt().getLastResultMax() > 0) ? new LastResultWriter(
+					getSqlStmnt().getLastResultMax()) : null;
+
+			if (getSqlStmnt().isSelect()) {
+				// this is a query, so compute the digital signature of the
+				// result set as its rows are being fetched from the DB. the
+				// result set is not mapped and is encoded only if it is to be
+				// retained. if pushing deltas, then also compare the rows
+				// against those of the previous snapshot
+				if (getSqlStmnt().getDeltaKey() != null) {
+					delta = new ResultSetDelta(getSha(), getRowSha(),
+							getSqlStmnt().getDeltaKey(), prevSnapshot,
+							getSqlStmnt().getDeltaMax());
+					delta.setResultWriter(resultWriter);
+					getSqlStmnt().query(getlParams(), delta);
+					dSign = delta.getSignature();
+					setSnapshot(delta.getSnapshot());
+					if (delta.getSnapshot() == null) {
+						LOG.debug(getThreadName()
+								+ ": rows could not be identified by this "
+								+ "delta key: " + getSqlStmnt().getDeltaKey());
+					}
+				} else {
+					ResultSetDigest rsDigest = new ResultSetDigest(getSha());
+					rsDigest.setResultWriter(resultWriter);
+					getSqlStmnt().query(getlParams(), rsDigest);
+					dSign = rsDigest.getSignature();
+				}
+				if (dSign == null) {
+					LOG.trace(getThreadName()
+							+ ":query did not return a result set");
+					dSign = WS_DFLT_SIGNATURE;
+				}
 			} else {
-				// convert the result set to a json object
-				jsonOutput = Utils.generateJson(listMap);
-				if (LOG.isTraceEnabled()) {
-					if (jsonOutput.length() > 100) {
-						LOG.trace(getThreadName()
-								+ ": first 100 bytes of acquired result set = "
-								+ jsonOutput.substring(0, 100));
-					} else {
-						LOG.trace(getThreadName()
-								+ ": acquired this result set - " + jsonOutput);
+				// this is a call'able, whose result set can only be acquired
+				// in its entirety, so execute the sql statement. if a
+				// sqlResult was not returned, then an error occurred and this
+				// job must be considered defunct.
+				if ((sqlResult = sqlStmnt.execute(getlParams())) == null) {
+					// execute will have logged the necessary debug/error
+					// info. notify all subscribed clients, that an error has
+					// occurred and that this job is being stopped
+					LOG.error(getThreadName()
+							+ ":ERROR, execute did not return a sqlResult object");
+					sendInternalServerError("");
+					throw new Exception("execute returns null sqlResult");
+				}
+
+				// sqlResult was returned, but it may not contain a result set
+				List<Map<String, Object>> listMap = sqlResult.getResultSet();
+				String jsonOutput = null;
+				if (listMap == null || listMap.isEmpty()) {
+					LOG.trace(getThreadName()
+							+ ":sqlResult did not contain a result set");
+				} else {
+					// convert the result set to a json object
+					jsonOutput = Utils.generateJson(listMap);
+					if (resultWriter != null) {
+						for (Map<String, Object> row : listMap) {
+							resultWriter.writeRow(row);
+						}
+					}
+					if (LOG.isTraceEnabled()) {
+						if (jsonOutput.length() > 100) {
+							LOG.trace(getThreadName()
+									+ ": first 100 bytes of acquired result set = "
+									+ jsonOutput.substring(0, 100));
+						} else {
+							LOG.trace(getThreadName()
+									+ ": acquired this result set - "
+									+ jsonOutput);
+						}
 					}
 				}
+
+				// get the digital signature of the json object (if any) that
+				// represents the result set
+				dSign = (jsonOutput != null) ? getHashOf(jsonOutput)
+						: WS_DFLT_SIGNATURE;
 			}
 
-			// get the digital signature of the json object (if any) that
-			// represents the result set
-			String dSign = (jsonOutput != null) ? getHashOf(jsonOutput)
-					: WS_DFLT_SIGNATURE;
 			LOG.trace(getThreadName() + ": acquired digital signature = "
 					+ dSign);
 			LOG.trace(getThreadName() + ": current  digital signature = "
 					+ getDigitalSignature());
 
-			// determine if a change has occurred
-			if (getDigitalSignature() == null) {
-				// first time, so just update the current digital signature
-				setDigitalSignature(dSign);
-			} else if (!dSign.equals(getDigitalSignature())) {
-				// update the current digital signature
-				setDigitalSignature(dSign);
-				// ... and send the notification
-				LOG.debug(getThreadName() + ": sending notification");
-				sendChangeNotification(dSign);
-				return getDigitalSignature();
+			// encode the last result, if it is to be retained
+			byte[] result = null;
+			if (resultWriter != null) {
+				result = resultWriter.finish(dSign);
+				if (result == null) {
+					LOG.trace(getThreadName()
+							+ ": last result exceeds this many bytes "
+							+ "and will not be retained: "
+							+ getSqlStmnt().getLastResultMax());
+				}
+			}
+
+			// the last result, the signature and any notification are
+			// updated and sent together so that a session that is joining
+			// cannot be sent a stale result after the notification
+			synchronized (getResponse()) {
+				setLastResult(result);
+				// determine if a change has occurred
+				if (getDigitalSignature() == null) {
+					// first time, so update the current digital signature and
+					// bring the sessions that are already waiting up to date
+					setDigitalSignature(dSign);
+					for (String key : getSocketSessions().keySet()) {
+						WdsSocketSession session = getSocketSessions().get(key);
+						if (session != null) {
+							sendCurrentState(session);
+						}
+					}
+					// a cluster master also publishes its first state, for
+					// the other members' jobs
+					if (clusterMaster) {
+						return getDigitalSignature();
+					}
+				} else if (!dSign.equals(getDigitalSignature())) {
+					// update the current digital signature
+					setDigitalSignature(dSign);
+					// ... and send the notification. if a delta is available,
+					// then send just the rows that have changed
+					LOG.debug(getThreadName() + ": sending notification");
+					if (delta != null && prevSnapshot != null
+							&& delta.isValid()) {
+						setDeltaPayload(sendDeltaNotification(dSign, delta));
+					} else {
+						sendChangeNotification(dSign);
+					}
+					return getDigitalSignature();
+				}
 			}
 
 		} catch (JsonProcessingException exc) {
@@ -575,26 +839,42 @@ public class SqlJob implements Runnable, MessageListener<String> {
 	 * 
 	 */
 	public boolean isParamMatch(Map<String, String> inParams) {
-		// first ensure both maps are of the same size
-		if (inParams == null) {
-			return (getParams() == null) ? true : false;
-		} else if (getParams() == null) {
-			return false;
-		} else if (inParams.size() != getParams().size()) {
-			return false;
-		}
+		return getSubscriptionKey().equals(toSubscriptionKey(inParams));
+	}
 
-		// both are of the same size, iterate through the key set ensuring all
-		// key-values match
-		for (String key : getParams().keySet()) {
-			String value = getParams().get(key);
-			String inValue = inParams.get(key);
-			if (inValue == null || !value.equalsIgnoreCase(inValue)) {
-				return false;
+	/**
+	 * Returns the canonical form of the given param set. Two param sets have
+	 * the same subscription key if they have the same keys and their values
+	 * are equal, ignoring case. A null or empty param set has an empty key.
+	 * 
+	 * @param params
+	 * @return
+	 */
+	public static String toSubscriptionKey(Map<String, String> params) {
+		if (params == null || params.isEmpty()) {
+			return "";
+		}
+		// order the keys so that the key does not depend on the map's
+		// iteration order. each key and value is prefixed with its length so
+		// that no two param sets can result in the same key
+		Map<String, String> sorted = new TreeMap<String, String>(params);
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry : sorted.entrySet()) {
+			String key = entry.getKey();
+			String value = entry.getValue();
+			sb.append(key.length()).append(':').append(key);
+			if (value == null) {
+				sb.append('-');
+				continue;
+			}
+			sb.append(value.length()).append('=');
+			// fold the case the same way that String.equalsIgnoreCase does
+			for (int i = 0; i < value.length(); i++) {
+				sb.append(Character.toLowerCase(Character.toUpperCase(value
+						.charAt(i))));
 			}
-
 		}
-		return true;
+		return sb.toString();
 	}
 
 	/**
@@ -633,7 +913,11 @@ public class SqlJob implements Runnable, MessageListener<String> {
 		if (sessionId != null) {
 			session = getSocketSessions().remove(sessionId);
 			if (session != null) {
+				getSqlStmnt().unindexSession(sessionId, this);
 				session.setMyJob(null);
+				// a job that has lost its last session is retired right
+				// away instead of at the end of its next cycle
+				retireIfIdle();
 			}
 		}
 		return session;
@@ -641,16 +925,97 @@ public class SqlJob implements Runnable, MessageListener<String> {
 
 	/**
 	 * Add the given session to this job and assign this job to the session.
+	 * If this job has already acquired a result set, the session is sent this
+	 * job's current state. Returns false if this job is on its way out, in
+	 * which case the session is not added.
 	 * 
 	 * @param inSession
+	 * @return
 	 */
-	public void addSession(WdsSocketSession inSession) {
-		if (inSession != null) {
+	public boolean addSession(WdsSocketSession inSession) {
+		if (inSession == null) {
+			return true;
+		}
+		sessionsLock.lock();
+		try {
+			if (retired) {
+				return false;
+			}
 			LOG.trace(getThreadName() + ": adding this session "
 					+ inSession.getId());
 			getSocketSessions().put(inSession.getId(), inSession);
+			getSqlStmnt().indexSession(inSession.getId(), this);
 			inSession.setMyJob(this);
+		} finally {
+			sessionsLock.unlock();
 		}
+		sendCurrentState(inSession);
+		return true;
+	}
+
+	/**
+	 * Brings the given session up to date. If the signature that the session's
+	 * client last received is the current signature, then the client is sent
+	 * an "unchanged" reply. Otherwise, the client is sent the last result or,
+	 * if the last result was not retained and the client has a stale
+	 * signature, a change notification. If this job has yet to acquire a
+	 * result set, nothing is sent until it has.
+	 * 
+	 * @param session
+	 */
+	private void sendCurrentState(WdsSocketSession session) {
+		synchronized (getResponse()) {
+			String dSign = getDigitalSignature();
+			if (dSign == null) {
+				return;
+			}
+			String lastSign = session.getLastSignature();
+			session.setLastSignature(null);
+			TextMessage message = null;
+			try {
+				boolean snapshot = false;
+				if (dSign.equals(lastSign)) {
+					LOG.trace(getThreadName() + ": session " + session.getId()
+							+ " is up to date");
+					message = new TextMessage(generateResponse(WS_UNCHANGED,
+							dSign));
+				} else if (getLastResult() != null) {
+					LOG.trace(getThreadName() + ": sending last result to "
+							+ "session " + session.getId());
+					message = new TextMessage(getLastResult());
+					snapshot = true;
+				} else if (lastSign != null) {
+					message = new TextMessage(generateResponse(WS_NOTIFY,
+							dSign));
+				}
+				if (message != null && session.isOpen()) {
+					session.send(message, snapshot);
+				}
+			} catch (Exception exc) {
+				LOG.error(getThreadName() + ":ERROR, caught this "
+						+ "Exception while trying to send current state - "
+						+ exc.toString());
+				LOG.error(getThreadName() + ": exception stack trace follows:");
+				dumpStackTrace(exc.getStackTrace());
+			}
+		}
+	}
+
+	/**
+	 * Returns the json message having the given status and message. Must be
+	 * called while holding the lock on the response.
+	 * 
+	 * @param status
+	 * @param message
+	 * @return
+	 * @throws Exception
+	 */
+	private String generateResponse(String status, String message)
+			throws Exception {
+		getResponseMap().clear();
+		getResponseMap().put(WS_STATUS, status);
+		getResponseMap().put(WS_MSG, message);
+		return Utils.generateJson(getResponse());
 	}
 
 	/**
@@ -694,26 +1059,66 @@ public class SqlJob implements Runnable, MessageListener<String> {
 		this.threadName = threadName;
 	}
 
-	public Hashtable<String, WdsSocketSession> getSocketSessions() {
+	public ConcurrentHashMap<String, WdsSocketSession> getSocketSessions() {
 		return socketSessions;
 	}
 
 	public void setSocketSessions(
-			Hashtable<String, WdsSocketSession> socketSessions) {
+			ConcurrentHashMap<String, WdsSocketSession> socketSessions) {
 		this.socketSessions = socketSessions;
 	}
 
+	public String getSubscriptionKey() {
+		return subscriptionKey;
+	}
+
+	public void setSubscriptionKey(String subscriptionKey) {
+		this.subscriptionKey = subscriptionKey;
+	}
+
+	public boolean isRetired() {
+		return retired;
+	}
+
+	/**
+	 * Retires and stops this job if it has no sessions. Returns true if the
+	 * job was retired.
+	 * 
+	 * @return
+	 */
+	private boolean retireIfIdle() {
+		if (!socketSessions.isEmpty() || retired) {
+			return false;
+		}
+		sessionsLock.lock();
+		try {
+			// make sure session did not sneak in
+			if (!socketSessions.isEmpty() || retired) {
+				return false;
+			}
+			retired = true;
+		} finally {
+			sessionsLock.unlock();
+		}
+		LOG.trace(getThreadName()
+				+ ": SqlJob stopping because it has no more sessions");
+		// the job no longer takes sessions, so it can be stopped and removed
+		// from its statement without holding the lock
+		getSqlStmnt().removeSqlJob(this);
+		return true;
+	}
+
 	/**
 	 * Removes all closed sessions from the collection of registered sessions
 	 */
 	private void sweepSessions() {
 		LOG.trace(getThreadName() + ": sweeping sessions");
-		for (Enumeration<String> e = getSocketSessions().keys(); e
-				.hasMoreElements();) {
-			String key = e.nextElement();
-			WdsSocketSession session = getSocketSessions().get(key);
-			if (!session.isOpen()) {
-				getSocketSessions().remove(key);
+		for (Iterator<Map.Entry<String, WdsSocketSession>> it = getSocketSessions()
+				.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, WdsSocketSession> entry = it.next();
+			if (!entry.getValue().isOpen()) {
+				it.remove();
+				getSqlStmnt().unindexSession(entry.getKey(), this);
 			}
 		}
 	}
@@ -725,15 +1130,49 @@ public class SqlJob implements Runnable, MessageListener<String> {
 	 * @param message
 	 */
 	private void sendChangeNotification(String notification) {
-		// clear the response map
-		getResponseMap().clear();
-		// send back a notify status
-		getResponseMap().put(Statics.WS_STATUS, Statics.WS_NOTIFY);
-		// with notification message
-		getResponseMap().put(WS_MSG, notification);
-		LOG.trace(getThreadName() + ":sending this change notification - "
-				+ notification);
-		sendResponseMessage(getResponse());
+		synchronized (getResponse()) {
+			// clear the response map
+			getResponseMap().clear();
+			// send back a notify status
+			getResponseMap().put(Statics.WS_STATUS, Statics.WS_NOTIFY);
+			// with notification message
+			getResponseMap().put(WS_MSG, notification);
+			LOG.trace(getThreadName() + ":sending this change notification - "
+					+ notification);
+			sendResponseMessage(getResponse());
+		}
+	}
+
+	/**
+	 * Broadcasts a delta message, which carries the rows that have been
+	 * inserted, updated and deleted, to all the clients that are currently
+	 * subscribed to this SQL job. Deleted rows are identified by their key.
+	 * 
+	 * Returns the message that was sent.
+	 * 
+	 * @param notification
+	 * @param delta
+	 * @return
+	 */
+	private String sendDeltaNotification(String notification,
+			ResultSetDelta delta) {
+		synchronized (getResponse()) {
+			// clear the response map
+			getResponseMap().clear();
+			// send back a delta status
+			getResponseMap().put(Statics.WS_STATUS, Statics.WS_DELTA);
+			// with the new signature and the changed rows
+			getResponseMap().put(WS_MSG, notification);
+			getResponseMap().put(WS_INSERTED, delta.getInserted());
+			getResponseMap().put(WS_UPDATED, delta.getUpdated());
+			getResponseMap().put(WS_DELETED, delta.getDeleted());
+			LOG.trace(getThreadName() + ":sending this delta notification - "
+					+ notification + ", inserted = "
+					+ delta.getInserted().size() + ", updated = "
+					+ delta.getUpdated().size() + ", deleted = "
+					+ delta.getDeleted().size());
+			return sendResponseMessage(getResponse(), true);
+		}
 	}
 
 	/**
@@ -743,29 +1182,47 @@ public class SqlJob implements Runnable, MessageListener<String> {
 	 * @param message
 	 */
 	private void sendInternalServerError(String message) {
-		// clear the response map
-		getResponseMap().clear();
-		// send back an error status
-		getResponseMap().put(Statics.WS_STATUS, Statics.WS_ERROR);
-		// with message
-		getResponseMap().put(WS_MSG, message);
-		LOG.trace(getThreadName() + ":sending this internal server error - "
-				+ message);
-		sendResponseMessage(getResponse());
+		synchronized (getResponse()) {
+			// clear the response map
+			getResponseMap().clear();
+			// send back an error status
+			getResponseMap().put(Statics.WS_STATUS, Statics.WS_ERROR);
+			// with message
+			getResponseMap().put(WS_MSG, message);
+			LOG.trace(getThreadName()
+					+ ":sending this internal server error - " + message);
+			sendResponseMessage(getResponse());
+		}
 	}
 
 	/**
 	 * Broadcasts a message to all the clients that are currently subscribed to
-	 * this SQL job
+	 * this SQL job. Returns the json message that was broadcast or null if it
+	 * could not be generated.
 	 * 
 	 * @param message
+	 * @return
 	 */
-	private void sendResponseMessage(List<Map<String, Object>> response) {
-		TextMessage textMessage = null;
+	private String sendResponseMessage(List<Map<String, Object>> response) {
+		return sendResponseMessage(response, false);
+	}
+
+	/**
+	 * Broadcasts a message to all the clients that are currently subscribed to
+	 * this SQL job. If lossless is true, the message is a delta, which the
+	 * sessions must not discard on an overflow.
+	 * 
+	 * @param response
+	 * @param lossless
+	 * @return
+	 */
+	private String sendResponseMessage(List<Map<String, Object>> response,
+			boolean lossless) {
+		String json = null;
 		try {
 			// create a TextMessage to send back based on json response
 			// object
-			textMessage = new TextMessage(Utils.generateJson(response));
+			json = Utils.generateJson(response);
 		} catch (Exception e) {
 			LOG.error(getThreadName() + ":ERROR, caught this "
 					+ "Exception while trying to gen json message -  "
@@ -779,15 +1236,37 @@ public class SqlJob implements Runnable, MessageListener<String> {
 						+ ": causing exception stack trace follows:");
 				dumpStackTrace(e.getCause().getStackTrace());
 			}
-			return;
+			return null;
 		}
+		broadcast(new TextMessage(json), lossless);
+		return json;
+	}
 
-		// broadcast the message
+	/**
+	 * Sends the given message to all the clients that are currently subscribed
+	 * to this SQL job
+	 * 
+	 * @param textMessage
+	 * @param lossless
+	 */
+	private void broadcast(TextMessage textMessage, boolean lossless) {
+		// the frames sent for the message; i.e., the message itself and its
+		// compressed variants. a message is compressed once per encoding
+		Map<String, WebSocketMessage<?>> frames = new HashMap<String, WebSocketMessage<?>>(
+				4);
+		// broadcast the message. each session queues the message and sends it
+		// on its own, so a slow or broken client does not hold up the others
 		for (String key : getSocketSessions().keySet()) {
 			WdsSocketSession session = getSocketSessions().get(key);
-			if (session.isOpen()) {
+			if (session != null && session.isOpen()) {
 				try {
-					session.getSession().sendMessage(textMessage);
+					WebSocketMessage<?> frame = frames.get(session
+							.getFrameEncoding());
+					if (frame == null) {
+						frame = session.encode(textMessage);
+						frames.put(session.getFrameEncoding(), frame);
+					}
+					session.sendFrame(frame, lossless);
 				} catch (Exception exc) {
 					LOG.error(getThreadName() + ":ERROR, caught this "
 							+ "Exception while trying to broadcast message - "
@@ -802,7 +1281,6 @@ public class SqlJob implements Runnable, MessageListener<String> {
 								+ ": causing exception stack trace follows:");
 						dumpStackTrace(exc.getCause().getStackTrace());
 					}
-					return;
 				}
 			}
 		}
@@ -831,14 +1309,6 @@ public class SqlJob implements Runnable, MessageListener<String> {
 		this.id = id;
 	}
 
-	public boolean tryLock() {
-		return sessionsLock.tryLock();
-	}
-
-	public void unLock() {
-		sessionsLock.unlock();
-	}
-
 	public List<Map<String, String>> getlParams() {
 		return lParams;
 	}
@@ -855,6 +1325,30 @@ public class SqlJob implements Runnable, MessageListener<String> {
 		this.sha = sha;
 	}
 
+	public MessageDigest getRowSha() {
+		return rowSha;
+	}
+
+	public void setRowSha(MessageDigest rowSha) {
+		this.rowSha = rowSha;
+	}
+
+	public Map<Object, byte[]> getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(Map<Object, byte[]> snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	public byte[] getLastResult() {
+		return lastResult;
+	}
+
+	public void setLastResult(byte[] lastResult) {
+		this.lastResult = lastResult;
+	}
+
 	public String getDigitalSignature() {
 		return digitalSignature;
 	}
@@ -895,56 +1389,52 @@ public class SqlJob implements Runnable, MessageListener<String> {
 		this.hazelcastInstance = hazelcastInstance;
 	}
 
-	public ILock getMasterLock() {
-		return masterLock;
+	public SqlJobCluster getJobCluster() {
+		return jobCluster;
 	}
 
-	public void setMasterLock(ILock masterLock) {
-		this.masterLock = masterLock;
+	public void setJobCluster(SqlJobCluster jobCluster) {
+		this.jobCluster = jobCluster;
 	}
 
-	public ITopic<String> getTopic() {
-		return topic;
+	public String getDeltaPayload() {
+		return deltaPayload;
 	}
 
-	public void setTopic(ITopic<String> topic) {
-		this.topic = topic;
+	public void setDeltaPayload(String deltaPayload) {
+		this.deltaPayload = deltaPayload;
 	}
 
-	public String getTopicRegistrationId() {
-		return topicRegistrationId;
-	}
-
-	public void setTopicRegistrationId(String topicRegistrationId) {
-		this.topicRegistrationId = topicRegistrationId;
+	public boolean isChangeDetected() {
+		return changeDetected;
 	}
 
-	public Message<String> getTopicMessage() {
-		return topicMessage;
+	public void setChangeDetected(boolean changeDetected) {
+		this.changeDetected = changeDetected;
 	}
 
-	public void setTopicMessage(Message<String> topicMessage) {
-		this.topicMessage = topicMessage;
+	public SqlJobScheduler getScheduler() {
+		return scheduler;
 	}
 
-	public boolean isChangeDetected() {
-		return changeDetected;
+	public void setScheduler(SqlJobScheduler scheduler) {
+		this.scheduler = scheduler;
 	}
 
-	public void setChangeDetected(boolean changeDetected) {
-		this.changeDetected = changeDetected;
+	public ScheduledFuture<?> getFuture() {
+		return future;
 	}
 
-	public Thread getRunner() {
-		return this.runner;
+	public void setFuture(ScheduledFuture<?> future) {
+		this.future = future;
 	}
 
-	public void setRunner(Thread runner) {
-		this.runner = runner;
+	public long getIntervalTime() {
+		return intervalTime;
 	}
 
 	public boolean inCluster() {
-		return getHazelcastInstance() != null;
+		return getJobCluster() != null;
 	}
 
 }
@@ -0,0 +1,681 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.EntryListener;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.MemberAttributeEvent;
+import com.hazelcast.core.MembershipEvent;
+import com.hazelcast.core.MembershipListener;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+import com.hazelcast.core.MigrationEvent;
+import com.hazelcast.core.MigrationListener;
+
+/**
+ * The SqlJobCluster decides which member of a Hazelcast cluster is the master
+ * of each cluster of identical SqlJobs; i.e., which member polls the DB on
+ * behalf of the others. There is one SqlJobCluster per PusherBean.
+ *
+ * Mastership is recorded in a single distributed map, which maps a SqlJob's
+ * cluster hash to the uuid of the master member. Each member keeps a local
+ * set of the cluster hashes that it is master of, so a SqlJob's check for
+ * mastership does not involve a remote call. Remote calls are only made when
+ * a cluster of SqlJobs is formed or retired on this member and when the
+ * membership of the Hazelcast cluster changes.
+ *
+ * To spread the polling load evenly across the members, mastership is
+ * partitioned by cluster hash. The member that owns the Hazelcast partition of
+ * a cluster hash takes over mastership, if it also has a SqlJob for that
+ * cluster hash. Otherwise, the first member to claim it becomes master. When a
+ * member leaves, the remaining members with a SqlJob for one of its cluster
+ * hashes race to replace it; when partitions migrate, their new owners take
+ * over.
+ *
+ * The masters notify the other members of a change via a single topic. The
+ * notifications that are published within the publish delay are sent as one
+ * batch, and each member routes a batch's notifications to its local SqlJobs
+ * via the cluster hash index. A notification carries the master's last
+ * result, if it retains one, so that the other members can bring the
+ * sessions that join their SqlJobs up to date without polling the DB. A
+ * member that registers a SqlJob that it is not master of asks the master for
+ * its current state with a notification that has no signature.
+ *
+ */
+public class SqlJobCluster implements EntryListener<String, String>,
+		MembershipListener, MigrationListener,
+		MessageListener<ArrayList<SqlJobCluster.Notification>> {
+
+	private static final Log LOG = LogFactory.getLog(SqlJobCluster.class);
+
+	/**
+	 * The default time (msecs) that a notification waits to be batched with
+	 * others before it is published
+	 */
+	public static final long DFLT_PUBLISH_DELAY = 20L;
+
+	/**
+	 * The maximum number of notifications per batch
+	 */
+	public static final int MAX_BATCH_SIZE = 500;
+
+	/**
+	 * A notification that the master of a cluster hash publishes when it
+	 * detects a change. The payload is optional; if present, it is the
+	 * message that the master sent to its own clients and that the other
+	 * members send, as is, to theirs. The last result is also optional; if
+	 * present, it is the master's encoded result set, which the other members
+	 * send to the sessions that join their jobs. A notification without a
+	 * signature is a request for the master's current state.
+	 */
+	public static class Notification implements Serializable {
+
+		private static final long serialVersionUID = 2L;
+
+		private String clusterHash;
+		private String signature;
+		private String payload;
+		private byte[] lastResult;
+
+		public Notification(String clusterHash, String signature,
+				String payload, byte[] lastResult) {
+			this.clusterHash = clusterHash;
+			this.signature = signature;
+			this.payload = payload;
+			this.lastResult = lastResult;
+		}
+
+		public String getClusterHash() {
+			return clusterHash;
+		}
+
+		public String getSignature() {
+			return signature;
+		}
+
+		public String getPayload() {
+			return payload;
+		}
+
+		public byte[] getLastResult() {
+			return lastResult;
+		}
+	}
+
+	/**
+	 * The Hazelcast instance that this member belongs to
+	 */
+	private HazelcastInstance hazelcastInstance;
+
+	/**
+	 * The name of this cluster, which is also the name of its distributed
+	 * map
+	 */
+	private String name;
+
+	/**
+	 * Maps cluster hashes to the uuid of their master member
+	 */
+	private IMap<String, String> masters;
+
+	/**
+	 * The uuid of the local member
+	 */
+	private String localUuid;
+
+	/**
+	 * The local SqlJobs, indexed by their cluster hash
+	 */
+	private ConcurrentHashMap<String, Set<SqlJob>> localJobs = new ConcurrentHashMap<String, Set<SqlJob>>();
+
+	/**
+	 * The striped locks that make registering and unregistering a SqlJob
+	 * atomic per cluster hash. Without them, a SqlJob could be added to a set
+	 * that is being retired and be left orphaned.
+	 */
+	private static final int LOCK_STRIPES = 64;
+	private final Object[] locks = new Object[LOCK_STRIPES];
+	{
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * The cluster hashes that the local member is the master of
+	 */
+	private Set<String> owned = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * The topic that carries the batches of notifications
+	 */
+	private ITopic<ArrayList<Notification>> topic;
+
+	/**
+	 * The notifications waiting to be published
+	 */
+	private ArrayList<Notification> pending = new ArrayList<Notification>();
+	private boolean flushScheduled;
+	private long publishDelay = DFLT_PUBLISH_DELAY;
+
+	/**
+	 * Listener registration ids
+	 */
+	private String entryRegistrationId;
+	private String membershipRegistrationId;
+	private String migrationRegistrationId;
+	private String topicRegistrationId;
+
+	/**
+	 * Used for handling cluster events off of Hazelcast's event threads and
+	 * for publishing the batches
+	 */
+	private ScheduledExecutorService eventExecutor;
+
+	/**
+	 * Publishes the pending notifications
+	 */
+	private Runnable flusher = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+
+	public SqlJobCluster(HazelcastInstance hazelcastInstance, String name) {
+		this.hazelcastInstance = hazelcastInstance;
+		this.name = name;
+	}
+
+	/**
+	 * Acquires the distributed map and starts listening for cluster events.
+	 */
+	public synchronized void start() {
+		if (masters != null) {
+			return;
+		}
+		eventExecutor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, getName() + ".events");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		localUuid = hazelcastInstance.getCluster().getLocalMember().getUuid();
+		masters = hazelcastInstance.getMap(getName());
+		entryRegistrationId = masters.addEntryListener(this, true);
+		membershipRegistrationId = hazelcastInstance.getCluster()
+				.addMembershipListener(this);
+		migrationRegistrationId = hazelcastInstance.getPartitionService()
+				.addMigrationListener(this);
+		topic = hazelcastInstance.getTopic(getName() + ".topic");
+		topicRegistrationId = topic.addMessageListener(this);
+		LOG.info(getName() + ": started, local member = " + localUuid);
+	}
+
+	/**
+	 * Stops listening for cluster events and gives up mastership of all
+	 * cluster hashes.
+	 */
+	public synchronized void shutdown() {
+		if (masters == null) {
+			return;
+		}
+		try {
+			masters.removeEntryListener(entryRegistrationId);
+			hazelcastInstance.getCluster().removeMembershipListener(
+					membershipRegistrationId);
+			hazelcastInstance.getPartitionService().removeMigrationListener(
+					migrationRegistrationId);
+			topic.removeMessageListener(topicRegistrationId);
+			flush();
+			for (String clusterHash : owned) {
+				masters.remove(clusterHash, localUuid);
+			}
+		} catch (Exception exc) {
+			LOG.warn(getName() + ": caught this exception while shutting "
+					+ "down: " + exc.toString());
+		}
+		owned.clear();
+		localJobs.clear();
+		eventExecutor.shutdownNow();
+		masters = null;
+	}
+
+	/**
+	 * Registers a local SqlJob. If it is the first local SqlJob with its
+	 * cluster hash, then this member claims mastership of the cluster hash.
+	 *
+	 * @param job
+	 */
+	public void register(SqlJob job) {
+		String clusterHash = job.getClusterHash();
+		synchronized (getLock(clusterHash)) {
+			Set<SqlJob> jobs = localJobs.get(clusterHash);
+			if (jobs == null) {
+				jobs = Collections
+						.newSetFromMap(new ConcurrentHashMap<SqlJob, Boolean>());
+				localJobs.put(clusterHash, jobs);
+			}
+			if (jobs.add(job) && jobs.size() == 1) {
+				claim(clusterHash, false);
+			}
+			// a job that will not be polling needs the master's state
+			if (!isMaster(clusterHash)) {
+				publish(clusterHash, null, null, null);
+			}
+		}
+	}
+
+	/**
+	 * Unregisters a local SqlJob. If it was the last local SqlJob with its
+	 * cluster hash, then this member gives up mastership of the cluster hash,
+	 * and the other members will claim it.
+	 *
+	 * @param job
+	 */
+	public void unregister(SqlJob job) {
+		String clusterHash = job.getClusterHash();
+		synchronized (getLock(clusterHash)) {
+			Set<SqlJob> jobs = localJobs.get(clusterHash);
+			if (jobs == null || !jobs.remove(job) || !jobs.isEmpty()) {
+				return;
+			}
+			localJobs.remove(clusterHash);
+			if (owned.remove(clusterHash)) {
+				try {
+					masters.remove(clusterHash, localUuid);
+				} catch (Exception exc) {
+					LOG.warn(getName() + ": unable to release mastership: "
+							+ exc.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the lock that guards the registration of the SqlJobs having the
+	 * given cluster hash.
+	 *
+	 * @param clusterHash
+	 * @return
+	 */
+	private Object getLock(String clusterHash) {
+		return locks[(clusterHash.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+	}
+
+	/**
+	 * Returns true if the local member is the master of the given cluster
+	 * hash. This is a local check.
+	 *
+	 * @param clusterHash
+	 * @return
+	 */
+	public boolean isMaster(String clusterHash) {
+		return owned.contains(clusterHash);
+	}
+
+	/**
+	 * Returns the local SqlJobs having the given cluster hash, if any.
+	 *
+	 * @param clusterHash
+	 * @return
+	 */
+	public Set<SqlJob> getJobs(String clusterHash) {
+		return localJobs.get(clusterHash);
+	}
+
+	/**
+	 * Called by the master of a cluster hash to notify the other members of a
+	 * change. The notification is queued and published, along with any other
+	 * notifications, after the publish delay.
+	 *
+	 * @param clusterHash
+	 * @param signature
+	 * @param payload
+	 *            optional
+	 * @param lastResult
+	 *            optional
+	 */
+	public void publish(String clusterHash, String signature,
+			String payload, byte[] lastResult) {
+		synchronized (pending) {
+			pending.add(new Notification(clusterHash, signature, payload,
+					lastResult));
+			if (flushScheduled) {
+				return;
+			}
+			flushScheduled = true;
+		}
+		try {
+			eventExecutor.schedule(flusher, getPublishDelay(),
+					TimeUnit.MILLISECONDS);
+		} catch (Exception exc) {
+			LOG.debug(getName() + ": unable to schedule publish: "
+					+ exc.toString());
+			synchronized (pending) {
+				flushScheduled = false;
+			}
+		}
+	}
+
+	/**
+	 * Publishes the pending notifications in batches
+	 */
+	private void flush() {
+		List<Notification> notifications = null;
+		synchronized (pending) {
+			flushScheduled = false;
+			if (pending.isEmpty()) {
+				return;
+			}
+			notifications = pending;
+			pending = new ArrayList<Notification>();
+		}
+		try {
+			for (int i = 0; i < notifications.size(); i += MAX_BATCH_SIZE) {
+				topic.publish(new ArrayList<Notification>(notifications
+						.subList(i, Math.min(i + MAX_BATCH_SIZE,
+								notifications.size()))));
+			}
+			LOG.trace(getName() + ": published " + notifications.size()
+					+ " notifications");
+		} catch (Exception exc) {
+			LOG.error(getName() + ": unable to publish notifications: "
+					+ exc.toString());
+		}
+	}
+
+	/**
+	 * Called when a batch of notifications is received on the topic. Each
+	 * notification is routed to the local SqlJobs, if any, with its cluster
+	 * hash. This member's own batches are ignored.
+	 */
+	public void onMessage(Message<ArrayList<Notification>> message) {
+		if (message.getPublishingMember() != null
+				&& message.getPublishingMember().localMember()) {
+			return;
+		}
+		for (Notification notification : message.getMessageObject()) {
+			Set<SqlJob> jobs = localJobs.get(notification.getClusterHash());
+			if (jobs == null) {
+				continue;
+			}
+			if (notification.getSignature() == null) {
+				// another member is asking for the master's state
+				if (isMaster(notification.getClusterHash())) {
+					for (SqlJob job : jobs) {
+						if (job.publishState()) {
+							break;
+						}
+					}
+				}
+				continue;
+			}
+			if (isMaster(notification.getClusterHash())) {
+				continue;
+			}
+			for (SqlJob job : jobs) {
+				job.onClusterNotification(notification.getSignature(),
+						notification.getPayload(),
+						notification.getLastResult());
+			}
+		}
+	}
+
+	/**
+	 * Attempts to make this member the master of the given cluster hash. It is
+	 * run under the cluster hash's lock, so that the local jobs cannot be
+	 * unregistered while mastership is being claimed.
+	 *
+	 * @param clusterHash
+	 * @param notify
+	 *            if true, notify the local jobs of a change in mastership
+	 */
+	private void claim(String clusterHash, boolean notify) {
+		synchronized (getLock(clusterHash)) {
+			if (!hasJobs(clusterHash)) {
+				return;
+			}
+			try {
+				String master = masters.putIfAbsent(clusterHash, localUuid);
+				if (master == null || master.equals(localUuid)) {
+					setOwned(clusterHash, true, notify);
+				} else if (isPartitionOwner(clusterHash)
+						&& masters.replace(clusterHash, master, localUuid)) {
+					LOG.trace(getName() + ": took over mastership from "
+							+ master + " for " + clusterHash);
+					setOwned(clusterHash, true, notify);
+				} else {
+					setOwned(clusterHash, false, notify);
+				}
+			} catch (Exception exc) {
+				LOG.error(getName() + ": unable to claim mastership of "
+						+ clusterHash + ": " + exc.toString());
+			}
+		}
+	}
+
+	/**
+	 * Replaces the given member as master of the given cluster hash. Like
+	 * claim, it is run under the cluster hash's lock.
+	 *
+	 * @param clusterHash
+	 * @param uuid
+	 */
+	private void replace(String clusterHash, String uuid) {
+		synchronized (getLock(clusterHash)) {
+			if (!hasJobs(clusterHash)) {
+				return;
+			}
+			try {
+				if (masters.replace(clusterHash, uuid, localUuid)) {
+					setOwned(clusterHash, true, true);
+				} else if (!masters.containsKey(clusterHash)) {
+					claim(clusterHash, true);
+				}
+			} catch (Exception exc) {
+				LOG.error(getName() + ": unable to replace master of "
+						+ clusterHash + ": " + exc.toString());
+			}
+		}
+	}
+
+	/**
+	 * Returns true if there are local SqlJobs having the given cluster hash.
+	 *
+	 * @param clusterHash
+	 * @return
+	 */
+	private boolean hasJobs(String clusterHash) {
+		Set<SqlJob> jobs = localJobs.get(clusterHash);
+		return jobs != null && !jobs.isEmpty();
+	}
+
+	/**
+	 * Records whether the local member is the master of the given cluster
+	 * hash. If mastership has changed, the local SqlJobs are interrupted so
+	 * that they act on it right away. It is run under the cluster hash's lock;
+	 * the jobs are interrupted by a separate event task, because a job that is
+	 * stopping holds its own lock while it waits for the cluster hash's lock.
+	 */
+	private void setOwned(String clusterHash, boolean master, boolean notify) {
+		synchronized (getLock(clusterHash)) {
+			final Set<SqlJob> jobs = localJobs.get(clusterHash);
+			if (jobs == null || jobs.isEmpty()) {
+				// the jobs were retired in the meantime; make sure we don't
+				// hang on to mastership
+				owned.remove(clusterHash);
+				try {
+					masters.remove(clusterHash, localUuid);
+				} catch (Exception exc) {
+					LOG.warn(getName() + ": unable to release mastership: "
+							+ exc.toString());
+				}
+				return;
+			}
+			boolean changed = (master) ? owned.add(clusterHash) : owned
+					.remove(clusterHash);
+			if (changed) {
+				LOG.debug(getName() + ": master = " + master + " for "
+						+ clusterHash);
+				if (notify) {
+					submit(new Runnable() {
+						public void run() {
+							for (SqlJob job : jobs) {
+								job.doInterrupt();
+							}
+						}
+					});
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the local member owns the Hazelcast partition of the
+	 * given cluster hash.
+	 */
+	private boolean isPartitionOwner(String clusterHash) {
+		Member owner = hazelcastInstance.getPartitionService()
+				.getPartition(clusterHash).getOwner();
+		return owner != null && owner.localMember();
+	}
+
+	/**
+	 * Runs the given task on the event executor
+	 */
+	private void submit(Runnable task) {
+		try {
+			eventExecutor.execute(task);
+		} catch (Exception exc) {
+			LOG.debug(getName() + ": dropped cluster event: " + exc.toString());
+		}
+	}
+
+	public void entryAdded(EntryEvent<String, String> event) {
+		entryUpdated(event);
+	}
+
+	public void entryUpdated(final EntryEvent<String, String> event) {
+		if (!localJobs.containsKey(event.getKey())) {
+			return;
+		}
+		submit(new Runnable() {
+			public void run() {
+				setOwned(event.getKey(), localUuid.equals(event.getValue()),
+						true);
+			}
+		});
+	}
+
+	public void entryRemoved(final EntryEvent<String, String> event) {
+		if (!localJobs.containsKey(event.getKey())) {
+			return;
+		}
+		// the master has retired its jobs, so claim mastership
+		submit(new Runnable() {
+			public void run() {
+				claim(event.getKey(), true);
+			}
+		});
+	}
+
+	public void entryEvicted(EntryEvent<String, String> event) {
+		entryRemoved(event);
+	}
+
+	public void memberAdded(MembershipEvent event) {
+		// partitions will migrate to the new member, which will then take over
+		// mastership of those cluster hashes that it also has jobs for
+	}
+
+	public void memberRemoved(MembershipEvent event) {
+		final String uuid = event.getMember().getUuid();
+		LOG.debug(getName() + ": member removed = " + uuid);
+		submit(new Runnable() {
+			public void run() {
+				for (String clusterHash : localJobs.keySet()) {
+					replace(clusterHash, uuid);
+				}
+			}
+		});
+	}
+
+	public void memberAttributeChanged(MemberAttributeEvent event) {
+	}
+
+	public void migrationStarted(MigrationEvent event) {
+	}
+
+	public void migrationCompleted(final MigrationEvent event) {
+		if (event.getNewOwner() == null || !event.getNewOwner().localMember()) {
+			return;
+		}
+		// this member now owns the partition, so take over mastership of the
+		// partition's cluster hashes that it has jobs for
+		submit(new Runnable() {
+			public void run() {
+				for (String clusterHash : localJobs.keySet()) {
+					if (hazelcastInstance.getPartitionService()
+							.getPartition(clusterHash).getPartitionId() == event
+							.getPartitionId()) {
+						claim(clusterHash, true);
+					}
+				}
+			}
+		});
+	}
+
+	public void migrationFailed(MigrationEvent event) {
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getLocalUuid() {
+		return localUuid;
+	}
+
+	public long getPublishDelay() {
+		return publishDelay;
+	}
+
+	public void setPublishDelay(long publishDelay) {
+		this.publishDelay = (publishDelay < 0L) ? 0L : publishDelay;
+	}
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * The SqlJobScheduler is used for running the SqlJobs' DB polls as timed tasks
+ * on a shared and bounded pool of worker threads; as opposed to giving each
+ * SqlJob its own, mostly sleeping, thread. The number of workers also caps the
+ * number of polls that can be concurrently hitting the DB.
+ *
+ * A scheduler can be defined as a bean in the Spring application context and
+ * wired to one or more PusherBeans via their 'jobScheduler' property. If a
+ * PusherBean is not wired to a scheduler, it will use the default scheduler,
+ * which is shared by all PusherBeans within the JVM.
+ *
+ * If 'virtualThreads' is set to true and the JVM supports virtual threads
+ * (i.e., JDK 21 or higher), then the workers will be virtual threads. If the
+ * JVM does not support virtual threads, the scheduler falls back to platform
+ * threads.
+ *
+ */
+public class SqlJobScheduler implements InitializingBean, BeanNameAware,
+		DisposableBean {
+
+	private static final Log LOG = LogFactory.getLog(SqlJobScheduler.class);
+
+	/**
+	 * The default number of workers
+	 */
+	public static final int DFLT_POOL_SIZE = 8;
+
+	/**
+	 * The scheduler that is used by those PusherBeans that have not been wired
+	 * to a scheduler.
+	 */
+	private static SqlJobScheduler defaultScheduler;
+
+	/**
+	 * The underlying executor service
+	 */
+	private volatile ScheduledExecutorService executor;
+
+	/**
+	 * True once this scheduler has been shut down, after which it no longer
+	 * accepts tasks unless it is explicitly started again
+	 */
+	private volatile boolean shutdown;
+
+	/**
+	 * The maximum number of workers and thus the maximum number of concurrent
+	 * DB polls.
+	 */
+	private int poolSize = DFLT_POOL_SIZE;
+
+	/**
+	 * If true, use virtual threads for the workers, if available.
+	 */
+	private boolean virtualThreads;
+
+	/**
+	 * The name of this bean per the Spring application context
+	 */
+	private String beanName = "sqljobscheduler";
+
+	/**
+	 * Used for naming the worker threads
+	 */
+	private AtomicLong threadCount = new AtomicLong(0L);
+
+	public SqlJobScheduler() {
+	}
+
+	public SqlJobScheduler(int poolSize, boolean virtualThreads) {
+		setPoolSize(poolSize);
+		setVirtualThreads(virtualThreads);
+	}
+
+	/**
+	 * Returns the scheduler shared by all PusherBeans that have not been wired
+	 * to their own scheduler. The default scheduler is lazily created.
+	 *
+	 * @return
+	 */
+	public static synchronized SqlJobScheduler getDefault() {
+		if (defaultScheduler == null) {
+			defaultScheduler = new SqlJobScheduler();
+			defaultScheduler.setBeanName("default.sqljobscheduler");
+			defaultScheduler.start();
+		}
+		return defaultScheduler;
+	}
+
+	/**
+	 * Called by Spring after all of this bean's properties have been set.
+	 */
+	public void afterPropertiesSet() throws Exception {
+		start();
+	}
+
+	/**
+	 * Invoked by the BeanFactory on destruction of this singleton.
+	 */
+	public void destroy() {
+		shutdown();
+	}
+
+	/**
+	 * Creates the underlying executor service, if it has not already been
+	 * created.
+	 */
+	public synchronized void start() {
+		shutdown = false;
+		if (executor != null) {
+			return;
+		}
+		ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(
+				getPoolSize(), createThreadFactory());
+		// cancelled polls should not linger in the work queue
+		stpe.setRemoveOnCancelPolicy(true);
+		stpe.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		executor = stpe;
+		LOG.info(getBeanName() + ": started with pool size = " + getPoolSize()
+				+ ", virtual threads = " + isVirtualThreads());
+	}
+
+	/**
+	 * Shuts down the underlying executor service.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Schedules the given task to run after the given delay (msecs). A
+	 * scheduler that has yet to be started is started; one that has been shut
+	 * down is not restarted. Returns null if the task was not scheduled,
+	 * because this scheduler has been shut down.
+	 *
+	 * @param task
+	 * @param delay
+	 * @return
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		ScheduledExecutorService es = executor;
+		if (es == null) {
+			synchronized (this) {
+				if (shutdown) {
+					LOG.debug(getBeanName() + ": rejecting task, scheduler "
+							+ "has been shut down");
+					return null;
+				}
+				start();
+				es = executor;
+			}
+		}
+		try {
+			return es.schedule(task, (delay < 0L) ? 0L : delay,
+					TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException exc) {
+			// shut down while the task was being scheduled
+			LOG.debug(getBeanName() + ": rejecting task, scheduler has "
+					+ "been shut down");
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the thread factory for the workers; one that creates virtual
+	 * threads if virtual threads have been requested and are supported by this
+	 * JVM.
+	 *
+	 * @return
+	 */
+	private ThreadFactory createThreadFactory() {
+		if (isVirtualThreads()) {
+			try {
+				// use reflection so that we can still build and run on the
+				// older JDKs
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(
+						null);
+				Class<?> builderClass = Class
+						.forName("java.lang.Thread$Builder");
+				Method name = builderClass.getMethod("name", String.class,
+						long.class);
+				builder = name.invoke(builder, getBeanName() + ".worker.", 0L);
+				return (ThreadFactory) builderClass.getMethod("factory")
+						.invoke(builder);
+			} catch (Exception exc) {
+				LOG.warn(getBeanName() + ": virtual threads are not supported "
+						+ "by this JVM, will use platform threads instead");
+				setVirtualThreads(false);
+			}
+		}
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, getBeanName() + ".worker."
+						+ threadCount.getAndIncrement());
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		};
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) throws IllegalArgumentException {
+		if (poolSize <= 0) {
+			throw new IllegalArgumentException(
+					"setPoolSize: pool size must be > 0");
+		}
+		this.poolSize = poolSize;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public String getBeanName() {
+		return beanName;
+	}
+
+	/**
+	 * Called by Spring to set the name of this bean
+	 */
+	public void setBeanName(String beanName) {
+		this.beanName = beanName;
+	}
+
+	public boolean isStarted() {
+		return executor != null;
+	}
+
+}
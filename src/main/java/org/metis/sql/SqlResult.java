@@ -37,6 +37,8 @@ public class SqlResult {
 	private int numRows;
 	// the number of rows affected by a batch operation
 	private int[] batchNumRows;
+	// the number of rows affected by each chunk of an ingest
+	private int[] chunkNumRows;
 	
 
 	public SqlResult() {
@@ -73,6 +75,14 @@ public class SqlResult {
 		this.batchNumRows = batchNumRows;
 	}
 
+	public int[] getChunkNumRows() {
+		return chunkNumRows;
+	}
+
+	public void setChunkNumRows(int[] chunkNumRows) {
+		this.chunkNumRows = chunkNumRows;
+	}
+
 	public List<Map<String, Object>> getResultSet() {
 		return resultSet;
 	}
@@ -105,6 +115,7 @@ public class SqlResult {
 		setKeyHolder(null);
 		setNumRows(0);
 		setBatchNumRows(null);
+		setChunkNumRows(null);
 	}
 	
 	public void close(){
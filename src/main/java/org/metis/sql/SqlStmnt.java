@@ -19,19 +19,34 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.Set;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Statement;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.net.MalformedURLException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -40,6 +55,7 @@ import static org.metis.utils.Statics.*;
 
 import org.metis.jdbc.WdsStoredProcedure;
 import org.metis.jdbc.PreparedStmntCreator;
+import org.metis.utils.JsonRowReader;
 import org.metis.MetisController;
 import org.metis.push.WdsSocketSession;
 
@@ -55,7 +71,8 @@ import org.metis.push.WdsSocketSession;
  * more or less an implementation of the observer design pattern.
  * 
  */
-public class SqlStmnt implements RowMapper<Map<String, Object>> {
+public class SqlStmnt implements RowMapper<Map<String, Object>>,
+		TableListener {
 
 	public static final Log LOG = LogFactory.getLog(SqlStmnt.class);
 
@@ -97,12 +114,31 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 	// tokens
 	private List<SqlToken> sortedKeyTokens = new ArrayList<SqlToken>();
 
+	// the plan for binding the params of a prepared, non call'able statement;
+	// it is compiled once from the sorted key tokens
+	private BindPlan bindPlan;
+
 	// this list contains 'all' the tokens for a call'able that have an IN
 	// mode
 	private ArrayList<SqlToken> inTokens = new ArrayList<SqlToken>();
 
-	// contains the currently running SqlJobs (if any)
-	private Hashtable<String, SqlJob> sqlJobs = new Hashtable<String, SqlJob>();
+	// contains the currently running SqlJobs (if any), keyed by their
+	// subscription key
+	private ConcurrentHashMap<String, SqlJob> sqlJobs = new ConcurrentHashMap<String, SqlJob>();
+
+	// reverse index that maps a web socket session's id to the SqlJob that
+	// the session is subscribed to
+	private ConcurrentHashMap<String, SqlJob> sessionJobs = new ConcurrentHashMap<String, SqlJob>();
+
+	// striped locks used for creating SqlJobs. subscriptions with different
+	// keys rarely contend for the same lock
+	private static final int CREATION_LOCK_COUNT = 32;
+	private Lock[] creationLocks = new Lock[CREATION_LOCK_COUNT];
+	{
+		for (int i = 0; i < CREATION_LOCK_COUNT; i++) {
+			creationLocks[i] = new ReentrantLock();
+		}
+	}
 
 	// used for assigning ids to SqlJobs spawned by this SqlStmnt
 	private static AtomicLong sqlJobId = new AtomicLong(1L);
@@ -122,6 +158,70 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 	private long intervalMax = 0L;
 	private long intervalStep = 0L;
 
+	// the scheduler that runs the SqlJobs spawned by this SqlStmnt. if not
+	// set, the SqlJobs use the default scheduler
+	private SqlJobScheduler jobScheduler;
+
+	// the cluster that decides which member polls for the SqlJobs spawned by
+	// this SqlStmnt. only set if operating within a hazelcast instance
+	private SqlJobCluster jobCluster;
+
+	// the optional name of the column that identifies the rows of this
+	// SqlStmnt's result set. if set, the SqlJobs spawned by this SqlStmnt push
+	// the rows that have changed instead of just the change notification
+	private String deltaKey;
+
+	// the maximum number of changed rows that a SqlJob will push. if exceeded,
+	// the SqlJob sends a plain change notification
+	private int deltaMax = DFLT_DELTA_MAX;
+
+	// the maximum size (bytes) of the last result that a SqlJob retains for
+	// the clients that join it. zero means the last result is not retained
+	private int lastResultMax = DFLT_LAST_RESULT_MAX;
+
+	// the interval (msecs) at which a SqlJob audits its sessions for any that
+	// were closed without being removed
+	private long sessionAuditInterval = DFLT_SESSION_AUDIT_INTERVAL;
+
+	// the maximum number of rows returned by, and the fetch size used for,
+	// this query; zero means that the driver's default is used
+	private int maxRows;
+	private int fetchSize;
+	// the template, having the above settings, used for this query
+	private volatile JdbcTemplate queryTemplate;
+
+	// the prepared text before and after the '= ?' of a single key query
+	// that can be rewritten as an IN list; null if the query cannot be
+	// rewritten
+	private String[] inListParts;
+	// the IN list statements, keyed by their arity bucket
+	private ConcurrentHashMap<Integer, String> inListSqls = new ConcurrentHashMap<Integer, String>();
+
+	// the words that keep a query from being rewritten as an IN list, because
+	// the rows of the IN list query would not be the union of the rows of the
+	// single key queries
+	private static final Pattern NOT_IN_LISTABLE = Pattern
+			.compile("(?i)\\b(or|group|having|distinct|union|intersect|"
+					+ "except|minus|limit|offset|fetch|top|order|rownum|"
+					+ "connect|over|count|sum|avg|min|max)\\b");
+	// the equality comparison of a key that is rewritten as an IN list
+	private static final Pattern IN_LIST_KEY = Pattern
+			.compile("(?<![<>!=])=\\s*\\?");
+	// the words that, when found before the key's comparison, mean that the
+	// comparison may not be a condition of the outermost WHERE
+	private static final Pattern NOT_IN_LIST_KEY = Pattern
+			.compile("(?i)\\b(join|on|case|when|exists)\\b|\\(\\s*select\\b");
+	// the outermost WHERE that precedes the key's comparison
+	private static final Pattern IN_LIST_WHERE = Pattern
+			.compile("(?i)\\bwhere\\b");
+	// the text between the WHERE and the key's comparison: the key's column,
+	// optionally preceded by other conditions that are ANDed with it
+	private static final Pattern IN_LIST_CONJUNCT = Pattern
+			.compile("(?is)(.*\\band)?\\s+[\\w.\"]+\\s*");
+	// the text after the key's comparison: nothing or more ANDed conditions
+	private static final Pattern IN_LIST_REST = Pattern
+			.compile("(?is)\\s*(\\band\\b.*)?");
+
 	/**
 	 * Enumeration used for identifying the type of SQL statement; whether it is
 	 * a function, stored procedure, query or update
@@ -134,6 +234,22 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 	// insert, update, etc.
 	private SqlStmntType sqlStmntType;
 
+	// the names of the tables that this statement reads or writes
+	private Set<String> tables = Collections.emptySet();
+
+	// the keywords that are followed by one or more table names
+	private static final Set<String> TABLE_KEYWORDS = new HashSet<String>();
+	// the keywords that end a list of table names
+	private static final Set<String> TABLE_LIST_ENDS = new HashSet<String>();
+	static {
+		Collections.addAll(TABLE_KEYWORDS, "from", "join", "into", "update");
+		Collections.addAll(TABLE_LIST_ENDS, "where", "group", "order",
+				"having", "join", "inner", "left", "right", "full", "cross",
+				"natural", "outer", "on", "using", "union", "intersect",
+				"except", "minus", "limit", "offset", "fetch", "for", "set",
+				"values", "select", "start", "connect", "window");
+	}
+
 	/**
 	 * Create a SqlStmnt object from the given SQL string and input tokens. The
 	 * tokens were previously created by the static getSQLStmnt method.
@@ -166,11 +282,36 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 	 * SqlStmnt
 	 */
 	public void destroy() {
+		TableRegistry.unregister(this);
 		for (SqlJob job : sqlJobs.values()) {
 			job.doStop();
 		}
 	}
 
+	/**
+	 * Called by the TableRegistry after a statement has written to one of this
+	 * statement's tables. Each of this statement's SqlJobs polls the DB right
+	 * away, instead of waiting for its next interval.
+	 */
+	public void onTableWrite(String table, SqlStmnt writer) {
+		for (SqlJob job : sqlJobs.values()) {
+			LOG.trace("onTableWrite: interrupting job for write to " + table);
+			job.doInterrupt();
+		}
+	}
+
+	/**
+	 * Returns the names, in lower case and without any schema qualifier, of
+	 * the tables that this statement reads or writes. The set is empty for
+	 * call'able statements, because the tables that a stored procedure or
+	 * function touches are not known.
+	 * 
+	 * @return
+	 */
+	public Set<String> getTables() {
+		return tables;
+	}
+
 	/**
 	 * Spawns a background SqlJob, for this statment, with the given input
 	 * params and web socket session.
@@ -192,12 +333,44 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 	}
 
 	/**
-	 * Adds the given SqlJob to this statement's collection of SqlJobs.
+	 * Subscribes the given web socket session to the job that has the given
+	 * params. If there is no such job, or the job is on its way out, then a
+	 * job is created and started. Only subscriptions having the same
+	 * subscription key are serialized.
+	 * 
+	 * @param params
+	 * @param wdsSession
+	 * @return
+	 * @throws Exception
+	 */
+	public SqlJob subscribe(Map<String, String> params,
+			WdsSocketSession wdsSession) throws Exception {
+		String key = SqlJob.toSubscriptionKey(params);
+		SqlJob job = findSqlJob(key, wdsSession);
+		if (job != null) {
+			return job;
+		}
+		Lock lock = creationLocks[(key.hashCode() & 0x7fffffff)
+				% CREATION_LOCK_COUNT];
+		lock.lock();
+		try {
+			// another session may have created the job while this one was
+			// waiting for the lock
+			job = findSqlJob(key, wdsSession);
+			return (job != null) ? job : createSqlJob(params, wdsSession);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the given SqlJob to this statement's collection of SqlJobs. Any
+	 * retired job having the same subscription key is replaced.
 	 * 
 	 * @param job
 	 */
 	public void addSqlJob(SqlJob job) {
-		sqlJobs.put(job.getId(), job);
+		sqlJobs.put(job.getSubscriptionKey(), job);
 	}
 
 	/**
@@ -208,38 +381,49 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 	 */
 	public SqlJob removeSqlJob(SqlJob job) {
 		job.doStop();
-		return sqlJobs.remove(job.getId());
+		// the job may have already been replaced by a new one
+		return sqlJobs.remove(job.getSubscriptionKey(), job) ? job : null;
 	}
 
 	/**
-	 * Given the map of key-value piars, find a job in this statment's
-	 * collection of jobs that has an identical map.
+	 * Given the map of key-value pairs, find the job in this statement's
+	 * collection of jobs that has an identical map and add the given session
+	 * to it.
 	 * 
 	 * @param map
 	 * @return
 	 */
 	public SqlJob findSqlJob(Map<String, String> map,
 			WdsSocketSession wdsSession) {
-		for (String key : sqlJobs.keySet()) {
-			SqlJob job = sqlJobs.get(key);
-			if (job.isParamMatch(map)) {
-				// if we can't get the lock on the job, then the job is on its
-				// way out.
-				if (job.tryLock()) {
-					try {
-						job.addSession(wdsSession);
-						return job;
-					} finally {
-						job.unLock();
-					}
-				} else {
-					// a new job will be created to replace the one on its way
-					// out
-					return null;
-				}
-			}
-		}
-		return null;
+		return findSqlJob(SqlJob.toSubscriptionKey(map), wdsSession);
+	}
+
+	private SqlJob findSqlJob(String key, WdsSocketSession wdsSession) {
+		SqlJob job = sqlJobs.get(key);
+		// if the job does not take the session, then the job is on its way
+		// out and a new job will be created to replace it
+		return (job != null && job.addSession(wdsSession)) ? job : null;
+	}
+
+	/**
+	 * Records that the given session is subscribed to the given job.
+	 * 
+	 * @param sessionId
+	 * @param job
+	 */
+	public void indexSession(String sessionId, SqlJob job) {
+		sessionJobs.put(sessionId, job);
+	}
+
+	/**
+	 * Removes the record of the given session being subscribed to the given
+	 * job.
+	 * 
+	 * @param sessionId
+	 * @param job
+	 */
+	public void unindexSession(String sessionId, SqlJob job) {
+		sessionJobs.remove(sessionId, job);
 	}
 
 	/**
@@ -249,13 +433,7 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 	 * @return
 	 */
 	public boolean sessionExists(String sessionId) {
-		for (String key : sqlJobs.keySet()) {
-			SqlJob job = sqlJobs.get(key);
-			if (job.sessionExists(sessionId)) {
-				return true;
-			}
-		}
-		return false;
+		return sessionJobs.containsKey(sessionId);
 	}
 
 	/**
@@ -265,13 +443,16 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 	 * @return
 	 */
 	public SqlJob getSqlJob(String sessionId) {
-		for (String key : sqlJobs.keySet()) {
-			SqlJob job = sqlJobs.get(key);
-			if (job.sessionExists(sessionId)) {
-				return job;
-			}
-		}
-		return null;
+		return sessionJobs.get(sessionId);
+	}
+
+	/**
+	 * Returns the number of currently running SqlJobs
+	 * 
+	 * @return
+	 */
+	public int getSqlJobCount() {
+		return sqlJobs.size();
 	}
 
 	/**
@@ -422,6 +603,26 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 		return primaryKey;
 	}
 
+	/**
+	 * Returns the set of keys (input param names) that a request's params must
+	 * have for this statement to match them. For a call'able, these are the
+	 * keys of its IN and INOUT params; else, they are all of its keys. The set
+	 * is empty if this statement does not require params.
+	 * 
+	 * @return
+	 */
+	public Set<String> getMatchKeys() {
+		if (!isCallable()) {
+			return Collections.unmodifiableSet(new HashSet<String>(keyTokens
+					.keySet()));
+		}
+		Set<String> keys = new HashSet<String>();
+		for (SqlToken token : getInTokens()) {
+			keys.add(token.getKey());
+		}
+		return Collections.unmodifiableSet(keys);
+	}
+
 	/**
 	 * Called to determine if the given set of keys (input param names) matches
 	 * those in this statement. If there are no keys given and this statement is
@@ -892,50 +1093,10 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 				+ params.size());
 
 		// first, do some light validation work
-		if (params.size() == 0 && (isPrepared() || isCallable())) {
-			// if it is callable and it requires an IN param
-			if (isCallable() && getInTokens().size() > 0) {
-				LOG.error("execute: ERROR, IN params were not provided "
-						+ "for this callable statement that requires IN params: "
-						+ getPrepared());
-				return null;
-			}
-			// all prepared statements that are not callable require an
-			// input param
-			else {
-				LOG.error("execute: ERROR, params were not provided "
-						+ "for this prepared statement: " + getPrepared());
-				return null;
-
-			}
-		} else if (params.size() > 0 && !isPrepared()) {
-			LOG.error("execute: ERROR, params were provided "
-					+ "for this static or non-prepared statement that does not "
-					+ "require params: " + getOriginal());
+		if (!isValidParams(params)) {
 			return null;
 		}
 
-		// make sure given params match
-		if (params.size() > 0) {
-			for (Map<String, String> pMap : params) {
-				if (!isMatch(pMap.keySet())) {
-					LOG.error("execute: ERROR, given key:value set does not match "
-							+ "this statement's key:value set\n"
-							+ getKeyTokens().toString()
-							+ "  vs.  "
-							+ params.toString());
-					return null;
-				}
-			}
-		}
-
-		// if trace is on, dump params if any
-		if (params.size() > 0 && LOG.isTraceEnabled()) {
-			for (Map<String, String> pMap : params) {
-				LOG.trace("execute: valid param set = " + pMap.toString());
-			}
-		}
-
 		// A list that essentially represents the result set returned by the
 		// DB for queries.
 		List<Map<String, Object>> listOfMaps = new ArrayList<Map<String, Object>>();
@@ -1028,27 +1189,34 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 
 			} // if (isCallable()...
 
-			// key:value type objects used for binding the input params to
-			// prepared statements
-			List<KeyValueObject> kvObjs = null;
-			Object bindObjs[] = null;
+			// the binding of the input params to prepared statements
+			BindPlan.Binding binding = null;
 
 			// is this a query; i.e., select statement?
 			if (getSqlStmntType() == SqlStmntType.SELECT) {
-				if (isPrepared()) {
+				if (isPrepared() && params.size() > 1) {
+					// the rows of a multi-key lookup are those of its distinct
+					// param sets
+					final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+					final CompactRowMapper mapper = new CompactRowMapper();
+					query(params, new RowCallbackHandler() {
+						public void processRow(ResultSet rs)
+								throws SQLException {
+							rows.add(mapper.mapRow(rs, rows.size()));
+						}
+					});
+					listOfMaps = rows;
+				} else if (isPrepared()) {
 					LOG.debug("execute: executing this prepared SELECT statement: "
 							+ getPrepared());
-					kvObjs = getPreparedObjects(params.get(0));
-					bindObjs = new Object[kvObjs.size()];
-					for (int i = 0; i < bindObjs.length; i++) {
-						bindObjs[i] = kvObjs.get(i).getObj();
-					}
-					listOfMaps = getJdbcTemplate().query(getPrepared(),
-							bindObjs, this);
+					binding = getBinding(params.get(0));
+					listOfMaps = getQueryTemplate().query(getPrepared(),
+							binding, new CompactRowMapper());
 				} else {
 					LOG.trace("execute: executing this SELECT statement: "
 							+ getOriginal());
-					listOfMaps = getJdbcTemplate().query(getOriginal(), this);
+					listOfMaps = getQueryTemplate().query(getOriginal(),
+							new CompactRowMapper());
 				}
 				if (listOfMaps != null && listOfMaps.size() > 0) {
 					LOG.trace("execute: dumping first map - "
@@ -1066,7 +1234,7 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 
 			if (!isPrepared()) {
 				PreparedStmntCreator creatorSetter = new PreparedStmntCreator(
-						this, bindObjs);
+						this, binding);
 				// i guess it is possible to have a non prepared update of some
 				// sort
 				if (getSqlStmntType() == SqlStmntType.INSERT) {
@@ -1085,20 +1253,23 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 			else if (params.size() > 1) {
 				LOG.debug("execute: invoking batch update for this statement: "
 						+ getPrepared());
-				// create the list of objects for the batch update
-				List<Object[]> batchArgs = new ArrayList<Object[]>();
-				for (Map<String, String> map : params) {
-					// prepare the bind objects for the prepared
-					// statement
-					kvObjs = getPreparedObjects(map);
-					bindObjs = new Object[kvObjs.size()];
-					for (int i = 0; i < bindObjs.length; i++) {
-						bindObjs[i] = kvObjs.get(i).getObj();
-					}
-					batchArgs.add(bindObjs);
-				}
+				// each row of the batch is parsed into the same binding, just
+				// before it is bound
+				final List<Map<String, String>> batchParams = params;
+				final BindPlan.Binding batchBinding = getBindPlan()
+						.newBinding();
 				sqlResult.setBatchNumRows(getJdbcTemplate().batchUpdate(
-						getPrepared(), batchArgs));
+						getPrepared(), new BatchPreparedStatementSetter() {
+							public void setValues(PreparedStatement ps, int i)
+									throws SQLException {
+								batchBinding.set(batchParams.get(i))
+										.setValues(ps);
+							}
+
+							public int getBatchSize() {
+								return batchParams.size();
+							}
+						}));
 				// note that a key holder is not possible with a batch
 				// update
 			}
@@ -1108,14 +1279,10 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 
 				LOG.debug("execute: invoking prepared update for this statement: "
 						+ getPrepared());
-				kvObjs = getPreparedObjects(params.get(0));
-				bindObjs = new Object[kvObjs.size()];
-				for (int i = 0; i < bindObjs.length; i++) {
-					bindObjs[i] = kvObjs.get(i).getObj();
-				}
+				binding = getBinding(params.get(0));
 				// note that PreparedStmntCreator is both a creator and setter
 				PreparedStmntCreator creatorSetter = new PreparedStmntCreator(
-						this, bindObjs);
+						this, binding);
 
 				if (getSqlStmntType() == SqlStmntType.INSERT) {
 					LOG.trace("execute: executing prepared INSERT statement");
@@ -1162,14 +1329,766 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 			}
 			sqlResult = null;
 		}
+
+		// let those that depend on this statement's tables know that they've
+		// been written to
+		if (sqlResult != null && isWrite(sqlResult)) {
+			TableRegistry.tablesWritten(this);
+		}
+		return sqlResult;
+	}
+
+	/**
+	 * Returns true if the given result, of this insert, update or delete,
+	 * shows that rows were written.
+	 * 
+	 * @param sqlResult
+	 * @return
+	 */
+	private boolean isWrite(SqlResult sqlResult) {
+		if (sqlResult.getNumRows() != 0) {
+			return true;
+		}
+		if (sqlResult.getBatchNumRows() != null) {
+			// note that a driver may return SUCCESS_NO_INFO for a batch
+			for (int numRows : sqlResult.getBatchNumRows()) {
+				if (numRows != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Extracts the names of the tables from the given tokens of a non
+	 * call'able statement. A name follows a FROM, JOIN, INTO or UPDATE
+	 * keyword, or a comma in the list of names that follows a FROM. Quotes and
+	 * schema qualifiers are removed and the names are returned in lower case.
+	 * 
+	 * @param tokens
+	 * @return
+	 */
+	static Set<String> extractTables(List<SqlToken> tokens) {
+		Set<String> names = new HashSet<String>();
+		for (int i = 0; i < tokens.size(); i++) {
+			SqlToken token = tokens.get(i);
+			if (token.isKey()
+					|| !TABLE_KEYWORDS.contains(token.getValue().toLowerCase())) {
+				continue;
+			}
+			// gather the text of the list of names that follows the keyword;
+			// e.g., "student s, major m" in "from student s, major m where..."
+			StringBuilder sb = new StringBuilder();
+			for (int j = i + 1; j < tokens.size(); j++) {
+				SqlToken next = tokens.get(j);
+				if (next.isKey()
+						|| TABLE_LIST_ENDS.contains(next.getValue()
+								.toLowerCase())) {
+					break;
+				}
+				sb.append(next.getValue()).append(' ');
+			}
+			// the first word of each comma separated item is a name
+			for (String item : sb.toString().split(COMMA_STR)) {
+				item = item.trim();
+				// skip sub-queries; their own FROMs are handled separately
+				if (item.isEmpty() || item.startsWith(LEFT_PAREN_STR)) {
+					continue;
+				}
+				String name = item.split(DELIM)[0];
+				// e.g., "student(id,name)" in "insert into student(id,name)"
+				int paren = name.indexOf(LEFT_PAREN_STR);
+				if (paren >= 0) {
+					name = name.substring(0, paren);
+				}
+				name = name.substring(name.lastIndexOf('.') + 1)
+						.replaceAll("[\";`)\\[\\]]", "").toLowerCase();
+				if (!name.isEmpty()) {
+					names.add(name);
+				}
+				// only a FROM is followed by a list of names
+				if (!token.getValue().equalsIgnoreCase("from")) {
+					break;
+				}
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Validates the given list of param maps against this statement. Returns
+	 * false, after logging the reason, if the params are not valid for this
+	 * statement.
+	 * 
+	 * @param params
+	 * @return
+	 */
+	private boolean isValidParams(List<Map<String, String>> params) {
+		if (params.size() == 0 && (isPrepared() || isCallable())) {
+			// if it is callable and it requires an IN param
+			if (isCallable() && getInTokens().size() > 0) {
+				LOG.error("isValidParams: ERROR, IN params were not provided "
+						+ "for this callable statement that requires IN params: "
+						+ getPrepared());
+				return false;
+			}
+			// all prepared statements that are not callable require an
+			// input param
+			else {
+				LOG.error("isValidParams: ERROR, params were not provided "
+						+ "for this prepared statement: " + getPrepared());
+				return false;
+
+			}
+		} else if (params.size() > 0 && !isPrepared()) {
+			LOG.error("isValidParams: ERROR, params were provided "
+					+ "for this static or non-prepared statement that does not "
+					+ "require params: " + getOriginal());
+			return false;
+		}
+
+		// make sure given params match
+		if (params.size() > 0) {
+			for (Map<String, String> pMap : params) {
+				if (!isMatch(pMap.keySet())) {
+					LOG.error("isValidParams: ERROR, given key:value set does not match "
+							+ "this statement's key:value set\n"
+							+ getKeyTokens().toString()
+							+ "  vs.  "
+							+ params.toString());
+					return false;
+				}
+			}
+		}
+
+		// if trace is on, dump params if any
+		if (params.size() > 0 && LOG.isTraceEnabled()) {
+			for (Map<String, String> pMap : params) {
+				LOG.trace("isValidParams: valid param set = " + pMap.toString());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Called by a SqlJob to execute this query with the given params and
+	 * return the digital signature of the resulting result set. The signature
+	 * is computed by the given hash function as the rows are fetched from the
+	 * DB; the rows are neither mapped nor retained. Returns null if the query
+	 * did not return any rows.
+	 * 
+	 * This method can only be used with SELECT statements.
+	 * 
+	 * @param params
+	 * @param md
+	 * @return
+	 * @throws IllegalArgumentException
+	 * @throws DataAccessException
+	 */
+	public String digest(List<Map<String, String>> params, MessageDigest md)
+			throws IllegalArgumentException, DataAccessException {
+		ResultSetDigest rsDigest = new ResultSetDigest(md);
+		query(params, rsDigest);
+		return rsDigest.getSignature();
+	}
+
+	/**
+	 * Executes this query with the given params and has the given callback
+	 * handler process each row of the resulting result set, as the rows are
+	 * fetched from the DB. If more than one param set is given, the rows of
+	 * the distinct param sets are processed, in no particular order.
+	 * 
+	 * This method can only be used with SELECT statements.
+	 * 
+	 * @param params
+	 * @param rch
+	 * @throws IllegalArgumentException
+	 * @throws DataAccessException
+	 */
+	public void query(List<Map<String, String>> params, RowCallbackHandler rch)
+			throws IllegalArgumentException, DataAccessException {
+
+		if (!isSelect()) {
+			throw new IllegalArgumentException(
+					"query: this statement is not a SELECT statement: "
+							+ getOriginal());
+		}
+		if (params == null) {
+			params = new ArrayList<Map<String, String>>();
+		}
+		if (!isValidParams(params)) {
+			throw new IllegalArgumentException(
+					"query: invalid params for this statement: "
+							+ getOriginal());
+		}
+		if (isPrepared() && params.size() > 1) {
+			LOG.trace("query: executing this multi-key SELECT statement: "
+					+ getPrepared());
+			final List<Map<String, String>> multiParams = params;
+			final RowCallbackHandler multiRch = rch;
+			getQueryTemplate().execute(new ConnectionCallback<Object>() {
+				public Object doInConnection(Connection con)
+						throws SQLException {
+					queryMulti(con, multiParams, multiRch);
+					return null;
+				}
+			});
+		} else if (isPrepared()) {
+			LOG.trace("query: executing this prepared SELECT statement: "
+					+ getPrepared());
+			getQueryTemplate().query(getPrepared(),
+					getBinding(params.get(0)), rch);
+		} else {
+			LOG.trace("query: executing this SELECT statement: "
+					+ getOriginal());
+			getQueryTemplate().query(getOriginal(), rch);
+		}
+	}
+
+	/**
+	 * Called by query, with the connection that the template has obtained, to
+	 * look up the rows for the given param sets. The lookup has set semantics:
+	 * a param set that is given more than once is looked up once, so its rows
+	 * are returned once, and the order of the rows is not specified. If this
+	 * query can be rewritten as an IN list, the distinct values of its key are
+	 * looked up with IN list queries of at most IN_LIST_MAX values, whose rows
+	 * come back in the DB's order; else, this query's PreparedStatement is
+	 * executed once per distinct param set. Either way, no more than maxRows
+	 * rows are given to the callback handler in total.
+	 * 
+	 * @param con
+	 * @param params
+	 * @param rch
+	 * @throws SQLException
+	 */
+	private void queryMulti(Connection con, List<Map<String, String>> params,
+			RowCallbackHandler rch) throws SQLException {
+
+		// the param sets are parsed, one at a time, into the same binding
+		BindPlan.Binding binding = getBindPlan().newBinding();
+		int count = 0;
+		PreparedStatement ps = null;
+		try {
+			if (isInListRewritable()) {
+				// a value that is given more than once is looked up once, as
+				// it is by the IN list itself
+				String key = getSortedKeyTokens().get(0).getKey();
+				Map<String, Map<String, String>> distinct = new LinkedHashMap<String, Map<String, String>>();
+				for (Map<String, String> map : params) {
+					if (!distinct.containsKey(map.get(key))) {
+						distinct.put(map.get(key), map);
+					}
+				}
+				List<Map<String, String>> values = new ArrayList<Map<String, String>>(
+						distinct.values());
+				for (int from = 0; from < values.size()
+						&& (getMaxRows() == 0 || count < getMaxRows()); from += IN_LIST_MAX) {
+					List<Map<String, String>> chunk = values.subList(from,
+							Math.min(from + IN_LIST_MAX, values.size()));
+					int arity = toArityBucket(chunk.size());
+					ps = con.prepareStatement(getInListSql(arity));
+					// the list is padded, up to its bucket, with its last
+					// value
+					for (int i = 0; i < arity; i++) {
+						binding.set(chunk.get(Math.min(i, chunk.size() - 1)))
+								.setValues(ps, i + 1);
+					}
+					count += processRows(ps, rch, count);
+					JdbcUtils.closeStatement(ps);
+					ps = null;
+				}
+			} else {
+				// a param set that is given more than once is looked up once,
+				// so that the rows are the same as those of an IN list
+				ps = con.prepareStatement(getPrepared());
+				for (Map<String, String> map : new LinkedHashSet<Map<String, String>>(
+						params)) {
+					if (getMaxRows() > 0 && count >= getMaxRows()) {
+						break;
+					}
+					binding.set(map).setValues(ps);
+					count += processRows(ps, rch, count);
+				}
+			}
+		} finally {
+			JdbcUtils.closeStatement(ps);
+		}
+	}
+
+	/**
+	 * Executes the given query and gives its rows to the given callback
+	 * handler. Returns the number of rows.
+	 * 
+	 * @param ps
+	 * @param rch
+	 * @param count
+	 *            the number of rows already returned
+	 * @return
+	 * @throws SQLException
+	 */
+	private int processRows(PreparedStatement ps, RowCallbackHandler rch,
+			int count) throws SQLException {
+		if (getFetchSize() > 0) {
+			ps.setFetchSize(getFetchSize());
+		}
+		if (getMaxRows() > 0) {
+			ps.setMaxRows(getMaxRows() - count);
+		}
+		ResultSet rs = ps.executeQuery();
+		int numRows = 0;
+		try {
+			while (rs.next()) {
+				rch.processRow(rs);
+				numRows++;
+			}
+		} finally {
+			JdbcUtils.closeResultSet(rs);
+		}
+		return numRows;
+	}
+
+	/**
+	 * Returns true if this query has a single key, which is compared for
+	 * equality, and can therefore be executed for many values of its key as
+	 * one IN list query.
+	 * 
+	 * @return
+	 */
+	public boolean isInListRewritable() {
+		return inListParts != null;
+	}
+
+	/**
+	 * Returns this query rewritten with an IN list of the given number of
+	 * values. The statements are cached by arity, so that a driver's statement
+	 * cache sees the same few statements.
+	 * 
+	 * @param arity
+	 * @return
+	 */
+	public String getInListSql(int arity) {
+		if (!isInListRewritable()) {
+			throw new IllegalArgumentException(
+					"getInListSql: this statement cannot be rewritten as an "
+							+ "IN list: " + getOriginal());
+		}
+		String sql = inListSqls.get(arity);
+		if (sql == null) {
+			StringBuilder sb = new StringBuilder(inListParts[0]).append("in (");
+			for (int i = 0; i < arity; i++) {
+				sb.append((i == 0) ? "?" : ", ?");
+			}
+			sb.append(")").append(inListParts[1]);
+			inListSqls.putIfAbsent(arity, sb.toString());
+			sql = inListSqls.get(arity);
+		}
+		return sql;
+	}
+
+	/**
+	 * Returns the arity bucket for an IN list of the given number of values;
+	 * i.e., the next power of two, but no more than IN_LIST_MAX.
+	 * 
+	 * @param numValues
+	 * @return
+	 */
+	public static int toArityBucket(int numValues) {
+		int bucket = 1;
+		while (bucket < numValues) {
+			bucket <<= 1;
+		}
+		return Math.min(bucket, IN_LIST_MAX);
+	}
+
+	/**
+	 * Returns the prepared text before and after the '= ?' of the given plan's
+	 * single key, or null if the statement cannot be rewritten as an IN list.
+	 * The statement is only rewritten if the key's '= ?' is a top level
+	 * condition of the outermost WHERE that is ANDed with its other conditions;
+	 * e.g., a key that is compared in a JOIN, CASE or sub-query is not.
+	 * 
+	 * @param prepared
+	 * @param plan
+	 * @return
+	 */
+	private static String[] toInListParts(String prepared, BindPlan plan) {
+		if (plan.getPositionCount() != 1
+				|| NOT_IN_LISTABLE.matcher(prepared).find()) {
+			return null;
+		}
+		Matcher matcher = IN_LIST_KEY.matcher(prepared);
+		if (!matcher.find()) {
+			return null;
+		}
+		String before = prepared.substring(0, matcher.start());
+		String after = prepared.substring(matcher.end());
+		if (NOT_IN_LIST_KEY.matcher(before).find() || !isTopLevel(before)
+				|| !IN_LIST_REST.matcher(after).matches()) {
+			return null;
+		}
+		// the key must be compared in the conditions of the WHERE
+		Matcher where = IN_LIST_WHERE.matcher(before);
+		int end = -1;
+		while (where.find()) {
+			end = where.end();
+		}
+		if (end < 0
+				|| !IN_LIST_CONJUNCT.matcher(before.substring(end)).matches()) {
+			return null;
+		}
+		return new String[] { before, after };
+	}
+
+	/**
+	 * Returns true if the given text closes every parenthesis that it opens;
+	 * i.e., if whatever follows the text is not nested in parentheses.
+	 * 
+	 * @param text
+	 * @return
+	 */
+	private static boolean isTopLevel(String text) {
+		int depth = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth < 0) {
+				return false;
+			}
+		}
+		return depth == 0;
+	}
+
+	/**
+	 * Executes this query with the given params and buffers the resulting
+	 * result set in a ColumnarResult, whose numeric columns are held in
+	 * primitive arrays rather than as boxed values in rows. Returns null if the
+	 * query failed.
+	 * 
+	 * This method can only be used with SELECT statements.
+	 * 
+	 * @param params
+	 * @return
+	 */
+	public ColumnarResult executeColumnar(List<Map<String, String>> params) {
+		ColumnarResult result = new ColumnarResult();
+		try {
+			query(params, result);
+		} catch (IllegalArgumentException exc) {
+			LOG.error("executeColumnar: ERROR, caught this "
+					+ "IllegalArgumentException while executing sql: "
+					+ exc.toString());
+			LOG.error("executeColumnar: exception stack trace follows:");
+			dumpStackTrace(exc.getStackTrace());
+			result = null;
+		} catch (DataAccessException exc) {
+			LOG.error("executeColumnar: ERROR, caught this "
+					+ "DataAccessException while executing sql: "
+					+ exc.toString());
+			LOG.error("executeColumnar: exception stack trace follows:");
+			dumpStackTrace(exc.getStackTrace());
+			LOG.error("executeColumnar: Most Specific Cause = "
+					+ exc.getMostSpecificCause().toString());
+			result = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Executes this query, with the given params, for one page of its rows.
+	 * The rows are ordered by the given key column and start after the given
+	 * key value; if the value is null, the first page is returned. The query
+	 * is rewritten for the given dialect, so that the DB returns no more than
+	 * 'limit' rows. Returns null if the query failed.
+	 * 
+	 * This method can only be used with SELECT statements.
+	 * 
+	 * @param params
+	 * @param pageKey
+	 * @param after
+	 * @param limit
+	 * @param dialect
+	 * @return
+	 */
+	public SqlResult executePage(List<Map<String, String>> params,
+			String pageKey, Object after, int limit, SqlDialect dialect) {
+
+		if (!isSelect()) {
+			throw new IllegalArgumentException(
+					"executePage: this statement is not a SELECT statement: "
+							+ getOriginal());
+		}
+		if (params == null) {
+			params = new ArrayList<Map<String, String>>();
+		}
+		if (!isValidParams(params)) {
+			return null;
+		}
+
+		// the page's params are those of the query followed by the key
+		// value, if any, whose type is not known to the bind plan
+		final BindPlan.Binding binding = isPrepared() ? getBinding(params
+				.get(0)) : null;
+		final Object afterValue = after;
+		PreparedStatementSetter setter = new PreparedStatementSetter() {
+			public void setValues(PreparedStatement ps) throws SQLException {
+				int next = 1;
+				if (binding != null) {
+					binding.setValues(ps);
+					next += getBindPlan().getPositionCount();
+				}
+				if (afterValue != null) {
+					ps.setObject(next, afterValue);
+				}
+			}
+		};
+		String sql = dialect.toPageSql(isPrepared() ? getPrepared()
+				: getOriginal(), pageKey, after != null, limit);
+		LOG.debug("executePage: executing this page statement: " + sql);
+
+		SqlResult sqlResult = SqlResult.dequeue();
+		try {
+			sqlResult.setResultSet(getQueryTemplate().query(sql, setter,
+					new CompactRowMapper()));
+		} catch (IllegalArgumentException exc) {
+			LOG.error("executePage: ERROR, caught this "
+					+ "IllegalArgumentException while executing sql: "
+					+ exc.toString());
+			LOG.error("executePage: exception stack trace follows:");
+			dumpStackTrace(exc.getStackTrace());
+			SqlResult.enqueue(sqlResult);
+			sqlResult = null;
+		} catch (DataAccessException exc) {
+			LOG.error("executePage: ERROR, caught this "
+					+ "DataAccessException while executing sql: "
+					+ exc.toString());
+			LOG.error("executePage: exception stack trace follows:");
+			dumpStackTrace(exc.getStackTrace());
+			LOG.error("executePage: Most Specific Cause = "
+					+ exc.getMostSpecificCause().toString());
+			SqlResult.enqueue(sqlResult);
+			sqlResult = null;
+		}
 		return sqlResult;
 	}
 
+	/**
+	 * Executes this prepared INSERT, UPDATE or DELETE for each of the rows
+	 * that are read, one at a time, from the given reader. The first row,
+	 * which has already been read and matched to this statement, is given
+	 * separately. The rows are bound and added to a JDBC batch, which is
+	 * executed each time it reaches the given batch size; thus, neither the
+	 * rows nor their bind objects are retained beyond their batch.
+	 * 
+	 * All batches are executed with the same connection. If 'transacted' is
+	 * true, the batches are executed in a single transaction that is rolled
+	 * back if any batch fails; else, each batch stands on its own and the
+	 * batches that precede a failed batch remain applied.
+	 * 
+	 * The returned result's chunkNumRows holds the number of rows affected by
+	 * each batch, and its numRows the total. A row for which the driver
+	 * returns SUCCESS_NO_INFO is counted as one row. Returns null if the
+	 * ingest failed.
+	 * 
+	 * @param firstRow
+	 * @param reader
+	 * @param batchSize
+	 * @param transacted
+	 * @return
+	 */
+	public SqlResult executeIngest(final Map<String, String> firstRow,
+			final JsonRowReader reader, final int batchSize,
+			final boolean transacted) {
+
+		if (!isPrepared() || isCallable() || isSelect()) {
+			throw new IllegalArgumentException(
+					"executeIngest: this statement is not a prepared "
+							+ "INSERT, UPDATE or DELETE statement: "
+							+ getOriginal());
+		}
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException(
+					"executeIngest: batch size must be > 0");
+		}
+		List<Map<String, String>> params = new ArrayList<Map<String, String>>();
+		params.add(firstRow);
+		if (!isValidParams(params)) {
+			return null;
+		}
+
+		LOG.debug("executeIngest: invoking chunked batch updates for this "
+				+ "statement: " + getPrepared());
+
+		SqlResult sqlResult = SqlResult.dequeue();
+		try {
+			List<Integer> chunks = getJdbcTemplate().execute(
+					new ConnectionCallback<List<Integer>>() {
+						public List<Integer> doInConnection(Connection con)
+								throws SQLException {
+							return ingest(con, firstRow, reader, batchSize,
+									transacted);
+						}
+					});
+			int[] chunkNumRows = new int[chunks.size()];
+			int numRows = 0;
+			for (int i = 0; i < chunkNumRows.length; i++) {
+				chunkNumRows[i] = chunks.get(i);
+				numRows += chunkNumRows[i];
+			}
+			sqlResult.setChunkNumRows(chunkNumRows);
+			sqlResult.setNumRows(numRows);
+		} catch (IllegalArgumentException exc) {
+			LOG.error("executeIngest: ERROR, caught this "
+					+ "IllegalArgumentException while ingesting rows: "
+					+ exc.toString());
+			LOG.error("executeIngest: exception stack trace follows:");
+			dumpStackTrace(exc.getStackTrace());
+			SqlResult.enqueue(sqlResult);
+			sqlResult = null;
+		} catch (DataAccessException exc) {
+			LOG.error("executeIngest: ERROR, caught this "
+					+ "DataAccessException while ingesting rows: "
+					+ exc.toString());
+			LOG.error("executeIngest: exception stack trace follows:");
+			dumpStackTrace(exc.getStackTrace());
+			LOG.error("executeIngest: Most Specific Cause = "
+					+ exc.getMostSpecificCause().toString());
+			SqlResult.enqueue(sqlResult);
+			sqlResult = null;
+		}
+
+		// the batches that were applied may have written to the tables, even
+		// if a later batch failed
+		TableRegistry.tablesWritten(this);
+		return sqlResult;
+	}
+
+	/**
+	 * Called by executeIngest, with the connection that the template has
+	 * obtained, to bind and execute the batches. Returns the number of rows
+	 * affected by each batch.
+	 * 
+	 * @param con
+	 * @param firstRow
+	 * @param reader
+	 * @param batchSize
+	 * @param transacted
+	 * @return
+	 * @throws SQLException
+	 */
+	private List<Integer> ingest(Connection con, Map<String, String> firstRow,
+			JsonRowReader reader, int batchSize, boolean transacted)
+			throws SQLException {
+
+		List<Integer> chunks = new ArrayList<Integer>();
+		boolean autoCommit = con.getAutoCommit();
+		if (transacted && autoCommit) {
+			con.setAutoCommit(false);
+		}
+		PreparedStatement ps = null;
+		boolean done = false;
+		try {
+			ps = con.prepareStatement(getPrepared());
+			// the rows are parsed, one at a time, into the same binding
+			BindPlan.Binding binding = getBindPlan().newBinding();
+			Map<String, String> row = firstRow;
+			int inBatch = 0;
+			while (row != null) {
+				binding.set(row).setValues(ps);
+				ps.addBatch();
+				if (++inBatch >= batchSize) {
+					chunks.add(executeChunk(ps, chunks.size()));
+					inBatch = 0;
+				}
+				try {
+					row = reader.nextRow();
+				} catch (Exception exc) {
+					throw new IllegalArgumentException("row "
+							+ (reader.getRowCount() + 1) + ": "
+							+ exc.getMessage(), exc);
+				}
+			}
+			if (inBatch > 0) {
+				chunks.add(executeChunk(ps, chunks.size()));
+			}
+			if (transacted) {
+				con.commit();
+			}
+			done = true;
+		} finally {
+			if (!done && transacted) {
+				LOG.error("ingest: rolling back " + chunks.size()
+						+ " applied batches");
+				try {
+					con.rollback();
+				} catch (SQLException exc) {
+					LOG.error("ingest: ERROR, rollback failed: "
+							+ exc.toString());
+				}
+			}
+			JdbcUtils.closeStatement(ps);
+			if (transacted && autoCommit) {
+				con.setAutoCommit(true);
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Executes the given statement's batch and returns the number of rows
+	 * that it affected.
+	 * 
+	 * @param ps
+	 * @param chunk
+	 * @return
+	 * @throws SQLException
+	 */
+	private int executeChunk(PreparedStatement ps, int chunk)
+			throws SQLException {
+		int numRows = 0;
+		for (int rows : ps.executeBatch()) {
+			if (rows == Statement.SUCCESS_NO_INFO) {
+				numRows++;
+			} else if (rows > 0) {
+				numRows += rows;
+			}
+		}
+		ps.clearBatch();
+		LOG.debug("executeChunk: batch " + chunk + " affected this many rows: "
+				+ numRows);
+		return numRows;
+	}
+
+	/**
+	 * Returns the template used for executing this query. If this statement
+	 * has been given a max rows or fetch size, the template is a copy of the
+	 * bean's template having those settings.
+	 * 
+	 * @return
+	 */
+	private JdbcTemplate getQueryTemplate() {
+		if (getMaxRows() == 0 && getFetchSize() == 0) {
+			return getJdbcTemplate();
+		}
+		JdbcTemplate template = queryTemplate;
+		if (template == null) {
+			template = new JdbcTemplate(getJdbcTemplate().getDataSource());
+			template.setMaxRows(getMaxRows());
+			template.setFetchSize(getFetchSize());
+			queryTemplate = template;
+		}
+		return template;
+	}
+
 	/**
 	 * This method is a call-back method for the Spring JdbcTemplate's query
 	 * call. It is responsible for mapping a row in the result set to a map. The
 	 * returned map is placed into a list or array that is eventually
 	 * transformed into a json array or object.
+	 * 
+	 * Note that this statement's own queries use a CompactRowMapper, which
+	 * looks up the column names once per result set rather than once per row.
 	 */
 	public Map<String, Object> mapRow(ResultSet rs, int rowNum)
 			throws SQLException {
@@ -1179,7 +2098,7 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 		int columnCount = rsmd.getColumnCount();
 		for (int index = 1; index <= columnCount; index++) {
 			String column = JdbcUtils.lookupColumnName(rsmd, index);
-			Object value = rs.getObject(column);
+			Object value = rs.getObject(index);
 			map.put(column, value);
 		}
 		return map;
@@ -1365,6 +2284,29 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 		return objects;
 	}
 
+	/**
+	 * Returns the binding of the given param map to this statement's
+	 * PreparedStatement.
+	 * 
+	 * @param params
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private BindPlan.Binding getBinding(Map<String, String> params)
+			throws IllegalArgumentException {
+		return getBindPlan().bind(params);
+	}
+
+	/**
+	 * Returns the plan for binding the params of this prepared, non call'able
+	 * statement, or null if this statement is not prepared or is call'able.
+	 * 
+	 * @return
+	 */
+	public BindPlan getBindPlan() {
+		return bindPlan;
+	}
+
 	/**
 	 * Return the number of times key are duplicated across this statement.
 	 * 
@@ -1609,10 +2551,23 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 		// sort the key:values fields in ascending order
 		Collections.sort(sortedKeyTokens);
 
+		// compile the plan for binding the params of a prepared, non
+		// call'able statement
+		if (isPrepared() && !isCallable) {
+			bindPlan = new BindPlan(sortedKeyTokens);
+			if (getSqlStmntType() == SqlStmntType.SELECT) {
+				inListParts = toInListParts(getPrepared(), bindPlan);
+			}
+		}
+
 		// if this statement is call'able, then create a stored procedure object
 		// for it
 		setStoredProcedure((isCallable) ? new WdsStoredProcedure(this) : null);
 
+		if (!isCallable) {
+			tables = Collections.unmodifiableSet(extractTables(tokens));
+		}
+
 	}
 
 	private static void dumpStackTrace(StackTraceElement[] elements) {
@@ -1652,6 +2607,72 @@ public class SqlStmnt implements RowMapper<Map<String, Object>> {
 		this.intervalStep = intervalStep;
 	}
 
+	public SqlJobScheduler getJobScheduler() {
+		return jobScheduler;
+	}
+
+	public void setJobScheduler(SqlJobScheduler jobScheduler) {
+		this.jobScheduler = jobScheduler;
+	}
+
+	public SqlJobCluster getJobCluster() {
+		return jobCluster;
+	}
+
+	public void setJobCluster(SqlJobCluster jobCluster) {
+		this.jobCluster = jobCluster;
+	}
+
+	public String getDeltaKey() {
+		return deltaKey;
+	}
+
+	public void setDeltaKey(String deltaKey) {
+		this.deltaKey = deltaKey;
+	}
+
+	public int getDeltaMax() {
+		return deltaMax;
+	}
+
+	public void setDeltaMax(int deltaMax) {
+		this.deltaMax = deltaMax;
+	}
+
+	public int getLastResultMax() {
+		return lastResultMax;
+	}
+
+	public void setLastResultMax(int lastResultMax) {
+		this.lastResultMax = lastResultMax;
+	}
+
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	public void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+		queryTemplate = null;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		queryTemplate = null;
+	}
+
+	public long getSessionAuditInterval() {
+		return sessionAuditInterval;
+	}
+
+	public void setSessionAuditInterval(long sessionAuditInterval) {
+		this.sessionAuditInterval = sessionAuditInterval;
+	}
+
 	private class KeyValueObject {
 		String key;
 		Object obj;
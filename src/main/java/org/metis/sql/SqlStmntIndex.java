@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A dispatch index over a bean's list of SQL statements for one method. The
+ * index is built once, when the bean is initialized, and gives the same
+ * answers as SqlStmnt.getMatch gives for the list; however, each answer is
+ * found with a single hash lookup rather than by walking the list.
+ * 
+ * A statement is indexed by its match keys; i.e., the set of its input param
+ * names. The given keys of a request are looked up as is, because a set's
+ * hash code and equality depend only on its members. If more than one
+ * statement has the same match keys, the first in the list wins, as it does
+ * with getMatch. The statement that is matched when no keys are given, and
+ * the statements that can be matched by the single key of a URI's extra path
+ * info, are also found up front.
+ * 
+ * An index is immutable and can be shared by any number of threads.
+ * 
+ */
+public class SqlStmntIndex {
+
+	public static final Log LOG = LogFactory.getLog(SqlStmntIndex.class);
+
+	// match keys --> statement
+	private final Map<Set<String>, SqlStmnt> bySignature;
+	// the only key of a single key statement --> statement
+	private final Map<String, SqlStmnt> bySingleKey;
+	// the statement matched when no keys are given
+	private final SqlStmnt noKeyMatch;
+	private final int size;
+
+	/**
+	 * Create an index for the given list of statements
+	 * 
+	 * @param stmnts
+	 */
+	public SqlStmntIndex(List<SqlStmnt> stmnts) {
+		Map<Set<String>, SqlStmnt> signatures = new HashMap<Set<String>, SqlStmnt>();
+		Map<String, SqlStmnt> singleKeys = new HashMap<String, SqlStmnt>();
+		if (stmnts != null) {
+			for (SqlStmnt stmnt : stmnts) {
+				Set<String> keys = stmnt.getMatchKeys();
+				// a statement without input params is only matched when no
+				// keys are given
+				if (keys.isEmpty() || signatures.containsKey(keys)) {
+					continue;
+				}
+				signatures.put(keys, stmnt);
+				if (keys.size() == 1) {
+					singleKeys.put(keys.iterator().next(), stmnt);
+				}
+			}
+		}
+		bySignature = signatures;
+		bySingleKey = singleKeys;
+		noKeyMatch = SqlStmnt.getMatch(stmnts, null);
+		size = (stmnts == null) ? 0 : stmnts.size();
+	}
+
+	/**
+	 * Returns the statement that matches the given set of keys (input param
+	 * names), or null if there is no such statement. If the set is null or
+	 * empty, the statement that does not require params is returned.
+	 * 
+	 * @param keys
+	 * @return
+	 */
+	public SqlStmnt getMatch(Set<String> keys) {
+		if (keys == null || keys.isEmpty()) {
+			return noKeyMatch;
+		}
+		SqlStmnt stmnt = bySignature.get(keys);
+		if (stmnt == null) {
+			LOG.warn("getMatch: keys were provided, but no parameterized sql "
+					+ "statement could be found");
+		}
+		return stmnt;
+	}
+
+	/**
+	 * Returns the statement whose only input param is the given key, or null
+	 * if there is no such statement. This is used to match the key of a URI's
+	 * extra path info.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public SqlStmnt getMatch(String key) {
+		return (key == null) ? null : bySingleKey.get(key);
+	}
+
+	/**
+	 * Returns the sets of keys that are indexed
+	 * 
+	 * @return
+	 */
+	public Set<Set<String>> getSignatures() {
+		return Collections.unmodifiableSet(bySignature.keySet());
+	}
+
+	/**
+	 * Returns the number of statements in the indexed list
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+}
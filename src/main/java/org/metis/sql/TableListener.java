@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+/**
+ * Implemented by those objects that depend on the contents of DB tables and
+ * that are to be told when Metis writes to one of those tables; for example,
+ * a query's SqlJobs and a bean's cache of GET responses.
+ *
+ */
+public interface TableListener {
+
+	/**
+	 * Called after a statement has successfully written to the given table.
+	 * 
+	 * @param table
+	 *            the table's name, as returned by SqlStmnt.getTables()
+	 * @param writer
+	 *            the statement that wrote to the table
+	 */
+	public void onTableWrite(String table, SqlStmnt writer);
+
+}
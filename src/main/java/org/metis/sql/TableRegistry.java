@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.sql;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A registry of the TableListeners that depend on each DB table. After a
+ * SqlStmnt successfully writes to its tables, the listeners for those tables
+ * are told of the write.
+ *
+ * The registry is shared by all the beans in the JVM, so a write through one
+ * bean reaches the listeners of every other bean. Tables are identified only
+ * by their unqualified, lower case names; thus a write to a same-named table
+ * in another schema or DB will also reach the listeners, which is harmless,
+ * because a listener only refreshes what it holds.
+ *
+ */
+public class TableRegistry {
+
+	public static final Log LOG = LogFactory.getLog(TableRegistry.class);
+
+	// table name --> listeners
+	private static ConcurrentHashMap<String, Set<TableListener>> listeners = new ConcurrentHashMap<String, Set<TableListener>>();
+
+	private TableRegistry() {
+	}
+
+	/**
+	 * Registers the given listener for the given tables.
+	 * 
+	 * @param tables
+	 * @param listener
+	 */
+	public static void register(Set<String> tables, TableListener listener) {
+		for (String table : tables) {
+			Set<TableListener> set = listeners.get(table);
+			if (set == null) {
+				set = Collections
+						.newSetFromMap(new ConcurrentHashMap<TableListener, Boolean>());
+				Set<TableListener> prev = listeners.putIfAbsent(table, set);
+				if (prev != null) {
+					set = prev;
+				}
+			}
+			set.add(listener);
+		}
+	}
+
+	/**
+	 * Removes the given listener from all the tables that it is registered
+	 * for.
+	 * 
+	 * @param listener
+	 */
+	public static void unregister(TableListener listener) {
+		for (Set<TableListener> set : listeners.values()) {
+			set.remove(listener);
+		}
+	}
+
+	/**
+	 * Returns the listeners for the given table.
+	 * 
+	 * @param table
+	 * @return
+	 */
+	public static Set<TableListener> getListeners(String table) {
+		Set<TableListener> set = listeners.get(table);
+		return (set == null) ? Collections.<TableListener> emptySet() : set;
+	}
+
+	/**
+	 * Called after the given statement has successfully written to its
+	 * tables. Each listener for those tables is told of the write.
+	 * 
+	 * @param writer
+	 */
+	public static void tablesWritten(SqlStmnt writer) {
+		for (String table : writer.getTables()) {
+			for (TableListener listener : getListeners(table)) {
+				LOG.trace("tablesWritten: notifying listener of write to "
+						+ table);
+				try {
+					listener.onTableWrite(table, writer);
+				} catch (RuntimeException exc) {
+					// one listener must not keep the others from hearing of
+					// the write
+					LOG.error("tablesWritten: ERROR, caught this exception "
+							+ "from a listener: " + exc.toString());
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream, for reading a request's entity body, that bounds both the
+ * number of bytes that can be read and the time within which they must be
+ * read. The body is consumed as it arrives, so it may be of unknown length
+ * (e.g., chunked).
+ * 
+ * The time is checked before each read of the underlying stream. A read that
+ * blocks is bounded by the container's connection (socket) timeout; the read
+ * timeout bounds the overall time taken by a client that trickles its body.
+ * 
+ */
+public class BoundedInputStream extends FilterInputStream {
+
+	/**
+	 * Thrown when the body exceeds the max size or is not read in time.
+	 */
+	public static class LimitException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private boolean timedOut;
+
+		LimitException(String msg, boolean timedOut) {
+			super(msg);
+			this.timedOut = timedOut;
+		}
+
+		/**
+		 * Returns true if the body was not read in time, false if it was too
+		 * large
+		 * 
+		 * @return
+		 */
+		public boolean isTimedOut() {
+			return timedOut;
+		}
+	}
+
+	private long maxBytes;
+	private long deadline;
+	private long count;
+	private LimitException limitExc;
+
+	/**
+	 * Create a stream that reads at most the given number of bytes from the
+	 * given stream, up until the given time.
+	 * 
+	 * @param in
+	 * @param maxBytes
+	 *            zero means there is no bound
+	 * @param deadline
+	 *            the time, in msecs, by which the body must have been read;
+	 *            zero means there is no bound
+	 */
+	public BoundedInputStream(InputStream in, long maxBytes, long deadline) {
+		super(in);
+		this.maxBytes = maxBytes;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkDeadline();
+		int b = super.read();
+		if (b >= 0) {
+			count(1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkDeadline();
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			count(n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		checkDeadline();
+		long skipped = super.skip(n);
+		count(skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Returns the number of bytes that have been read.
+	 * 
+	 * @return
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the exception that was thrown when a bound was exceeded, or null
+	 * if no bound has been exceeded.
+	 * 
+	 * @return
+	 */
+	public LimitException getLimitException() {
+		return limitExc;
+	}
+
+	private void count(long n) throws LimitException {
+		count += n;
+		if (maxBytes > 0 && count > maxBytes) {
+			limitExc = new LimitException("entity body exceeds max size of "
+					+ maxBytes + " bytes", false);
+			throw limitExc;
+		}
+	}
+
+	private void checkDeadline() throws LimitException {
+		if (deadline > 0 && System.currentTimeMillis() > deadline) {
+			limitExc = new LimitException(
+					"entity body was not read in time; read " + count
+							+ " bytes", true);
+			throw limitExc;
+		}
+	}
+
+}
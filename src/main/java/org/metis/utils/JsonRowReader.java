@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Joe Fernandez
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.metis.utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import static com.fasterxml.jackson.core.JsonToken.*;
+
+/**
+ * Reads, one at a time, the JSON objects of a JSON object or array of objects.
+ * The objects are parsed as they are read from the underlying stream, so
+ * neither the stream's content nor the objects that have already been read are
+ * retained, and the size of the stream is not bounded by the heap or the
+ * stack.
+ * 
+ * Each object is returned as a map of its (lower case) keys to its values. As
+ * with Utils.parseJson, all objects must have the identical set of keys, empty
+ * objects are skipped, and nested arrays are stepped through.
+ * 
+ */
+public class JsonRowReader {
+
+	public static final Log LOG = LogFactory.getLog(JsonRowReader.class);
+
+	private JsonParser jp;
+	private Map<String, String> firstRow;
+	private char[] blackList;
+	private long rowCount;
+
+	/**
+	 * Create a reader for the given parser.
+	 * 
+	 * @param jp
+	 */
+	public JsonRowReader(JsonParser jp) {
+		this.jp = jp;
+	}
+
+	/**
+	 * If a black list is given, then a value that has a black listed character
+	 * results in an exception.
+	 * 
+	 * @param blackList
+	 */
+	public void setBlackList(char[] blackList) {
+		this.blackList = (blackList != null && blackList.length > 0) ? blackList
+				: null;
+	}
+
+	/**
+	 * Returns the next object, or null if there are no more objects.
+	 * 
+	 * @return
+	 * @throws Exception
+	 *             if the JSON is malformed or not an object or array of
+	 *             objects, or the object's keys differ from the first object's
+	 */
+	public Map<String, String> nextRow() throws Exception {
+		JsonToken current = null;
+		while ((current = jp.nextToken()) != null) {
+			switch (current) {
+			case START_OBJECT:
+				Map<String, String> row = readObject();
+				if (!row.isEmpty()) {
+					rowCount++;
+					return row;
+				}
+				break;
+			case START_ARRAY:
+			case END_ARRAY:
+				break;
+			default:
+				LOG.error("nextRow: ERROR, json token is neither object nor array");
+				throw new Exception(
+						"parseJson: ERROR, json token is neither object nor array");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of objects that have been read.
+	 * 
+	 * @return
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Closes the parser, but not necessarily its stream.
+	 */
+	public void close() {
+		try {
+			jp.close();
+		} catch (IOException ignore) {
+		}
+	}
+
+	private Map<String, String> readObject() throws Exception {
+		HashMap<String, String> row = new HashMap<String, String>();
+		while (jp.nextToken() != END_OBJECT) {
+			// parser should be on 'key' token
+			String key = jp.getCurrentName().toLowerCase();
+			// ensure all rows have the identical set of keys!
+			if (firstRow != null && firstRow.get(key) == null) {
+				String eStr = "parseJson: given list of json objects do "
+						+ "not have identical set of keys";
+				LOG.error(eStr);
+				throw new Exception(eStr);
+			}
+			// now advance to 'value' token
+			jp.nextToken();
+			String value = jp.getText();
+			if (blackList != null && Utils.isOnBlackList(value, blackList)) {
+				throw new Exception(
+						"encountered black listed character in this param "
+								+ "value: " + value);
+			}
+			row.put(key, value);
+		}
+		if (row.isEmpty()) {
+			return row;
+		}
+		// ensure all rows have the identical set of keys!
+		if (firstRow == null) {
+			firstRow = row;
+		} else if (firstRow.size() != row.size()) {
+			String eStr = "parseJson: given list of json objects do "
+					+ "not have identical set of keys; number of "
+					+ "keys vary";
+			LOG.error(eStr);
+			throw new Exception(eStr);
+		}
+		return row;
+	}
+
+}
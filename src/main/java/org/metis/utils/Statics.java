@@ -52,6 +52,7 @@ public class Statics {
 	public static final String NO_NAME_PARAM = "_none";
 	public static final String EMPTY_STR = "";
 	public static final String ESCAPED_LEFT_PAREN = "\\(";
+	public static final String LEFT_PAREN_STR = "(";
 	public static final String RIGHT_PAREN_STR = ")";
 	public static final String UPDATE_STR = "update";
 	public static final String DELETE_STR = "delete";
@@ -71,6 +72,13 @@ public class Statics {
 	public static final String SERVER_HDR = "Server";
 	public static final String PRAGMA_HDR = "Pragma";
 	public static final String CACHE_CNTRL_HDR = "Cache-control";
+	public static final String ETAG_HDR = "ETag";
+	public static final String IF_NONE_MATCH_HDR = "If-None-Match";
+	public static final String ACCEPT_ENCODING_HDR = "Accept-Encoding";
+	public static final String CONTENT_ENCODING_HDR = "Content-Encoding";
+	public static final String VARY_HDR = "Vary";
+	public static final String GZIP_STR = "gzip";
+	public static final String DEFLATE_STR = "deflate";
 	public static final String DFLT_CACHE_CNTRL_STR = "no-store, no-transform";
 	public static final String PRAGMA_NO_CACHE_STR = "no-cache";
 	public static final String productNameLabel= "productname";
@@ -89,6 +97,37 @@ public class Statics {
 	public static final String WS_ERROR = "internal_error";
 	public static final String WS_DFLT_SIGNATURE = "ws_default_signature";
 	public static final String WS_MSG = "ws_message";
+	public static final String WS_DELTA = "delta";
+	public static final String WS_INSERTED = "ws_inserted";
+	public static final String WS_UPDATED = "ws_updated";
+	public static final String WS_DELETED = "ws_deleted";
+	public static final String WS_SNAPSHOT = "snapshot";
+	public static final String WS_UNCHANGED = "unchanged";
+	public static final String WS_ROWS = "ws_rows";
+	public static final String WS_SIGNATURE = "ws_signature";
+	public static final String WS_ENCODING = "ws_encoding";
+	public static final int DFLT_DELTA_MAX = 1000;
+	public static final int DFLT_LAST_RESULT_MAX = 64 * 1024;
+	public static final long DFLT_SESSION_AUDIT_INTERVAL = 300000L;
+	public static final int DFLT_STREAM_FLUSH_THRESHOLD = 32 * 1024;
+	public static final long DFLT_RESULT_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+	public static final int DFLT_COMPRESSION_THRESHOLD = 1024;
+	public static final long DFLT_COALESCE_MAX_WAIT = 5000L;
+	public static final int DFLT_PAGE_SIZE = 100;
+	public static final int DFLT_MAX_PAGE_SIZE = 1000;
+	public static final String PAGE_LIMIT_PARAM = "_limit";
+	public static final String PAGE_AFTER_PARAM = "_after";
+	public static final String NEXT_PAGE_HDR = "X-Next-Page";
+	public static final int IN_LIST_MAX = 1000;
+	public static final int DFLT_MAX_MULTI_GET = 0;
+	public static final String NUM_ROWS_STR = "numRows";
+	public static final String CHUNK_NUM_ROWS_STR = "chunkNumRows";
+	public static final String RETRY_AFTER_HDR = "Retry-After";
+	public static final int DFLT_ASYNC_POOL_SIZE = 10;
+	public static final int DFLT_ASYNC_QUEUE_SIZE = 100;
+	public static final long DFLT_ASYNC_TIMEOUT = 30000L;
+	public static final int ASYNC_WRITE_SIZE = 8192;
+	public static final int DFLT_SEND_POOL_SIZE = 8;
 	public static final String TIME_INTERVAL = "time_interval";	
 	public static final String TIME_INTERVAL_MAX = "time_interval_max";	
 	public static final String TIME_INTERVAL_STEP = "time_interval_step";	
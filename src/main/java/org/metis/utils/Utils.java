@@ -16,6 +16,7 @@
 package org.metis.utils;
 
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -23,22 +24,28 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 import java.net.URLDecoder;
 import java.io.UnsupportedEncodingException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
-import static com.fasterxml.jackson.core.JsonToken.*;
 import static org.metis.utils.Statics.*;
 
 public class Utils {
@@ -46,7 +53,16 @@ public class Utils {
 	public static final Log LOG = LogFactory.getLog(Utils.class);
 
 	private static ObjectMapper jsonObjectMapper = new ObjectMapper();
+	// same as above, but does not have the generator flush after each
+	// object that it writes; used for generators that write rows to a stream
+	private static ObjectMapper jsonStreamMapper = new ObjectMapper()
+			.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 	private static JsonFactory jsonFactory = new JsonFactory();
+	// the size of the buffers used by the compressing streams
+	private static final int COMPRESS_BUF_SIZE = 8192;
+	// the getters of a connection pool's maximum size
+	private static final String[] POOL_SIZE_GETTERS = { "getMaxTotal",
+			"getMaxActive", "getMaximumPoolSize", "getMaxPoolSize" };
 
 	/**
 	 * Parse the given JSON object (stream). Returns a List of Maps, where each
@@ -78,7 +94,7 @@ public class Utils {
 	 */
 	public static List<Map<String, String>> parseJson(InputStream jsonStream)
 			throws Exception {
-		return parseJson(getStringFromInputStream(jsonStream));
+		return parseJson(createJsonRowReader(jsonStream));
 	}
 
 	public static List<Map<String, String>> parseJson(String json)
@@ -90,89 +106,50 @@ public class Utils {
 		}
 
 		LOG.trace("parseJson: jsonString = " + json);
-		JsonParser jp = jsonFactory.createParser(json);
+		return parseJson(new JsonRowReader(jsonFactory.createParser(json)));
+	}
 
+	/**
+	 * Steps through JSON object and arrays of objects. We support only a
+	 * single object or an array of objects, where each object represents an
+	 * entity (e.g., a student, a customer, an account, etc.).
+	 * 
+	 * All objects must have the same identical set of keys.
+	 * 
+	 * @param reader
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<Map<String, String>> parseJson(JsonRowReader reader)
+			throws Exception {
 		List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
 		try {
-			parseJson(jp, rows);
+			Map<String, String> row = null;
+			while ((row = reader.nextRow()) != null) {
+				rows.add(row);
+			}
 		} finally {
-			jp.close();
+			reader.close();
 		}
 		return rows;
 	}
 
 	/**
-	 * Recursively steps through JSON object and arrays of objects. We support
-	 * only a single object or an array of objects, where each object represents
-	 * an entity (e.g., a student, a customer, an account, etc.).
-	 * 
-	 * All objects must have the same identical set of keys.
+	 * Returns a reader that parses, one at a time, the JSON objects of the
+	 * given stream. The stream is neither copied nor buffered in its entirety.
 	 * 
-	 * @param jp
-	 * @param params
+	 * @param jsonStream
+	 * @return
 	 * @throws Exception
 	 */
-	private static void parseJson(JsonParser jp, List<Map<String, String>> rows)
+	public static JsonRowReader createJsonRowReader(InputStream jsonStream)
 			throws Exception {
-
-		// get the next json token
-		JsonToken current = jp.nextToken();
-
-		// base case: return if we've reached end of json stream
-		if (current == null) {
-			return;
-		}
-
-		// all rows must have the identical set of keys!
-		Map<String, String> firstRow = null;
-		if (!rows.isEmpty()) {
-			firstRow = rows.get(0);
-		}
-
-		// we only accept objects or arrays of objects
-		switch (current) {
-		case START_OBJECT:
-			HashMap<String, String> row = new HashMap<String, String>();
-			while (jp.nextToken() != END_OBJECT) {
-				// parser should be on 'key' token
-				String key = jp.getCurrentName().toLowerCase();
-				// ensure all rows have the identical set of keys!
-				if (firstRow != null && firstRow.get(key) == null) {
-					String eStr = "parseJson: given list of json objects do "
-							+ "not have identical set of keys";
-					LOG.error(eStr);
-					throw new Exception(eStr);
-				}
-				// now advance to 'value' token
-				jp.nextToken();
-				String value = jp.getText();
-				row.put(key, value);
-			}
-			// if row is not null, add it to the rows list
-			if (!row.isEmpty()) {
-				// ensure all rows have the identical set of keys!
-				if (firstRow != null && firstRow.size() != row.size()) {
-					String eStr = "parseJson: given list of json objects do "
-							+ "not have identical set of keys; number of "
-							+ "keys vary";
-					LOG.error(eStr);
-					throw new Exception(eStr);
-				}
-				rows.add(row);
-			}
-			break;
-		case START_ARRAY:
-		case END_ARRAY:
-			break;
-		default:
-			LOG.error("parseJson: ERROR, json token is neither object nor array");
+		if (jsonFactory == null) {
+			LOG.error("createJsonRowReader: ERROR, jsonFactory is null");
 			throw new Exception(
-					"parseJson: ERROR, json token is neither object nor array");
+					"createJsonRowReader: ERROR, jsonFactory is null");
 		}
-
-		// go on to the next start-of-array, end-of-array, start-of-object, or
-		// end of stream
-		parseJson(jp, rows);
+		return new JsonRowReader(jsonFactory.createParser(jsonStream));
 	}
 
 	/**
@@ -193,6 +170,22 @@ public class Utils {
 		return jsonObjectMapper.writeValueAsString(list);
 	}
 
+	/**
+	 * Returns a JSON generator that writes UTF-8 encoded JSON to the given
+	 * output stream. Objects written by the generator are serialized the same
+	 * way as those given to generateJson; however, the generator does not flush
+	 * the stream after each object.
+	 * 
+	 * @param out
+	 * @return
+	 * @throws IOException
+	 */
+	public static JsonGenerator createJsonGenerator(OutputStream out)
+			throws IOException {
+		return jsonStreamMapper.getFactory().createGenerator(out,
+				JsonEncoding.UTF8);
+	}
+
 	/**
 	 * Given a JSON object and Class, returns an instance of the Class that is
 	 * represented by the JSON object
@@ -517,6 +510,55 @@ public class Utils {
 		return list;
 	}
 
+	/**
+	 * Given a request's parameter map, returns its param sets. A key that has
+	 * one value has that value in every set, while the values of a key that is
+	 * repeated are taken in order, one per set; e.g., id=1&id=2&major=cs
+	 * results in {id=1, major=cs} and {id=2, major=cs}. All repeated keys must
+	 * have the same number of values. The keys are forced to lower case.
+	 * Returns an empty list if there are no params.
+	 * 
+	 * @param qParams
+	 * @param maxSets
+	 *            the maximum number of sets
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the repeated keys do not have the same number of values
+	 *             or there are more than maxSets sets
+	 */
+	public static List<Map<String, String>> getParamSets(
+			Map<String, String[]> qParams, int maxSets)
+			throws IllegalArgumentException {
+		List<Map<String, String>> sets = new ArrayList<Map<String, String>>();
+		if (qParams == null || qParams.isEmpty()) {
+			return sets;
+		}
+		int numSets = 1;
+		for (Map.Entry<String, String[]> entry : qParams.entrySet()) {
+			int numValues = entry.getValue().length;
+			if (numValues > 1 && numSets > 1 && numValues != numSets) {
+				throw new IllegalArgumentException("param '" + entry.getKey()
+						+ "' has " + numValues + " values, but another "
+						+ "repeated param has " + numSets);
+			}
+			numSets = Math.max(numSets, numValues);
+		}
+		if (numSets > maxSets) {
+			throw new IllegalArgumentException("too many param sets: "
+					+ numSets + " > " + maxSets);
+		}
+		for (int i = 0; i < numSets; i++) {
+			Map<String, String> map = new HashMap<String, String>();
+			for (Map.Entry<String, String[]> entry : qParams.entrySet()) {
+				String[] values = entry.getValue();
+				map.put(entry.getKey().toLowerCase(),
+						values[(values.length == 1) ? 0 : i]);
+			}
+			sets.add(map);
+		}
+		return sets;
+	}
+
 	/**
 	 * Given a query string, places the name value pairs in a HashMap
 	 * 
@@ -540,9 +582,37 @@ public class Utils {
 		return map;
 	}
 
+	/**
+	 * Parses the url-encoded key=value pairs as they are read from the given
+	 * stream. Only the pair being read is buffered. Returns null if the stream
+	 * is empty.
+	 * 
+	 * @param encodedStream
+	 * @return
+	 * @throws IOException
+	 *             if the stream could not be read
+	 */
 	public static Map<String, String> parseUrlEncoded(InputStream encodedStream)
-			throws UnsupportedEncodingException {
-		return parseUrlEncoded(getStringFromInputStream(encodedStream));
+			throws IOException {
+		// url-encoded content is all ascii
+		Reader reader = new InputStreamReader(encodedStream, "US-ASCII");
+		Map<String, String> map = new HashMap<String, String>();
+		StringBuilder pair = new StringBuilder();
+		char[] buf = new char[1024];
+		int n = 0;
+		while ((n = reader.read(buf)) >= 0) {
+			for (int i = 0; i < n; i++) {
+				char c = buf[i];
+				if (c == '&') {
+					putUrlEncodedPair(map, pair.toString());
+					pair.setLength(0);
+				} else if (c != '\r' && c != '\n') {
+					pair.append(c);
+				}
+			}
+		}
+		putUrlEncodedPair(map, pair.toString());
+		return map.isEmpty() ? null : map;
 	}
 
 	public static Map<String, String> parseUrlEncoded(String queryString)
@@ -554,21 +624,72 @@ public class Utils {
 
 		Map<String, String> map = new HashMap<String, String>();
 		for (String pair : queryString.split(AMPERSAND_STR)) {
-			int eq = pair.indexOf(EQUALS_STR);
-			if (eq < 0) {
-				// key with no value
-				map.put(URLDecoder.decode(pair, UTF8_STR), "");
-			} else {
-				// key=value
-				String key = URLDecoder.decode(pair.substring(0, eq), UTF8_STR);
-				String value = URLDecoder.decode(pair.substring(eq + 1),
-						UTF8_STR);
-				map.put(key.toLowerCase(), value);
-			}
+			putUrlEncodedPair(map, pair);
 		}
 		return map;
 	}
 
+	private static void putUrlEncodedPair(Map<String, String> map, String pair)
+			throws UnsupportedEncodingException {
+		if (pair.length() == 0) {
+			return;
+		}
+		int eq = pair.indexOf(EQUALS_STR);
+		if (eq < 0) {
+			// key with no value
+			map.put(URLDecoder.decode(pair, UTF8_STR), "");
+		} else {
+			// key=value
+			String key = URLDecoder.decode(pair.substring(0, eq), UTF8_STR);
+			String value = URLDecoder.decode(pair.substring(eq + 1), UTF8_STR);
+			map.put(key.toLowerCase(), value);
+		}
+	}
+
+	/**
+	 * Returns the maximum number of connections in the given DataSource's
+	 * pool, or zero if it cannot be determined. The common pools (DBCP,
+	 * Tomcat, HikariCP and c3p0) are looked at through reflection, so that
+	 * none of them are required.
+	 * 
+	 * @param dataSource
+	 * @return
+	 */
+	public static int getMaxPoolSize(Object dataSource) {
+		if (dataSource == null) {
+			return 0;
+		}
+		for (String name : POOL_SIZE_GETTERS) {
+			try {
+				Object size = dataSource.getClass().getMethod(name)
+						.invoke(dataSource);
+				if (size instanceof Number && ((Number) size).intValue() > 0) {
+					return ((Number) size).intValue();
+				}
+			} catch (Exception ignore) {
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the BoundedInputStream.LimitException that caused the given
+	 * exception, or null if it was not caused by one.
+	 * 
+	 * @param exc
+	 * @return
+	 */
+	public static BoundedInputStream.LimitException getLimitException(
+			Throwable exc) {
+		while (exc != null) {
+			if (exc instanceof BoundedInputStream.LimitException) {
+				return (BoundedInputStream.LimitException) exc;
+			}
+			exc = exc.getCause();
+		}
+		return null;
+	}
+
 	public static String byteArrayToHexString(byte[] b) {
 		StringBuilder sb = new StringBuilder(b.length * 2);
 		for (int i = 0; i < b.length; i++) {
@@ -581,6 +702,193 @@ public class Utils {
 		return sb.toString().toUpperCase();
 	}
 
+	/**
+	 * Returns a strong entity tag for the given response body; i.e., the
+	 * quoted SHA-256 digest of the body.
+	 * 
+	 * @param body
+	 * @return
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static String createETag(byte[] body)
+			throws NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		return "\"" + byteArrayToHexString(md.digest(body)) + "\"";
+	}
+
+	/**
+	 * Returns true if the given If-None-Match header value matches the given
+	 * entity tag. As per RFC 7232, the weak comparison is used, so a weak
+	 * (W/) tag given by the client also matches.
+	 * 
+	 * @param ifNoneMatch
+	 * @param eTag
+	 * @return
+	 */
+	public static boolean isETagMatch(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null || eTag == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(COMMA_STR)) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the entity tag of the given encoding (e.g., gzip) of the
+	 * response having the given entity tag. A strong entity tag must differ
+	 * for each encoding of a response.
+	 * 
+	 * @param eTag
+	 * @param encoding
+	 * @return
+	 */
+	public static String toVariantETag(String eTag, String encoding) {
+		return eTag.substring(0, eTag.length() - 1) + "-" + encoding + "\"";
+	}
+
+	/**
+	 * Returns the content encoding, either gzip or deflate, that is to be used
+	 * for a client that has sent the given Accept-Encoding header. Returns
+	 * null if the client does not accept either encoding. An encoding given a
+	 * quality of zero is not acceptable, and gzip is preferred when both are
+	 * equally acceptable.
+	 * 
+	 * @param acceptEncoding
+	 * @return
+	 */
+	public static String negotiateEncoding(String acceptEncoding) {
+		if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+			return null;
+		}
+		float gzip = -1f, deflate = -1f, any = -1f;
+		for (String item : acceptEncoding.split(COMMA_STR)) {
+			String[] parts = item.trim().split(";");
+			String coding = parts[0].trim().toLowerCase();
+			float q = 1f;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						q = Float.parseFloat(param.substring(2).trim());
+					} catch (NumberFormatException e) {
+						q = 0f;
+					}
+				}
+			}
+			if (coding.equals(GZIP_STR) || coding.equals("x-gzip")) {
+				gzip = q;
+			} else if (coding.equals(DEFLATE_STR)) {
+				deflate = q;
+			} else if (coding.equals("*")) {
+				any = q;
+			}
+		}
+		// those that were not named are given the quality of the wildcard
+		gzip = (gzip < 0f) ? any : gzip;
+		deflate = (deflate < 0f) ? any : deflate;
+		if (gzip > 0f && gzip >= deflate) {
+			return GZIP_STR;
+		} else if (deflate > 0f) {
+			return DEFLATE_STR;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns an output stream that compresses, with the given encoding
+	 * (gzip or deflate), what is written to it and writes the result to the
+	 * given output stream. Flushing the returned stream flushes all that has
+	 * been compressed so far.
+	 * 
+	 * @param out
+	 * @param encoding
+	 * @return
+	 * @throws IOException
+	 */
+	public static DeflaterOutputStream createCompressingStream(
+			OutputStream out, String encoding) throws IOException {
+		if (GZIP_STR.equals(encoding)) {
+			return new GZIPOutputStream(out, COMPRESS_BUF_SIZE, true);
+		} else if (DEFLATE_STR.equals(encoding)) {
+			return new DeflaterOutputStream(out, new Deflater(),
+					COMPRESS_BUF_SIZE, true);
+		}
+		throw new IllegalArgumentException("unsupported encoding: " + encoding);
+	}
+
+	/**
+	 * Compresses the given bytes with the given encoding (gzip or deflate)
+	 * 
+	 * @param data
+	 * @param encoding
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] compress(byte[] data, String encoding)
+			throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(
+				data.length / 4 + 64);
+		DeflaterOutputStream dos = createCompressingStream(bos, encoding);
+		dos.write(data);
+		dos.close();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Returns the opaque continuation token for the given key value; i.e.,
+	 * the hex encoded JSON array holding the value. The token is URL safe and
+	 * preserves whether the value is a number or a string.
+	 * 
+	 * @param value
+	 * @return
+	 * @throws IOException
+	 */
+	public static String encodePageToken(Object value) throws IOException {
+		List<Object> list = new ArrayList<Object>(1);
+		list.add(value);
+		return byteArrayToHexString(jsonObjectMapper.writeValueAsBytes(list));
+	}
+
+	/**
+	 * Returns the key value held by the given continuation token.
+	 * 
+	 * @param token
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the token is not valid
+	 */
+	public static Object decodePageToken(String token)
+			throws IllegalArgumentException {
+		Object value = null;
+		try {
+			token = token.trim();
+			if (token.isEmpty() || token.length() % 2 != 0) {
+				throw new IllegalArgumentException("invalid length");
+			}
+			byte[] bytes = new byte[token.length() / 2];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte) Integer.parseInt(
+						token.substring(i * 2, i * 2 + 2), 16);
+			}
+			List<?> list = jsonObjectMapper.readValue(bytes, List.class);
+			value = (list.size() == 1) ? list.get(0) : null;
+		} catch (IOException exc) {
+			throw new IllegalArgumentException("malformed page token");
+		}
+		if (!(value instanceof Number) && !(value instanceof String)) {
+			throw new IllegalArgumentException("invalid page token");
+		}
+		return value;
+	}
+
 	public static String getHashOf(String s) throws Exception {
 		MessageDigest md = MessageDigest.getInstance("SHA-256");
 		s += "TTM";
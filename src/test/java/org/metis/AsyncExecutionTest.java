@@ -0,0 +1,231 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.pull.AsyncExecution;
+import org.metis.pull.WdsResourceBean;
+import org.metis.utils.Utils;
+
+/**
+ * Runs some tests against the asynchronous execution of requests
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class AsyncExecutionTest {
+
+	/**
+	 * Records what is done with a request's async context and response
+	 */
+	private static class Recorder implements InvocationHandler {
+		CountDownLatch completed = new CountDownLatch(1);
+		int status = 200;
+		Map<String, String> headers = new HashMap<String, String>();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = (HttpServletResponse) Proxy
+				.newProxyInstance(AsyncExecutionTest.class.getClassLoader(),
+						new Class<?>[] { HttpServletResponse.class }, this);
+		AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(
+				AsyncExecutionTest.class.getClassLoader(),
+				new Class<?>[] { AsyncContext.class }, this);
+		ServletOutputStream out = new ServletOutputStream() {
+			public void write(int b) {
+				body.write(b);
+			}
+
+			public boolean isReady() {
+				return true;
+			}
+
+			public void setWriteListener(WriteListener writeListener) {
+				try {
+					writeListener.onWritePossible();
+				} catch (IOException exc) {
+					writeListener.onError(exc);
+				}
+			}
+		};
+
+		public synchronized Object invoke(Object proxy, Method method,
+				Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("getResponse")) {
+				return response;
+			} else if (name.equals("getOutputStream")) {
+				return out;
+			} else if (name.equals("complete")) {
+				completed.countDown();
+			} else if (name.equals("sendError") || name.equals("setStatus")) {
+				status = (Integer) args[0];
+			} else if (name.equals("setHeader")) {
+				headers.put((String) args[0], (String) args[1]);
+			} else if (name.equals("getTimeout")) {
+				return 5000L;
+			} else if (method.getReturnType() == boolean.class) {
+				return false;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Looks like a DBCP data source
+	 */
+	public static class PooledDataSource {
+		public int getMaxTotal() {
+			return 25;
+		}
+	}
+
+	private static ThreadPoolExecutor executor(int queueSize) {
+		return new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize));
+	}
+
+	/**
+	 * Work that waits for the latch before writing its body
+	 */
+	private static class Work implements AsyncExecution.Work {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch latch;
+		Exception exc;
+
+		Work(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		public void execute(HttpServletResponse response) throws Exception {
+			started.countDown();
+			if (latch != null) {
+				latch.await();
+			}
+			response.setStatus(201);
+			try {
+				((AsyncExecution) response).writeBody("[{\"a\":1}]"
+						.getBytes("UTF-8"));
+			} catch (IOException exc) {
+				this.exc = exc;
+				throw exc;
+			}
+		}
+	}
+
+	// the work is done on the executor, its body is written with a write
+	// listener and the request is then completed
+	@Test
+	public void TestA() throws Exception {
+		ThreadPoolExecutor executor = executor(1);
+		Recorder recorder = new Recorder();
+		AsyncExecution execution = AsyncExecution.start(recorder.asyncContext,
+				new Work(null), executor, 5000L, "test", null);
+		assertEquals(true, execution != null);
+		assertEquals(true, recorder.completed.await(5, TimeUnit.SECONDS));
+		assertEquals(201, recorder.status);
+		assertEquals("[{\"a\":1}]", recorder.body.toString("UTF-8"));
+		assertEquals(true, execution.isDone());
+		executor.shutdownNow();
+	}
+
+	// a request that finds the executor full is turned away right away
+	@Test
+	public void TestB() throws Exception {
+		ThreadPoolExecutor executor = executor(1);
+		CountDownLatch latch = new CountDownLatch(1);
+		Recorder r1 = new Recorder();
+		Work w1 = new Work(latch);
+		AsyncExecution.start(r1.asyncContext, w1, executor, 5000L, "test",
+				null);
+		w1.started.await(5, TimeUnit.SECONDS);
+		Recorder r2 = new Recorder();
+		AsyncExecution e2 = AsyncExecution.start(r2.asyncContext, new Work(
+				null), executor, 5000L, "test", null);
+		Recorder r3 = new Recorder();
+		AsyncExecution e3 = AsyncExecution.start(r3.asyncContext, new Work(
+				null), executor, 5000L, "test", null);
+		assertEquals(true, e2 != null);
+		assertEquals(true, e3 == null);
+		assertEquals(503, r3.status);
+		assertEquals("5", r3.headers.get("Retry-After"));
+		assertEquals(0L, r3.completed.getCount());
+
+		// a queued request that times out is dropped
+		e2.onTimeout(null);
+		assertEquals(503, r2.status);
+		assertEquals(0L, r2.completed.getCount());
+		latch.countDown();
+		assertEquals(true, r1.completed.await(5, TimeUnit.SECONDS));
+		assertEquals(201, r1.status);
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+		assertEquals(503, r2.status);
+		assertEquals(0, r2.body.size());
+	}
+
+	// a running request that times out gets a 504, and its work can no longer
+	// write to the response
+	@Test
+	public void TestC() throws Exception {
+		ThreadPoolExecutor executor = executor(1);
+		CountDownLatch latch = new CountDownLatch(1);
+		Recorder recorder = new Recorder();
+		Work work = new Work(latch);
+		AsyncExecution execution = AsyncExecution.start(recorder.asyncContext,
+				work, executor, 5000L, "test", null);
+		work.started.await(5, TimeUnit.SECONDS);
+		execution.onTimeout(null);
+		assertEquals(504, recorder.status);
+		assertEquals(0L, recorder.completed.getCount());
+		latch.countDown();
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+		assertEquals(504, recorder.status);
+		assertEquals(0, recorder.body.size());
+	}
+
+	// the bean sizes its executor to the DataSource's pool
+	@Test
+	public void TestD() throws Exception {
+		assertEquals(0, Utils.getMaxPoolSize(new DummyDataSource()));
+		assertEquals(0, Utils.getMaxPoolSize(null));
+		assertEquals(25, Utils.getMaxPoolSize(new PooledDataSource()));
+		try {
+			new WdsResourceBean().setAsyncQueueSize(0);
+			assertEquals(false, true);
+		} catch (IllegalArgumentException ignore) {
+		}
+		List<String> list = new ArrayList<String>();
+		list.add("select * from student");
+		WdsResourceBean bean = new WdsResourceBean();
+		bean.setBeanName("async");
+		bean.setDataSource(new DummyDataSource());
+		bean.setSqls4Get(list);
+		assertEquals(true, bean.getAsyncExecutor() == null);
+		bean.setAsyncMode(true);
+		bean.afterPropertiesSet();
+		assertEquals(10, bean.getAsyncExecutor().getMaximumPoolSize());
+		bean.destroy();
+		assertEquals(true, bean.getAsyncExecutor() == null);
+	}
+
+}
@@ -0,0 +1,176 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.BindPlan;
+import org.metis.sql.SqlResult;
+import org.metis.sql.SqlStmnt;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Runs some tests against the BindPlan of a SqlStmnt
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BindPlanTest {
+
+	/**
+	 * Records the params that are bound to the statements that it hands out
+	 */
+	private static class Recorder implements InvocationHandler {
+		List<String> calls = new ArrayList<String>();
+
+		DataSource dataSource() {
+			return (DataSource) proxy(DataSource.class);
+		}
+
+		PreparedStatement statement() {
+			return (PreparedStatement) proxy(PreparedStatement.class);
+		}
+
+		Object proxy(Class<?> c) {
+			return Proxy.newProxyInstance(BindPlanTest.class.getClassLoader(),
+					new Class<?>[] { c }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if (name.equals("getConnection")) {
+				return proxy(Connection.class);
+			} else if (name.equals("prepareStatement")) {
+				return statement();
+			} else if (name.startsWith("set") && args != null
+					&& args.length == 2 && args[0] instanceof Integer) {
+				calls.add(name + "(" + args[0] + "," + args[1] + ")");
+			} else if (method.getReturnType() == boolean.class) {
+				return false;
+			} else if (method.getReturnType() == int.class) {
+				return 1;
+			}
+			return null;
+		}
+	}
+
+	private static Map<String, String> params(String... kv) {
+		Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < kv.length; i += 2) {
+			map.put(kv[i], kv[i + 1]);
+		}
+		return map;
+	}
+
+	// each param is bound with the setter of its type, and a duplicated key is
+	// bound at each of its positions
+	@Test
+	public void TestA() throws Exception {
+		SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null,
+				"select * from t where id = `integer:id` and name = "
+						+ "`char:name` or parent = `integer:id`", null);
+		BindPlan plan = stmnt.getBindPlan();
+		assertEquals(3, plan.getPositionCount());
+		assertEquals(2, plan.getKeyCount());
+		assertEquals(BindPlan.Binder.INT, plan.getBinder(3));
+		assertEquals(BindPlan.Binder.STRING, plan.getBinder(2));
+
+		Recorder recorder = new Recorder();
+		BindPlan.Binding binding = plan.bind(params("id", "5", "name", "joe"));
+		binding.setValues(recorder.statement());
+		assertEquals("[setInt(1,5), setString(2,joe), setInt(3,5)]",
+				recorder.calls.toString());
+
+		// a binding can be reused
+		recorder.calls.clear();
+		binding.set(params("id", "6", "name", "fred")).setValues(
+				recorder.statement());
+		assertEquals("[setInt(1,6), setString(2,fred), setInt(3,6)]",
+				recorder.calls.toString());
+	}
+
+	// the values are parsed into their types
+	@Test
+	public void TestB() throws Exception {
+		SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null,
+				"insert into t values(`bigint:a`, `double:b`, `real:c`, "
+						+ "`boolean:d`, `decimal:e`, `timestamp:f`)", null);
+		BindPlan.Binding binding = stmnt.getBindPlan().bind(
+				params("a", "8589934592", "b", "0.25", "c", "1.5", "d",
+						"TRUE", "e", "12.50", "f", "2014-01-02 03:04:05"));
+		assertEquals(8589934592L, binding.getValue(1));
+		assertEquals(0.25, binding.getValue(2));
+		assertEquals(1.5f, binding.getValue(3));
+		assertEquals(true, binding.getValue(4));
+		assertEquals(new BigDecimal("12.50"), binding.getValue(5));
+		assertEquals(Timestamp.valueOf("2014-01-02 03:04:05"),
+				binding.getValue(6));
+
+		Recorder recorder = new Recorder();
+		binding.setValues(recorder.statement());
+		assertEquals("setLong(1,8589934592)", recorder.calls.get(0));
+		assertEquals("setFloat(3,1.5)", recorder.calls.get(2));
+		assertEquals("setBoolean(4,true)", recorder.calls.get(3));
+	}
+
+	// params that do not match the plan, or cannot be parsed, are rejected
+	@Test
+	public void TestC() throws Exception {
+		BindPlan plan = SqlStmnt.getSQLStmnt(null,
+				"select * from t where id = `integer:id` and ok = `bit:ok`",
+				null).getBindPlan();
+		List<Map<String, String>> bad = new ArrayList<Map<String, String>>();
+		bad.add(params("id", "x", "ok", "true"));
+		bad.add(params("id", "1", "ok", "yes"));
+		bad.add(params("id", "1"));
+		bad.add(params("id", "1", "no", "true"));
+		bad.add(params());
+		for (Map<String, String> map : bad) {
+			try {
+				plan.bind(map);
+				assertEquals(map.toString(), false, true);
+			} catch (IllegalArgumentException ignore) {
+			}
+		}
+		assertEquals(true, SqlStmnt.getSQLStmnt(null, "select * from t", null)
+				.getBindPlan() == null);
+	}
+
+	// the rows of a batch update are bound with the typed setters
+	@Test
+	public void TestD() throws Exception {
+		Recorder recorder = new Recorder();
+		SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null,
+				"update student set name = `char:name` where id = `integer:id`",
+				new JdbcTemplate(recorder.dataSource()));
+		List<Map<String, String>> list = new ArrayList<Map<String, String>>();
+		list.add(params("id", "1", "name", "joe"));
+		list.add(params("id", "2", "name", "fred"));
+		SqlResult result = stmnt.execute(list);
+		assertEquals(true, result != null);
+		assertEquals("[setString(1,joe), setInt(2,1), setString(1,fred), "
+				+ "setInt(2,2)]", recorder.calls.toString());
+		SqlResult.enqueue(result);
+
+		// a row that cannot be parsed fails the batch
+		recorder.calls.clear();
+		list.add(params("id", "three", "name", "bob"));
+		assertEquals(true, stmnt.execute(list) == null);
+	}
+
+}
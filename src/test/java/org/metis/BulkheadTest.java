@@ -0,0 +1,207 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.pull.Bulkhead;
+import org.metis.pull.WdsResourceBean;
+
+/**
+ * Runs some tests against the bulkheads of a WdsResourceBean
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BulkheadTest {
+
+	/**
+	 * Plays the part of a request and response, recording the response's
+	 * status and headers
+	 */
+	private static class Exchange implements InvocationHandler {
+		String method;
+		int status;
+		Map<String, String> headers = new HashMap<String, String>();
+		List<String> calls = new ArrayList<String>();
+
+		Exchange(String method) {
+			this.method = method;
+		}
+
+		HttpServletRequest request() {
+			return (HttpServletRequest) Proxy.newProxyInstance(
+					BulkheadTest.class.getClassLoader(),
+					new Class<?>[] { HttpServletRequest.class }, this);
+		}
+
+		HttpServletResponse response() {
+			return (HttpServletResponse) Proxy.newProxyInstance(
+					BulkheadTest.class.getClassLoader(),
+					new Class<?>[] { HttpServletResponse.class }, this);
+		}
+
+		public Object invoke(Object proxy, Method m, Object[] args)
+				throws Throwable {
+			String name = m.getName();
+			calls.add(name);
+			if (name.equals("getMethod")) {
+				return method;
+			} else if (name.equals("sendError")) {
+				status = (Integer) args[0];
+			} else if (name.equals("setHeader")) {
+				headers.put((String) args[0], (String) args[1]);
+			} else if (m.getReturnType() == boolean.class) {
+				return false;
+			} else if (m.getReturnType() == int.class) {
+				return -1;
+			}
+			return null;
+		}
+	}
+
+	private static WdsResourceBean createBean() {
+		List<String> list = new ArrayList<String>();
+		list.add("select * from student");
+		WdsResourceBean bean = new WdsResourceBean();
+		bean.setBeanName("bulkhead");
+		bean.setDataSource(new DummyDataSource());
+		bean.setSqls4Get(list);
+		return bean;
+	}
+
+	// a bulkhead admits up to its limit, rejects beyond it, and keeps the
+	// waits of the admitted requests
+	@Test
+	public void TestA() throws Exception {
+		Bulkhead bulkhead = new Bulkhead("test", 2);
+		assertEquals(true, bulkhead.tryAcquire(0L));
+		assertEquals(true, bulkhead.tryAcquire(0L));
+		assertEquals(2, bulkhead.getInFlight());
+		long start = System.currentTimeMillis();
+		assertEquals(false, bulkhead.tryAcquire(50L));
+		assertEquals(true, System.currentTimeMillis() - start >= 50L);
+		assertEquals(false, bulkhead.tryAcquire(0L));
+		assertEquals(2, bulkhead.getRejected());
+		bulkhead.release();
+		assertEquals(true, bulkhead.tryAcquire(0L));
+		assertEquals(3, bulkhead.getAdmitted());
+		long total = 0;
+		for (long count : bulkhead.getWaitHistogram()) {
+			total += count;
+		}
+		assertEquals(3, total);
+		assertEquals(Bulkhead.WAIT_BUCKETS.length + 1,
+				bulkhead.getWaitHistogram().length);
+		try {
+			new Bulkhead("test", 0);
+			assertEquals(false, true);
+		} catch (IllegalArgumentException ignore) {
+		}
+	}
+
+	// a waiting request is admitted once a request is released
+	@Test
+	public void TestB() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead("test", 1);
+		assertEquals(true, bulkhead.tryAcquire(0L));
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException ignore) {
+				}
+				bulkhead.release();
+			}
+		}.start();
+		assertEquals(true, bulkhead.tryAcquire(5000L));
+		assertEquals(0, bulkhead.getRejected());
+	}
+
+	// the bean validates its limits and creates its bulkheads
+	@Test
+	public void TestC() throws Exception {
+		Map<String, Integer> limits = new HashMap<String, Integer>();
+		limits.put("FETCH", 1);
+		try {
+			createBean().setMaxConcurrentByMethod(limits);
+			assertEquals(false, true);
+		} catch (IllegalArgumentException ignore) {
+		}
+		limits.clear();
+		limits.put("get", 3);
+		WdsResourceBean bean = createBean();
+		bean.setMaxConcurrent(5);
+		bean.setMaxConcurrentByMethod(limits);
+		bean.afterPropertiesSet();
+		assertEquals(5, bean.getBulkhead().getLimit());
+		assertEquals(3, bean.getBulkhead("GET").getLimit());
+		assertEquals(true, bean.getBulkhead("PUT") == null);
+		assertEquals(true, createBean().getBulkhead() == null);
+	}
+
+	// a full bean rejects a request with a 503 before looking at anything
+	// but its method, and the request's hold is released when it is done
+	@Test
+	public void TestD() throws Exception {
+		Map<String, Integer> limits = new HashMap<String, Integer>();
+		limits.put("GET", 1);
+		WdsResourceBean bean = createBean();
+		bean.setMaxConcurrentByMethod(limits);
+		bean.afterPropertiesSet();
+		Bulkhead bulkhead = bean.getBulkhead("GET");
+		assertEquals(true, bulkhead.tryAcquire(0L));
+
+		Exchange exchange = new Exchange("HEAD");
+		bean.handleRequest(exchange.request(), exchange.response());
+		assertEquals(503, exchange.status);
+		assertEquals("1", exchange.headers.get("Retry-After"));
+		assertEquals(false, exchange.calls.contains("getParameterMap"));
+		assertEquals(false, exchange.calls.contains("getInputStream"));
+		assertEquals(1, bulkhead.getRejected());
+
+		// once there is room, the request is processed and then released
+		bulkhead.release();
+		exchange = new Exchange("GET");
+		bean.handleRequest(exchange.request(), exchange.response());
+		assertEquals(true, exchange.status != 503);
+		assertEquals(0, bulkhead.getInFlight());
+		assertEquals(2, bulkhead.getAdmitted());
+	}
+
+	// a new request does not jump ahead of a waiting request, even when it
+	// is not willing to wait
+	@Test
+	public void TestE() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead("test", 1);
+		assertEquals(true, bulkhead.tryAcquire(0L));
+		final boolean[] waiter = new boolean[1];
+		Thread thread = new Thread() {
+			public void run() {
+				waiter[0] = bulkhead.tryAcquire(5000L);
+			}
+		};
+		thread.start();
+		for (int i = 0; i < 250 && bulkhead.getQueued() == 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, bulkhead.getQueued());
+		bulkhead.release();
+		assertEquals(false, bulkhead.tryAcquire(0L));
+		thread.join();
+		assertEquals(true, waiter[0]);
+		assertEquals(1, bulkhead.getInFlight());
+	}
+
+}
@@ -0,0 +1,106 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.ColumnarResult;
+import org.metis.sql.CompactRowMapper;
+import org.metis.utils.Utils;
+
+/**
+ * Runs some tests against the ColumnarResult
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ColumnarResultTest {
+
+	private static String[] columns = { "id", "count", "value", "name" };
+	private static int[] types = { Types.INTEGER, Types.BIGINT, Types.DOUBLE,
+			Types.VARCHAR };
+
+	private static ColumnarResult buffer(ResultSet rs) throws Exception {
+		ColumnarResult result = new ColumnarResult();
+		while (rs.next()) {
+			result.processRow(rs);
+		}
+		return result;
+	}
+
+	private static String generateJson(ResultSet rs) throws Exception {
+		CompactRowMapper mapper = new CompactRowMapper();
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		int rowNum = 0;
+		while (rs.next()) {
+			list.add(mapper.mapRow(rs, rowNum++));
+		}
+		return Utils.generateJson(list);
+	}
+
+	private static Object[][] createRows(int numRows) {
+		Object[][] rows = new Object[numRows][];
+		for (int i = 0; i < numRows; i++) {
+			rows[i] = new Object[] { (i % 7 == 0) ? null : i,
+					(i % 5 == 0) ? null : (long) i << 33,
+					(i % 3 == 0) ? null : i / 4.0, "name" + i };
+		}
+		return rows;
+	}
+
+	// the numeric columns are held in primitive arrays, and their nulls are
+	// kept
+	@Test
+	public void TestA() throws Exception {
+		Object[][] rows = { { 1, 2L, 0.5, "joe" }, { null, null, null, null },
+				{ 0, 0L, 0.0, "" } };
+		ColumnarResult result = buffer(DummyResultSet.create(columns, types,
+				rows));
+		assertEquals(3, result.getRowCount());
+		assertEquals(4, result.getColumnCount());
+		assertEquals("value", result.getColumnName(2));
+		assertEquals(true, result.isPrimitive(0));
+		assertEquals(true, result.isPrimitive(1));
+		assertEquals(true, result.isPrimitive(2));
+		assertEquals(false, result.isPrimitive(3));
+		assertEquals(1, result.getValue(0, 0));
+		assertEquals(2L, result.getValue(0, 1));
+		assertEquals(0.5, result.getValue(0, 2));
+		assertEquals("joe", result.getValue(0, 3));
+		for (int column = 0; column < 4; column++) {
+			assertEquals(true, result.isNull(1, column));
+			assertEquals(false, result.isNull(2, column));
+		}
+		assertEquals(0, result.getValue(2, 0));
+	}
+
+	// the json is the same as that generated from the mapped rows, across
+	// growth of the buffers and across words of the null bitmap
+	@Test
+	public void TestB() throws Exception {
+		Object[][] rows = createRows(1000);
+		ColumnarResult result = buffer(DummyResultSet.create(columns, types,
+				rows));
+		assertEquals(1000, result.getRowCount());
+		assertEquals(generateJson(DummyResultSet.create(columns, types, rows)),
+				new String(result.toJson(), "UTF-8"));
+		assertEquals(true, result.isNull(700, 0));
+		assertEquals(false, result.isNull(701, 0));
+	}
+
+	// an empty result set results in an empty array
+	@Test
+	public void TestC() throws Exception {
+		ColumnarResult result = buffer(DummyResultSet.create(columns, types,
+				new Object[][] {}));
+		assertEquals(0, result.getRowCount());
+		assertEquals("[]", new String(result.toJson(), "UTF-8"));
+	}
+
+}
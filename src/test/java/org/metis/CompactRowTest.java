@@ -0,0 +1,101 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.CompactRow;
+import org.metis.sql.CompactRowMapper;
+import org.metis.utils.Utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs some tests against the CompactRow and its mapper
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CompactRowTest {
+
+	private static List<Map<String, Object>> map(String[] columns,
+			Object[][] rows) throws Exception {
+		ResultSet rs = DummyResultSet.create(columns, rows);
+		CompactRowMapper mapper = new CompactRowMapper();
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		int rowNum = 0;
+		while (rs.next()) {
+			list.add(mapper.mapRow(rs, rowNum++));
+		}
+		return list;
+	}
+
+	// the rows equal the equivalent HashMaps, share one schema and keep the
+	// order of the columns
+	@Test
+	public void TestA() throws Exception {
+		String[] columns = { "id", "name", "major" };
+		Object[][] rows = { { 1, "joe", "cs" }, { 2, "fred", null } };
+		List<Map<String, Object>> list = map(columns, rows);
+		assertEquals(2, list.size());
+		Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("id", 2);
+		expected.put("name", "fred");
+		expected.put("major", null);
+		assertEquals(expected, list.get(1));
+		assertEquals(list.get(1), expected);
+		assertEquals(expected.hashCode(), list.get(1).hashCode());
+		assertEquals(3, list.get(1).size());
+		assertEquals(true, list.get(1).containsKey("major"));
+		assertEquals(false, list.get(1).containsKey("minor"));
+		assertEquals(true, list.get(1).get("minor") == null);
+		assertEquals("joe", ((CompactRow) list.get(0)).getValue(2));
+		assertEquals(((CompactRow) list.get(0)).getSchema(),
+				((CompactRow) list.get(1)).getSchema());
+		assertEquals("[id, name, major]", list.get(0).keySet().toString());
+	}
+
+	// the rows are read-only
+	@Test
+	public void TestB() throws Exception {
+		Map<String, Object> row = map(new String[] { "id" },
+				new Object[][] { { 1 } }).get(0);
+		try {
+			row.put("id", 2);
+			assertEquals(false, true);
+		} catch (UnsupportedOperationException ignore) {
+		}
+		try {
+			row.entrySet().iterator().next().setValue(2);
+			assertEquals(false, true);
+		} catch (UnsupportedOperationException ignore) {
+		}
+		try {
+			row.clear();
+			assertEquals(false, true);
+		} catch (UnsupportedOperationException ignore) {
+		}
+		assertEquals(1, row.get("id"));
+	}
+
+	// a column name that appears more than once maps to its first column, and
+	// the rows are encoded as json like any other map
+	@Test
+	public void TestC() throws Exception {
+		List<Map<String, Object>> list = map(new String[] { "id", "name",
+				"id" }, new Object[][] { { 1, "joe", 3 } });
+		assertEquals(2, list.get(0).size());
+		assertEquals(1, list.get(0).get("id"));
+		String json = Utils.generateJson(list);
+		assertEquals("[{\"id\":1,\"name\":\"joe\"}]", json);
+		assertEquals(new ObjectMapper().readValue(json, List.class), list);
+		assertEquals(0, map(new String[] { "id" }, new Object[][] {}).size());
+	}
+
+}
@@ -0,0 +1,132 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+import static org.metis.utils.Statics.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.pull.ResultCache;
+import org.metis.push.WdsSocketSession;
+import org.metis.utils.Utils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Runs some tests against the compression of GET responses and push frames
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CompressionTest {
+
+	private static byte[] inflate(byte[] data, String encoding)
+			throws Exception {
+		InputStream in = encoding.equals(GZIP_STR) ? new GZIPInputStream(
+				new ByteArrayInputStream(data)) : new InflaterInputStream(
+				new ByteArrayInputStream(data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int len;
+		while ((len = in.read(buf)) > 0) {
+			out.write(buf, 0, len);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] json(int rows) throws Exception {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < rows; i++) {
+			sb.append((i > 0) ? "," : "").append("{\"id\":").append(i)
+					.append(",\"name\":\"name").append(i).append("\"}");
+		}
+		return sb.append("]").toString().getBytes(UTF8_STR);
+	}
+
+	// the encoding is negotiated from the Accept-Encoding header
+	@Test
+	public void TestA() {
+		assertEquals(GZIP_STR, Utils.negotiateEncoding("gzip, deflate"));
+		assertEquals(GZIP_STR, Utils.negotiateEncoding("deflate, gzip"));
+		assertEquals(DEFLATE_STR, Utils.negotiateEncoding("deflate"));
+		assertEquals(DEFLATE_STR,
+				Utils.negotiateEncoding("gzip;q=0.5, deflate;q=0.8"));
+		assertEquals(DEFLATE_STR, Utils.negotiateEncoding("gzip;q=0, *"));
+		assertEquals(GZIP_STR, Utils.negotiateEncoding("*"));
+		assertEquals(null, Utils.negotiateEncoding("identity"));
+		assertEquals(null, Utils.negotiateEncoding("gzip;q=0"));
+		assertEquals(null, Utils.negotiateEncoding(null));
+		assertEquals("\"ABC-gzip\"", Utils.toVariantETag("\"ABC\"", GZIP_STR));
+	}
+
+	// both encodings compress and round trip
+	@Test
+	public void TestB() throws Exception {
+		byte[] body = json(500);
+		for (String encoding : new String[] { GZIP_STR, DEFLATE_STR }) {
+			byte[] compressed = Utils.compress(body, encoding);
+			assertEquals(true, compressed.length < body.length / 4);
+			assertEquals(true,
+					Arrays.equals(body, inflate(compressed, encoding)));
+		}
+	}
+
+	// a cached response's variants count toward the size of the cache
+	@Test
+	public void TestC() throws Exception {
+		ResultCache cache = new ResultCache(10, 1000);
+		ResultCache.Entry entry = cache.put("k", null, new byte[500], null,
+				100, 0L);
+		cache.putVariant("k", entry, GZIP_STR, new byte[100]);
+		assertEquals(600L, cache.getBytes());
+		assertEquals(100, cache.get("k", 0).getVariant(GZIP_STR).length);
+		cache.putVariant("k", entry, GZIP_STR, new byte[50]);
+		assertEquals(550L, cache.getBytes());
+		cache.remove("k");
+		assertEquals(0L, cache.getBytes());
+		// a variant of an entry that is no longer cached is not counted
+		cache.putVariant("k", entry, DEFLATE_STR, new byte[100]);
+		assertEquals(0L, cache.getBytes());
+	}
+
+	// a session that asked for compressed frames is sent binary frames for
+	// the messages that reach the threshold
+	@Test
+	public void TestD() throws Exception {
+		WebSocketSession session = (WebSocketSession) Proxy.newProxyInstance(
+				CompressionTest.class.getClassLoader(),
+				new Class<?>[] { WebSocketSession.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						return null;
+					}
+				});
+		WdsSocketSession wds = new WdsSocketSession(session);
+		wds.setCompressionThreshold(1024);
+		TextMessage small = new TextMessage("[{\"ws_status\":\"notify\"}]");
+		TextMessage large = new TextMessage(json(500));
+		assertEquals(true, wds.encode(large) == large);
+
+		wds.setFrameEncoding(GZIP_STR);
+		assertEquals(true, wds.encode(small) == small);
+		WebSocketMessage<?> frame = wds.encode(large);
+		assertEquals(true, frame instanceof BinaryMessage);
+		byte[] payload = new byte[frame.getPayloadLength()];
+		((BinaryMessage) frame).getPayload().get(payload);
+		assertEquals(large.getPayload(), new String(
+				inflate(payload, GZIP_STR), UTF8_STR));
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.metis;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+/**
+ * A Dummy ResultSet used only for testing purposes. It serves up the given
+ * rows and supports just enough of the ResultSet and ResultSetMetaData
+ * interfaces for the row mappers and callbacks.
+ * 
+ */
+public class DummyResultSet implements InvocationHandler {
+
+	private String[] columns;
+	private int[] types;
+	private Object[][] rows;
+	private int cursor = -1;
+	private boolean wasNull;
+
+	private DummyResultSet(String[] columns, int[] types, Object[][] rows) {
+		this.columns = columns;
+		this.types = types;
+		this.rows = rows;
+	}
+
+	/**
+	 * Create a ResultSet with the given column names and rows. All columns are
+	 * reported as VARCHARs.
+	 */
+	public static ResultSet create(String[] columns, Object[][] rows) {
+		int[] types = new int[columns.length];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = Types.VARCHAR;
+		}
+		return create(columns, types, rows);
+	}
+
+	/**
+	 * Create a ResultSet with the given column names, column types and rows.
+	 */
+	public static ResultSet create(String[] columns, int[] types,
+			Object[][] rows) {
+		return (ResultSet) Proxy.newProxyInstance(
+				DummyResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new DummyResultSet(columns,
+						types, rows));
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		String name = method.getName();
+		if (name.equals("next")) {
+			return ++cursor < rows.length;
+		} else if (name.equals("getRow")) {
+			return cursor + 1;
+		} else if (name.equals("wasNull")) {
+			return wasNull;
+		} else if (name.equals("close")) {
+			return null;
+		} else if (name.equals("getMetaData")) {
+			return Proxy.newProxyInstance(
+					DummyResultSet.class.getClassLoader(),
+					new Class<?>[] { ResultSetMetaData.class },
+					new InvocationHandler() {
+						public Object invoke(Object proxy, Method method,
+								Object[] args) throws Throwable {
+							String name = method.getName();
+							if (name.equals("getColumnCount")) {
+								return columns.length;
+							} else if (name.equals("getColumnLabel")
+									|| name.equals("getColumnName")) {
+								return columns[(Integer) args[0] - 1];
+							} else if (name.equals("getColumnType")) {
+								return types[(Integer) args[0] - 1];
+							} else if (name.equals("isSigned")) {
+								return true;
+							}
+							throw new UnsupportedOperationException(name);
+						}
+					});
+		} else if (name.startsWith("get") && args != null && args.length == 1) {
+			int index = (args[0] instanceof Integer) ? (Integer) args[0]
+					: findColumn((String) args[0]);
+			Object value = rows[cursor][index - 1];
+			wasNull = (value == null);
+			return convert(value, method.getReturnType());
+		}
+		throw new UnsupportedOperationException(name);
+	}
+
+	private int findColumn(String column) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equalsIgnoreCase(column)) {
+				return i + 1;
+			}
+		}
+		throw new IllegalArgumentException("unknown column: " + column);
+	}
+
+	private Object convert(Object value, Class<?> type) {
+		if (type == int.class) {
+			return (value == null) ? 0 : ((Number) value).intValue();
+		} else if (type == long.class) {
+			return (value == null) ? 0L : ((Number) value).longValue();
+		} else if (type == double.class) {
+			return (value == null) ? 0.0 : ((Number) value).doubleValue();
+		} else if (type == float.class) {
+			return (value == null) ? 0.0f : ((Number) value).floatValue();
+		} else if (type == short.class) {
+			return (value == null) ? (short) 0 : ((Number) value).shortValue();
+		} else if (type == byte.class) {
+			return (value == null) ? (byte) 0 : ((Number) value).byteValue();
+		} else if (type == boolean.class) {
+			return (value == null) ? false : (Boolean) value;
+		} else if (type == String.class) {
+			return (value == null) ? null : value.toString();
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,198 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.SqlResult;
+import org.metis.sql.SqlStmnt;
+import org.metis.utils.JsonRowReader;
+import org.metis.utils.Utils;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Runs some tests against the streaming ingest of JSON arrays
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class IngestTest {
+
+	/**
+	 * Records what is done with the connection that it hands out
+	 */
+	private static class Recorder implements InvocationHandler {
+		List<Integer> batches = new ArrayList<Integer>();
+		int inBatch;
+		int commits;
+		int rollbacks;
+		boolean autoCommit = true;
+		int failAt = -1;
+
+		DataSource dataSource() {
+			return (DataSource) proxy(DataSource.class);
+		}
+
+		Object proxy(Class<?> c) {
+			return Proxy.newProxyInstance(IngestTest.class.getClassLoader(),
+					new Class<?>[] { c }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if (name.equals("getConnection")) {
+				return proxy(Connection.class);
+			} else if (name.equals("prepareStatement")) {
+				return proxy(PreparedStatement.class);
+			} else if (name.equals("getAutoCommit")) {
+				return autoCommit;
+			} else if (name.equals("setAutoCommit")) {
+				autoCommit = (Boolean) args[0];
+			} else if (name.equals("commit")) {
+				commits++;
+			} else if (name.equals("rollback")) {
+				rollbacks++;
+			} else if (name.equals("addBatch")) {
+				inBatch++;
+			} else if (name.equals("executeBatch")) {
+				if (batches.size() == failAt) {
+					throw new SQLException("batch failed");
+				}
+				int[] rows = new int[inBatch];
+				for (int i = 0; i < rows.length; i++) {
+					rows[i] = 1;
+				}
+				batches.add(inBatch);
+				inBatch = 0;
+				return rows;
+			} else if (method.getReturnType() == boolean.class) {
+				return false;
+			} else if (method.getReturnType() == int.class) {
+				return 0;
+			}
+			return null;
+		}
+	}
+
+	private static JsonRowReader reader(String json) throws Exception {
+		return Utils.createJsonRowReader(new ByteArrayInputStream(json
+				.getBytes("UTF-8")));
+	}
+
+	private static String rows(int count) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			sb.append(i == 0 ? "" : ",").append("{\"ID\":").append(i)
+					.append(",\"name\":\"name").append(i).append("\"}");
+		}
+		return sb.append("]").toString();
+	}
+
+	// the objects are read one at a time, and a large array does not exhaust
+	// the stack
+	@Test
+	public void TestA() throws Exception {
+		JsonRowReader reader = reader("[{\"a\":1},{},[{\"a\":2}]]");
+		assertEquals("1", reader.nextRow().get("a"));
+		assertEquals("2", reader.nextRow().get("a"));
+		assertEquals(true, reader.nextRow() == null);
+		assertEquals(2, reader.getRowCount());
+		assertEquals(100000, Utils.parseJson(rows(100000)).size());
+		assertEquals("name7", Utils.parseJson(rows(10)).get(7).get("name"));
+	}
+
+	// objects must have identical keys, and black listed values are rejected
+	@Test
+	public void TestB() throws Exception {
+		String[] bad = { "[{\"a\":1},{\"b\":1}]", "[{\"a\":1},{\"a\":1,\"b\":1}]",
+				"[1]" };
+		for (String json : bad) {
+			try {
+				Utils.parseJson(json);
+				assertEquals(json, false, true);
+			} catch (Exception ignore) {
+			}
+		}
+		JsonRowReader reader = reader("[{\"a\":\"x\"},{\"a\":\"x;y\"}]");
+		reader.setBlackList(";".toCharArray());
+		assertEquals(true, reader.nextRow() != null);
+		try {
+			reader.nextRow();
+			assertEquals(false, true);
+		} catch (Exception ignore) {
+		}
+	}
+
+	// the rows are executed in chunks with one connection, and the counts of
+	// each chunk are reported
+	@Test
+	public void TestC() throws Exception {
+		Recorder recorder = new Recorder();
+		SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null,
+				"insert into student values(`integer:id`, `char:name`)",
+				new JdbcTemplate(recorder.dataSource()));
+		JsonRowReader reader = reader(rows(25));
+		Map<String, String> first = reader.nextRow();
+		SqlResult result = stmnt.executeIngest(first, reader, 10, false);
+		assertEquals(3, result.getChunkNumRows().length);
+		assertEquals(10, result.getChunkNumRows()[0]);
+		assertEquals(5, result.getChunkNumRows()[2]);
+		assertEquals(25, result.getNumRows());
+		assertEquals(3, recorder.batches.size());
+		assertEquals(0, recorder.commits);
+		assertEquals(true, recorder.autoCommit);
+	}
+
+	// a transacted ingest is committed once, or rolled back if a chunk fails
+	@Test
+	public void TestD() throws Exception {
+		Recorder recorder = new Recorder();
+		SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null,
+				"insert into student values(`integer:id`, `char:name`)",
+				new JdbcTemplate(recorder.dataSource()));
+		JsonRowReader reader = reader(rows(25));
+		SqlResult result = stmnt.executeIngest(reader.nextRow(), reader, 10,
+				true);
+		assertEquals(25, result.getNumRows());
+		assertEquals(1, recorder.commits);
+		assertEquals(0, recorder.rollbacks);
+		assertEquals(true, recorder.autoCommit);
+
+		recorder = new Recorder();
+		recorder.failAt = 1;
+		stmnt = SqlStmnt.getSQLStmnt(null,
+				"insert into student values(`integer:id`, `char:name`)",
+				new JdbcTemplate(recorder.dataSource()));
+		reader = reader(rows(25));
+		assertEquals(true,
+				stmnt.executeIngest(reader.nextRow(), reader, 10, true) == null);
+		assertEquals(0, recorder.commits);
+		assertEquals(1, recorder.rollbacks);
+		assertEquals(true, recorder.autoCommit);
+
+		// a malformed row part way through the array is also rolled back
+		recorder = new Recorder();
+		stmnt = SqlStmnt.getSQLStmnt(null,
+				"insert into student values(`integer:id`, `char:name`)",
+				new JdbcTemplate(recorder.dataSource()));
+		reader = reader("[{\"id\":1,\"name\":\"a\"},{\"id\":2}]");
+		assertEquals(true,
+				stmnt.executeIngest(reader.nextRow(), reader, 10, true) == null);
+		assertEquals(1, recorder.rollbacks);
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.security.MessageDigest;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.LastResultWriter;
+import org.metis.sql.ResultSetDigest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.metis.utils.Statics.*;
+
+/**
+ * Runs some tests against the LastResultWriter
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LastResultWriterTest {
+
+	private static String[] columns = { "id", "name" };
+
+	private static byte[] encode(ResultSet rs, int maxBytes) throws Exception {
+		ResultSetDigest rsDigest = new ResultSetDigest(
+				MessageDigest.getInstance("SHA-256"));
+		LastResultWriter writer = new LastResultWriter(maxBytes);
+		rsDigest.setResultWriter(writer);
+		while (rs.next()) {
+			rsDigest.processRow(rs);
+		}
+		return writer.finish(rsDigest.getSignature());
+	}
+
+	// the rows are encoded along with the signature
+	@Test
+	public void TestA() throws Exception {
+		Object[][] rows = { { 1, "joe" }, { 2, "fred" } };
+		byte[] result = encode(DummyResultSet.create(columns, rows), 1024);
+		assertEquals(true, result != null);
+		List<?> list = new ObjectMapper().readValue(result, List.class);
+		assertEquals(1, list.size());
+		Map<?, ?> map = (Map<?, ?>) list.get(0);
+		assertEquals(WS_SNAPSHOT, map.get(WS_STATUS));
+		assertEquals(true, map.get(WS_MSG) != null);
+		List<?> rowList = (List<?>) map.get(WS_ROWS);
+		assertEquals(2, rowList.size());
+		assertEquals("fred", ((Map<?, ?>) rowList.get(1)).get("name"));
+		assertEquals(2, ((Map<?, ?>) rowList.get(1)).get("id"));
+	}
+
+	// a result that exceeds the bound is not retained
+	@Test
+	public void TestB() throws Exception {
+		Object[][] rows = new Object[100][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new Object[] { i, "name" + i };
+		}
+		assertEquals(true,
+				encode(DummyResultSet.create(columns, rows), 256) == null);
+		assertEquals(true,
+				encode(DummyResultSet.create(columns, rows), 64 * 1024) != null);
+	}
+
+	// mapped rows are encoded the same way as fetched rows
+	@Test
+	public void TestC() throws Exception {
+		Object[][] rows = { { 1, "joe" } };
+		byte[] r1 = encode(DummyResultSet.create(columns, rows), 1024);
+		LastResultWriter writer = new LastResultWriter(1024);
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put("id", 1);
+		row.put("name", "joe");
+		writer.writeRow(row);
+		Map<?, ?> m1 = (Map<?, ?>) new ObjectMapper().readValue(r1, List.class)
+				.get(0);
+		byte[] r2 = writer.finish((String) m1.get(WS_MSG));
+		Map<?, ?> m2 = (Map<?, ?>) new ObjectMapper().readValue(r2, List.class)
+				.get(0);
+		assertEquals(m1, m2);
+	}
+
+}
@@ -0,0 +1,234 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.SqlResult;
+import org.metis.sql.SqlStmnt;
+import org.metis.utils.Utils;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Runs some tests against the multi-key lookups of a SqlStmnt
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MultiKeyTest {
+
+	/**
+	 * Records the statements that are prepared and executed with the
+	 * connections that it hands out. A query returns one row for each
+	 * distinct value bound to it.
+	 */
+	private static class Recorder implements InvocationHandler {
+		int connections;
+		List<String> sqls = new ArrayList<String>();
+		int queries;
+		Set<Object> bound = new LinkedHashSet<Object>();
+
+		DataSource dataSource() {
+			return (DataSource) proxy(DataSource.class);
+		}
+
+		Object proxy(Class<?> c) {
+			return Proxy.newProxyInstance(MultiKeyTest.class.getClassLoader(),
+					new Class<?>[] { c }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if (name.equals("getConnection")) {
+				connections++;
+				return proxy(Connection.class);
+			} else if (name.equals("prepareStatement")) {
+				sqls.add((String) args[0]);
+				return proxy(PreparedStatement.class);
+			} else if (name.equals("setInt")) {
+				bound.add(args[1]);
+			} else if (name.equals("executeQuery")) {
+				queries++;
+				Object[][] rows = new Object[bound.size()][];
+				int i = 0;
+				for (Object value : bound) {
+					rows[i++] = new Object[] { value };
+				}
+				bound.clear();
+				return DummyResultSet.create(new String[] { "id" },
+						new int[] { Types.INTEGER }, rows);
+			} else if (method.getReturnType() == boolean.class) {
+				return false;
+			} else if (method.getReturnType() == int.class) {
+				return 0;
+			}
+			return null;
+		}
+	}
+
+	private static List<Map<String, String>> ids(String... ids) {
+		List<Map<String, String>> list = new ArrayList<Map<String, String>>();
+		for (String id : ids) {
+			Map<String, String> map = new HashMap<String, String>();
+			map.put("id", id);
+			list.add(map);
+		}
+		return list;
+	}
+
+	// a single key equality query is rewritten as an IN list, whose text is
+	// cached per arity bucket
+	@Test
+	public void TestA() throws Exception {
+		SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null,
+				"select * from student where id = `integer:id`", null);
+		assertEquals(true, stmnt.isInListRewritable());
+		assertEquals("select * from student where id in (?, ?, ?, ?)",
+				stmnt.getInListSql(4));
+		assertEquals(true, stmnt.getInListSql(4) == stmnt.getInListSql(4));
+		stmnt = SqlStmnt.getSQLStmnt(null,
+				"select * from student s where s.major = 'math' and "
+						+ "s.id = `integer:id` and s.year > 1", null);
+		assertEquals(true, stmnt.isInListRewritable());
+		assertEquals("select * from student s where s.major = 'math' and "
+				+ "s.id in (?, ?) and s.year > 1", stmnt.getInListSql(2));
+		assertEquals(1, SqlStmnt.toArityBucket(1));
+		assertEquals(4, SqlStmnt.toArityBucket(3));
+		assertEquals(512, SqlStmnt.toArityBucket(500));
+		assertEquals(1000, SqlStmnt.toArityBucket(600));
+
+		String[] sqls = { "select * from student where id >= `integer:id`",
+				"select * from student where id = `integer:id` order by name",
+				"select count(*) from student where id = `integer:id`",
+				"select * from student where id = `integer:id` or id = 0",
+				"select * from student where id = `integer:id` and "
+						+ "major = `char:major`",
+				"select * from student where id = `integer:id` or "
+						+ "parent = `integer:id`",
+				"select * from a left join b on b.aid = a.id and "
+						+ "b.k = `integer:id`",
+				"select a.id, case when grp = `integer:id` then 1 else 0 "
+						+ "end from a",
+				"select * from a where x in (select y from b where "
+						+ "b.k = `integer:id`)",
+				"select * from a where exists (select 1 from b where "
+						+ "b.aid = a.id) and a.k = `integer:id`",
+				"select * from a where (a.k = `integer:id`)",
+				"select * from a where a.k = `integer:id` + 1" };
+		for (String sql : sqls) {
+			assertEquals(sql, false, SqlStmnt.getSQLStmnt(null, sql, null)
+					.isInListRewritable());
+		}
+	}
+
+	// the keys are looked up with one IN list query, on one connection, and
+	// a key that is given more than once is looked up once
+	@Test
+	public void TestB() throws Exception {
+		Recorder recorder = new Recorder();
+		SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null,
+				"select * from student where id = `integer:id`",
+				new JdbcTemplate(recorder.dataSource()));
+		SqlResult result = stmnt.execute(ids("1", "2", "2", "3"));
+		assertEquals(true, result != null);
+		assertEquals(3, result.getResultSet().size());
+		assertEquals(3, result.getResultSet().get(2).get("id"));
+		assertEquals(1, recorder.connections);
+		assertEquals(1, recorder.queries);
+		assertEquals("[select * from student where id in (?, ?, ?, ?)]",
+				recorder.sqls.toString());
+		SqlResult.enqueue(result);
+	}
+
+	// a query that cannot be rewritten is executed once per key, with one
+	// prepared statement on one connection, and the rows are returned up to
+	// the max rows
+	@Test
+	public void TestC() throws Exception {
+		Recorder recorder = new Recorder();
+		SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null,
+				"select * from student where id >= `integer:id`",
+				new JdbcTemplate(recorder.dataSource()));
+		SqlResult result = stmnt.execute(ids("1", "2", "3"));
+		assertEquals(3, result.getResultSet().size());
+		assertEquals(2, result.getResultSet().get(1).get("id"));
+		assertEquals(1, recorder.connections);
+		assertEquals(1, recorder.sqls.size());
+		assertEquals(3, recorder.queries);
+		SqlResult.enqueue(result);
+
+		stmnt.setMaxRows(2);
+		result = stmnt.execute(ids("1", "2", "3"));
+		assertEquals(2, result.getResultSet().size());
+		SqlResult.enqueue(result);
+
+		// a key that cannot be parsed fails the lookup
+		assertEquals(true, stmnt.execute(ids("1", "x")) == null);
+	}
+
+	// repeated query params are split into param sets
+	@Test
+	public void TestD() throws Exception {
+		Map<String, String[]> qParams = new HashMap<String, String[]>();
+		qParams.put("ID", new String[] { "1", "2", "3" });
+		qParams.put("major", new String[] { "cs" });
+		List<Map<String, String>> sets = Utils.getParamSets(qParams, 10);
+		assertEquals(3, sets.size());
+		assertEquals("2", sets.get(1).get("id"));
+		assertEquals("cs", sets.get(2).get("major"));
+		try {
+			Utils.getParamSets(qParams, 2);
+			assertEquals(false, true);
+		} catch (IllegalArgumentException ignore) {
+		}
+		qParams.put("major", new String[] { "cs", "ee" });
+		try {
+			Utils.getParamSets(qParams, 10);
+			assertEquals(false, true);
+		} catch (IllegalArgumentException ignore) {
+		}
+		assertEquals(0, Utils.getParamSets(null, 10).size());
+	}
+
+	// both ways of looking up the keys have set semantics: a key that is
+	// given more than once is looked up once and its rows are returned once
+	@Test
+	public void TestE() throws Exception {
+		String[] sqls = { "select * from student where id = `integer:id`",
+				"select * from student where id >= `integer:id`" };
+		for (String sql : sqls) {
+			Recorder recorder = new Recorder();
+			SqlStmnt stmnt = SqlStmnt.getSQLStmnt(null, sql, new JdbcTemplate(
+					recorder.dataSource()));
+			SqlResult result = stmnt.execute(ids("3", "1", "3", "2", "1"));
+			Set<Object> found = new HashSet<Object>();
+			for (Map<String, Object> row : result.getResultSet()) {
+				found.add(row.get("id"));
+			}
+			assertEquals(sql, 3, result.getResultSet().size());
+			assertEquals(sql, 3, found.size());
+			assertEquals(sql, true,
+					found.containsAll(Arrays.asList(1, 2, 3)));
+			SqlResult.enqueue(result);
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.pull.WdsResourceBean;
+import org.metis.sql.SqlDialect;
+import org.metis.sql.SqlStmnt;
+import org.metis.utils.Utils;
+
+/**
+ * Runs some tests against the keyset paging of GETs
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PagingTest {
+
+	// the dialect is chosen from the driver's name
+	@Test
+	public void TestA() throws Exception {
+		assertEquals(SqlDialect.LIMIT, SqlDialect.forDriver("mysql-ab jdbc driver"));
+		assertEquals(SqlDialect.LIMIT, SqlDialect.forDriver(null));
+		assertEquals(SqlDialect.ORACLE, SqlDialect.forDriver("oracle jdbc driver"));
+		assertEquals(SqlDialect.SQLSERVER,
+				SqlDialect.forDriver("microsoft jdbc driver 4.0 for sql server"));
+		assertEquals(SqlDialect.FETCH_FIRST,
+				SqlDialect.forDriver("apache derby embedded jdbc driver"));
+	}
+
+	// the query is wrapped, ordered by the key and limited
+	@Test
+	public void TestB() throws Exception {
+		String sql = "select id, name from student";
+		assertEquals("select * from (" + sql
+				+ ") metis_page where id > ? order by id limit 10",
+				SqlDialect.LIMIT.toPageSql(sql, "id", true, 10));
+		assertEquals("select * from (" + sql
+				+ ") metis_page order by id limit 10",
+				SqlDialect.LIMIT.toPageSql(sql, "id", false, 10));
+		assertEquals("select top 5 * from (" + sql
+				+ ") metis_page order by id",
+				SqlDialect.SQLSERVER.toPageSql(sql, "id", false, 5));
+		assertEquals(true, SqlDialect.ORACLE.toPageSql(sql, "id", true, 5)
+				.endsWith("where rownum <= 5"));
+		assertEquals(true, SqlDialect.FETCH_FIRST.toPageSql(sql, "id", true, 5)
+				.endsWith("fetch first 5 rows only"));
+	}
+
+	// the token round trips numbers and strings, and invalid tokens are
+	// rejected
+	@Test
+	public void TestC() throws Exception {
+		assertEquals(42, Utils.decodePageToken(Utils.encodePageToken(42)));
+		assertEquals("José",
+				Utils.decodePageToken(Utils.encodePageToken("José")));
+		String token = Utils.encodePageToken("a b&c");
+		assertEquals(true, token.matches("[0-9a-fA-F]+"));
+		String[] bad = { "", "abc", "zz", Utils.encodePageToken(null),
+				Utils.encodePageToken(true) };
+		for (String b : bad) {
+			try {
+				Utils.decodePageToken(b);
+				assertEquals("rejected " + b, false, true);
+			} catch (IllegalArgumentException ignore) {
+			}
+		}
+	}
+
+	// the bean validates its paging properties and applies the row limits to
+	// its GET statements
+	@Test
+	public void TestD() throws Exception {
+		WdsResourceBean bean = new WdsResourceBean();
+		try {
+			bean.setPageKey("id; drop table student");
+			assertEquals(false, true);
+		} catch (IllegalArgumentException ignore) {
+		}
+		try {
+			bean.setPageSize(0);
+			assertEquals(false, true);
+		} catch (IllegalArgumentException ignore) {
+		}
+		List<String> list = new ArrayList<String>();
+		list.add("select * from student");
+		bean.setBeanName("paged");
+		bean.setDataSource(new DummyDataSource());
+		bean.setSqls4Get(list);
+		bean.setPageKey("id");
+		bean.setMaxRows(500);
+		bean.setFetchSize(50);
+		bean.afterPropertiesSet();
+		assertEquals(true, bean.isPaging());
+		assertEquals(true, bean.getSqlDialect() != null);
+		SqlStmnt stmnt = bean.getSqlStmnts4Get().get(0);
+		assertEquals(500, stmnt.getMaxRows());
+		assertEquals(50, stmnt.getFetchSize());
+	}
+
+}
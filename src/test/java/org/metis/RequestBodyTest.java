@@ -0,0 +1,120 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.utils.BoundedInputStream;
+import org.metis.utils.Utils;
+
+/**
+ * Runs some tests against the reading of request bodies of unknown length
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RequestBodyTest {
+
+	/**
+	 * Input stream that hands out its bytes a few at a time, as a chunked
+	 * body would arrive, optionally pausing before each read
+	 */
+	private static class TrickleStream extends InputStream {
+		byte[] bytes;
+		int pos;
+		long pause;
+
+		TrickleStream(String s, long pause) throws Exception {
+			bytes = s.getBytes("UTF-8");
+			this.pause = pause;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (pos >= bytes.length) {
+				return -1;
+			}
+			if (pause > 0) {
+				try {
+					Thread.sleep(pause);
+				} catch (InterruptedException ignore) {
+				}
+			}
+			int n = Math.min(Math.min(len, 7), bytes.length - pos);
+			System.arraycopy(bytes, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+	}
+
+	// url-encoded pairs are parsed as they are read, regardless of how the
+	// bytes arrive
+	@Test
+	public void TestA() throws Exception {
+		Map<String, String> map = Utils.parseUrlEncoded(new TrickleStream(
+				"First=Joe&last=Fernandez+Jr&email=joe%40example.com&flag", 0));
+		assertEquals(4, map.size());
+		assertEquals("Joe", map.get("first"));
+		assertEquals("Fernandez Jr", map.get("last"));
+		assertEquals("joe@example.com", map.get("email"));
+		assertEquals("", map.get("flag"));
+		assertEquals(true,
+				Utils.parseUrlEncoded(new ByteArrayInputStream(new byte[0])) == null);
+	}
+
+	// a body that exceeds the max size is cut off, whether it is url-encoded
+	// or json
+	@Test
+	public void TestB() throws Exception {
+		String json = "[{\"a\":\"12345\"},{\"a\":\"67890\"}]";
+		BoundedInputStream in = new BoundedInputStream(new TrickleStream(json,
+				0), json.length(), 0L);
+		assertEquals(2, Utils.parseJson(in).size());
+		assertEquals(json.length(), in.getCount());
+		assertEquals(true, in.getLimitException() == null);
+
+		in = new BoundedInputStream(new TrickleStream(json, 0), 20, 0L);
+		try {
+			Utils.parseJson(in);
+			assertEquals(false, true);
+		} catch (Exception exc) {
+			assertEquals(false, Utils.getLimitException(exc).isTimedOut());
+			assertEquals(in.getLimitException(), Utils.getLimitException(exc));
+		}
+
+		in = new BoundedInputStream(new TrickleStream("a=1&b=2&c=3", 0), 5, 0L);
+		try {
+			Utils.parseUrlEncoded(in);
+			assertEquals(false, true);
+		} catch (IOException exc) {
+			assertEquals(true, Utils.getLimitException(exc) != null);
+		}
+	}
+
+	// a body that is not read by the deadline is cut off
+	@Test
+	public void TestC() throws Exception {
+		String json = "[{\"a\":\"12345\"},{\"a\":\"67890\"}]";
+		BoundedInputStream in = new BoundedInputStream(new TrickleStream(json,
+				20), 0L, System.currentTimeMillis() + 50);
+		try {
+			Utils.parseJson(in);
+			assertEquals(false, true);
+		} catch (Exception exc) {
+			assertEquals(true, Utils.getLimitException(exc).isTimedOut());
+		}
+		assertEquals(true, Utils.getLimitException(new Exception()) == null);
+	}
+
+}
@@ -0,0 +1,140 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.pull.ResultCache;
+import org.metis.pull.WdsResourceBean;
+import org.metis.sql.SqlStmnt;
+
+/**
+ * Runs some tests against the ResultCache
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ResultCacheTest {
+
+	private static SqlStmnt createStmnt() throws Exception {
+		return createStmnt("select * from student where name = `char:name`");
+	}
+
+	private static SqlStmnt createStmnt(String sql) throws Exception {
+		List<String> list = new ArrayList<String>();
+		list.add(sql);
+		WdsResourceBean rdb = new WdsResourceBean();
+		rdb.setBeanName("rdb");
+		rdb.setDataSource(new DummyDataSource());
+		rdb.setSqls4Get(list);
+		rdb.afterPropertiesSet();
+		return rdb.getSqlStmnts4Get().get(0);
+	}
+
+	private static List<Map<String, String>> params(String... kv) {
+		Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < kv.length; i += 2) {
+			map.put(kv[i], kv[i + 1]);
+		}
+		List<Map<String, String>> list = new ArrayList<Map<String, String>>();
+		list.add(map);
+		return list;
+	}
+
+	// the key does not depend on the order of the params, but does depend on
+	// the case of their values
+	@Test
+	public void TestA() throws Exception {
+		SqlStmnt stmnt = createStmnt();
+		String key = ResultCache.toKey(stmnt, params("a", "1", "b", "2"));
+		assertEquals(key, ResultCache.toKey(stmnt, params("b", "2", "a", "1")));
+		assertEquals(false,
+				key.equals(ResultCache.toKey(stmnt, params("a", "1", "b", "x"))));
+		assertEquals(false,
+				ResultCache.toKey(stmnt, params("name", "Joe")).equals(
+						ResultCache.toKey(stmnt, params("name", "joe"))));
+		assertEquals(ResultCache.toKey(stmnt, null),
+				ResultCache.toKey(stmnt, null));
+	}
+
+	// entries are returned until they expire, and the hits, misses and
+	// expirations are counted
+	@Test
+	public void TestB() throws Exception {
+		SqlStmnt stmnt = createStmnt();
+		ResultCache cache = new ResultCache(10, 1024);
+		byte[] body = "[]".getBytes("UTF-8");
+		assertEquals(true, cache.get("k", 0) == null);
+		cache.put("k", stmnt, body, null, 100, 0L);
+		assertEquals(true, cache.get("k", 99).getBody() == body);
+		assertEquals(stmnt, cache.get("k", 50).getSqlStmnt());
+		assertEquals(true, cache.get("k", 100) == null);
+		assertEquals(0, cache.size());
+		assertEquals(0L, cache.getBytes());
+		assertEquals(2L, cache.getHits());
+		assertEquals(2L, cache.getMisses());
+		assertEquals(1L, cache.getExpirations());
+	}
+
+	// the least recently used entries are evicted when either the number of
+	// entries or the number of bytes is exceeded
+	@Test
+	public void TestC() throws Exception {
+		SqlStmnt stmnt = createStmnt();
+		ResultCache cache = new ResultCache(2, 100);
+		cache.put("a", stmnt, new byte[10], null, 100, 0L);
+		cache.put("b", stmnt, new byte[10], null, 100, 0L);
+		cache.get("a", 0);
+		cache.put("c", stmnt, new byte[10], null, 100, 0L);
+		assertEquals(true, cache.get("b", 0) == null);
+		assertEquals(true, cache.get("a", 0) != null);
+		assertEquals(true, cache.get("c", 0) != null);
+		assertEquals(1L, cache.getEvictions());
+
+		cache.put("d", stmnt, new byte[95], null, 100, 0L);
+		assertEquals(1, cache.size());
+		assertEquals(95L, cache.getBytes());
+		assertEquals(3L, cache.getEvictions());
+
+		// a response larger than the cache is not cached
+		assertEquals(true,
+				cache.put("e", stmnt, new byte[101], null, 100, 0L) == null);
+		assertEquals(true, cache.get("d", 0) != null);
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0L, cache.getBytes());
+	}
+
+	// a response whose table is written to while the response is being
+	// loaded is not cached, but the responses of other tables are
+	@Test
+	public void TestD() throws Exception {
+		SqlStmnt stmnt = createStmnt();
+		SqlStmnt other = createStmnt("select * from teacher");
+		ResultCache cache = new ResultCache(10, 1024);
+		cache.put("k", stmnt, new byte[10], null, 100, 0L);
+
+		// the load begins before the write
+		long generation = cache.getGeneration(stmnt);
+		long otherGeneration = cache.getGeneration(other);
+		assertEquals(1, cache.removeTable("student"));
+		assertEquals(true,
+				cache.put("k", stmnt, new byte[10], null, 100, generation) == null);
+		assertEquals(true, cache.get("k", 0) == null);
+		assertEquals(1L, cache.getStaleLoads());
+		assertEquals(true, cache.put("t", other, new byte[10], null, 100,
+				otherGeneration) != null);
+
+		// a load that begins after the write is cached
+		generation = cache.getGeneration(stmnt);
+		assertEquals(true,
+				cache.put("k", stmnt, new byte[10], null, 100, generation) != null);
+		assertEquals(true, cache.get("k", 0) != null);
+	}
+
+}
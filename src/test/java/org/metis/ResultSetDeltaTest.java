@@ -0,0 +1,107 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.security.MessageDigest;
+import java.sql.ResultSet;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.ResultSetDelta;
+
+/**
+ * Runs some tests against the ResultSetDelta
+ * 
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ResultSetDeltaTest {
+
+	private static String[] columns = { "id", "name" };
+
+	private static ResultSetDelta delta(ResultSet rs,
+			Map<Object, byte[]> previous, int max) throws Exception {
+		ResultSetDelta delta = new ResultSetDelta(
+				MessageDigest.getInstance("SHA-256"),
+				MessageDigest.getInstance("SHA-256"), "ID", previous, max);
+		while (rs.next()) {
+			delta.processRow(rs);
+		}
+		return delta;
+	}
+
+	// inserted, updated and deleted rows are detected
+	@Test
+	public void TestA() throws Exception {
+		Object[][] rows = { { 1, "joe" }, { 2, "fred" }, { 3, "wilma" } };
+		ResultSetDelta d1 = delta(DummyResultSet.create(columns, rows), null,
+				100);
+		assertEquals(true, d1.isValid());
+		assertEquals(3, d1.getSnapshot().size());
+		assertEquals(3, d1.getInserted().size());
+
+		Object[][] rows2 = { { 1, "joe" }, { 2, "barney" }, { 4, "betty" } };
+		ResultSetDelta d2 = delta(DummyResultSet.create(columns, rows2),
+				d1.getSnapshot(), 100);
+		assertEquals(true, d2.isValid());
+		assertEquals(false, d1.getSignature().equals(d2.getSignature()));
+		assertEquals(1, d2.getInserted().size());
+		assertEquals(4, d2.getInserted().get(0).get("id"));
+		assertEquals(1, d2.getUpdated().size());
+		assertEquals("barney", d2.getUpdated().get(0).get("name"));
+		assertEquals(1, d2.getDeleted().size());
+		// the deleted key has the same type as the inserted and updated keys
+		assertEquals(3, d2.getDeleted().get(0));
+
+		// nothing changed
+		ResultSetDelta d3 = delta(DummyResultSet.create(columns, rows2),
+				d2.getSnapshot(), 100);
+		assertEquals(true, d3.isValid());
+		assertEquals(d2.getSignature(), d3.getSignature());
+		assertEquals(0, d3.getInserted().size() + d3.getUpdated().size()
+				+ d3.getDeleted().size());
+	}
+
+	// too many changes results in an invalid delta, but a valid snapshot
+	@Test
+	public void TestB() throws Exception {
+		Object[][] rows = { { 1, "joe" }, { 2, "fred" }, { 3, "wilma" } };
+		ResultSetDelta d1 = delta(DummyResultSet.create(columns, rows), null,
+				2);
+		assertEquals(false, d1.isValid());
+		assertEquals(3, d1.getSnapshot().size());
+		assertEquals(0, d1.getInserted().size());
+
+		Object[][] rows2 = {};
+		ResultSetDelta d2 = delta(DummyResultSet.create(columns, rows2),
+				d1.getSnapshot(), 2);
+		assertEquals(false, d2.isValid());
+		assertEquals(true, d2.getSignature() == null);
+	}
+
+	// rows that cannot be identified result in an invalid delta and no
+	// snapshot
+	@Test
+	public void TestC() throws Exception {
+		Object[][] rows = { { 1, "joe" }, { 1, "fred" } };
+		ResultSetDelta d1 = delta(DummyResultSet.create(columns, rows), null,
+				100);
+		assertEquals(false, d1.isValid());
+		assertEquals(true, d1.getSnapshot() == null);
+
+		Object[][] rows2 = { { null, "joe" } };
+		d1 = delta(DummyResultSet.create(columns, rows2), null, 100);
+		assertEquals(false, d1.isValid());
+		assertEquals(true, d1.getSnapshot() == null);
+
+		String[] columns2 = { "key", "name" };
+		Object[][] rows3 = { { 1, "joe" } };
+		d1 = delta(DummyResultSet.create(columns2, rows3), null, 100);
+		assertEquals(false, d1.isValid());
+		assertEquals(true, d1.getSnapshot() == null);
+		// the signature is still computed
+		assertEquals(true, d1.getSignature() != null);
+	}
+
+}
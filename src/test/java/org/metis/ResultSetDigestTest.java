@@ -0,0 +1,75 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.security.MessageDigest;
+import java.sql.ResultSet;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.ResultSetDigest;
+
+/**
+ * Runs some tests against the ResultSetDigest
+ * 
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ResultSetDigestTest {
+
+	private static String[] columns = { "id", "name" };
+
+	private static String digest(ResultSet rs) throws Exception {
+		ResultSetDigest rsDigest = new ResultSetDigest(
+				MessageDigest.getInstance("SHA-256"));
+		while (rs.next()) {
+			rsDigest.processRow(rs);
+		}
+		return rsDigest.getSignature();
+	}
+
+	// identical result sets must have identical signatures
+	@Test
+	public void TestA() throws Exception {
+		Object[][] rows = { { 1, "joe" }, { 2, "fred" } };
+		String s1 = digest(DummyResultSet.create(columns, rows));
+		String s2 = digest(DummyResultSet.create(columns, rows));
+		assertEquals(true, s1 != null);
+		assertEquals(true, s1.equals(s2));
+	}
+
+	// any change must result in a different signature
+	@Test
+	public void TestB() throws Exception {
+		Object[][] rows = { { 1, "joe" }, { 2, "fred" } };
+		String s1 = digest(DummyResultSet.create(columns, rows));
+		Object[][] rows2 = { { 1, "joe" }, { 2, "wilma" } };
+		assertEquals(false,
+				s1.equals(digest(DummyResultSet.create(columns, rows2))));
+		Object[][] rows3 = { { 1, "joe" } };
+		assertEquals(false,
+				s1.equals(digest(DummyResultSet.create(columns, rows3))));
+		// values shifting between columns
+		Object[][] rows4 = { { "1j", "oe" }, { 2, "fred" } };
+		assertEquals(false,
+				s1.equals(digest(DummyResultSet.create(columns, rows4))));
+		// a null is not the same as the string "null"
+		Object[][] rows5 = { { 1, null } };
+		Object[][] rows6 = { { 1, "null" } };
+		assertEquals(false,
+				digest(DummyResultSet.create(columns, rows5)).equals(
+						digest(DummyResultSet.create(columns, rows6))));
+		// different column names
+		String[] columns2 = { "id", "sname" };
+		assertEquals(false,
+				s1.equals(digest(DummyResultSet.create(columns2, rows))));
+	}
+
+	// an empty result set has no signature
+	@Test
+	public void TestC() throws Exception {
+		Object[][] rows = {};
+		assertEquals(true, digest(DummyResultSet.create(columns, rows)) == null);
+	}
+
+}
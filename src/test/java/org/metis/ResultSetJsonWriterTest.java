@@ -0,0 +1,104 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.sql.ResultSetJsonWriter;
+import org.metis.utils.Utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs some tests against the ResultSetJsonWriter
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ResultSetJsonWriterTest {
+
+	private static String[] columns = { "id", "name" };
+
+	/**
+	 * Output stream that counts the number of times it is flushed
+	 */
+	private static class FlushCounter extends ByteArrayOutputStream {
+		int flushes;
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+	}
+
+	private static ResultSetJsonWriter write(ResultSet rs,
+			ByteArrayOutputStream out, int flushThreshold) throws Exception {
+		ResultSetJsonWriter writer = new ResultSetJsonWriter(out,
+				flushThreshold);
+		while (rs.next()) {
+			writer.processRow(rs);
+		}
+		writer.finish();
+		return writer;
+	}
+
+	// the streamed json is the same as that generated from the mapped rows,
+	// and it is encoded in utf-8
+	@Test
+	public void TestA() throws Exception {
+		Object[][] rows = { { 1, "joe" }, { 2, "José" }, { 3, null } };
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ResultSetJsonWriter writer = write(
+				DummyResultSet.create(columns, rows), out, 0);
+		assertEquals(3, writer.getRowCount());
+		assertEquals(out.size(), writer.getByteCount());
+
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		for (Object[] row : rows) {
+			Map<String, Object> map = new HashMap<String, Object>();
+			map.put(columns[0], row[0]);
+			map.put(columns[1], row[1]);
+			list.add(map);
+		}
+		ObjectMapper mapper = new ObjectMapper();
+		assertEquals(mapper.readValue(Utils.generateJson(list), List.class),
+				mapper.readValue(out.toString("UTF-8"), List.class));
+		assertEquals(true, out.toString("UTF-8").contains("José"));
+	}
+
+	// an empty result set results in no output, just as an empty result set
+	// is not returned by a non-streamed GET
+	@Test
+	public void TestB() throws Exception {
+		Object[][] rows = {};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(DummyResultSet.create(columns, rows), out, 0);
+		assertEquals(0, out.size());
+	}
+
+	// the output stream is flushed as the flush threshold is reached, and
+	// only then
+	@Test
+	public void TestC() throws Exception {
+		Object[][] rows = new Object[2000][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new Object[] { i, "name" + i };
+		}
+		FlushCounter out = new FlushCounter();
+		write(DummyResultSet.create(columns, rows), out, 16 * 1024);
+		assertEquals(true, out.flushes >= out.size() / (16 * 1024));
+		// the rows are not flushed one at a time
+		assertEquals(true, out.flushes < out.size() / 1024);
+		FlushCounter out2 = new FlushCounter();
+		write(DummyResultSet.create(columns, rows), out2, 0);
+		assertEquals(1, out2.flushes);
+	}
+
+}
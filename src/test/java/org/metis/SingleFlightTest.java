@@ -0,0 +1,117 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.pull.SingleFlight;
+
+/**
+ * Runs some tests against the SingleFlight
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SingleFlightTest {
+
+	/**
+	 * Work that blocks until it is released and counts its executions
+	 */
+	private static class Work implements Callable<String> {
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		boolean fail;
+
+		public String call() throws Exception {
+			calls.incrementAndGet();
+			started.countDown();
+			release.await(10, TimeUnit.SECONDS);
+			if (fail) {
+				throw new IllegalStateException("failed");
+			}
+			return "result";
+		}
+	}
+
+	private static Future<String> submit(ExecutorService pool,
+			final SingleFlight<String> flight, final String key,
+			final Work work, final long maxWait) {
+		return pool.submit(new Callable<String>() {
+			public String call() throws Exception {
+				return flight.execute(key, work, maxWait);
+			}
+		});
+	}
+
+	// concurrent callers for the same key share one execution
+	@Test
+	public void TestA() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(10);
+		SingleFlight<String> flight = new SingleFlight<String>();
+		Work work = new Work();
+		Future<?>[] futures = new Future<?>[10];
+		futures[0] = submit(pool, flight, "k", work, 10000L);
+		work.started.await(10, TimeUnit.SECONDS);
+		for (int i = 1; i < futures.length; i++) {
+			futures[i] = submit(pool, flight, "k", work, 10000L);
+		}
+		// let the followers reach the flight before releasing the leader
+		Thread.sleep(200);
+		work.release.countDown();
+		for (Future<?> future : futures) {
+			assertEquals("result", future.get());
+		}
+		assertEquals(1, work.calls.get());
+		assertEquals(1L, flight.getExecutions());
+		assertEquals(9L, flight.getCoalesced());
+		assertEquals(0.9, flight.getCoalescingRatio(), 0.001);
+		assertEquals(0, flight.getInFlightCount());
+		pool.shutdown();
+	}
+
+	// the leader's exception is shared, and a caller that waits too long
+	// executes on its own
+	@Test
+	public void TestB() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		SingleFlight<String> flight = new SingleFlight<String>();
+		Work work = new Work();
+		work.fail = true;
+		Future<String> leader = submit(pool, flight, "k", work, 10000L);
+		work.started.await(10, TimeUnit.SECONDS);
+		Future<String> follower = submit(pool, flight, "k", work, 10000L);
+		Thread.sleep(200);
+		work.release.countDown();
+		for (Future<String> future : new Future[] { leader, follower }) {
+			try {
+				future.get();
+				fail("expected the leader's exception");
+			} catch (Exception exc) {
+				assertEquals(true,
+						exc.getCause() instanceof IllegalStateException);
+			}
+		}
+
+		Work slow = new Work();
+		submit(pool, flight, "s", slow, 10000L);
+		slow.started.await(10, TimeUnit.SECONDS);
+		Work other = new Work();
+		other.release.countDown();
+		assertEquals("result", flight.execute("s", other, 50L));
+		assertEquals(1L, flight.getTimeouts());
+		assertEquals(1, other.calls.get());
+		slow.release.countDown();
+		pool.shutdown();
+	}
+
+}
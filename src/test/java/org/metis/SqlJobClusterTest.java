@@ -0,0 +1,311 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.push.PusherBean;
+import org.metis.sql.SqlJob;
+import org.metis.sql.SqlJobCluster;
+import org.metis.sql.SqlStmnt;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.EntryEventType;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+
+/**
+ * Runs some tests against the SqlJobCluster using two Hazelcast members
+ * within this JVM.
+ * 
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SqlJobClusterTest {
+
+	private static final int NUM_JOBS = 20;
+
+	private static HazelcastInstance hzA;
+	private static HazelcastInstance hzB;
+	private static PusherBean beanA;
+	private static PusherBean beanB;
+	private static List<SqlJob> jobsA = new ArrayList<SqlJob>();
+	private static List<SqlJob> jobsB = new ArrayList<SqlJob>();
+
+	@AfterClass
+	public static void shutdown() {
+		Hazelcast.shutdownAll();
+	}
+
+	private static HazelcastInstance createMember() {
+		// Hazelcast's fast string creation is not supported by newer JVMs
+		System.setProperty("hazelcast.nio.faststring", "false");
+		Config config = new Config();
+		config.getGroupConfig().setName("metis-sqljobcluster-test");
+		config.setProperty("hazelcast.logging.type", "none");
+		config.setProperty("hazelcast.wait.seconds.before.join", "0");
+		config.getNetworkConfig().getInterfaces().setEnabled(true)
+				.addInterface("127.0.0.1");
+		JoinConfig join = config.getNetworkConfig().getJoin();
+		join.getMulticastConfig().setEnabled(false);
+		join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+		return Hazelcast.newHazelcastInstance(config);
+	}
+
+	private static PusherBean createBean(HazelcastInstance hz)
+			throws Exception {
+		List<String> list = new ArrayList<String>();
+		list.add("select * from student where name = `char:name` [10]");
+		PusherBean bean = new PusherBean();
+		bean.setBeanName("pusher");
+		bean.setDataSource(new DummyDataSource());
+		bean.setSqls4Get(list);
+		bean.setHazelcastInstance(hz);
+		bean.afterPropertiesSet();
+		return bean;
+	}
+
+	private static void createJobs(PusherBean bean, List<SqlJob> jobs)
+			throws Exception {
+		SqlStmnt stmnt = bean.getSqlStmnts4Get().get(0);
+		for (int i = 0; i < NUM_JOBS; i++) {
+			Map<String, String> params = new HashMap<String, String>();
+			params.put("name", "name" + i);
+			SqlJob job = new SqlJob(stmnt, params, "" + i);
+			bean.getJobCluster().register(job);
+			jobs.add(job);
+		}
+	}
+
+	// returns the number of jobs, in the given lists, that have exactly one
+	// master
+	private static int countSingleMasters(int expected) throws Exception {
+		int count = 0;
+		for (int j = 0; j < 100; j++) {
+			count = 0;
+			for (int i = 0; i < NUM_JOBS; i++) {
+				String hash = jobsA.get(i).getClusterHash();
+				boolean a = beanA.getJobCluster().isMaster(hash);
+				boolean b = beanB.getJobCluster().isMaster(hash);
+				if (a ^ b) {
+					count++;
+				}
+			}
+			if (count == expected) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		return count;
+	}
+
+	// each cluster of jobs has exactly one master and the masters are spread
+	// across the members
+	@Test
+	public void TestA() throws Exception {
+		hzA = createMember();
+		hzB = createMember();
+		assertEquals(2, hzA.getCluster().getMembers().size());
+		beanA = createBean(hzA);
+		beanB = createBean(hzB);
+		createJobs(beanA, jobsA);
+		createJobs(beanB, jobsB);
+		assertEquals(jobsA.get(3).getClusterHash(), jobsB.get(3)
+				.getClusterHash());
+		assertEquals(NUM_JOBS, countSingleMasters(NUM_JOBS));
+
+		int mastersA = 0;
+		for (SqlJob job : jobsA) {
+			if (beanA.getJobCluster().isMaster(job.getClusterHash())) {
+				mastersA++;
+			}
+		}
+		assertEquals(true, mastersA > 0 && mastersA < NUM_JOBS);
+	}
+
+	// when a member retires its jobs, the other member takes over
+	@Test
+	public void TestB() throws Exception {
+		for (SqlJob job : jobsA) {
+			beanA.getJobCluster().unregister(job);
+		}
+		for (int j = 0; j < 100; j++) {
+			int mastersB = 0;
+			for (SqlJob job : jobsB) {
+				if (beanB.getJobCluster().isMaster(job.getClusterHash())) {
+					mastersB++;
+				}
+			}
+			if (mastersB == NUM_JOBS) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		for (SqlJob job : jobsA) {
+			assertEquals(false,
+					beanA.getJobCluster().isMaster(job.getClusterHash()));
+			assertEquals(true,
+					beanB.getJobCluster().isMaster(job.getClusterHash()));
+		}
+	}
+
+	// notifications published by the masters are routed to the other
+	// member's jobs
+	@Test
+	public void TestC() throws Exception {
+		for (SqlJob job : jobsA) {
+			beanA.getJobCluster().register(job);
+		}
+		assertEquals(NUM_JOBS, countSingleMasters(NUM_JOBS));
+		// have the master of each of the first few cluster hashes publish a
+		// change
+		for (int i = 0; i < 5; i++) {
+			String hash = jobsA.get(i).getClusterHash();
+			PusherBean master = beanA.getJobCluster().isMaster(hash) ? beanA
+					: beanB;
+			master.getJobCluster().publish(hash, "signature" + i, null,
+					("[" + i + "]").getBytes("UTF-8"));
+		}
+		for (int i = 0; i < 5; i++) {
+			String hash = jobsA.get(i).getClusterHash();
+			SqlJob master = beanA.getJobCluster().isMaster(hash) ? jobsA
+					.get(i) : jobsB.get(i);
+			SqlJob other = (master == jobsA.get(i)) ? jobsB.get(i) : jobsA
+					.get(i);
+			for (int j = 0; j < 100 && other.getDigitalSignature() == null; j++) {
+				Thread.sleep(100);
+			}
+			assertEquals("signature" + i, other.getDigitalSignature());
+			// the master's last result is sent to the joining sessions
+			assertEquals("[" + i + "]", new String(other.getLastResult(),
+					"UTF-8"));
+			// the master does not route to itself
+			assertEquals(null, master.getDigitalSignature());
+		}
+		assertEquals(null, jobsA.get(5).getDigitalSignature());
+		assertEquals(null, jobsB.get(5).getDigitalSignature());
+	}
+
+	// a job that is registered with a member that is not its master is sent
+	// the master's current state
+	@Test
+	public void TestC1() throws Exception {
+		String hash = jobsA.get(6).getClusterHash();
+		boolean masterA = beanA.getJobCluster().isMaster(hash);
+		SqlJob master = masterA ? jobsA.get(6) : jobsB.get(6);
+		PusherBean other = masterA ? beanB : beanA;
+		master.setLastResult("[6]".getBytes("UTF-8"));
+		master.setDigitalSignature("state6");
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("name", "name6");
+		SqlJob joiner = new SqlJob(other.getSqlStmnts4Get().get(0), params,
+				"joiner");
+		other.getJobCluster().register(joiner);
+		for (int j = 0; j < 100 && joiner.getDigitalSignature() == null; j++) {
+			Thread.sleep(100);
+		}
+		assertEquals("state6", joiner.getDigitalSignature());
+		assertEquals("[6]", new String(joiner.getLastResult(), "UTF-8"));
+		other.getJobCluster().unregister(joiner);
+	}
+
+	// when a member leaves, the remaining member takes over
+	@Test
+	public void TestD() throws Exception {
+		hzB.getLifecycleService().shutdown();
+		for (int j = 0; j < 100; j++) {
+			int mastersA = 0;
+			for (SqlJob job : jobsA) {
+				if (beanA.getJobCluster().isMaster(job.getClusterHash())) {
+					mastersA++;
+				}
+			}
+			if (mastersA == NUM_JOBS) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		for (SqlJob job : jobsA) {
+			assertEquals(true,
+					beanA.getJobCluster().isMaster(job.getClusterHash()));
+		}
+	}
+
+	// concurrent registering and unregistering of jobs having the same cluster
+	// hash never leaves a registered job orphaned
+	@Test
+	public void TestE() throws Exception {
+		final SqlJobCluster cluster = beanA.getJobCluster();
+		SqlStmnt stmnt = beanA.getSqlStmnts4Get().get(0);
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("name", "race");
+		final SqlJob job1 = new SqlJob(stmnt, params, "race1");
+		final SqlJob job2 = new SqlJob(stmnt, params, "race2");
+		final String hash = job1.getClusterHash();
+		assertEquals(hash, job2.getClusterHash());
+		final AtomicInteger orphans = new AtomicInteger();
+		Thread other = new Thread() {
+			public void run() {
+				for (int i = 0; i < 500; i++) {
+					cluster.register(job1);
+					cluster.unregister(job1);
+				}
+			}
+		};
+		other.start();
+		for (int i = 0; i < 500; i++) {
+			cluster.register(job2);
+			Set<SqlJob> jobs = cluster.getJobs(hash);
+			if (jobs == null || !jobs.contains(job2)
+					|| !cluster.isMaster(hash)) {
+				orphans.incrementAndGet();
+			}
+			cluster.unregister(job2);
+		}
+		other.join();
+		assertEquals(0, orphans.get());
+		assertEquals(null, cluster.getJobs(hash));
+		assertEquals(false, cluster.isMaster(hash));
+	}
+
+	// a claim made by the event thread, while the jobs are being
+	// unregistered, never leaves this member holding mastership without jobs
+	@Test
+	public void TestF() throws Exception {
+		SqlJobCluster cluster = beanA.getJobCluster();
+		SqlStmnt stmnt = beanA.getSqlStmnts4Get().get(0);
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("name", "claim");
+		SqlJob job = new SqlJob(stmnt, params, "claim1");
+		String hash = job.getClusterHash();
+		EntryEvent<String, String> removed = new EntryEvent<String, String>(
+				"test", hzA.getCluster().getLocalMember(),
+				EntryEventType.REMOVED.getType(), hash, null);
+		for (int i = 0; i < 2000; i++) {
+			cluster.register(job);
+			cluster.entryRemoved(removed);
+			if (i % 2 == 0) {
+				Thread.yield();
+			}
+			cluster.unregister(job);
+		}
+		IMap<String, String> masters = hzA.getMap(cluster.getName());
+		for (int j = 0; j < 100 && masters.containsKey(hash); j++) {
+			Thread.sleep(50);
+		}
+		assertEquals(false, masters.containsKey(hash));
+		assertEquals(false, cluster.isMaster(hash));
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.push.PusherBean;
+import org.metis.push.WdsSocketSession;
+import org.metis.sql.SqlJob;
+import org.metis.sql.SqlStmnt;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Runs some tests against the subscription keys and the registry of SqlJobs
+ * kept by a SqlStmnt.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SqlJobRegistryTest {
+
+	private static Map<String, String> params(String... kv) {
+		Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < kv.length; i += 2) {
+			map.put(kv[i], kv[i + 1]);
+		}
+		return map;
+	}
+
+	private static WdsSocketSession createSession(final String id) {
+		WebSocketSession session = (WebSocketSession) Proxy.newProxyInstance(
+				SqlJobRegistryTest.class.getClassLoader(),
+				new Class<?>[] { WebSocketSession.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().equals("getId")) {
+							return id;
+						} else if (method.getName().equals("isOpen")) {
+							return true;
+						}
+						return null;
+					}
+				});
+		return new WdsSocketSession(session);
+	}
+
+	// param sets that differ only in the case of their values or in the order
+	// of their keys have the same key
+	@Test
+	public void TestA() throws Exception {
+		String key = SqlJob.toSubscriptionKey(params("name", "Joe", "major",
+				"CS"));
+		assertEquals(key, SqlJob.toSubscriptionKey(params("major", "cs",
+				"name", "JOE")));
+		assertEquals(false,
+				key.equals(SqlJob.toSubscriptionKey(params("name", "Joe"))));
+		assertEquals(false, key.equals(SqlJob.toSubscriptionKey(params(
+				"NAME", "Joe", "major", "CS"))));
+		assertEquals(false, SqlJob.toSubscriptionKey(params("a", "b", "c", "d"))
+				.equals(SqlJob.toSubscriptionKey(params("a", "b1:c1=d"))));
+		assertEquals(SqlJob.toSubscriptionKey(null),
+				SqlJob.toSubscriptionKey(params()));
+	}
+
+	// a session is added to the job having the same subscription key, and the
+	// job that a session is subscribed to can be found by the session's id
+	@Test
+	public void TestB() throws Exception {
+		List<String> list = new ArrayList<String>();
+		list.add("select * from student where name = `char:name` [10]");
+		PusherBean bean = new PusherBean();
+		bean.setBeanName("pusher");
+		bean.setDataSource(new DummyDataSource());
+		bean.setSqls4Get(list);
+		bean.afterPropertiesSet();
+		SqlStmnt stmnt = bean.getSqlStmnts4Get().get(0);
+
+		SqlJob job = new SqlJob(stmnt, params("name", "joe"), "1");
+		WdsSocketSession s1 = createSession("s1");
+		WdsSocketSession s2 = createSession("s2");
+		assertEquals(true, job.addSession(s1));
+		assertEquals(job, stmnt.findSqlJob(params("name", "JOE"), s2));
+		assertEquals(true, stmnt.findSqlJob(params("name", "fred"), s2) == null);
+		assertEquals(job, stmnt.getSqlJob("s2"));
+		assertEquals(job, s2.getMyJob());
+		assertEquals(2, job.getSocketSessions().size());
+		job.removeSession(s2);
+		assertEquals(true, stmnt.getSqlJob("s2") == null);
+		assertEquals(true, stmnt.sessionExists("s1"));
+		assertEquals(1, stmnt.getSqlJobCount());
+
+		// removing the job's last session retires the job right away; it no
+		// longer takes sessions and is no longer registered
+		job.removeSession(s1);
+		assertEquals(true, job.isRetired());
+		assertEquals(0, stmnt.getSqlJobCount());
+		assertEquals(false, job.addSession(s1));
+		assertEquals(true, stmnt.findSqlJob(params("name", "joe"), s1) == null);
+		assertEquals(true, s1.getMyJob() == null);
+	}
+
+}
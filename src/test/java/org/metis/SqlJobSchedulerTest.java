@@ -0,0 +1,132 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.push.PusherBean;
+import org.metis.sql.SqlJob;
+import org.metis.sql.SqlJobScheduler;
+
+/**
+ * Runs some tests against the SqlJobScheduler
+ * 
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SqlJobSchedulerTest {
+
+	// the scheduled tasks must all run and never use more than the pool's
+	// number of workers
+	@Test
+	public void TestA() throws Exception {
+		final int poolSize = 2;
+		final int numTasks = 20;
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger maxRunning = new AtomicInteger(0);
+		final CountDownLatch done = new CountDownLatch(numTasks);
+		SqlJobScheduler scheduler = new SqlJobScheduler(poolSize, false);
+		scheduler.afterPropertiesSet();
+		try {
+			for (int i = 0; i < numTasks; i++) {
+				scheduler.schedule(new Runnable() {
+					public void run() {
+						int n = running.incrementAndGet();
+						synchronized (maxRunning) {
+							if (n > maxRunning.get()) {
+								maxRunning.set(n);
+							}
+						}
+						try {
+							Thread.sleep(10);
+						} catch (InterruptedException ignore) {
+						}
+						running.decrementAndGet();
+						done.countDown();
+					}
+				}, i % 3);
+			}
+			assertEquals(true, done.await(10, TimeUnit.SECONDS));
+			assertEquals(true, maxRunning.get() <= poolSize);
+		} finally {
+			scheduler.destroy();
+		}
+		assertEquals(false, scheduler.isStarted());
+	}
+
+	// virtual threads fall back to platform threads on older JDKs, either
+	// way the tasks must run
+	@Test
+	public void TestB() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		SqlJobScheduler scheduler = new SqlJobScheduler(1, true);
+		scheduler.afterPropertiesSet();
+		try {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					done.countDown();
+				}
+			}, 0L);
+			assertEquals(true, done.await(10, TimeUnit.SECONDS));
+		} finally {
+			scheduler.destroy();
+		}
+	}
+
+	// invalid pool size
+	@Test
+	public void TestC() {
+		try {
+			new SqlJobScheduler(0, false);
+			fail("ERROR: did not get IllegalArgumentException for pool "
+					+ "size of 0");
+		} catch (IllegalArgumentException ignore) {
+		}
+		assertEquals(true, SqlJobScheduler.getDefault() == SqlJobScheduler
+				.getDefault());
+	}
+
+	// a scheduler that has been shut down rejects tasks rather than
+	// restarting itself, and a job that cannot be scheduled is stopped
+	@Test
+	public void TestD() throws Exception {
+		SqlJobScheduler scheduler = new SqlJobScheduler(1, false);
+		scheduler.afterPropertiesSet();
+		scheduler.destroy();
+		Runnable task = new Runnable() {
+			public void run() {
+			}
+		};
+		assertEquals(true, scheduler.schedule(task, 0L) == null);
+		assertEquals(false, scheduler.isStarted());
+
+		List<String> list = new ArrayList<String>();
+		list.add("select * from student where name = `char:name` [10]");
+		PusherBean bean = new PusherBean();
+		bean.setBeanName("pusher");
+		bean.setDataSource(new DummyDataSource());
+		bean.setSqls4Get(list);
+		bean.afterPropertiesSet();
+		SqlJob job = new SqlJob(bean.getSqlStmnts4Get().get(0), "1");
+		job.setScheduler(scheduler);
+		job.doStart();
+		assertEquals(false, job.isStarted());
+		assertEquals(false, scheduler.isStarted());
+
+		// an explicit start brings the scheduler back
+		scheduler.start();
+		try {
+			assertEquals(true, scheduler.schedule(task, 0L) != null);
+		} finally {
+			scheduler.destroy();
+		}
+	}
+
+}
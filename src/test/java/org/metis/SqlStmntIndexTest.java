@@ -0,0 +1,103 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.pull.WdsResourceBean;
+import org.metis.sql.SqlStmnt;
+import org.metis.sql.SqlStmntIndex;
+
+/**
+ * Runs some tests against the SqlStmntIndex
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SqlStmntIndexTest {
+
+	private static Set<String> keys(String... keys) {
+		return new HashSet<String>(Arrays.asList(keys));
+	}
+
+	private static WdsResourceBean createBean() throws Exception {
+		List<String> list = new ArrayList<String>();
+		list.add("select * from student where id = `integer:id`");
+		list.add("select * from student where name = `char:name` "
+				+ "and major = `char:major`");
+		list.add("select * from student where name = `char:name` or "
+				+ "nickname = `char:name`");
+		list.add("call foo(`char:last:in`,`char:first:out`)");
+		list.add("select * from student");
+		WdsResourceBean bean = new WdsResourceBean();
+		bean.setBeanName("students");
+		bean.setDataSource(new DummyDataSource());
+		bean.setSqls4Get(list);
+		bean.afterPropertiesSet();
+		return bean;
+	}
+
+	// the index gives the same answers as a walk of the list
+	@Test
+	public void TestA() throws Exception {
+		WdsResourceBean bean = createBean();
+		List<SqlStmnt> stmnts = bean.getSqlStmnts4Get();
+		SqlStmntIndex index = bean.getStmntIndex4Get();
+		assertEquals(5, index.size());
+		assertEquals(4, index.getSignatures().size());
+		List<Set<String>> keySets = new ArrayList<Set<String>>();
+		keySets.add(null);
+		keySets.add(keys());
+		keySets.add(keys("id"));
+		keySets.add(keys("name"));
+		keySets.add(keys("major", "name"));
+		keySets.add(keys("name", "major", "id"));
+		keySets.add(keys("last"));
+		keySets.add(keys("first"));
+		keySets.add(keys("ID"));
+		for (Set<String> keySet : keySets) {
+			assertEquals(String.valueOf(keySet),
+					SqlStmnt.getMatch(stmnts, keySet), index.getMatch(keySet));
+		}
+		assertEquals(stmnts.get(4), index.getMatch((Set<String>) null));
+		assertEquals(stmnts.get(1), index.getMatch(keys("major", "name")));
+		assertEquals(stmnts.get(3), index.getMatch(keys("last")));
+		assertEquals(true, index.getMatch(keys("major")) == null);
+	}
+
+	// the key of a uri's extra path info is matched to a single key statement
+	@Test
+	public void TestB() throws Exception {
+		WdsResourceBean bean = createBean();
+		SqlStmntIndex index = bean.getStmntIndex4Get();
+		for (String key : new String[] { "id", "name", "last", "major", "x" }) {
+			assertEquals(key,
+					SqlStmnt.getMatch(bean.getSqlStmnts4Get(), keys(key)),
+					index.getMatch(key));
+		}
+		assertEquals(true, index.getMatch((String) null) == null);
+		assertEquals(true, bean.getStmntIndex4Put() == null);
+	}
+
+	// the statement matched without keys is found up front, even when the
+	// list has no statement without params
+	@Test
+	public void TestC() throws Exception {
+		List<SqlStmnt> stmnts = new ArrayList<SqlStmnt>();
+		stmnts.add(SqlStmnt.getSQLStmnt(null,
+				"select * from student where id = `integer:id`", null));
+		SqlStmntIndex index = new SqlStmntIndex(stmnts);
+		assertEquals(true, index.getMatch(keys()) == null);
+		assertEquals(stmnts.get(0), index.getMatch(keys("id")));
+		assertEquals(0, new SqlStmntIndex(null).size());
+		assertEquals(true,
+				new SqlStmntIndex(null).getMatch(keys("id")) == null);
+	}
+
+}
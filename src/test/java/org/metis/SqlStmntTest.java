@@ -1,6 +1,7 @@
 package org.metis;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
@@ -645,8 +646,11 @@ public class SqlStmntTest {
 		// it is not a parameterized stmt
 		assertEquals(false, sqlList.get(0).isPrepared());
 		// ensure proper method(s) are supported
-		assertEquals(true, rdb.getSupportedMethods().length == 1);
-		assertEquals(true, rdb.getSupportedMethods()[0].equalsIgnoreCase("GET"));
+		assertEquals(true, rdb.getSupportedMethods().length == 2);
+		assertEquals(true, Arrays.asList(rdb.getSupportedMethods())
+				.contains("GET"));
+		assertEquals(true, Arrays.asList(rdb.getSupportedMethods())
+				.contains("HEAD"));
 
 		// should not throw an exception
 		sql = "select first from users where first =`char:first`";
@@ -890,9 +894,13 @@ public class SqlStmntTest {
 		sqlList = rdb.getSqlStmnts4Delete();
 		assertEquals(true, sqlList == null);
 		// ensure proper method(s) are supported
-		assertEquals(true, rdb.getSupportedMethods().length == 2);
-		assertEquals(true, rdb.getSupportedMethods()[0].equalsIgnoreCase("GET"));
-		assertEquals(true, rdb.getSupportedMethods()[1].equalsIgnoreCase("PUT"));
+		assertEquals(true, rdb.getSupportedMethods().length == 3);
+		assertEquals(true, Arrays.asList(rdb.getSupportedMethods())
+				.contains("GET"));
+		assertEquals(true, Arrays.asList(rdb.getSupportedMethods())
+				.contains("HEAD"));
+		assertEquals(true, Arrays.asList(rdb.getSupportedMethods())
+				.contains("PUT"));
 
 		// no exception should be thrown
 		list.clear();
@@ -919,9 +927,13 @@ public class SqlStmntTest {
 		sqlList = rdb.getSqlStmnts4Delete();
 		assertEquals(true, sqlList == null);
 		// ensure proper method(s) are supported
-		assertEquals(true, rdb.getSupportedMethods().length == 2);
-		assertEquals(true, rdb.getSupportedMethods()[0].equalsIgnoreCase("GET"));
-		assertEquals(true, rdb.getSupportedMethods()[1].equalsIgnoreCase("PUT"));
+		assertEquals(true, rdb.getSupportedMethods().length == 3);
+		assertEquals(true, Arrays.asList(rdb.getSupportedMethods())
+				.contains("GET"));
+		assertEquals(true, Arrays.asList(rdb.getSupportedMethods())
+				.contains("HEAD"));
+		assertEquals(true, Arrays.asList(rdb.getSupportedMethods())
+				.contains("PUT"));
 
 		// an exception will be thrown because the function statement
 		// will never be used. So there's no point putting it on
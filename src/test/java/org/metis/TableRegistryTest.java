@@ -0,0 +1,107 @@
+package org.metis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.metis.pull.ResultCache;
+import org.metis.pull.WdsResourceBean;
+import org.metis.sql.SqlStmnt;
+import org.metis.sql.TableListener;
+import org.metis.sql.TableRegistry;
+
+/**
+ * Runs some tests against the extraction of table names from SQL statements
+ * and the TableRegistry
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TableRegistryTest {
+
+	private static Set<String> tables(String... names) {
+		return new HashSet<String>(Arrays.asList(names));
+	}
+
+	private static Set<String> extract(String sql) throws Exception {
+		return SqlStmnt.getSQLStmnt(null, sql, null).getTables();
+	}
+
+	// the names of the tables that are read or written are extracted from the
+	// statements
+	@Test
+	public void TestA() throws Exception {
+		assertEquals(tables("student", "major"),
+				extract("select * from student s, major m where s.id = `integer:id`"));
+		assertEquals(tables("student", "major"),
+				extract("select a.x from app.student a join \"Major\" m "
+						+ "on a.m = m.id order by a.x"));
+		assertEquals(tables("rooms"),
+				extract("select * from (select * from rooms) r"));
+		assertEquals(tables("student"),
+				extract("insert into student(id,name) values (`integer:id`,`char:name`)"));
+		assertEquals(tables("student"),
+				extract("update student set name = `char:name` where id = `integer:id`"));
+		assertEquals(tables("student"),
+				extract("delete from STUDENT where id = `integer:id`"));
+	}
+
+	// a write to a table removes the cached responses of the GETs that read
+	// the table, and only those
+	@Test
+	public void TestB() throws Exception {
+		List<String> list = new ArrayList<String>();
+		list.add("select * from student where id = `integer:id`");
+		list.add("select * from rooms");
+		WdsResourceBean rdb = new WdsResourceBean();
+		rdb.setBeanName("rdb");
+		rdb.setDataSource(new DummyDataSource());
+		rdb.setSqls4Get(list);
+		rdb.setExpires(60);
+		rdb.setResultCacheSize(10);
+		rdb.afterPropertiesSet();
+		ResultCache cache = rdb.getResultCache();
+		cache.put("a", rdb.getSqlStmnts4Get().get(0), new byte[10], null,
+				100, 0L);
+		cache.put("b", rdb.getSqlStmnts4Get().get(1), new byte[10], null,
+				100, 0L);
+
+		TableRegistry.tablesWritten(SqlStmnt.getSQLStmnt(null,
+				"delete from student where id = `integer:id`", null));
+		assertEquals(true, cache.get("a", 0) == null);
+		assertEquals(true, cache.get("b", 0) != null);
+		assertEquals(1L, cache.getInvalidations());
+
+		rdb.destroy();
+		assertEquals(false, TableRegistry.getListeners("rooms").contains(rdb));
+	}
+
+	// listeners hear of writes to their tables until they are unregistered
+	@Test
+	public void TestC() throws Exception {
+		final List<String> heard = new ArrayList<String>();
+		TableListener listener = new TableListener() {
+			public void onTableWrite(String table, SqlStmnt writer) {
+				heard.add(table);
+			}
+		};
+		TableRegistry.register(tables("spaces"), listener);
+		SqlStmnt writer = SqlStmnt.getSQLStmnt(null,
+				"update spaces set name = `char:name`", null);
+		TableRegistry.tablesWritten(writer);
+		TableRegistry.tablesWritten(SqlStmnt.getSQLStmnt(null,
+				"delete from rooms", null));
+		assertEquals(1, heard.size());
+		assertEquals("spaces", heard.get(0));
+		TableRegistry.unregister(listener);
+		TableRegistry.tablesWritten(writer);
+		assertEquals(1, heard.size());
+	}
+
+}
@@ -621,4 +621,22 @@ public class UtilsTest {
 		}
 	}
 
+	// entity tags are strong, depend on the body, and are matched against
+	// the If-None-Match header
+	@Test
+	public void TestH() throws Exception {
+		String eTag = createETag("[{\"id\":1}]".getBytes(UTF8_STR));
+		assertEquals(true, eTag.startsWith("\"") && eTag.endsWith("\""));
+		assertEquals(eTag, createETag("[{\"id\":1}]".getBytes(UTF8_STR)));
+		assertEquals(false,
+				eTag.equals(createETag("[{\"id\":2}]".getBytes(UTF8_STR))));
+
+		assertEquals(true, isETagMatch(eTag, eTag));
+		assertEquals(true, isETagMatch("\"abc\", " + eTag, eTag));
+		assertEquals(true, isETagMatch("W/" + eTag, eTag));
+		assertEquals(true, isETagMatch("*", eTag));
+		assertEquals(false, isETagMatch("\"abc\"", eTag));
+		assertEquals(false, isETagMatch(null, eTag));
+	}
+
 }
@@ -0,0 +1,256 @@
+package org.metis.push;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Tests the WdsSocketSession's outbound queue against a dummy web socket
+ * session whose sends can be held up.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class WdsSocketSessionTest {
+
+	private static ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	@AfterClass
+	public static void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * A dummy web socket session that records the messages sent and blocks
+	 * each send until the gate is opened.
+	 */
+	private static class DummySession implements InvocationHandler {
+		List<String> sent = new Vector<String>();
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch sending = new CountDownLatch(1);
+		boolean open = true;
+		boolean broken;
+
+		WebSocketSession create() {
+			return (WebSocketSession) Proxy.newProxyInstance(getClass()
+					.getClassLoader(),
+					new Class<?>[] { WebSocketSession.class }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if (name.equals("getId")) {
+				return "dummy";
+			} else if (name.equals("isOpen")) {
+				return open;
+			} else if (name.equals("close")) {
+				open = false;
+				return null;
+			} else if (name.equals("sendMessage")) {
+				sending.countDown();
+				gate.await(5, TimeUnit.SECONDS);
+				if (broken) {
+					throw new java.io.IOException("broken pipe");
+				}
+				sent.add(((TextMessage) args[0]).getPayload());
+				return null;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	private static WdsSocketSession createSession(DummySession dummy,
+			WdsSocketSession.OverflowPolicy policy) {
+		WdsSocketSession wds = new WdsSocketSession(dummy.create());
+		wds.setSendExecutor(executor);
+		wds.setBufferSizeLimit(10);
+		wds.setOverflowPolicy(policy);
+		return wds;
+	}
+
+	private static void waitForDrain(WdsSocketSession wds, DummySession dummy,
+			int count) throws Exception {
+		for (int i = 0; i < 100 && dummy.sent.size() < count; i++) {
+			Thread.sleep(20);
+		}
+	}
+
+	@Test
+	/**
+	 * Messages are sent in order, without holding up the caller
+	 */
+	public void TestA() throws Exception {
+		DummySession dummy = new DummySession();
+		WdsSocketSession wds = createSession(dummy,
+				WdsSocketSession.OverflowPolicy.CLOSE);
+		assertTrue(wds.send(new TextMessage("a")));
+		assertTrue(dummy.sending.await(5, TimeUnit.SECONDS));
+		assertTrue(wds.send(new TextMessage("b")));
+		assertTrue(wds.send(new TextMessage("c")));
+		assertEquals(0, dummy.sent.size());
+		dummy.gate.countDown();
+		waitForDrain(wds, dummy, 3);
+		assertEquals("[a, b, c]", dummy.sent.toString());
+		assertEquals(0, wds.getBufferSize());
+	}
+
+	@Test
+	/**
+	 * Conflating keeps only the newest message
+	 */
+	public void TestB() throws Exception {
+		DummySession dummy = new DummySession();
+		WdsSocketSession wds = createSession(dummy,
+				WdsSocketSession.OverflowPolicy.CONFLATE);
+		wds.send(new TextMessage("first"));
+		assertTrue(dummy.sending.await(5, TimeUnit.SECONDS));
+		wds.send(new TextMessage("12345"));
+		wds.send(new TextMessage("67890"));
+		wds.send(new TextMessage("abcde"));
+		assertEquals(2, wds.getDroppedCount());
+		dummy.gate.countDown();
+		waitForDrain(wds, dummy, 2);
+		assertEquals("[first, abcde]", dummy.sent.toString());
+		assertTrue(wds.isOpen());
+	}
+
+	@Test
+	/**
+	 * Dropping the oldest keeps as many of the newest messages as will fit
+	 */
+	public void TestC() throws Exception {
+		DummySession dummy = new DummySession();
+		WdsSocketSession wds = createSession(dummy,
+				WdsSocketSession.OverflowPolicy.DROP_OLDEST);
+		wds.send(new TextMessage("first"));
+		assertTrue(dummy.sending.await(5, TimeUnit.SECONDS));
+		wds.send(new TextMessage("1234"));
+		wds.send(new TextMessage("5678"));
+		wds.send(new TextMessage("9012"));
+		assertEquals(1, wds.getDroppedCount());
+		dummy.gate.countDown();
+		waitForDrain(wds, dummy, 3);
+		assertEquals("[first, 5678, 9012]", dummy.sent.toString());
+	}
+
+	@Test
+	/**
+	 * The CLOSE policy closes the session on overflow
+	 */
+	public void TestD() throws Exception {
+		DummySession dummy = new DummySession();
+		WdsSocketSession wds = createSession(dummy,
+				WdsSocketSession.OverflowPolicy.CLOSE);
+		wds.send(new TextMessage("first"));
+		assertTrue(dummy.sending.await(5, TimeUnit.SECONDS));
+		assertTrue(wds.send(new TextMessage("123456")));
+		assertFalse(wds.send(new TextMessage("789012")));
+		assertFalse(wds.isOpen());
+		assertEquals(0, wds.getBufferSize());
+		dummy.gate.countDown();
+	}
+
+	@Test
+	/**
+	 * A send that exceeds the send time limit closes the session
+	 */
+	public void TestE() throws Exception {
+		DummySession dummy = new DummySession();
+		WdsSocketSession wds = createSession(dummy,
+				WdsSocketSession.OverflowPolicy.CONFLATE);
+		wds.setSendTimeLimit(50L);
+		wds.send(new TextMessage("first"));
+		assertTrue(dummy.sending.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertFalse(wds.send(new TextMessage("second")));
+		assertFalse(wds.isOpen());
+		dummy.gate.countDown();
+	}
+
+	@Test
+	/**
+	 * A failed send closes the session
+	 */
+	public void TestF() throws Exception {
+		DummySession dummy = new DummySession();
+		dummy.broken = true;
+		dummy.gate.countDown();
+		WdsSocketSession wds = createSession(dummy,
+				WdsSocketSession.OverflowPolicy.CONFLATE);
+		wds.send(new TextMessage("first"));
+		for (int i = 0; i < 100 && dummy.open; i++) {
+			Thread.sleep(20);
+		}
+		assertFalse(wds.isOpen());
+		assertFalse(wds.send(new TextMessage("second")));
+	}
+
+	@Test
+	/**
+	 * Conflating never discards a delta; the session is closed instead
+	 */
+	public void TestG() throws Exception {
+		DummySession dummy = new DummySession();
+		WdsSocketSession wds = createSession(dummy,
+				WdsSocketSession.OverflowPolicy.CONFLATE);
+		wds.send(new TextMessage("first"));
+		assertTrue(dummy.sending.await(5, TimeUnit.SECONDS));
+		assertTrue(wds.send(new TextMessage("delta1"), true));
+		assertFalse(wds.send(new TextMessage("delta2"), true));
+		assertFalse(wds.isOpen());
+		assertEquals(0, wds.getDroppedCount());
+		assertEquals(0, wds.getBufferSize());
+		dummy.gate.countDown();
+	}
+
+	@Test
+	/**
+	 * Dropping the oldest discards notifications but stops at a snapshot
+	 */
+	public void TestH() throws Exception {
+		DummySession dummy = new DummySession();
+		WdsSocketSession wds = createSession(dummy,
+				WdsSocketSession.OverflowPolicy.DROP_OLDEST);
+		wds.send(new TextMessage("first"));
+		assertTrue(dummy.sending.await(5, TimeUnit.SECONDS));
+		assertTrue(wds.send(new TextMessage("1234")));
+		assertTrue(wds.send(new TextMessage("5678"), true));
+		assertTrue(wds.send(new TextMessage("901")));
+		assertEquals(1, wds.getDroppedCount());
+		assertTrue(wds.isOpen());
+		assertFalse(wds.send(new TextMessage("abcd")));
+		assertFalse(wds.isOpen());
+		dummy.gate.countDown();
+	}
+
+	@Test
+	/**
+	 * The pusher bean defaults to the CLOSE policy when it pushes deltas
+	 */
+	public void TestI() throws Exception {
+		PusherBean bean = new PusherBean();
+		assertEquals(WdsSocketSession.OverflowPolicy.CONFLATE,
+				bean.getOverflowPolicy());
+		bean.setDeltaKey("id");
+		assertEquals(WdsSocketSession.OverflowPolicy.CLOSE,
+				bean.getOverflowPolicy());
+		bean.setOverflowPolicy(WdsSocketSession.OverflowPolicy.DROP_OLDEST);
+		assertEquals(WdsSocketSession.OverflowPolicy.DROP_OLDEST,
+				bean.getOverflowPolicy());
+	}
+
+}